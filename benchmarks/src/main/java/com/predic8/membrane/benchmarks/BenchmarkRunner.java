@@ -0,0 +1,34 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import org.openjdk.jmh.*;
+
+import java.util.*;
+
+/**
+ * Runs the JMH benchmarks. Unless specified otherwise on the command line, the results are written as JSON to
+ * <code>jmh-result.json</code>, so they can be tracked across builds.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(List.of(args));
+        if (!options.contains("-rf"))
+            options.addAll(List.of("-rf", "json"));
+        if (!options.contains("-rff"))
+            options.addAll(List.of("-rff", "jmh-result.json"));
+        Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,72 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.http.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Reads a chunked body from a stream and writes it with chunked transfer encoding again, as happens when a chunked
+ * message is proxied.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkedBodyBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    @Param({"8192"})
+    public int chunkSize;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int offset = 0; offset < size; offset += chunkSize) {
+            int length = Math.min(chunkSize, size - offset);
+            out.write((Integer.toHexString(length) + "\r\n").getBytes(ISO_8859_1));
+            out.write(content, offset, length);
+            out.write("\r\n".getBytes(ISO_8859_1));
+        }
+        out.write("0\r\n\r\n".getBytes(ISO_8859_1));
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        ChunkedBody body = new ChunkedBody(new BufferedInputStream(new ByteArrayInputStream(encoded)));
+        return body.getContent();
+    }
+
+    @Benchmark
+    public ChunkedBody readAndWrite() throws IOException {
+        ChunkedBody body = new ChunkedBody(new BufferedInputStream(new ByteArrayInputStream(encoded)));
+        body.write(new ChunkedBodyTransferrer(OutputStream.nullOutputStream()), false);
+        return body;
+    }
+}
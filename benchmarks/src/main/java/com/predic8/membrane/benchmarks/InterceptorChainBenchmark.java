@@ -0,0 +1,94 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.interceptor.misc.*;
+import com.predic8.membrane.core.transport.http.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.interceptor.HeaderFilterInterceptor.Action.*;
+
+/**
+ * Runs request and response handlers of interceptor chains without any network I/O. The chain ends with a
+ * <code>&lt;return&gt;</code> instead of the HTTP client.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InterceptorChainBenchmark {
+
+    @Param({"minimal", "typical"})
+    public String chain;
+
+    private final InterceptorFlowController flowController = new InterceptorFlowController();
+    private HttpRouter router;
+    private List<Interceptor> interceptors;
+    private InetAddress localhost;
+
+    @Setup
+    public void setup() throws Exception {
+        router = new HttpRouter();
+        localhost = InetAddress.getLoopbackAddress();
+        interceptors = new ArrayList<>();
+        if (chain.equals("typical")) {
+            HeaderFilterInterceptor headerFilter = new HeaderFilterInterceptor();
+            headerFilter.setRules(List.of(new HeaderFilterInterceptor.Rule("X-Internal-.*", REMOVE)));
+            interceptors.add(headerFilter);
+
+            SetHeaderInterceptor setHeader = new SetHeaderInterceptor();
+            setHeader.setName("X-Gateway");
+            setHeader.setValue("membrane");
+            interceptors.add(setHeader);
+
+            interceptors.add(new URLNormalizerInterceptor());
+        }
+        interceptors.add(new ReturnInterceptor());
+        for (Interceptor i : interceptors)
+            i.init(router);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        router.shutdown();
+    }
+
+    @Benchmark
+    public Exchange invokeHandlers() throws Exception {
+        Exchange exc = new Exchange(new FakeHttpHandler(8080, localhost));
+        Request request = new Request();
+        request.setMethod("GET");
+        request.setUri("/shop/v2/products/7");
+        request.setVersion("1.1");
+        Header header = request.getHeader();
+        header.setHost("api.predic8.de");
+        header.add("Accept", "application/json");
+        header.add("X-Internal-Trace", "1");
+        header.add("User-Agent", "benchmark");
+        exc.setRequest(request);
+        exc.setOriginalRequestUri(request.getUri());
+        flowController.invokeHandlers(exc, interceptors);
+        return exc;
+    }
+}
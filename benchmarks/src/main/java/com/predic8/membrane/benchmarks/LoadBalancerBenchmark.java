@@ -0,0 +1,73 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.balancer.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Sends requests from 32 threads through the balancer to 4 simulated nodes. Each node responds after 2 ms on
+ * average, except one which has degraded to 40 ms. The sampled times show how much of the traffic each strategy
+ * still sends to the slow node: compare the high percentiles, not the averages.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class LoadBalancerBenchmark {
+
+    private static final int SLOW_PORT = 8080;
+
+    @Param({"roundRobin", "leastOutstanding", "powerOfTwoChoices", "peakEwma"})
+    public String strategy;
+
+    private LoadBalancingInterceptor balancer;
+
+    @Setup
+    public void setup() {
+        balancer = new LoadBalancingInterceptor();
+        balancer.setDispatchingStrategy(switch (strategy) {
+            case "roundRobin" -> new RoundRobinStrategy();
+            case "leastOutstanding" -> new LeastOutstandingStrategy();
+            case "powerOfTwoChoices" -> new PowerOfTwoChoicesStrategy();
+            case "peakEwma" -> new PeakEwmaStrategy();
+            default -> throw new IllegalArgumentException(strategy);
+        });
+        for (int i = 0; i < 4; i++)
+            balancer.getClusterManager().up("Default", "node" + i, SLOW_PORT + i);
+    }
+
+    @Benchmark
+    public void request() throws Exception {
+        Exchange exc = new Request.Builder().get("/").buildExchange();
+        balancer.handleRequest(exc);
+        Node node = (Node) exc.getProperty("dispatchedNode");
+
+        exc.setTimeReqSent(System.currentTimeMillis());
+        long latency = node.getPort() == SLOW_PORT ? 40 : 2;
+        // +/- 50 % jitter
+        Thread.sleep(latency / 2 + ThreadLocalRandom.current().nextLong(latency + 1));
+        exc.setTimeResReceived(System.currentTimeMillis());
+
+        exc.setResponse(Response.ok().build());
+        balancer.handleResponse(exc);
+    }
+}
@@ -0,0 +1,114 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.rules.*;
+import com.predic8.membrane.core.transport.http.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.interceptor.Outcome.*;
+
+/**
+ * Sends requests through a service proxy to a backend over the loopback interface. Gateway, backend and client
+ * run in the same JVM. Use JMH's <code>-t</code> option to run with several client threads.
+ * <p>
+ * The gateway runs with each transport <code>mode</code>, while holding <code>idleConnections</code> open keep-alive
+ * connections. The heap is limited to 1 GB, so the score is the number of requests per second per GB of heap. After
+ * each iteration, the number of live threads and the heap used after a GC are printed. Holding many connections
+ * needs a file descriptor limit of more than twice their number (<code>ulimit -n</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class LoopbackProxyBenchmark {
+
+    private static final int BACKEND_PORT = 3901;
+    private static final int GATEWAY_PORT = 3902;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public HttpTransport.Mode mode;
+
+    @Param({"0", "2000"})
+    public int idleConnections;
+
+    private HttpRouter backend;
+    private HttpRouter gateway;
+    private HttpClient client;
+    private final List<Socket> idle = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] body = "{\"id\":7,\"name\":\"Membrane\"}".getBytes();
+
+        backend = new HttpRouter();
+        ServiceProxy sp = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", BACKEND_PORT), null, 0);
+        sp.getInterceptors().add(new AbstractInterceptor() {
+            @Override
+            public Outcome handleRequest(Exchange exc) {
+                exc.setResponse(Response.ok().contentType(MimeType.APPLICATION_JSON).body(body).build());
+                return RETURN;
+            }
+        });
+        backend.getRuleManager().addProxyAndOpenPortIfNew(sp);
+        backend.init();
+
+        gateway = new HttpRouter();
+        gateway.getTransport().setMode(mode);
+        // idle connections must stay open for the whole run
+        gateway.getTransport().setSocketTimeout(0);
+        gateway.getRuleManager().addProxyAndOpenPortIfNew(new ServiceProxy(new ServiceProxyKey("*", "*", ".*", GATEWAY_PORT), "localhost", BACKEND_PORT));
+        gateway.init();
+
+        for (int i = 0; i < idleConnections; i++)
+            idle.add(new Socket("localhost", GATEWAY_PORT));
+
+        client = new HttpClient();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printResources() {
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%n%d connections held, %d live threads, %d MB heap used%n",
+                idle.size(), ManagementFactory.getThreadMXBean().getThreadCount(), heap >> 20);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Socket socket : idle)
+            socket.close();
+        client.close();
+        gateway.shutdown();
+        backend.shutdown();
+    }
+
+    @Benchmark
+    public int get() throws Exception {
+        Exchange exc = client.call(new Request.Builder().get("http://localhost:" + GATEWAY_PORT + "/products/7").buildExchange());
+        exc.getResponse().readBody();
+        return exc.getResponse().getStatusCode();
+    }
+}
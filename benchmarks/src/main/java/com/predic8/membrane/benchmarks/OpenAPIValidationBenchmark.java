@@ -0,0 +1,96 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.openapi.*;
+import com.predic8.membrane.core.openapi.model.*;
+import com.predic8.membrane.core.openapi.serviceproxy.*;
+import com.predic8.membrane.core.openapi.validators.*;
+import com.predic8.membrane.core.util.*;
+import io.swagger.parser.*;
+import io.swagger.v3.oas.models.OpenAPI;
+import io.swagger.v3.oas.models.Operation;
+import io.swagger.v3.oas.models.PathItem;
+import io.swagger.v3.oas.models.Paths;
+import io.swagger.v3.oas.models.media.IntegerSchema;
+import io.swagger.v3.oas.models.media.StringSchema;
+import io.swagger.v3.oas.models.parameters.PathParameter;
+import io.swagger.v3.oas.models.responses.ApiResponse;
+import io.swagger.v3.oas.models.responses.ApiResponses;
+import io.swagger.v3.parser.core.models.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.http.MimeType.*;
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Validates requests against a small shop API: path matching and parameters only for a GET, a JSON schema for a
+ * POST. With <i>generatedPaths</i>, templated paths are put in front of the shop paths, so that the requests are
+ * matched against a spec as large as those of big APIs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OpenAPIValidationBenchmark {
+
+    /**
+     * Number of templated paths like <code>/resource42/{id}/items/{itemId}</code> in front of the 7 shop paths.
+     */
+    @Param({"0", "300"})
+    public int generatedPaths;
+
+    private OpenAPIValidator validator;
+
+    @Setup
+    public void setup() throws IOException {
+        String spec;
+        try (InputStream is = getClass().getResourceAsStream("/openapi/shop.yml")) {
+            spec = new String(is.readAllBytes(), UTF_8);
+        }
+        ParseOptions parseOptions = new ParseOptions();
+        parseOptions.setResolve(true);
+        OpenAPI api = new OpenAPIParser().readContents(spec, null, parseOptions).getOpenAPI();
+        api.setPaths(withGeneratedPaths(api.getPaths(), generatedPaths));
+        validator = new OpenAPIValidator(new URIFactory(), new OpenAPIRecord(api, null, new OpenAPISpec()));
+    }
+
+    private static Paths withGeneratedPaths(Paths paths, int count) {
+        Paths result = new Paths();
+        for (int i = 0; i < count; i++)
+            result.addPathItem("/resource" + i + "/{id}/items/{itemId}", new PathItem().get(new Operation()
+                    .addParametersItem(new PathParameter().name("id").schema(new StringSchema()))
+                    .addParametersItem(new PathParameter().name("itemId").schema(new IntegerSchema()))
+                    .responses(new ApiResponses().addApiResponse("200", new ApiResponse().description("OK")))));
+        result.putAll(paths);
+        return result;
+    }
+
+    @Benchmark
+    public ValidationErrors get() {
+        return validator.validate(Request.get().path("/shop/v2/vendors/acme-tools/products"));
+    }
+
+    @Benchmark
+    public ValidationErrors postWithBody() throws Exception {
+        return validator.validate(Request.post().path("/shop/v2/orders")
+                .body("{\"customer\":\"jane@predic8.de\",\"items\":[{\"product\":7,\"quantity\":2},{\"product\":8,\"quantity\":1}],\"express\":true}")
+                .mediaType(APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.interceptor.json.*;
+import com.predic8.membrane.core.interceptor.xmlprotection.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.http.MimeType.*;
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Checks valid JSON and XML documents of about 50 KB with the protection interceptors and their default limits.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtectionInterceptorBenchmark {
+
+    private HttpRouter router;
+    private JsonProtectionInterceptor jsonProtection;
+    private XMLProtectionInterceptor xmlProtection;
+    private byte[] json;
+    private byte[] xml;
+
+    @Setup
+    public void setup() throws Exception {
+        router = new HttpRouter();
+        jsonProtection = new JsonProtectionInterceptor();
+        jsonProtection.init(router);
+        xmlProtection = new XMLProtectionInterceptor();
+        xmlProtection.init(router);
+
+        StringBuilder j = new StringBuilder("{\"orders\":[");
+        StringBuilder x = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><orders>");
+        for (int i = 0; i < 400; i++) {
+            if (i > 0)
+                j.append(',');
+            j.append("{\"id\":").append(i).append(",\"customer\":\"Customer ").append(i)
+                    .append("\",\"items\":[{\"sku\":\"A-").append(i).append("\",\"quantity\":2,\"price\":9.99}],\"paid\":true}");
+            x.append("<order id=\"").append(i).append("\"><customer>Customer ").append(i)
+                    .append("</customer><item sku=\"A-").append(i).append("\" quantity=\"2\">9.99</item><paid>true</paid></order>");
+        }
+        json = j.append("]}").toString().getBytes(UTF_8);
+        xml = x.append("</orders>").toString().getBytes(UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        router.shutdown();
+    }
+
+    @Benchmark
+    public Outcome json() throws Exception {
+        return jsonProtection.handleRequest(createExchange(json, APPLICATION_JSON));
+    }
+
+    @Benchmark
+    public Outcome xml() throws Exception {
+        return xmlProtection.handleRequest(createExchange(xml, TEXT_XML_UTF8));
+    }
+
+    private static Exchange createExchange(byte[] body, String contentType) throws Exception {
+        return new Request.Builder()
+                .post("/orders")
+                .contentType(contentType)
+                .body(body)
+                .buildExchange();
+    }
+}
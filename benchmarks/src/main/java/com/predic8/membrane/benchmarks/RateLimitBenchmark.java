@@ -0,0 +1,63 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.interceptor.ratelimit.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks the rate limit from 64 threads, either all for the same key or spread over many keys. The limit is high
+ * enough that requests are not rejected, so the cost of counting and of the contention on shared state is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class RateLimitBenchmark {
+
+    @Param({"fixedWindow", "slidingWindow", "tokenBucket"})
+    public String algorithm;
+
+    @Param({"1", "1024"})
+    public int keys;
+
+    private RateLimitStrategy strategy;
+    private String[] keyNames;
+
+    @Setup
+    public void setup() {
+        Duration duration = Duration.ofSeconds(1);
+        int limit = 1_000_000_000;
+        strategy = switch (algorithm) {
+            case "fixedWindow" -> new LazyRateLimit(duration, limit);
+            case "slidingWindow" -> new SlidingWindowRateLimit(duration, limit);
+            case "tokenBucket" -> new TokenBucketRateLimit(duration, limit);
+            default -> throw new IllegalArgumentException(algorithm);
+        };
+        keyNames = new String[keys];
+        for (int i = 0; i < keys; i++)
+            keyNames[i] = "192.168.%d.%d".formatted(i / 256, i % 256);
+    }
+
+    @Benchmark
+    public boolean isRequestLimitReached() {
+        return strategy.isRequestLimitReached(keyNames[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+}
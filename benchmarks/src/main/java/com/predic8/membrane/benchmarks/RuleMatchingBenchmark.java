@@ -0,0 +1,77 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.rules.*;
+import com.predic8.membrane.core.transport.http.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.RuleManager.RuleDefinitionSource.*;
+
+/**
+ * Looks up the rule for a request among many service proxies that differ by host, path and method. The request
+ * matches one of the last rules.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleMatchingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int rules;
+
+    private HttpRouter router;
+    private RuleManager ruleManager;
+    private Exchange exchange;
+
+    @Setup
+    public void setup() throws Exception {
+        router = new HttpRouter();
+        ruleManager = router.getRuleManager();
+        for (int i = 0; i < rules; i++) {
+            ServiceProxyKey key = new ServiceProxyKey("api" + (i % 10) + ".predic8.de", i % 2 == 0 ? "GET" : "*", "/service" + i + "/.*", 8080);
+            key.setUsePathPattern(true);
+            ServiceProxy sp = new ServiceProxy(key, "localhost", 8081);
+            sp.init(router);
+            ruleManager.addProxy(sp, MANUAL);
+        }
+        int target = rules - 2;
+        exchange = new Exchange(new FakeHttpHandler(8080, InetAddress.getLoopbackAddress()));
+        Request request = new Request();
+        request.getHeader().setHost("api" + (target % 10) + ".predic8.de:8080");
+        request.setMethod("GET");
+        request.setUri("/service" + target + "/items/7");
+        request.setVersion("1.1");
+        exchange.setRequest(request);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        router.shutdown();
+    }
+
+    @Benchmark
+    public Rule getMatchingRule() {
+        return ruleManager.getMatchingRule(exchange);
+    }
+}
@@ -0,0 +1,99 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.oracle.util.ssl.*;
+import com.predic8.membrane.core.rules.*;
+import com.predic8.membrane.core.transport.ssl.*;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Selects the certificate for a TLS handshake the way <code>SSLContextCollection</code> does: the ClientHello is
+ * parsed and its SNI name is matched against the host names of many certificates, half of them wildcards. The
+ * ClientHello is generated by the JDK and asks for a host near the end of the list.
+ * <p>
+ * <code>regexScan</code> is the linear scan over the compiled patterns the index replaces.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SNISelectionBenchmark {
+
+    @Param({"10", "100", "2500"})
+    public int certificates;
+
+    private byte[] clientHello;
+    private HostNameIndex index;
+    private List<Pattern> patterns;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> hostNames = new ArrayList<>();
+        for (int i = 0; i < certificates; i++)
+            hostNames.add(i % 2 == 0 ? "customer" + i + ".example.com www.customer" + i + ".example.com" : "*.customer" + i + ".example.net");
+        index = new HostNameIndex(hostNames);
+        patterns = new ArrayList<>();
+        for (String hostName : hostNames)
+            patterns.add(Pattern.compile(ServiceProxyKey.createHostPattern(hostName), Pattern.CASE_INSENSITIVE));
+
+        int target = certificates - 1;
+        clientHello = createClientHello(target % 2 == 0 ? "www.customer" + target + ".example.com" : "api.customer" + target + ".example.net");
+    }
+
+    private static byte[] createClientHello(String host) throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        SSLEngine engine = context.createSSLEngine(host, 443);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setServerNames(List.of(new SNIHostName(host)));
+        engine.setSSLParameters(parameters);
+        ByteBuffer out = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        engine.wrap(ByteBuffer.allocate(0), out);
+        out.flip();
+        byte[] result = new byte[out.remaining()];
+        out.get(result);
+        return result;
+    }
+
+    private String serverName() throws Exception {
+        SSLCapabilities capabilities = SSLExplorer.explore(clientHello, 0, clientHello.length);
+        return new String(capabilities.getServerNames().get(0).getEncoded(), UTF_8);
+    }
+
+    @Benchmark
+    public int index() throws Exception {
+        return index.lookup(serverName());
+    }
+
+    @Benchmark
+    public int regexScan() throws Exception {
+        String serverName = serverName();
+        for (int i = 0; i < patterns.size(); i++)
+            if (patterns.get(i).matcher(serverName).matches())
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.benchmarks;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.interceptor.cbr.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.http.MimeType.*;
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Routes SOAP requests with the XPath content based router. Only the last case matches, so every case is evaluated.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XPathCBRBenchmark {
+
+    @Param({"1", "10", "40"})
+    public int cases;
+
+    @Param({"10", "1000"})
+    public int items;
+
+    private HttpRouter router;
+    private XPathCBRInterceptor cbr;
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        router = new HttpRouter();
+        cbr = new XPathCBRInterceptor();
+        List<Case> list = new ArrayList<>();
+        for (int i = 0; i < cases; i++)
+            list.add(new Case("//o:operation" + (i == cases - 1 ? "" : i), "http://localhost:" + (3000 + i) + "/"));
+        cbr.setCases(list);
+        cbr.setNamespaces(Map.of("o", "http://predic8.de/orders"));
+        cbr.init(router);
+
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body>")
+                .append("<o:operation xmlns:o=\"http://predic8.de/orders\">");
+        for (int i = 0; i < items; i++)
+            sb.append("<item sku=\"A-").append(i).append("\" quantity=\"2\">9.99</item>");
+        body = sb.append("</o:operation></s:Body></s:Envelope>").toString().getBytes(UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        router.shutdown();
+    }
+
+    @Benchmark
+    public Outcome route() throws Exception {
+        Exchange exc = new Request.Builder()
+                .post("/orders")
+                .contentType(TEXT_XML_UTF8)
+                .body(body)
+                .buildExchange();
+        return cbr.handleRequest(exc);
+    }
+}
@@ -0,0 +1,216 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core;
+
+import com.predic8.membrane.core.rules.*;
+
+import java.util.*;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Immutable index over a snapshot of the rules of a {@link RuleManager}, keyed by port, host, method and path
+ * prefix.
+ * <p>
+ * The index only narrows down the set of rules that <i>might</i> match a request. It never excludes a rule that
+ * would match, but it may return rules that do not match. The caller therefore still has to check every candidate
+ * and must do so in ascending position to keep the first-match-wins semantics of the rule list.
+ */
+class RuleIndex {
+
+    private final Rule[] rules;
+    private final RuleKey[] keys;
+
+    private final Map<Integer, HostIndex> byPort = new HashMap<>();
+    private final HostIndex anyPort = new HostIndex();
+
+    RuleIndex(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[0]);
+        this.keys = new RuleKey[this.rules.length];
+        for (int i = 0; i < this.rules.length; i++) {
+            RuleKey key = this.rules[i].getKey();
+            keys[i] = key;
+            HostIndex hosts = key.getPort() == -1 ? anyPort : byPort.computeIfAbsent(key.getPort(), p -> new HostIndex());
+            hosts.add(i, key);
+        }
+    }
+
+    int size() {
+        return rules.length;
+    }
+
+    Rule getRule(int position) {
+        return rules[position];
+    }
+
+    /**
+     * @return false, if the key of the rule has been replaced since this index was built
+     */
+    boolean isCurrent(int position) {
+        return rules[position].getKey() == keys[position];
+    }
+
+    /**
+     * @param port the local port of the request, or -1 if the local port should not be matched
+     * @return the positions of all rules that might match
+     */
+    BitSet getCandidates(int port, String hostHeader, String method, String uri) {
+        BitSet candidates = new BitSet(rules.length);
+        String host = normalizeHost(hostHeader);
+        if (uri == null)
+            uri = "";
+
+        anyPort.collect(host, method, uri, candidates);
+        if (port == -1) {
+            for (HostIndex hosts : byPort.values())
+                hosts.collect(host, method, uri, candidates);
+        } else {
+            HostIndex hosts = byPort.get(port);
+            if (hosts != null)
+                hosts.collect(host, method, uri, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Mirrors {@link ServiceProxyKey#matchesHostHeader(String)}, which matches the host without the port
+     * case-insensitively.
+     */
+    private static String normalizeHost(String hostHeader) {
+        if (hostHeader == null)
+            return null;
+        int colon = hostHeader.indexOf(':');
+        return (colon == -1 ? hostHeader : hostHeader.substring(0, colon)).toLowerCase(ROOT);
+    }
+
+    /**
+     * Computes the literal text every path matched by the rule key has to start with. Returns the empty string, if
+     * nothing can be said about the path.
+     */
+    static String getPathPrefix(RuleKey key) {
+        if (!(key instanceof AbstractRuleKey) || !key.isUsePathPattern() || key.getPath() == null)
+            return "";
+        if (!key.isPathRegExp())
+            return key.getPath();
+        return getLiteralPrefix(key.getPath());
+    }
+
+    /**
+     * Returns the longest prefix of the regular expression consisting only of literal characters. Alternatives
+     * might start with anything, so expressions containing a '|' are not analyzed at all.
+     */
+    static String getLiteralPrefix(String regex) {
+        if (regex.indexOf('|') != -1)
+            return "";
+        int i = 0;
+        while (i < regex.length() && !isMetaCharacter(regex.charAt(i)))
+            i++;
+        // the last literal might be optional or repeated, as in "/ab?c"
+        if (i < regex.length() && i > 0 && isQuantifier(regex.charAt(i)))
+            i--;
+        return regex.substring(0, i);
+    }
+
+    private static boolean isMetaCharacter(char c) {
+        return "\\.[]{}()*+?^$|".indexOf(c) != -1;
+    }
+
+    private static boolean isQuantifier(char c) {
+        return c == '?' || c == '*' || c == '+' || c == '{';
+    }
+
+    private static class HostIndex {
+        private final Map<String, MethodIndex> byHost = new HashMap<>();
+        private final MethodIndex anyHost = new MethodIndex();
+
+        void add(int position, RuleKey key) {
+            List<String> hosts = getLiteralHosts(key);
+            if (hosts == null) {
+                anyHost.add(position, key);
+                return;
+            }
+            for (String host : hosts)
+                byHost.computeIfAbsent(host, h -> new MethodIndex()).add(position, key);
+        }
+
+        /**
+         * @return the host names the key matches, or null if the key might match other hosts as well
+         */
+        private static List<String> getLiteralHosts(RuleKey key) {
+            if (!(key instanceof ServiceProxyKey spk) || spk.isHostWildcard() || spk.getHost().indexOf('*') != -1)
+                return null;
+            List<String> hosts = new ArrayList<>();
+            for (String host : spk.getHost().split(" "))
+                if (!host.isEmpty())
+                    hosts.add(host.toLowerCase(ROOT));
+            return hosts;
+        }
+
+        void collect(String host, String method, String uri, BitSet candidates) {
+            anyHost.collect(method, uri, candidates);
+            if (host == null)
+                return;
+            MethodIndex methods = byHost.get(host);
+            if (methods != null)
+                methods.collect(method, uri, candidates);
+        }
+    }
+
+    private static class MethodIndex {
+        private final Map<String, PathTrie> byMethod = new HashMap<>();
+        private final PathTrie anyMethod = new PathTrie();
+
+        void add(int position, RuleKey key) {
+            PathTrie paths = key.isMethodWildcard() ? anyMethod : byMethod.computeIfAbsent(key.getMethod(), m -> new PathTrie());
+            paths.add(getPathPrefix(key), position);
+        }
+
+        void collect(String method, String uri, BitSet candidates) {
+            anyMethod.collect(uri, candidates);
+            PathTrie paths = byMethod.get(method);
+            if (paths != null)
+                paths.collect(uri, candidates);
+        }
+    }
+
+    /**
+     * Character trie over path prefixes. Every node holds the positions of the rules whose prefix ends there.
+     */
+    private static class PathTrie {
+        private final Map<Character, PathTrie> children = new HashMap<>();
+        private int[] positions = new int[0];
+
+        void add(String prefix, int position) {
+            PathTrie node = this;
+            for (int i = 0; i < prefix.length(); i++)
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PathTrie());
+            node.positions = Arrays.copyOf(node.positions, node.positions.length + 1);
+            node.positions[node.positions.length - 1] = position;
+        }
+
+        void collect(String uri, BitSet candidates) {
+            PathTrie node = this;
+            int i = 0;
+            while (true) {
+                for (int position : node.positions)
+                    candidates.set(position);
+                if (i == uri.length() || node.children.isEmpty())
+                    return;
+                node = node.children.get(uri.charAt(i++));
+                if (node == null)
+                    return;
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@ package com.predic8.membrane.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,6 +53,11 @@ public class RuleManager {
 	private List<RuleDefinitionSource> ruleSources = new ArrayList<>();
 	private Set<IRuleChangeListener> listeners = new HashSet<>();
 
+	/**
+	 * Index used by {@link #getMatchingRule(Exchange)}. Built lazily, reset to null whenever the rules change.
+	 */
+	private volatile RuleIndex ruleIndex;
+
 	private String defaultTargetHost = "localhost";
 	private String defaultHost = "*";
 	private int defaultListenPort = 2000;
@@ -121,6 +127,7 @@ public class RuleManager {
 
 		rules.add(rule);
 		ruleSources.add(source);
+		ruleIndex = null;
 
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleAdded(rule);
@@ -133,6 +140,7 @@ public class RuleManager {
 
 		rules.add(rule);
 		ruleSources.add(source);
+		ruleIndex = null;
 
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleAdded(rule);
@@ -140,6 +148,7 @@ public class RuleManager {
 	}
 
 	public synchronized void openPorts() throws IOException {
+		ruleIndex = null; // keys might have been replaced during Rule.init()
 		HashMap<IpPort, SSLProvider> sslProviders;
 		try {
 			HashMap<IpPort, SSLContextCollection.Builder> sslContexts = new HashMap<>();
@@ -199,6 +208,7 @@ public class RuleManager {
 			return;
 		Collections.swap(rules, index, index - 1);
 		Collections.swap(ruleSources, index, index - 1);
+		ruleIndex = null;
 		for (IRuleChangeListener listener : listeners) {
 			listener.rulePositionsChanged();
 		}
@@ -210,18 +220,28 @@ public class RuleManager {
 			return;
 		Collections.swap(rules, index, index + 1);
 		Collections.swap(ruleSources, index, index + 1);
+		ruleIndex = null;
 		for (IRuleChangeListener listener : listeners) {
 			listener.rulePositionsChanged();
 		}
 	}
 
 	public void ruleChanged(Rule rule) {
+		synchronized (this) {
+			ruleIndex = null;
+		}
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleUpdated(rule);
 		}
 		getExchangeStore().refreshExchangeStoreListeners();
 	}
 
+	/**
+	 * Returns the first active rule matching the exchange.
+	 * <p>
+	 * Instead of checking every rule, only the candidates selected by a {@link RuleIndex} (by port, host, method and
+	 * path prefix) are checked, in the order of the rule list.
+	 */
 	public Rule getMatchingRule(Exchange exc) {
 		Request request = exc.getRequest();
 		AbstractHttpHandler handler = exc.getHandler();
@@ -233,26 +253,18 @@ public class RuleManager {
 		int port = handler.isMatchLocalPort() ? handler.getLocalPort() : -1;
 		String localIP = handler.getLocalAddress().getHostAddress();
 
-		for (Rule rule : rules) {
-			RuleKey key = rule.getKey();
-
-			log.debug("Host from rule: " + key.getHost() + ";   Host from parameter rule key: " + hostHeader);
-
-			if (!rule.isActive())
-				continue;
-			if (!key.matchesVersion(version))
-				continue;
-			if (key.getIp() != null && !key.getIp().equals(localIP))
-				continue;
-			if (!key.matchesHostHeader(hostHeader))
-				continue;
-			if (key.getPort() != -1 && port != -1 && key.getPort() != port)
-				continue;
-			if (!key.getMethod().equals(method) && !key.isMethodWildcard())
-				continue;
-			if (key.isUsePathPattern() && !key.matchesPath(uri))
-				continue;
-			if (!key.complexMatch(exc))
+		RuleIndex index = getRuleIndex();
+		BitSet candidates = index.getCandidates(port, hostHeader, method, uri);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (!index.isCurrent(i)) {
+				// a key was replaced without notifying us
+				synchronized (this) {
+					ruleIndex = null;
+				}
+				return getMatchingRule(exc);
+			}
+			Rule rule = index.getRule(i);
+			if (!matches(rule, exc, hostHeader, method, uri, version, port, localIP))
 				continue;
 
 			if (log.isDebugEnabled())
@@ -262,6 +274,40 @@ public class RuleManager {
 		return null;
 	}
 
+	private static boolean matches(Rule rule, Exchange exc, String hostHeader, String method, String uri, String version, int port, String localIP) {
+		RuleKey key = rule.getKey();
+
+		log.debug("Host from rule: " + key.getHost() + ";   Host from parameter rule key: " + hostHeader);
+
+		if (!rule.isActive())
+			return false;
+		if (!key.matchesVersion(version))
+			return false;
+		if (key.getIp() != null && !key.getIp().equals(localIP))
+			return false;
+		if (!key.matchesHostHeader(hostHeader))
+			return false;
+		if (key.getPort() != -1 && port != -1 && key.getPort() != port)
+			return false;
+		if (!key.getMethod().equals(method) && !key.isMethodWildcard())
+			return false;
+		if (key.isUsePathPattern() && !key.matchesPath(uri))
+			return false;
+		return key.complexMatch(exc);
+	}
+
+	private RuleIndex getRuleIndex() {
+		RuleIndex index = ruleIndex;
+		if (index != null)
+			return index;
+		// synchronized with the modifying methods, so that an outdated index is never published
+		synchronized (this) {
+			if (ruleIndex == null)
+				ruleIndex = new RuleIndex(rules);
+			return ruleIndex;
+		}
+	}
+
 	public void addRuleChangeListener(IRuleChangeListener viewer) {
 		listeners.add(viewer);
 		viewer.batchUpdate(rules.size());
@@ -287,6 +333,7 @@ public class RuleManager {
 		int i = rules.indexOf(rule);
 		rules.remove(i);
 		ruleSources.remove(i);
+		ruleIndex = null;
 
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleRemoved(rule, rules.size());
@@ -299,6 +346,7 @@ public class RuleManager {
 
 		int i = rules.indexOf(rule);
 		rules.set(i, newRule);
+		ruleIndex = null;
 
 		for (IRuleChangeListener listener : listeners) {
 			listener.ruleRemoved(rule, rules.size());
@@ -43,6 +43,8 @@ public class SSLParser {
 	private boolean showSSLExceptions = true;
 	private boolean useAsDefault = true;
 	private boolean useExperimentalHttp2;
+	private int sessionCacheSize = -1;
+	private int sessionTimeout = -1;
 
 	@Override
 	public boolean equals(Object obj) {
@@ -65,14 +67,16 @@ public class SSLParser {
 				&& Objects.equal(serverName, other.serverName)
 				&& Objects.equal(showSSLExceptions, other.showSSLExceptions)
 				&& Objects.equal(useAsDefault, other.useAsDefault)
-				&& Objects.equal(useExperimentalHttp2, other.useExperimentalHttp2);
+				&& Objects.equal(useExperimentalHttp2, other.useExperimentalHttp2)
+				&& sessionCacheSize == other.sessionCacheSize
+				&& sessionTimeout == other.sessionTimeout;
 	}
 
 	@Override
 	public int hashCode() {
 		return java.util.Objects.hash(acme, keyStore, key, keyGenerator, trustStore, trust, algorithm, protocol,
 				protocols, ciphers, clientAuth, ignoreTimestampCheckFailure, endpointIdentificationAlgorithm,
-				serverName, showSSLExceptions, useAsDefault, useExperimentalHttp2);
+				serverName, showSSLExceptions, useAsDefault, useExperimentalHttp2, sessionCacheSize, sessionTimeout);
 	}
 
 	public KeyStore getKeyStore() {
@@ -272,6 +276,33 @@ public class SSLParser {
 		this.useExperimentalHttp2 = useHttp2;
 	}
 
+	public int getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	/**
+	 * @description Maximum number of TLS sessions kept for resumption, separately for inbound and outbound
+	 * connections. 0 means no limit.
+	 * @default Java default (20480)
+	 */
+	@MCAttribute
+	public void setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+	}
+
+	public int getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	/**
+	 * @description Number of seconds a TLS session can be resumed after it was established. 0 means no limit.
+	 * @default Java default (86400)
+	 */
+	@MCAttribute
+	public void setSessionTimeout(int sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
 	public Acme getAcme() {
 		return acme;
 	}
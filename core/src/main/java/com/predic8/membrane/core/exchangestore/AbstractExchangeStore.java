@@ -97,13 +97,8 @@ public abstract class AbstractExchangeStore implements ExchangeStore {
 
 	@Override
 	public ExchangeQueryResult getFilteredSortedPaged(QueryParameter params, boolean useXForwardedForAsClientAddr) throws Exception {
-		List<AbstractExchange> exchanges;
-		long lm;
-		synchronized (getAllExchangesAsList()) {
-			lm = getLastModified();
-
-			exchanges = new ArrayList<>(getAllExchangesAsList());
-		}
+		long lm = getLastModified();
+		List<AbstractExchange> exchanges = getCandidates(params);
 
 		exchanges = filter(params, useXForwardedForAsClientAddr, exchanges);
 
@@ -113,6 +108,13 @@ public abstract class AbstractExchangeStore implements ExchangeStore {
 		return new ExchangeQueryResult(getPaginated(params, exchanges, params.getInt("offset", 0)), exchanges.size(), lm);
 	}
 
+	/**
+	 * @return the exchanges which have to be filtered for the query. Stores with an index can narrow them down here.
+	 */
+	protected List<AbstractExchange> getCandidates(QueryParameter params) {
+		return new ArrayList<>(getAllExchangesAsList());
+	}
+
 	private static List<AbstractExchange> getPaginated(QueryParameter params, List<AbstractExchange> exchanges, int offset) {
 		return exchanges.subList(offset,
 				Math.min(offset + getMax(params, exchanges), exchanges.size()));
@@ -143,7 +145,8 @@ public abstract class AbstractExchangeStore implements ExchangeStore {
 		String search = params.getString("search");
 		int statuscode = noStatuscode ? -1 : params.getInt("statuscode");
 
-		return exchanges.stream().filter(e -> filterExchanges(params,
+		// A search decodes the bodies, so it is spread over several threads.
+		return (noSearch ? exchanges.stream() : exchanges.parallelStream()).filter(e -> filterExchanges(params,
 				useXForwardedForAsClientAddr,
 				noStatuscode,
 				noClient,
@@ -14,7 +14,10 @@
 
 package com.predic8.membrane.core.exchangestore;
 
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
@@ -32,25 +35,35 @@ import com.predic8.membrane.core.interceptor.rest.QueryParameter;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.RuleKey;
 import com.predic8.membrane.core.rules.StatisticCollector;
+import com.predic8.membrane.core.stats.LatencyHistogram;
 import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpServerThreadFactory;
 import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static com.predic8.membrane.core.http.MimeType.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 /**
@@ -59,19 +72,43 @@ import static java.util.stream.Collectors.joining;
  *              tools. Before writing, this class will check if index exists in current Elasticsearch instance. If index does not
  *              exist, it will create index and set up mapping for data types. If the existing index already have mapping this step
  *              will be skipped in order to not to overwrite existing mapping.
+ *              Exchanges are queued in memory and sent in bulk requests by a background thread, when <i>bulkSize</i>
+ *              exchanges are queued or after <i>updateIntervalMs</i>. The queue is bounded by <i>maxQueueSize</i>;
+ *              when it is full, further exchanges are dropped. With <i>sampleRate</i>, only a fraction of the
+ *              exchanges is stored.
  * @topic 5. Monitoring, Logging and Statistics
  */
 @MCElement(name="elasticSearchExchangeStore")
-public class ElasticSearchExchangeStore extends AbstractExchangeStore {
+public class ElasticSearchExchangeStore extends AbstractExchangeStore implements DisposableBean {
 
     HttpClient client;
     static Logger log = LoggerFactory.getLogger(ElasticSearchExchangeStore.class);
     int updateIntervalMs = 1000;
-    Map<Long,AbstractExchangeSnapshot> shortTermMemoryForBatching = new HashMap<>();
+    /**
+     * Snapshots waiting to be sent, by exchange ID. Later snapshots of the same exchange replace earlier ones.
+     * Guarded by itself.
+     */
+    final Map<Long,AbstractExchangeSnapshot> shortTermMemoryForBatching = new LinkedHashMap<>();
     Cache<Long,AbstractExchangeSnapshot> cacheToWaitForElasticSearchIndex = CacheBuilder.newBuilder().expireAfterWrite(5, TimeUnit.SECONDS).build();
     Thread updateJob;
     String index = "membrane";
     ObjectMapper mapper;
+    private ObjectWriter documentWriter;
+
+    private int bulkSize = 500;
+    private int maxQueueSize = 10000;
+    private double sampleRate = 1;
+    private int senders = 2;
+    private ThreadPoolExecutor senderPool;
+    private Semaphore senderPermits;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final LatencyHistogram indexingLatency = new LatencyHistogram();
+
+    private static final String SKIP_PROPERTY = "membrane.elasticSearchExchangeStore.skip";
 
     String location = "http://localhost:9200";
     private String documentPrefix;
@@ -95,11 +132,13 @@ public class ElasticSearchExchangeStore extends AbstractExchangeStore {
 
     @Override
     public void init(Router router) {
+        stop();
         super.init(router);
         if(client == null)
             client = router.getHttpClientFactory().createClient(null);
         if(mapper == null)
             mapper = new ObjectMapper();
+        documentWriter = mapper.writerFor(Document.class);
 
         if(documentPrefix == null)
             documentPrefix = getLocalHostname();
@@ -109,45 +148,165 @@ public class ElasticSearchExchangeStore extends AbstractExchangeStore {
 
         this.setUpIndex();
 
+        senderPermits = new Semaphore(senders);
+        senderPool = new ThreadPoolExecutor(senders, senders, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new HttpServerThreadFactory("ElasticSearch Bulk Sender", true));
+        senderPool.allowCoreThreadTimeOut(true);
+
         updateJob = new Thread(() -> {
-            while(true) {
+            while(!Thread.currentThread().isInterrupted()) {
                 try {
-                    List<AbstractExchangeSnapshot> exchanges;
-                    synchronized (shortTermMemoryForBatching){
-                        exchanges = new ArrayList<>(shortTermMemoryForBatching.values());
-                        shortTermMemoryForBatching.values().forEach(exc -> cacheToWaitForElasticSearchIndex.put(exc.getId(),exc));
-                        shortTermMemoryForBatching.clear();
-                    }
-                    if(exchanges.size() > 0){
-                        sendToElasticSearch(exchanges);
+                    // At most 'senders' bulk requests are in flight. While all are busy, exchanges stay in the queue.
+                    senderPermits.acquire();
+                    List<AbstractExchangeSnapshot> exchanges = takeBatch(true);
+                    if (exchanges.isEmpty()) {
+                        senderPermits.release();
+                        continue;
                     }
-                    else
-                        Thread.sleep(updateIntervalMs);
+                    senderPool.execute(() -> {
+                        try {
+                            sendToElasticSearch(exchanges);
+                        } finally {
+                            senderPermits.release();
+                        }
+                    });
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
                     break;
-                } catch(Exception e){
-                    throw new RuntimeException(e);
+                } catch (Exception e) {
+                    log.error("Could not send exchanges to Elasticsearch.", e);
                 }
             }
-        });
+        }, "ElasticSearch Exchange Store");
+        updateJob.setDaemon(true);
         updateJob.start();
         init = true;
     }
 
-    private void sendToElasticSearch(List<AbstractExchangeSnapshot> exchanges) throws Exception {
-        String data = exchanges
-                .stream()
-                .map(exchange -> wrapForBulkOperationElasticSearch(index,getLocalMachineNameWithSuffix()+"-"+exchange.getId(),collectExchangeDataFrom(exchange)))
-                .collect(joining());
+    /**
+     * Stops the background threads and sends the exchanges that are still queued.
+     */
+    public synchronized void stop() {
+        if (updateJob == null)
+            return;
+        updateJob.interrupt();
+        try {
+            updateJob.join(5000);
+            senderPool.shutdown();
+            if (!senderPool.awaitTermination(30, TimeUnit.SECONDS))
+                log.warn("Bulk requests to Elasticsearch did not finish in time.");
+            List<AbstractExchangeSnapshot> exchanges;
+            while (!(exchanges = takeBatch(false)).isEmpty())
+                sendToElasticSearch(exchanges);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        updateJob = null;
+        init = false;
+    }
 
-        Exchange elasticSearchExc = new Request.Builder()
-                .post(location + "/_bulk")
-                .header("Content-Type","application/x-ndjson")
-                .body(data)
-                .buildExchange();
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Takes up to <i>bulkSize</i> exchanges from the queue.
+     *
+     * @param wait whether to wait until <i>bulkSize</i> exchanges are queued or <i>updateIntervalMs</i> have passed
+     */
+    private List<AbstractExchangeSnapshot> takeBatch(boolean wait) throws InterruptedException {
+        synchronized (shortTermMemoryForBatching) {
+            if (wait && shortTermMemoryForBatching.size() < bulkSize)
+                shortTermMemoryForBatching.wait(updateIntervalMs);
+            List<AbstractExchangeSnapshot> exchanges = new ArrayList<>(Math.min(bulkSize, shortTermMemoryForBatching.size()));
+            Iterator<AbstractExchangeSnapshot> it = shortTermMemoryForBatching.values().iterator();
+            while (it.hasNext() && exchanges.size() < bulkSize) {
+                AbstractExchangeSnapshot exc = it.next();
+                cacheToWaitForElasticSearchIndex.put(exc.getId(), exc);
+                exchanges.add(exc);
+                it.remove();
+            }
+            return exchanges;
+        }
+    }
+
+    private void sendToElasticSearch(List<AbstractExchangeSnapshot> exchanges) {
+        long start = System.nanoTime();
+        try {
+            Exchange elasticSearchExc = new Request.Builder()
+                    .post(location + "/_bulk")
+                    .header("Content-Type","application/x-ndjson")
+                    .body(createBulkBody(exchanges))
+                    .buildExchange();
+
+            elasticSearchExc = client.call(elasticSearchExc);
+            if (elasticSearchExc.getResponse().getStatusCode() >= 300) {
+                log.warn("Elasticsearch returned status code {} for bulk request.", elasticSearchExc.getResponse().getStatusCode());
+                failed.addAndGet(exchanges.size());
+                return;
+            }
+            int itemFailures = countItemFailures(elasticSearchExc.getResponse());
+            indexed.addAndGet(exchanges.size() - itemFailures);
+            failed.addAndGet(itemFailures);
+        } catch (Exception e) {
+            log.warn("Could not send {} exchanges to Elasticsearch: {}", exchanges.size(), e.getMessage());
+            failed.addAndGet(exchanges.size());
+        } finally {
+            indexingLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Elasticsearch answers a bulk request with 200 even if single documents could not be indexed. These are marked
+     * in the <i>items</i> of the response, and <i>errors</i> is set to true.
+     *
+     * @return the number of documents of the bulk request that were not indexed
+     */
+    int countItemFailures(Response response) throws IOException {
+        JsonNode result = mapper.readTree(response.getBodyAsStreamDecoded());
+        if (result == null || !result.path("errors").asBoolean())
+            return 0;
+        int failures = 0;
+        String firstError = null;
+        for (JsonNode item : result.path("items")) {
+            for (JsonNode action : item) {
+                if (!action.has("error") && action.path("status").asInt(200) < 300)
+                    continue;
+                failures++;
+                if (firstError == null)
+                    firstError = action.path("error").toString();
+            }
+        }
+        if (failures > 0)
+            log.warn("Elasticsearch could not index {} exchanges, e.g. {}", failures, firstError);
+        return failures;
+    }
+
+    /**
+     * Serializes the snapshots directly into the NDJSON body of a bulk request.
+     */
+    byte[] createBulkBody(List<AbstractExchangeSnapshot> exchanges) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(exchanges.size() * 2048);
+        for (AbstractExchangeSnapshot exchange : exchanges) {
+            out.write(bulkIndexAction(index, getLocalMachineNameWithSuffix() + "-" + exchange.getId()).getBytes(UTF_8));
+            documentWriter.writeValue(out, new Document(exchange, documentPrefix));
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
 
-        client.call(elasticSearchExc);
+    /**
+     * The snapshot together with the <i>issuer</i> field, serialized as one JSON object.
+     */
+    static class Document {
+        @JsonUnwrapped
+        public final AbstractExchangeSnapshot snapshot;
+        public final String issuer;
+
+        Document(AbstractExchangeSnapshot snapshot, String issuer) {
+            this.snapshot = snapshot;
+            this.issuer = issuer;
+        }
     }
 
     private static String getLocalHostname() {
@@ -168,43 +327,53 @@ public class ElasticSearchExchangeStore extends AbstractExchangeStore {
     }
 
     public String wrapForBulkOperationElasticSearch(String index, String id,String value){
-        return "{ \"index\" : { \"_index\" : \"" + index + "\", \"_id\" : \""+id+"\" } }\n" + value + "\n";
+        return bulkIndexAction(index, id) + value + "\n";
+    }
+
+    private static String bulkIndexAction(String index, String id) {
+        return "{ \"index\" : { \"_index\" : \"" + index + "\", \"_id\" : \""+id+"\" } }\n";
     }
 
     @Override
     public void snap(AbstractExchange exc, Interceptor.Flow flow) {
-        AbstractExchangeSnapshot excCopy;
         try {
+            if (exc.getProperty(SKIP_PROPERTY) != null)
+                return;
             if (flow == Interceptor.Flow.REQUEST) {
-                excCopy = new DynamicAbstractExchangeSnapshot(exc, flow, this::addForElasticSearch, bodyExceedingMaxSizeStrategy, maxBodySize);
-                addForElasticSearch(excCopy);
+                if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+                    sampledOut.incrementAndGet();
+                    exc.setProperty(SKIP_PROPERTY, true);
+                    return;
+                }
+                // the constructor queues the snapshot
+                new DynamicAbstractExchangeSnapshot(exc, flow, snapshot -> addForElasticSearch(exc, snapshot), bodyExceedingMaxSizeStrategy, maxBodySize);
             }
             else {
-                excCopy = getExchangeDtoById((int) exc.getId());
-                DynamicAbstractExchangeSnapshot.addObservers(exc,excCopy,this::addForElasticSearch, flow);
-                excCopy = excCopy.updateFrom(exc, flow);
-                addForElasticSearch(excCopy);
+                AbstractExchangeSnapshot excCopy = getExchangeDtoById((int) exc.getId());
+                DynamicAbstractExchangeSnapshot.addObservers(exc, excCopy, snapshot -> addForElasticSearch(exc, snapshot), flow);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void addForElasticSearch(AbstractExchangeSnapshot exc) {
+    /**
+     * Queues the snapshot, or replaces the queued one of the same exchange. If the queue is full, the exchange is
+     * dropped: it is counted once and later updates of the snapshot are ignored.
+     */
+    private void addForElasticSearch(AbstractExchange exc, AbstractExchangeSnapshot snapshot) {
+        if (exc.getProperty(SKIP_PROPERTY) != null)
+            return;
         synchronized (shortTermMemoryForBatching){
-            shortTermMemoryForBatching.put(exc.getId(),exc);
-        }
-    }
-
-    @SuppressWarnings({"unchecked"})
-    private String collectExchangeDataFrom(AbstractExchangeSnapshot exc) {
-        try {
-            Map<String,String> value = mapper.readValue(mapper.writeValueAsString(exc),Map.class);
-            value.put("issuer",documentPrefix);
-            return mapper.writeValueAsString(value);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
+            if (shortTermMemoryForBatching.size() >= maxQueueSize && !shortTermMemoryForBatching.containsKey(snapshot.getId())) {
+                exc.setProperty(SKIP_PROPERTY, true);
+                if (dropped.incrementAndGet() % 1000 == 1)
+                    log.warn("Elasticsearch exchange store queue is full. Dropped {} exchanges so far.", dropped.get());
+                return;
+            }
+            shortTermMemoryForBatching.put(snapshot.getId(),snapshot);
+            if (shortTermMemoryForBatching.size() >= bulkSize)
+                shortTermMemoryForBatching.notifyAll();
         }
     }
 
@@ -259,8 +428,11 @@ public class ElasticSearchExchangeStore extends AbstractExchangeStore {
 
     public AbstractExchangeSnapshot getExchangeDtoById(int id){
         Long idBox = (long) id;
-        if(shortTermMemoryForBatching.get(idBox) != null)
-            return shortTermMemoryForBatching.get(idBox);
+        synchronized (shortTermMemoryForBatching) {
+            AbstractExchangeSnapshot pending = shortTermMemoryForBatching.get(idBox);
+            if (pending != null)
+                return pending;
+        }
         if(cacheToWaitForElasticSearchIndex.getIfPresent(idBox) != null)
             return cacheToWaitForElasticSearchIndex.getIfPresent(idBox);
 
@@ -660,10 +832,110 @@ public class ElasticSearchExchangeStore extends AbstractExchangeStore {
         this.client = client;
     }
 
+    public int getBulkSize() {
+        return bulkSize;
+    }
+
+    /**
+     * @description Maximum number of exchanges in one bulk request. A bulk request is sent as soon as this number of
+     * exchanges is queued.
+     * @default 500
+     */
+    @MCAttribute
+    public void setBulkSize(int bulkSize) {
+        this.bulkSize = bulkSize;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @description Maximum number of exchanges waiting to be sent. When the queue is full, further exchanges are
+     * dropped.
+     * @default 10000
+     */
+    @MCAttribute
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @description Fraction of the exchanges that are stored, between 0 and 1.
+     * @default 1
+     * @example 0.1
+     */
+    @MCAttribute
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSenders() {
+        return senders;
+    }
+
+    /**
+     * @description Maximum number of bulk requests sent in parallel.
+     * @default 2
+     */
+    @MCAttribute
+    public void setSenders(int senders) {
+        this.senders = senders;
+    }
+
+    /**
+     * @return number of exchanges waiting to be sent
+     */
+    public int getQueueDepth() {
+        synchronized (shortTermMemoryForBatching) {
+            return shortTermMemoryForBatching.size();
+        }
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    /**
+     * @return number of exchanges whose bulk request failed
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return number of exchanges dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of exchanges not stored because of the <i>sampleRate</i>
+     */
+    public long getSampledOut() {
+        return sampledOut.get();
+    }
+
+    /**
+     * @return duration of the bulk requests in milliseconds
+     */
+    public LatencyHistogram getIndexingLatency() {
+        return indexingLatency;
+    }
+
     public int getUpdateIntervalMs() {
         return updateIntervalMs;
     }
 
+    /**
+     * @description Maximum time in milliseconds exchanges wait in the queue before they are sent.
+     * @default 1000
+     */
     @MCAttribute
     public void setUpdateIntervalMs(int updateIntervalMs) {
         this.updateIntervalMs = updateIntervalMs;
@@ -23,6 +23,7 @@ import com.predic8.membrane.core.rules.*;
 import com.predic8.membrane.core.util.*;
 import org.apache.commons.io.*;
 import org.slf4j.*;
+import org.springframework.beans.factory.*;
 
 import java.io.*;
 import java.text.*;
@@ -34,9 +35,13 @@ import static java.nio.charset.StandardCharsets.*;
 
 /**
  * The output file is UTF-8 encoded.
+ * <p>
+ * By default, every message is written to its own file in a directory per day. With <tt>segmented="true"</tt>,
+ * messages are appended to rolling segment files instead (see {@link SegmentedExchangeLog}), which can be queried by
+ * exchange id, rule and time.
  */
 @MCElement(name="fileExchangeStore")
-public class FileExchangeStore extends AbstractExchangeStore {
+public class FileExchangeStore extends AbstractExchangeStore implements DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(FileExchangeStore.class
 			.getName());
@@ -51,12 +56,24 @@ public class FileExchangeStore extends AbstractExchangeStore {
 			.getProperty("file.separator");
 
 	public static final String MESSAGE_FILE_PATH = "message.file.path";
+	private static final String SEGMENT_RECORD_KEY = "membrane.fileExchangeStore.recordKey";
 
 	private String dir;
 
 	private boolean raw = false;
 	private boolean saveBodyOnly = false;
 	private int maxDays = -1;
+	private boolean segmented = false;
+	private long maxSegmentSize = 64 * 1024 * 1024;
+
+	private Router router;
+	private SegmentedExchangeLog segmentedLog;
+
+	@Override
+	public void init(Router router) {
+		super.init(router);
+		this.router = router;
+	}
 
 	public void snap(final AbstractExchange exc, final Flow flow) {
 		try {
@@ -71,6 +88,11 @@ public class FileExchangeStore extends AbstractExchangeStore {
 	}
 
 	private void snapInternal(AbstractExchange exc, Flow flow, AbstractBody body) {
+		if (segmented) {
+			appendToSegment(exc, flow, body);
+			return;
+		}
+
 		int fileNumber = counter.incrementAndGet();
 
 		StringBuilder buf = getDirectoryNameBuffer(exc.getTime());
@@ -107,6 +129,55 @@ public class FileExchangeStore extends AbstractExchangeStore {
 
 	}
 
+	private void appendToSegment(AbstractExchange exc, Flow flow, AbstractBody body) {
+		Message msg = flow == Flow.REQUEST ? exc.getRequest() : exc.getResponse();
+		if (msg == null)
+			return;
+		try {
+			// Segments are always written raw (see setSegmented()), so that the messages can be read back.
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			msg.writeStartLine(header);
+			msg.getHeader().write(header);
+			header.write(Constants.CRLF_BYTES);
+
+			SegmentedExchangeLog segments = getSegmentedLog();
+			// the response is tied to the request by the key of the request record, as exchange ids are not unique
+			Long key = (Long) exc.getProperty(SEGMENT_RECORD_KEY);
+			key = segments.append(key != null ? key : 0, exc.getId(), exc.getTime().getTimeInMillis(),
+					getRuleName(exc.getRule() != null ? exc.getRule().getKey() : null),
+					flow != Flow.REQUEST, header.toByteArray(), body.getContent());
+			exc.setProperty(SEGMENT_RECORD_KEY, key);
+			exc.setProperty(MESSAGE_FILE_PATH, segments.getActiveSegmentFile().getPath());
+		} catch (Exception e) {
+			log.error("Could not append message to segment.", e);
+		}
+	}
+
+	private synchronized SegmentedExchangeLog getSegmentedLog() throws IOException {
+		if (segmentedLog == null)
+			segmentedLog = new SegmentedExchangeLog(new File(dir), maxSegmentSize);
+		return segmentedLog;
+	}
+
+	/**
+	 * Seals the active segment and closes the segment files.
+	 */
+	public synchronized void close() throws IOException {
+		if (segmentedLog == null)
+			return;
+		segmentedLog.close();
+		segmentedLog = null;
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		close();
+	}
+
+	private static String getRuleName(RuleKey key) {
+		return key == null ? "" : key.toString();
+	}
+
 	private StringBuilder getDirectoryNameBuffer(Calendar time) {
 		StringBuilder buf = new StringBuilder();
 		buf.append(dir);
@@ -176,7 +247,10 @@ public class FileExchangeStore extends AbstractExchangeStore {
 					@Override
 					public void run() {
 						try {
-							deleteOldFolders(Calendar.getInstance());
+							if (segmented)
+								deleteOldSegments(Calendar.getInstance());
+							else
+								deleteOldFolders(Calendar.getInstance());
 						} catch (IOException e) {
 							log.error("", e);
 						}
@@ -216,14 +290,111 @@ public class FileExchangeStore extends AbstractExchangeStore {
 		}
 	}
 
+	/**
+	 * Deletes the segments which only contain exchanges older than <tt>maxDays</tt>.
+	 */
+	public void deleteOldSegments(Calendar now) throws IOException {
+		if (this.maxDays < 0) {
+			return; // don't do anything if this feature is deactivated
+		}
+
+		Calendar threshold = (Calendar) now.clone();
+		threshold.add(Calendar.DAY_OF_MONTH, -maxDays);
+
+		int deleted = getSegmentedLog().deleteSegmentsBefore(threshold.getTimeInMillis());
+		log.info("Deleted {} old segments.", deleted);
+	}
+
 	public AbstractExchange[] getExchanges(RuleKey ruleKey) {
-		throw new RuntimeException(
-				"Method getExchanges() is not supported by FileExchangeStore");
+		if (!segmented)
+			throw new RuntimeException(
+					"Method getExchanges() is not supported by FileExchangeStore");
+		try {
+			return toExchanges(getSegmentedLog().findByRule(getRuleName(ruleKey))).toArray(new AbstractExchange[0]);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the exchanges which were started in the given interval. Only supported with <tt>segmented="true"</tt>.
+	 *
+	 * @param from start of the interval in milliseconds since the epoch (inclusive)
+	 * @param to end of the interval in milliseconds since the epoch (exclusive)
+	 */
+	public List<AbstractExchange> getExchanges(long from, long to) {
+		if (!segmented)
+			throw new RuntimeException(
+					"Method getExchanges() is not supported by FileExchangeStore");
+		try {
+			return toExchanges(getSegmentedLog().findByTime(from, to));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public int getNumberOfExchanges(RuleKey ruleKey) {
-		throw new RuntimeException(
-				"Method getNumberOfExchanges() is not supported by FileExchangeStore");
+		if (!segmented)
+			throw new RuntimeException(
+					"Method getNumberOfExchanges() is not supported by FileExchangeStore");
+		try {
+			return getSegmentedLog().findKeysByRule(getRuleName(ruleKey)).size();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public AbstractExchange getExchangeById(long id) {
+		if (!segmented)
+			return super.getExchangeById(id);
+		try {
+			List<AbstractExchange> exchanges = toExchanges(getSegmentedLog().findById(id));
+			return exchanges.isEmpty() ? null : exchanges.get(0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Combines the request and response messages of the same exchange.
+	 */
+	private List<AbstractExchange> toExchanges(List<SegmentedExchangeLog.Entry> entries) throws IOException {
+		Map<Long, Exchange> exchanges = new LinkedHashMap<>();
+		for (SegmentedExchangeLog.Entry entry : entries) {
+			Exchange exc = exchanges.computeIfAbsent(entry.key(), key -> createExchange(entry));
+			Message msg = entry.response() ? new Response() : new Request();
+			try {
+				msg.read(new ByteArrayInputStream(entry.header()), false);
+			} catch (EndOfStreamException e) {
+				throw new IOException(e);
+			}
+			msg.setBody(new Body(entry.body()));
+			if (msg instanceof Response response)
+				exc.setResponse(response);
+			else
+				exc.setRequest((Request) msg);
+		}
+		return new ArrayList<>(exchanges.values());
+	}
+
+	private Exchange createExchange(SegmentedExchangeLog.Entry entry) {
+		Exchange exc = new Exchange(null);
+		exc.setId(entry.exchangeId());
+		Calendar time = Calendar.getInstance();
+		time.setTimeInMillis(entry.time());
+		exc.setTime(time);
+		exc.setRule(findRule(entry.rule()));
+		return exc;
+	}
+
+	private Rule findRule(String name) {
+		if (router == null)
+			return null;
+		for (Rule rule : router.getRuleManager().getRules())
+			if (getRuleName(rule.getKey()).equals(name))
+				return rule;
+		return null;
 	}
 
 	public void remove(AbstractExchange exchange) {
@@ -313,6 +484,35 @@ public class FileExchangeStore extends AbstractExchangeStore {
 		this.maxDays = maxDays;
 	}
 
+	public boolean isSegmented() {
+		return segmented;
+	}
+	/**
+	 * @default false
+	 * @description If this is true, the messages are appended to rolling segment files instead of being written to
+	 *              one file each. Segments are written sequentially, are indexed by exchange id, rule and time,
+	 *              and are deleted as a whole after <tt>maxDays</tt>. Messages are always stored raw, so
+	 *              <tt>raw</tt> and <tt>saveBodyOnly</tt> are ignored.
+	 * @example true
+	 */
+	@MCAttribute
+	public void setSegmented(boolean segmented) {
+		this.segmented = segmented;
+	}
+
+	public long getMaxSegmentSize() {
+		return maxSegmentSize;
+	}
+	/**
+	 * @default 67108864
+	 * @description Size in bytes after which a new segment is started, if <tt>segmented</tt> is true.
+	 * @example 16777216
+	 */
+	@MCAttribute
+	public void setMaxSegmentSize(long maxSegmentSize) {
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
 	private class SnapshottingObserver extends BodyCollectingMessageObserver {
 		private final AbstractExchange exc;
 		private final Flow flow;
@@ -20,6 +20,7 @@ import com.predic8.membrane.core.exchange.AbstractExchange;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.*;
 import com.predic8.membrane.core.interceptor.Interceptor.Flow;
+import com.predic8.membrane.core.interceptor.rest.QueryParameter;
 import com.predic8.membrane.core.model.AbstractExchangeViewerListener;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.RuleKey;
@@ -29,8 +30,13 @@ import org.slf4j.LoggerFactory;
 
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.predic8.membrane.core.interceptor.Interceptor.Flow.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * @description Stores exchange objects in-memory until a memory threshold is reached. When the threshold is reached and
@@ -44,154 +50,269 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 
 	private int maxSize = 1_000_000;
 	private int maxBodySize = 100_000;
-	private int currentSize;
 	private BodyCollectingMessageObserver.Strategy bodyExceedingMaxSizeStrategy = BodyCollectingMessageObserver.Strategy.TRUNCATE;
 
-	/**
-	 * EVERY time that exchanges or inflight is changed, modify() MUST be called afterwards
+	/*
+	 * The store is written by every request thread, so it does not use a lock: The exchanges live in concurrent
+	 * skip lists ordered by a sequence number, which act as a ring: new exchanges are appended at the end, and the
+	 * oldest are evicted from the start when the store is full. The other maps are secondary indexes into the same
+	 * entries. Readers (e.g. the admin console) iterate over weakly consistent views and never block snap().
 	 */
-	private final Queue<AbstractExchange> exchanges = new LinkedList<>();
-	private final Queue<AbstractExchange> inflight = new LinkedList<>();
-
-	private long lastModification = System.currentTimeMillis();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Map<Long, Entry> byId = new ConcurrentHashMap<>();
+	private final ConcurrentSkipListMap<Long, Entry> inflight = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<Long, Entry> exchanges = new ConcurrentSkipListMap<>();
+	private final Map<RuleKey, ConcurrentSkipListMap<Long, Entry>> byRule = new ConcurrentHashMap<>();
+	private final Map<Integer, ConcurrentSkipListMap<Long, Entry>> byStatusCode = new ConcurrentHashMap<>();
 
-	public void snap(final AbstractExchange exc, final Flow flow) {
-		newSnap(exc, flow);
+	/**
+	 * Sum of the estimated heap sizes in bytes of all stored exchanges (including the ones in flight).
+	 */
+	private final AtomicLong currentSize = new AtomicLong();
+
+	private volatile long lastModification = System.currentTimeMillis();
+	private final Object modificationMonitor = new Object();
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private static final class Entry {
+		final AbstractExchange exc;
+		final RuleKey ruleKey;
+		final long seq;
+		volatile long completedSeq = -1;
+		volatile int statusCode = -1;
+		/**
+		 * heap size of the exchange, which is currently included in {@link #currentSize}, or -1 if the entry was removed
+		 */
+		int accountedSize;
+
+		Entry(AbstractExchange exc, long seq) {
+			this.exc = exc;
+			this.ruleKey = exc.getRule() != null ? exc.getRule().getKey() : null;
+			this.seq = seq;
+		}
 	}
 
-	private void newSnap(AbstractExchange exc, Flow flow) {
+	public void snap(final AbstractExchange exc, final Flow flow) {
 		try {
-            if (flow == REQUEST) {
-				AbstractExchange excCopy = snapInternal(exc, flow);
+			if (flow == REQUEST) {
+				Entry entry = getOrCreateEntry(exc);
+				inflight.put(entry.seq, entry);
 
 				if (exc.getRequest() != null)
-					excCopy.setRequest(exc.getRequest().createSnapshot(() -> {
-						synchronized (LimitedMemoryExchangeStore.this) {
-							currentSize += - excCopy.resetHeapSizeEstimation() + excCopy.getHeapSizeEstimation();
-							modify();
-						}
+					entry.exc.setRequest(exc.getRequest().createSnapshot(() -> {
+						updateSize(entry);
+						modify();
 					}, bodyExceedingMaxSizeStrategy, maxBodySize));
+				updateSize(entry);
+				makeSpaceIfNeeded(entry);
+				modify();
 
 				exc.addExchangeViewerListener(new AbstractExchangeViewerListener() {
 					@Override
 					public void setExchangeFinished() {
 						try {
-							snapInternal(exc, RESPONSE);
+							finished(exc);
 						} catch (Exception e) {
-							e.printStackTrace();
+							log.warn("exception during snapshotting: ", e);
 						}
 					}
 				});
 			} else {
-				AbstractExchange excCopy = snapInternal(exc, flow);
+				Entry entry = getOrCreateEntry(exc);
+				Exchange.updateCopy(exc, entry.exc, null, null, 0);
 
 				if (exc.getResponse() != null)
-					excCopy.setResponse(exc.getResponse().createSnapshot(() -> {
-						currentSize += - excCopy.resetHeapSizeEstimation() + excCopy.getHeapSizeEstimation();
+					entry.exc.setResponse(exc.getResponse().createSnapshot(() -> {
+						updateSize(entry);
 						modify();
 					}, bodyExceedingMaxSizeStrategy, maxBodySize));
-
+				complete(entry);
+				updateSize(entry);
+				makeSpaceIfNeeded(entry);
 				modify();
 			}
-
-        } catch (Exception e) {
+		} catch (Exception e) {
 			log.warn("exception during snapshotting: ", e);
-            throw new RuntimeException(e);
-        }
+			throw new RuntimeException(e);
+		}
+	}
 
+	/**
+	 * Completes the entry when the exchange has finished. The response was already snapshotted when it passed the
+	 * store, and its body has been streamed to the client since, so it is not snapshotted again.
+	 */
+	private void finished(AbstractExchange exc) throws Exception {
+		Entry entry = getOrCreateEntry(exc);
+		Exchange.updateCopy(exc, entry.exc, null, null, 0);
+		complete(entry);
+		updateSize(entry);
+		makeSpaceIfNeeded(entry);
+		modify();
 	}
 
-	private synchronized AbstractExchange snapInternal(AbstractExchange orig, Flow flow) throws Exception {
-		AbstractExchange exc = getExchangeById(orig.getId());
+	private Entry getOrCreateEntry(AbstractExchange orig) throws Exception {
+		Entry entry = byId.get(orig.getId());
+		if (entry != null)
+			return entry;
 
-		if (exc == null) {
-			exc = orig.createSnapshot(null, null, 0);
-			AbstractExchange exc2 = exc;
-			exc.addExchangeViewerListener(new AbstractExchangeViewerListener() {
-				@Override
-				public void addRequest(Request request) {
-					currentSize += - exc2.resetHeapSizeEstimation() + exc2.getHeapSizeEstimation();
-				}
+		Entry created = new Entry(orig.createSnapshot(null, null, 0), sequence.incrementAndGet());
+		entry = byId.putIfAbsent(orig.getId(), created);
+		if (entry != null)
+			return entry;
+		if (created.ruleKey != null)
+			byRule.computeIfAbsent(created.ruleKey, k -> new ConcurrentSkipListMap<>()).put(created.seq, created);
+		return created;
+	}
 
-				@Override
-				public void addResponse(Response response) {
-					currentSize += - exc2.resetHeapSizeEstimation() + exc2.getHeapSizeEstimation();
-				}
-			});
+	/**
+	 * Moves the entry from the in-flight exchanges to the end of the completed ones and indexes its status code.
+	 */
+	private void complete(Entry entry) {
+		inflight.remove(entry.seq);
+		Response response = entry.exc.getResponse();
+		synchronized (entry) {
+			if (entry.completedSeq != -1 || entry.accountedSize == -1)
+				return;
+			entry.completedSeq = sequence.incrementAndGet();
+			entry.statusCode = response != null ? response.getStatusCode() : -1;
+			exchanges.put(entry.completedSeq, entry);
+			if (entry.statusCode != -1)
+				byStatusCode.computeIfAbsent(entry.statusCode, k -> new ConcurrentSkipListMap<>()).put(entry.completedSeq, entry);
 		}
+	}
 
-		makeSpaceIfNeeded(exc);
-
-		if (flow == REQUEST) {
-			if (inflight.add(exc))
-				currentSize += exc.getHeapSizeEstimation();
-		} else {
-			if (inflight.remove(exc))
-				currentSize -= exc.getHeapSizeEstimation();
-			if (!exchanges.contains(exc)) {
-				exchanges.add(exc);
-				currentSize += exc.getHeapSizeEstimation();
-			}
-			Exchange.updateCopy(orig, exc, null, null, 0);
+	/**
+	 * Brings {@link #currentSize} up to date after the exchange or one of its bodies changed.
+	 */
+	private void updateSize(Entry entry) {
+		synchronized (entry) {
+			if (entry.accountedSize == -1)
+				return; // already removed
+			entry.exc.resetHeapSizeEstimation();
+			int size = entry.exc.getHeapSizeEstimation();
+			currentSize.addAndGet(size - entry.accountedSize);
+			entry.accountedSize = size;
 		}
+	}
 
-		modify();
-		return exc;
+	/**
+	 * Evicts the oldest completed exchanges until the store fits into {@link #maxSize}. The given entry is always
+	 * kept, even if it is larger than the store.
+	 */
+	private void makeSpaceIfNeeded(Entry keep) {
+		while (currentSize.get() > maxSize) {
+			Map.Entry<Long, Entry> oldest = exchanges.firstEntry();
+			if (oldest == null || oldest.getValue() == keep)
+				break;
+			removeEntry(oldest.getValue());
+		}
 	}
 
-	public synchronized void remove(AbstractExchange exc) {
-		exchanges.remove(exc);
-		modify();
+	private boolean removeEntry(Entry entry) {
+		synchronized (entry) {
+			if (entry.accountedSize == -1)
+				return false;
+			currentSize.addAndGet(-entry.accountedSize);
+			entry.accountedSize = -1;
+		}
+		byId.remove(entry.exc.getId(), entry);
+		inflight.remove(entry.seq, entry);
+		if (entry.ruleKey != null)
+			removeFromIndex(byRule, entry.ruleKey, entry.seq, entry);
+		if (entry.completedSeq != -1) {
+			exchanges.remove(entry.completedSeq, entry);
+			if (entry.statusCode != -1)
+				removeFromIndex(byStatusCode, entry.statusCode, entry.completedSeq, entry);
+		}
+		return true;
 	}
 
-	public synchronized void removeAllExchanges(Rule rule) {
-		exchanges.removeAll(getExchangeList(rule.getKey()));
-		modify();
+	private static <K> void removeFromIndex(Map<K, ConcurrentSkipListMap<Long, Entry>> index, K key, long seq, Entry entry) {
+		ConcurrentSkipListMap<Long, Entry> entries = index.get(key);
+		if (entries != null)
+			entries.remove(seq, entry);
 	}
 
-	private synchronized List<AbstractExchange> getExchangeList(RuleKey key) {
-		List<AbstractExchange> c = new ArrayList<>();
-		for (AbstractExchange exc : inflight) {
-			if (exc.getRule().getKey().equals(key)) {
-				c.add(exc);
-			}
-		}
-		for(AbstractExchange exc : exchanges) {
-			if (exc.getRule().getKey().equals(key)) {
-				c.add(exc);
-			}
+	private void removeCompleted(Collection<Entry> entries) {
+		boolean removed = false;
+		for (Entry entry : entries)
+			if (entry.completedSeq != -1)
+				removed |= removeEntry(entry);
+		if (removed)
+			modify();
+	}
+
+	public void remove(AbstractExchange exc) {
+		Entry entry = byId.get(exc.getId());
+		if (entry != null)
+			removeCompleted(List.of(entry));
+	}
+
+	public void removeAllExchanges(Rule rule) {
+		ConcurrentSkipListMap<Long, Entry> entries = byRule.get(rule.getKey());
+		if (entries != null)
+			removeCompleted(entries.values());
+	}
+
+	public void removeAllExchanges(AbstractExchange[] candidates) {
+		List<Entry> entries = new ArrayList<>(candidates.length);
+		for (AbstractExchange exc : candidates) {
+			Entry entry = byId.get(exc.getId());
+			if (entry != null)
+				entries.add(entry);
 		}
-		return c;
+		removeCompleted(entries);
+	}
+
+	private List<AbstractExchange> getExchangeList(RuleKey key) {
+		ConcurrentSkipListMap<Long, Entry> entries = byRule.get(key);
+		if (entries == null)
+			return new ArrayList<>();
+		return toExchanges(entries.values());
 	}
 
-	public synchronized AbstractExchange[] getExchanges(RuleKey ruleKey) {
+	private static List<AbstractExchange> toExchanges(Collection<Entry> entries) {
+		List<AbstractExchange> result = new ArrayList<>();
+		for (Entry entry : entries)
+			result.add(entry.exc);
+		return result;
+	}
+
+	public AbstractExchange[] getExchanges(RuleKey ruleKey) {
 		return getExchangeList(ruleKey).toArray(new AbstractExchange[0]);
 	}
 
-	public synchronized int getNumberOfExchanges(RuleKey ruleKey) {
-		return getExchangeList(ruleKey).size();
+	public int getNumberOfExchanges(RuleKey ruleKey) {
+		ConcurrentSkipListMap<Long, Entry> entries = byRule.get(ruleKey);
+		return entries == null ? 0 : entries.size();
 	}
 
-	public synchronized StatisticCollector getStatistics(RuleKey key) {
-		StatisticCollector statistics = new StatisticCollector(false);
-		List<AbstractExchange> exchangesList = getExchangeList(key);
-		if (exchangesList.isEmpty())
-			return statistics;
+	/**
+	 * @return the completed exchanges with the given response status code, oldest first
+	 */
+	public List<AbstractExchange> getExchangesByStatusCode(int statusCode) {
+		ConcurrentSkipListMap<Long, Entry> entries = byStatusCode.get(statusCode);
+		if (entries == null)
+			return new ArrayList<>();
+		return toExchanges(entries.values());
+	}
 
-		for (AbstractExchange abstractExchange : exchangesList)
+	public StatisticCollector getStatistics(RuleKey key) {
+		StatisticCollector statistics = new StatisticCollector(false);
+		for (AbstractExchange abstractExchange : getExchangeList(key))
 			statistics.collectFrom(abstractExchange);
-
 		return statistics;
 	}
 
-	public synchronized Object[] getAllExchanges() {
-		return exchanges.toArray(new AbstractExchange[0]);
+	public Object[] getAllExchanges() {
+		return toExchanges(exchanges.values()).toArray(new AbstractExchange[0]);
 	}
 
-	public synchronized List<AbstractExchange> getAllExchangesAsList() {
-		List<AbstractExchange> ret = new LinkedList<>();
+	public List<AbstractExchange> getAllExchangesAsList() {
+		List<AbstractExchange> ret = new ArrayList<>();
 
-		for (AbstractExchange ex : inflight) {
+		for (Entry entry : inflight.values()) {
+			AbstractExchange ex = entry.exc;
 			Exchange newEx = new Exchange(null);
 			newEx.setId(ex.getId());
 			newEx.setRequest(ex.getRequest());
@@ -202,31 +323,74 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 			newEx.setTimeResReceived(System.currentTimeMillis());
 			ret.add(newEx);
 		}
-		ret.addAll(exchanges);
+		for (Entry entry : exchanges.values())
+			ret.add(entry.exc);
 
 		return ret;
 	}
 
-	public synchronized void removeAllExchanges(AbstractExchange[] candidates) {
-		exchanges.removeAll(Arrays.asList(candidates));
-		modify();
+	@Override
+	protected List<AbstractExchange> getCandidates(QueryParameter params) {
+		// Only completed exchanges have a status code, so the index contains all candidates.
+		if (params.has("statuscode"))
+			return getExchangesByStatusCode(params.getInt("statuscode"));
+		return super.getCandidates(params);
 	}
 
-
 	@Override
-	public synchronized AbstractExchange getExchangeById(long id) {
-		return exchanges.stream().filter(exc -> exc.getId() == id).findAny()
-				.orElseGet(() ->
-						inflight.stream().filter(exc -> exc.getId() == id).findAny()
-								.orElse(null));
+	public AbstractExchange getExchangeById(long id) {
+		Entry entry = byId.get(id);
+		return entry == null ? null : entry.exc;
 	}
 
+	/**
+	 * Searches the request bodies of the completed exchanges. The bodies are scanned in parallel on the common
+	 * fork-join pool. Bodies which are still being received are skipped instead of waited for.
+	 */
 	public List<AbstractExchange> search(String e) {
-		return exchanges.stream().filter(exc -> exc.getRequest().getBodyAsStringDecoded().contains(e) ).toList();
+		byte[] needle = e.getBytes(UTF_8);
+		return new ArrayList<>(exchanges.values()).parallelStream()
+				.map(entry -> entry.exc)
+				.filter(exc -> bodyContains(exc.getRequest(), e, needle))
+				.toList();
+	}
+
+	private static boolean bodyContains(Message msg, String text, byte[] utf8Text) {
+		if (msg == null || !msg.getBody().isRead())
+			return false;
+		try {
+			// Avoid decoding the body into a String, if its bytes can be compared directly.
+			if (msg.getHeader().getContentEncoding() == null && isUtf8Compatible(msg.getCharset()))
+				return indexOf(msg.getBody().getContent(), utf8Text) != -1;
+			return msg.getBodyAsStringDecoded().contains(text);
+		} catch (Exception ex) {
+			log.debug("Could not search body.", ex);
+			return false;
+		}
+	}
+
+	private static boolean isUtf8Compatible(String charset) {
+		return "UTF-8".equalsIgnoreCase(charset) || "US-ASCII".equalsIgnoreCase(charset);
+	}
+
+	static int indexOf(byte[] haystack, byte[] needle) {
+		if (needle.length == 0)
+			return 0;
+		byte first = needle[0];
+		outer:
+		for (int i = 0, max = haystack.length - needle.length; i <= max; i++) {
+			if (haystack[i] != first)
+				continue;
+			for (int j = 1; j < needle.length; j++)
+				if (haystack[i + j] != needle[j])
+					continue outer;
+			return i;
+		}
+		return -1;
 	}
 
 	@Override
-	public synchronized List<? extends ClientStatistics> getClientStatistics() {
+	public List<? extends ClientStatistics> getClientStatistics() {
 		Map<String, ClientStatisticsCollector> clients = new HashMap<>();
 
 		for (AbstractExchange exc : getAllExchangesAsList()) {
@@ -238,26 +402,16 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		return new ArrayList<ClientStatistics>(clients.values());
 	}
 
-	public synchronized int getCurrentSize() {
-		return exchanges.stream().map(AbstractExchange::getHeapSizeEstimation).reduce(0, Integer::sum);
-	}
-
-	public synchronized Long getOldestTimeResSent() {
-		AbstractExchange exc = exchanges.peek();
-		return exc == null ? null : exc.getTimeResSent();
-	}
-
-	private synchronized void makeSpaceIfNeeded(AbstractExchange exc) {
-		while (!hasEnoughSpace(exc)) {
-			AbstractExchange removedExc = exchanges.poll();
-			if (removedExc == null)
-				break;
-			currentSize -= removedExc.getHeapSizeEstimation();
-		}
+	/**
+	 * @return the estimated heap size in bytes of all stored exchanges
+	 */
+	public int getCurrentSize() {
+		return (int) Math.min(Integer.MAX_VALUE, currentSize.get());
 	}
 
-	private boolean hasEnoughSpace(AbstractExchange exc) {
-		return exc.getHeapSizeEstimation()+getCurrentSize() <= maxSize;
+	public Long getOldestTimeResSent() {
+		Map.Entry<Long, Entry> oldest = exchanges.firstEntry();
+		return oldest == null ? null : oldest.getValue().exc.getTimeResSent();
 	}
 
 	public int getMaxSize() {
@@ -305,24 +459,32 @@ public class LimitedMemoryExchangeStore extends AbstractExchangeStore {
 		return formatter.format(number);
 	}
 
-	private synchronized void modify() {
+	private void modify() {
 		lastModification = System.currentTimeMillis();
-		notifyAll();
+		// Only take the monitor if someone is waiting, so that snap() does not contend on it.
+		if (waiting.get() > 0) {
+			synchronized (modificationMonitor) {
+				modificationMonitor.notifyAll();
+			}
+		}
 	}
 
 	@Override
-	public synchronized long getLastModified() {
+	public long getLastModified() {
 		return lastModification;
 	}
 
 	@Override
-	public synchronized void waitForModification(long lastKnownModification) throws InterruptedException {
-		for (;;) {
-			if (lastKnownModification < this.lastModification) {
-				return;
+	public void waitForModification(long lastKnownModification) throws InterruptedException {
+		waiting.incrementAndGet();
+		try {
+			synchronized (modificationMonitor) {
+				while (lastKnownModification >= this.lastModification) {
+					modificationMonitor.wait();
+				}
 			}
-			// lastKnownModification >= this.lastModification:
-			wait();
+		} finally {
+			waiting.decrementAndGet();
 		}
 	}
 
@@ -0,0 +1,538 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.exchangestore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only log of HTTP messages, split into segment files of limited size.
+ * <p>
+ * Every message is appended as one record to the active segment with a single gathering write. When the segment
+ * reaches its maximum size, it is sealed: its index is sorted and written next to it, and a new segment is started.
+ * Old messages are removed by deleting whole segments.
+ * <p>
+ * Each segment has a compact in-memory index of its records (record key, exchange id, time, rule, offset). The index of a sealed
+ * segment is sorted by id and by time, so lookups use binary search. The active segment is bounded in size and
+ * scanned linearly.
+ * <p>
+ * Exchange ids are not unique, so the request and the response of an exchange are tied together by a record key
+ * instead: the number of the segment and the sequence number of the request record within it.
+ * <p>
+ * Record layout (big endian): magic, rule length, header length, body length (ints), record key, exchange id, time
+ * (longs), flow (byte), followed by the rule, header and body bytes.
+ */
+class SegmentedExchangeLog implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(SegmentedExchangeLog.class);
+
+	static final String SEGMENT_SUFFIX = ".seg";
+	static final String INDEX_SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x4D424C32; // "MBL2"
+	private static final int RECORD_HEADER_SIZE = 4 * 4 + 3 * 8 + 1;
+
+	private final File dir;
+	private final long maxSegmentSize;
+
+	private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+	private Segment active;
+
+	/**
+	 * Segments are only closed and deleted while no reads are running.
+	 */
+	private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+	/**
+	 * A message read from the log.
+	 *
+	 * @param key the record key shared by the request and the response of the exchange
+	 */
+	record Entry(long key, long exchangeId, long time, String rule, boolean response, byte[] header, byte[] body) {
+	}
+
+	SegmentedExchangeLog(File dir, long maxSegmentSize) throws IOException {
+		this.dir = dir;
+		this.maxSegmentSize = maxSegmentSize;
+		if (!dir.mkdirs() && !dir.isDirectory())
+			throw new IOException("Could not create directory " + dir);
+		open();
+	}
+
+	/**
+	 * Loads the existing segments. Segments without an index (e.g. because the process was killed) are scanned,
+	 * truncated after the last complete record and sealed.
+	 */
+	private void open() throws IOException {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			for (File file : files) {
+				long number;
+				try {
+					number = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				Segment segment = new Segment(number, file);
+				if (!segment.loadIndex())
+					segment.recover();
+				segments.put(number, segment);
+			}
+		}
+		roll();
+	}
+
+	/**
+	 * @param key the key returned when the request of the exchange was appended, or 0 to start a new exchange
+	 * @return the record key of the exchange
+	 */
+	synchronized long append(long key, long exchangeId, long time, String rule, boolean response, byte[] header, byte[] body) throws IOException {
+		byte[] ruleBytes = rule.getBytes(UTF_8);
+		long length = RECORD_HEADER_SIZE + ruleBytes.length + header.length + body.length;
+		if (active.size > 0 && active.size + length > maxSegmentSize)
+			roll();
+		if (key == 0)
+			key = active.number << 32 | active.count;
+
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE + ruleBytes.length);
+		recordHeader.putInt(MAGIC).putInt(ruleBytes.length).putInt(header.length).putInt(body.length)
+				.putLong(key).putLong(exchangeId).putLong(time).put((byte) (response ? 1 : 0)).put(ruleBytes).flip();
+
+		long offset = active.size;
+		ByteBuffer[] buffers = {recordHeader, ByteBuffer.wrap(header), ByteBuffer.wrap(body)};
+		while (recordHeader.hasRemaining() || buffers[1].hasRemaining() || buffers[2].hasRemaining())
+			active.channel.write(buffers);
+		active.size += length;
+		active.add(key, exchangeId, time, rule, offset);
+		return key;
+	}
+
+	private void roll() throws IOException {
+		if (active != null)
+			active.seal();
+		long number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+		Segment segment = new Segment(number, new File(dir, String.format("%020d", number) + SEGMENT_SUFFIX));
+		segment.channel = FileChannel.open(segment.file.toPath(), CREATE_NEW, READ, WRITE);
+		segments.put(number, segment);
+		active = segment;
+	}
+
+	List<Entry> findById(long exchangeId) throws IOException {
+		segmentsLock.readLock().lock();
+		try {
+			List<Entry> result = new ArrayList<>();
+			for (Segment segment : segments.values())
+				for (long offset : segment.findById(exchangeId))
+					result.add(segment.read(offset));
+			return result;
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	List<Entry> findByRule(String rule) throws IOException {
+		segmentsLock.readLock().lock();
+		try {
+			List<Entry> result = new ArrayList<>();
+			for (Segment segment : segments.values())
+				for (long offset : segment.findByRule(rule))
+					result.add(segment.read(offset));
+			return result;
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the record keys of all exchanges of the given rule, without reading the segments
+	 */
+	Set<Long> findKeysByRule(String rule) {
+		Set<Long> result = new HashSet<>();
+		for (Segment segment : segments.values())
+			segment.collectKeysByRule(rule, result);
+		return result;
+	}
+
+	/**
+	 * @return the messages of exchanges started in the interval [from, to)
+	 */
+	List<Entry> findByTime(long from, long to) throws IOException {
+		segmentsLock.readLock().lock();
+		try {
+			List<Entry> result = new ArrayList<>();
+			for (Segment segment : segments.values())
+				if (segment.overlaps(from, to))
+					for (long offset : segment.findByTime(from, to))
+						result.add(segment.read(offset));
+			return result;
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Deletes all sealed segments that contain only messages older than the given time.
+	 *
+	 * @return number of deleted segments
+	 */
+	synchronized int deleteSegmentsBefore(long time) {
+		segmentsLock.writeLock().lock();
+		try {
+			int deleted = 0;
+			for (Segment segment : segments.values()) {
+				if (segment == active || !segment.isOlderThan(time))
+					continue;
+				segments.remove(segment.number);
+				segment.delete();
+				deleted++;
+			}
+			return deleted;
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	int getSegmentCount() {
+		return segments.size();
+	}
+
+	synchronized File getActiveSegmentFile() {
+		return active.file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		segmentsLock.writeLock().lock();
+		try {
+			if (active != null && active.size > 0)
+				active.seal();
+			for (Segment segment : segments.values())
+				segment.close();
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	private static final class Segment {
+		final long number;
+		final File file;
+		final File indexFile;
+		FileChannel channel;
+		long size;
+
+		// index, one slot per record in append order
+		int count;
+		long[] keys = new long[1024];
+		long[] ids = new long[1024];
+		long[] times = new long[1024];
+		long[] offsets = new long[1024];
+		int[] rules = new int[1024];
+		final List<String> ruleNames = new ArrayList<>();
+		final Map<String, Integer> ruleNumbers = new HashMap<>();
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+
+		// only set when sealed: record numbers sorted by id, time and rule
+		int[] byId;
+		int[] byTime;
+		int[] byRule;
+
+		Segment(long number, File file) {
+			this.number = number;
+			this.file = file;
+			String name = file.getName();
+			this.indexFile = new File(file.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+		}
+
+		synchronized void add(long key, long id, long time, String rule, long offset) {
+			if (count == ids.length) {
+				int capacity = Math.max(1024, count * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+				times = Arrays.copyOf(times, capacity);
+				offsets = Arrays.copyOf(offsets, capacity);
+				rules = Arrays.copyOf(rules, capacity);
+			}
+			keys[count] = key;
+			ids[count] = id;
+			times[count] = time;
+			offsets[count] = offset;
+			rules[count] = ruleNumbers.computeIfAbsent(rule, r -> {
+				ruleNames.add(r);
+				return ruleNames.size() - 1;
+			});
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			count++;
+		}
+
+		synchronized void seal() throws IOException {
+			keys = Arrays.copyOf(keys, count);
+			ids = Arrays.copyOf(ids, count);
+			times = Arrays.copyOf(times, count);
+			offsets = Arrays.copyOf(offsets, count);
+			rules = Arrays.copyOf(rules, count);
+			sort();
+			channel.force(true);
+			writeIndex();
+		}
+
+		private void sort() {
+			byId = sortedBy(i -> ids[i]);
+			byTime = sortedBy(i -> times[i]);
+			byRule = sortedBy(i -> rules[i]);
+		}
+
+		private int[] sortedBy(IntToLongFunction key) {
+			return IntStream.range(0, count).boxed()
+					.sorted(Comparator.comparingLong(key::applyAsLong))
+					.mapToInt(Integer::intValue).toArray();
+		}
+
+		private void writeIndex() throws IOException {
+			File tmp = new File(indexFile.getPath() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(ruleNames.size());
+				for (String rule : ruleNames)
+					out.writeUTF(rule);
+				out.writeInt(count);
+				for (int i = 0; i < count; i++) {
+					out.writeLong(keys[i]);
+					out.writeLong(ids[i]);
+					out.writeLong(times[i]);
+					out.writeLong(offsets[i]);
+					out.writeInt(rules[i]);
+				}
+			}
+			if (!tmp.renameTo(indexFile))
+				throw new IOException("Could not write index " + indexFile);
+		}
+
+		synchronized boolean loadIndex() throws IOException {
+			if (!indexFile.exists())
+				return false;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				if (in.readInt() != MAGIC)
+					return false;
+				int ruleCount = in.readInt();
+				for (int i = 0; i < ruleCount; i++) {
+					String rule = in.readUTF();
+					ruleNumbers.put(rule, ruleNames.size());
+					ruleNames.add(rule);
+				}
+				int records = in.readInt();
+				keys = new long[records];
+				ids = new long[records];
+				times = new long[records];
+				offsets = new long[records];
+				rules = new int[records];
+				for (int i = 0; i < records; i++) {
+					keys[i] = in.readLong();
+					ids[i] = in.readLong();
+					times[i] = in.readLong();
+					offsets[i] = in.readLong();
+					rules[i] = in.readInt();
+					minTime = Math.min(minTime, times[i]);
+					maxTime = Math.max(maxTime, times[i]);
+				}
+				count = records;
+			} catch (EOFException e) {
+				log.warn("Index {} is truncated, rebuilding it.", indexFile);
+				return false;
+			}
+			channel = FileChannel.open(file.toPath(), READ);
+			size = channel.size();
+			sort();
+			return true;
+		}
+
+		/**
+		 * Rebuilds the index by scanning the records. A partially written record at the end is cut off.
+		 */
+		synchronized void recover() throws IOException {
+			count = 0;
+			ruleNames.clear();
+			ruleNumbers.clear();
+			minTime = Long.MAX_VALUE;
+			maxTime = Long.MIN_VALUE;
+			channel = FileChannel.open(file.toPath(), READ, WRITE);
+			long fileSize = channel.size();
+			long offset = 0;
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			while (offset + RECORD_HEADER_SIZE <= fileSize) {
+				header.clear();
+				readFully(header, offset);
+				header.flip();
+				if (header.getInt() != MAGIC)
+					break;
+				int ruleLength = header.getInt();
+				int headerLength = header.getInt();
+				int bodyLength = header.getInt();
+				long key = header.getLong();
+				long id = header.getLong();
+				long time = header.getLong();
+				header.get(); // flow
+				long end = offset + RECORD_HEADER_SIZE + ruleLength + headerLength + bodyLength;
+				if (end > fileSize)
+					break;
+				ByteBuffer rule = ByteBuffer.allocate(ruleLength);
+				readFully(rule, offset + RECORD_HEADER_SIZE);
+				add(key, id, time, new String(rule.array(), UTF_8), offset);
+				offset = end;
+			}
+			if (offset < fileSize) {
+				log.warn("Truncating {} after the last complete record at {}.", file, offset);
+				channel.truncate(offset);
+			}
+			size = offset;
+			seal();
+		}
+
+		synchronized long[] findById(long id) {
+			if (byId == null)
+				return scan(i -> ids[i] == id);
+			return offsetsOf(byId, search(byId, i -> ids[i], id, false), search(byId, i -> ids[i], id, true));
+		}
+
+		synchronized long[] findByTime(long from, long to) {
+			if (byTime == null)
+				return scan(i -> times[i] >= from && times[i] < to);
+			return offsetsOf(byTime, search(byTime, i -> times[i], from, false), search(byTime, i -> times[i], to, false));
+		}
+
+		synchronized long[] findByRule(String rule) {
+			Integer ruleNumber = ruleNumbers.get(rule);
+			if (ruleNumber == null)
+				return new long[0];
+			if (byRule == null)
+				return scan(i -> rules[i] == ruleNumber);
+			return offsetsOf(byRule, search(byRule, i -> rules[i], ruleNumber, false), search(byRule, i -> rules[i], ruleNumber, true));
+		}
+
+		synchronized void collectKeysByRule(String rule, Set<Long> result) {
+			Integer ruleNumber = ruleNumbers.get(rule);
+			if (ruleNumber == null)
+				return;
+			for (int i = 0; i < count; i++)
+				if (rules[i] == ruleNumber)
+					result.add(keys[i]);
+		}
+
+		private long[] scan(IntPredicate matches) {
+			long[] result = new long[8];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				if (!matches.test(i))
+					continue;
+				if (n == result.length)
+					result = Arrays.copyOf(result, n * 2);
+				result[n++] = offsets[i];
+			}
+			return Arrays.copyOf(result, n);
+		}
+
+		private long[] offsetsOf(int[] sorted, int from, int to) {
+			long[] result = new long[Math.max(0, to - from)];
+			for (int i = from; i < to; i++)
+				result[i - from] = offsets[sorted[i]];
+			return result;
+		}
+
+		/**
+		 * @return the first position in <code>sorted</code> whose key is greater than (or, if not <code>after</code>,
+		 * equal to) <code>key</code>
+		 */
+		private static int search(int[] sorted, IntToLongFunction keys, long key, boolean after) {
+			int low = 0;
+			int high = sorted.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				long k = keys.applyAsLong(sorted[mid]);
+				if (k < key || (after && k == key))
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		synchronized boolean overlaps(long from, long to) {
+			return count > 0 && minTime < to && maxTime >= from;
+		}
+
+		synchronized boolean isOlderThan(long time) {
+			return count == 0 || maxTime < time;
+		}
+
+		Entry read(long offset) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			readFully(header, offset);
+			header.flip();
+			if (header.getInt() != MAGIC)
+				throw new IOException("Corrupt record in " + file + " at " + offset);
+			int ruleLength = header.getInt();
+			int headerLength = header.getInt();
+			int bodyLength = header.getInt();
+			long key = header.getLong();
+			long id = header.getLong();
+			long time = header.getLong();
+			boolean response = header.get() == 1;
+			ByteBuffer content = ByteBuffer.allocate(ruleLength + headerLength + bodyLength);
+			readFully(content, offset + RECORD_HEADER_SIZE);
+			byte[] bytes = content.array();
+			return new Entry(key, id, time,
+					new String(bytes, 0, ruleLength, UTF_8),
+					response,
+					Arrays.copyOfRange(bytes, ruleLength, ruleLength + headerLength),
+					Arrays.copyOfRange(bytes, ruleLength + headerLength, bytes.length));
+		}
+
+		private void readFully(ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					throw new EOFException("Unexpected end of " + file);
+			}
+		}
+
+		void close() throws IOException {
+			if (channel != null)
+				channel.close();
+		}
+
+		void delete() {
+			try {
+				close();
+			} catch (IOException e) {
+				log.debug("Could not close {}.", file, e);
+			}
+			if (!file.delete() || (indexFile.exists() && !indexFile.delete()))
+				log.warn("Could not delete segment {}.", file);
+		}
+	}
+}
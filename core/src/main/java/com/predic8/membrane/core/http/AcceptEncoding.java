@@ -0,0 +1,96 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import java.util.*;
+
+import static com.predic8.membrane.core.http.Header.*;
+import static java.util.Locale.*;
+
+/**
+ * The content codings a client accepts, as sent in the <code>Accept-Encoding</code> header of its request
+ * (see <a href="https://www.rfc-editor.org/rfc/rfc9110#section-12.5.3">RFC 9110, section 12.5.3</a>).
+ * <p>
+ * Without the header, only <code>identity</code> is assumed to be acceptable.
+ */
+public class AcceptEncoding {
+
+    private final Map<String, Double> qualities = new HashMap<>();
+    private double wildcard = -1;
+
+    public AcceptEncoding(String value) {
+        if (value == null)
+            return;
+        for (String element : value.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(ROOT);
+            if (coding.isEmpty())
+                continue;
+            double q = getQualityValue(parts);
+            if (coding.equals("*"))
+                wildcard = q;
+            else
+                qualities.put(coding, q);
+        }
+    }
+
+    public static AcceptEncoding of(Message msg) {
+        return new AcceptEncoding(msg.getHeader().getNormalizedValue(ACCEPT_ENCODING));
+    }
+
+    private static double getQualityValue(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.length() < 2 || Character.toLowerCase(param.charAt(0)) != 'q' || param.charAt(1) != '=')
+                continue;
+            try {
+                double q = Double.parseDouble(param.substring(2).trim());
+                return q >= 0 && q <= 1 ? q : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return the quality value of the content coding, 0 if it is not acceptable
+     */
+    public double getQuality(String coding) {
+        Double q = qualities.get(coding.toLowerCase(ROOT));
+        if (q != null)
+            return q;
+        if (wildcard >= 0)
+            return wildcard;
+        return coding.equalsIgnoreCase("identity") ? 1 : 0;
+    }
+
+    /**
+     * @param codings the content codings available, in the order preferred by the server
+     * @return the acceptable content coding with the highest quality value, the first of those on a tie, or null if
+     * none of them is acceptable
+     */
+    public String select(List<String> codings) {
+        String best = null;
+        double bestQuality = 0;
+        for (String coding : codings) {
+            double q = getQuality(coding);
+            if (q > bestQuality) {
+                best = coding;
+                bestQuality = q;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,309 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import com.predic8.membrane.core.transport.http.*;
+import com.predic8.membrane.core.util.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Reads the start line and the header fields of an HTTP/1.x message.
+ * <p>
+ * If the stream supports {@link InputStream#mark(int)} (as the buffered streams of connections do), the parser
+ * reads chunks of bytes into a per-thread buffer and scans them for line ends. Afterward, the stream is reset and
+ * exactly the bytes of the parsed lines are skipped, so the body can still be read from the stream. Header fields
+ * are created directly from the buffer: well-known header names are shared {@link HeaderName} instances and only
+ * the values are turned into Strings. Other streams are read byte by byte.
+ * <p>
+ * Lines may end with CRLF, LF or LFCR. Bytes are converted to chars using ISO-8859-1.
+ */
+public final class HeadParser {
+
+	private static final Logger log = LoggerFactory.getLogger(HeadParser.class.getName());
+
+	static final int MAX_LINE_LENGTH;
+
+	private static final int CHUNK_SIZE = 2048;
+
+	/**
+	 * A line of MAX_LINE_LENGTH - 1 bytes plus the line terminator always fits into the buffer.
+	 */
+	private static final ThreadLocal<byte[]> BUFFERS;
+
+	private static final HeaderName[][] KNOWN_NAMES;
+
+	static {
+		String maxLineLength = System.getProperty("membrane.core.http.body.maxlinelength");
+		MAX_LINE_LENGTH = maxLineLength == null ? 8092 : Integer.parseInt(maxLineLength);
+		BUFFERS = ThreadLocal.withInitial(() -> new byte[Math.max(MAX_LINE_LENGTH + 2, 4 * CHUNK_SIZE)]);
+		KNOWN_NAMES = createKnownNames();
+	}
+
+	private HeadParser() {
+	}
+
+	/**
+	 * @return the line without the line terminator
+	 * @throws LineTooLongException if the line is longer than the configured maximum
+	 * @throws EOFWhileReadingLineException if the stream ends before the line does
+	 */
+	public static String readLine(InputStream in) throws IOException, EndOfStreamException {
+		if (!in.markSupported())
+			return readLineByteByByte(in);
+
+		Scanner scanner = new Scanner(in);
+		try {
+			scanner.nextLine();
+			return new String(scanner.buf, scanner.lineStart, scanner.lineEnd - scanner.lineStart, ISO_8859_1);
+		} finally {
+			scanner.finish();
+		}
+	}
+
+	/**
+	 * Reads header fields up to and including the empty line terminating the head of the message. Lines that are not
+	 * header fields are logged and skipped.
+	 */
+	public static void readHeaderFields(InputStream in, Header header) throws IOException, EndOfStreamException {
+		if (!in.markSupported()) {
+			String line;
+			while (!(line = readLineByteByByte(in)).isEmpty()) {
+				try {
+					header.add(new HeaderField(line));
+				} catch (StringIndexOutOfBoundsException sie) {
+					log.error("Header read line that caused problems: " + line);
+				}
+			}
+			return;
+		}
+
+		Scanner scanner = new Scanner(in);
+		try {
+			while (true) {
+				scanner.nextLine();
+				if (scanner.lineStart == scanner.lineEnd)
+					return;
+				addField(header, scanner.buf, scanner.lineStart, scanner.lineEnd);
+			}
+		} finally {
+			scanner.finish();
+		}
+	}
+
+	private static void addField(Header header, byte[] buf, int start, int end) {
+		int colon = indexOf(buf, start, end, (byte) ':');
+		if (colon == -1) {
+			log.error("Header read line that caused problems: " + new String(buf, start, end - start, ISO_8859_1));
+			return;
+		}
+		// same as String.trim()
+		int valueStart = colon + 1;
+		while (valueStart < end && (buf[valueStart] & 0xFF) <= ' ')
+			valueStart++;
+		int valueEnd = end;
+		while (valueEnd > valueStart && (buf[valueEnd - 1] & 0xFF) <= ' ')
+			valueEnd--;
+		header.add(new HeaderField(getHeaderName(buf, start, colon),
+				new String(buf, valueStart, valueEnd - valueStart, ISO_8859_1)));
+	}
+
+	private static int indexOf(byte[] buf, int start, int end, byte b) {
+		for (int i = start; i < end; i++)
+			if (buf[i] == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns a shared instance for well-known header names. To keep the header as it was received, the case has to
+	 * match exactly.
+	 */
+	static HeaderName getHeaderName(byte[] buf, int start, int end) {
+		int length = end - start;
+		if (length < KNOWN_NAMES.length)
+			for (HeaderName known : KNOWN_NAMES[length])
+				if (equals(known.getName(), buf, start))
+					return known;
+		return new HeaderName(new String(buf, start, length, ISO_8859_1));
+	}
+
+	private static boolean equals(String name, byte[] buf, int start) {
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) != (buf[start + i] & 0xFF))
+				return false;
+		return true;
+	}
+
+	private static HeaderName[][] createKnownNames() {
+		List<String> names = new ArrayList<>(List.of(Header.TRANSFER_ENCODING, Header.CONTENT_ENCODING,
+				Header.CONTENT_LENGTH, Header.CONTENT_TYPE, Header.CONNECTION, Header.PROXY_CONNECTION, Header.HOST,
+				Header.EXPECT, Header.X_FORWARDED_FOR, Header.X_FORWARDED_PROTO, Header.X_FORWARDED_HOST,
+				Header.PROXY_AUTHORIZATION, Header.SOAP_ACTION, Header.ACCEPT, Header.LOCATION, Header.AUTHORIZATION,
+				Header.SET_COOKIE, Header.COOKIE, Header.USER_AGENT, Header.X_REQUESTED_WITH, Header.EXPIRES,
+				Header.KEEP_ALIVE, Header.SERVER, Header.PRAGMA, Header.CACHE_CONTROL, Header.UPGRADE,
+				Header.LAST_MODIFIED, Header.IF_MODIFIED_SINCE, Header.WWW_AUTHENTICATE,
+				Header.ACCESS_CONTROL_ALLOW_ORIGIN, Header.ORIGIN, "Accept-Encoding", "Accept-Language", "Date",
+				"ETag", "If-None-Match", "Referer", "Vary", "Age", "Via", "Content-Language"));
+		for (String name : List.copyOf(names))
+			names.add(name.toLowerCase(Locale.ROOT));
+
+		int maxLength = names.stream().mapToInt(String::length).max().orElse(0);
+		List<List<HeaderName>> byLength = new ArrayList<>();
+		for (int i = 0; i <= maxLength; i++)
+			byLength.add(new ArrayList<>());
+		for (String name : new LinkedHashSet<>(names))
+			byLength.get(name.length()).add(new HeaderName(name));
+
+		HeaderName[][] result = new HeaderName[maxLength + 1][];
+		for (int i = 0; i <= maxLength; i++)
+			result[i] = byLength.get(i).toArray(new HeaderName[0]);
+		return result;
+	}
+
+	static String readLineByteByByte(InputStream in) throws IOException, EndOfStreamException {
+
+		StringBuilder line = new StringBuilder(128);
+
+		int b;
+		int l = 0;
+		while ((b = in.read()) != -1) {
+			if (b == 13) {
+				//noinspection ResultOfMethodCallIgnored
+				in.read();
+				return line.toString();
+			}
+			if (b == 10) {
+				in.mark(2);
+				if (in.read() != 13)
+					in.reset();
+				return line.toString();
+			}
+
+			line.append((char) b);
+			if (++l == MAX_LINE_LENGTH)
+				throw new LineTooLongException(line.toString());
+		}
+
+		throw new EOFWhileReadingLineException(line.toString());
+	}
+
+	/**
+	 * Scans lines of a stream supporting mark/reset. The stream is marked at the first byte of the buffer, and
+	 * buf[0..limit) holds the bytes read since.
+	 */
+	private static final class Scanner {
+		private final InputStream in;
+		private final byte[] buf;
+		/**
+		 * Start of the next line, all bytes before have been consumed.
+		 */
+		private int start;
+		private int limit;
+		/**
+		 * The line found by {@link #nextLine()}, without the line terminator.
+		 */
+		private int lineStart, lineEnd;
+
+		Scanner(InputStream in) {
+			this.in = in;
+			this.buf = BUFFERS.get();
+			in.mark(buf.length);
+		}
+
+		/**
+		 * Finds the next line and sets {@link #lineStart} and {@link #lineEnd}.
+		 */
+		void nextLine() throws IOException, EndOfStreamException {
+			int i = start;
+			while (true) {
+				for (; i < limit; i++) {
+					byte b = buf[i];
+					if (b == '\r' || b == '\n') {
+						endLine(i, b == '\r');
+						return;
+					}
+					if (i + 1 - start == MAX_LINE_LENGTH) {
+						String line = new String(buf, start, MAX_LINE_LENGTH, ISO_8859_1);
+						start = i + 1;
+						throw new LineTooLongException(line);
+					}
+				}
+				int shift = fill();
+				if (shift == -1) {
+					String line = new String(buf, start, limit - start, ISO_8859_1);
+					start = limit;
+					throw new EOFWhileReadingLineException(line);
+				}
+				i -= shift;
+			}
+		}
+
+		/**
+		 * After a CR, the next byte is skipped, whatever it is. After a LF, the next byte is only skipped if it is a CR.
+		 */
+		private void endLine(int end, boolean cr) throws IOException {
+			if (end + 1 == limit) {
+				int shift = fill();
+				if (shift == -1) {
+					lineStart = start;
+					lineEnd = end;
+					start = end + 1;
+					return;
+				}
+				end -= shift;
+			}
+			lineStart = start;
+			lineEnd = end;
+			start = cr || buf[end + 1] == '\r' ? end + 2 : end + 1;
+		}
+
+		/**
+		 * Reads more bytes. If the buffer is full, the consumed bytes are dropped first.
+		 *
+		 * @return the number of bytes the content of the buffer has been moved to the front, or -1 at the end of the
+		 * stream
+		 */
+		private int fill() throws IOException {
+			int shift = 0;
+			if (limit == buf.length) {
+				shift = start;
+				in.reset();
+				in.skipNBytes(shift);
+				in.mark(buf.length);
+				in.skipNBytes(limit - shift);
+				System.arraycopy(buf, shift, buf, 0, limit - shift);
+				limit -= shift;
+				start = 0;
+			}
+			int read = in.read(buf, limit, Math.min(CHUNK_SIZE, buf.length - limit));
+			if (read == -1)
+				return -1;
+			limit += read;
+			return shift;
+		}
+
+		/**
+		 * Repositions the stream right after the consumed bytes.
+		 */
+		void finish() throws IOException {
+			in.reset();
+			in.skipNBytes(start);
+		}
+	}
+}
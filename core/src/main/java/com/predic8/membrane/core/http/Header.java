@@ -26,7 +26,6 @@ import java.util.*;
 import java.util.regex.*;
 
 import static com.predic8.membrane.core.http.MimeType.*;
-import static com.predic8.membrane.core.util.HttpUtil.readLine;
 import static java.nio.charset.StandardCharsets.*;
 import static java.util.regex.Pattern.*;
 import static org.apache.commons.codec.binary.Base64.*;
@@ -67,6 +66,7 @@ public class Header {
 	public static final String SOAP_ACTION = "SOAPAction";
 
 	public static final String ACCEPT = "Accept";
+	public static final String ACCEPT_ENCODING = "Accept-Encoding";
 	public static final String LOCATION = "Location";
 
 	public static final String AUTHORIZATION = "Authorization";
@@ -124,15 +124,7 @@ public class Header {
 	}
 
 	public Header(InputStream in) throws IOException, EndOfStreamException {
-		String line;
-
-		while (!(line = readLine(in)).isEmpty()) {
-			try {
-				add(new HeaderField(line));
-			} catch (StringIndexOutOfBoundsException sie) {
-				log.error("Header read line that caused problems: " + line);
-			}
-		}
+		HeadParser.readHeaderFields(in, this);
 	}
 
 	public Header(String header) throws IOException, EndOfStreamException {
@@ -24,6 +24,7 @@ import static java.util.Objects.hash;
 public class HeaderName {
 
 	private final String name;
+	private int hash;
 
 	public HeaderName(String name) {
 		this.name = name;
@@ -41,7 +42,10 @@ public class HeaderName {
 
 	@Override
 	public int hashCode() {
-		return hash(name.toLowerCase());
+		int h = hash;
+		if (h == 0)
+			hash = h = hash(name.toLowerCase());
+		return h;
 	}
 
 	public String getName() {
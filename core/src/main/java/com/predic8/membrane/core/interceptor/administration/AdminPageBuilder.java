@@ -22,6 +22,7 @@ import com.predic8.membrane.core.interceptor.Interceptor.*;
 import com.predic8.membrane.core.interceptor.balancer.*;
 import com.predic8.membrane.core.interceptor.flow.*;
 import com.predic8.membrane.core.rules.*;
+import com.predic8.membrane.core.stats.*;
 import com.predic8.membrane.core.transport.http.*;
 import com.predic8.membrane.core.util.*;
 import org.apache.commons.text.*;
@@ -426,6 +427,35 @@ public class AdminPageBuilder extends Html {
 		end();
 	}
 
+	protected void createLatencyTable(Map<Integer, TimeCollector> timeCollectors) {
+		table().attr("cellpadding", "0", "cellspacing", "0", "border", "0", "class", "display", "id", "latency-table");
+		thead();
+		tr();
+		createThs("Status Codes", "Phase", "Count", "p50", "p99", "p99.9", "Maximum Time");
+		end();
+		end();
+		tbody();
+		for (Map.Entry<Integer, TimeCollector> entry : new TreeMap<>(timeCollectors).entrySet()) {
+			for (Map.Entry<String, LatencyHistogram> phase : entry.getValue().getTrackedTimes().entrySet()) {
+				LatencyHistogram histogram = phase.getValue();
+				if (histogram.isEmpty())
+					continue;
+				tr().style("text-align: right;");
+				td().style("text-align:left;").text(entry.getKey() + "xx").end();
+				td().style("text-align:left;").text(phase.getKey()).end();
+				createTds(
+						""+histogram.getCount(),
+						histogram.getValueAtPercentile(50) + " ms",
+						histogram.getValueAtPercentile(99) + " ms",
+						histogram.getValueAtPercentile(99.9) + " ms",
+						histogram.getMax() + " ms");
+				end();
+			}
+		}
+		end();
+		end();
+	}
+
 	protected void createStatisticsTable() {
 		table().attr("cellpadding", "0", "cellspacing", "0", "border", "0", "class", "display", "id", "statistics-table");
 		thead();
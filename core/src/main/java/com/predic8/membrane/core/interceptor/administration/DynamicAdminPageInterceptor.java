@@ -111,6 +111,8 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 				div().id("tab2");
 				createStatusCodesTable(rule.getStatisticCollector().getStatisticsByStatusCodes());
 				br();
+				createLatencyTable(rule.getStatisticCollector().getTimeStatisticsByStatusCodeRange());
+				br();
 				createButton("View Messages", createQueryString("proxy", rule.toString()));
 				end();
 				end();
@@ -147,6 +149,8 @@ public class DynamicAdminPageInterceptor extends AbstractInterceptor {
 				}
 				h2().text("Status Codes").end();
 				createStatusCodesTable(rule.getStatisticCollector().getStatisticsByStatusCodes());
+				h2().text("Latencies").end();
+				createLatencyTable(rule.getStatisticCollector().getTimeStatisticsByStatusCodeRange());
 				h2().text("Interceptors").end();
 				createInterceptorTable(rule.getInterceptors());
 			}
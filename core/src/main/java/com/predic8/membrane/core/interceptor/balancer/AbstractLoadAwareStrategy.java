@@ -0,0 +1,66 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.config.AbstractXmlElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.List;
+
+/**
+ * Base class of strategies which send requests to the node with the lowest load. The load of a node is computed
+ * by {@link #getCost(Node)} from the statistics collected on the {@link Node} itself, so dispatching takes no lock.
+ */
+public abstract class AbstractLoadAwareStrategy extends AbstractXmlElement implements DispatchingStrategy {
+
+	@Override
+	public void init(Router router) {
+		// do nothing
+	}
+
+	@Override
+	public void done(AbstractExchange exc) {
+	}
+
+	@Override
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
+		List<Node> endpoints = interceptor.getEndpoints(); //an unmodifiable snapshot, see Cluster.getAvailableNodes()
+		if (endpoints.isEmpty())
+			throw new EmptyNodeListException();
+		if (endpoints.size() == 1)
+			return endpoints.get(0);
+		return choose(endpoints);
+	}
+
+	/**
+	 * @param endpoints containing at least 2 entries
+	 */
+	protected abstract Node choose(List<Node> endpoints);
+
+	/**
+	 * @return the load of the node, lower is better. By default, the number of requests running on it.
+	 */
+	protected double getCost(Node node) {
+		return node.getThreads();
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(getElementName());
+		out.writeEndElement();
+	}
+}
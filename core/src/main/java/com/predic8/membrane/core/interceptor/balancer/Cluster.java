@@ -36,6 +36,28 @@ public class Cluster {
 	private final List<Node> nodes = Collections.synchronizedList(new LinkedList<>());
 	private final Map<String, Session> sessions = new Hashtable<>();
 
+	/**
+	 * Incremented whenever a node is added or removed, while holding the lock of {@link #nodes}.
+	 */
+	private volatile int modifications;
+	private volatile AvailableNodes availableNodes;
+
+	/**
+	 * The nodes which were up when the list of available nodes was last computed. The list is reused until a node
+	 * is added, removed or changes its status, so that dispatching a request does not have to copy it.
+	 */
+	private record AvailableNodes(int modifications, Node[] nodes, boolean[] up, List<Node> available) {
+
+		boolean isCurrent(int modifications) {
+			if (this.modifications != modifications)
+				return false;
+			for (int i = 0; i < nodes.length; i++)
+				if (nodes[i].isUp() != up[i])
+					return false;
+			return true;
+		}
+	}
+
 	public Cluster() {
 	}
 
@@ -61,17 +83,32 @@ public class Cluster {
 	}
 
 	public boolean removeNode(Node node) {
-		return nodes.remove(node);
+		synchronized (nodes) {
+			modifications++;
+			return nodes.remove(node);
+		}
 	}
 
+	/**
+	 * @return an unmodifiable list of the nodes which are up
+	 */
 	public List<Node> getAvailableNodes(long timeout) {
-		List<Node> l = new LinkedList<>();
+		getAllNodes(timeout);
+		AvailableNodes an = availableNodes;
+		if (an != null && an.isCurrent(modifications))
+			return an.available();
 		synchronized (nodes) {
-			for (Node n : getAllNodes(timeout)) {
-				if ( n.isUp() ) l.add(n);
+			Node[] all = nodes.toArray(new Node[0]);
+			boolean[] up = new boolean[all.length];
+			List<Node> available = new ArrayList<>(all.length);
+			for (int i = 0; i < all.length; i++) {
+				up[i] = all[i].isUp();
+				if (up[i]) available.add(all[i]);
 			}
+			an = new AvailableNodes(modifications, all, up, Collections.unmodifiableList(available));
 		}
-		return l;
+		availableNodes = an;
+		return an.available();
 	}
 
 	public List<Node> getAllNodes(long timeout) {
@@ -97,7 +134,7 @@ public class Cluster {
 			return getNode(ep);
 		}
 		log.debug("creating endpoint: "+ep);
-		nodes.add(new Node(ep.getHost(), ep.getPort()));
+		addNode(new Node(ep.getHost(), ep.getPort()));
 		return getNode(ep);
 	}
 
@@ -108,19 +145,29 @@ public class Cluster {
 
 			@Override
 			public boolean add(Node e) {
-				nodes.add(e);
+				addNode(e);
 				return super.add(e);
 			}
 		};
 	}
 
+	private void addNode(Node node) {
+		synchronized (nodes) {
+			modifications++;
+			nodes.add(node);
+		}
+	}
+
 	/**
 	 * @description Specifies a node.
 	 */
 	@MCChildElement
 	public void setNodes(List<Node> nodes) {
-		this.nodes.clear();
-		this.nodes.addAll(nodes);
+		synchronized (this.nodes) {
+			modifications++;
+			this.nodes.clear();
+			this.nodes.addAll(nodes);
+		}
 	}
 
 	public String getName() {
@@ -0,0 +1,51 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.annot.MCElement;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @description Sends each request to the node with the fewest requests currently running. Nodes which respond more
+ * slowly accumulate running requests and therefore get fewer new ones.
+ * <p>All nodes are compared on every request. For large clusters, <i>powerOfTwoChoicesStrategy</i> is cheaper.</p>
+ */
+@MCElement(name="leastOutstandingStrategy")
+public class LeastOutstandingStrategy extends AbstractLoadAwareStrategy {
+
+	@Override
+	protected Node choose(List<Node> endpoints) {
+		// start at a random node, so ties do not always go to the first one
+		int n = endpoints.size();
+		int start = ThreadLocalRandom.current().nextInt(n);
+		Node best = null;
+		double bestCost = Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			Node node = endpoints.get((start + i) % n);
+			double cost = getCost(node);
+			if (best == null || cost < bestCost) {
+				best = node;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	protected String getElementName() {
+		return "leastOutstandingStrategy";
+	}
+}
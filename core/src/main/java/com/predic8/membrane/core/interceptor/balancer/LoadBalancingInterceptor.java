@@ -103,7 +103,11 @@ public class LoadBalancingInterceptor extends AbstractInterceptor {
 	public void handleAbort(Exchange exc) {
 		if(nodeOnlineChecker != null){
 			nodeOnlineChecker.handle(exc);
-		}		
+		}
+		// the request is no longer running on the node
+		Node n = (Node) exc.getProperty("dispatchedNode");
+		if (n != null)
+			n.removeThread();
 	}
 
 	@Override
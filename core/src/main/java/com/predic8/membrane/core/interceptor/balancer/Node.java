@@ -17,6 +17,7 @@ package com.predic8.membrane.core.interceptor.balancer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -46,6 +47,12 @@ public class Node extends AbstractXmlElement {
 	private AtomicInteger counter = new AtomicInteger();
 	private AtomicInteger threads = new AtomicInteger();
 
+	/**
+	 * Exponentially weighted moving average of the response time in milliseconds, stored as the bits of a double.
+	 */
+	private final AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0));
+	private volatile long lastLatencyUpdate;
+
 	private ConcurrentHashMap<Integer, StatisticCollector> statusCodes = new ConcurrentHashMap<>();
 
 	public Node(String host, int port) {
@@ -190,13 +197,58 @@ public class Node extends AbstractXmlElement {
 
 	public void removeThread() {
 		if (!isUp()) return;
-		threads.incrementAndGet();
+		// the counter is reset when the node goes down, so requests started before must not make it negative
+		threads.updateAndGet(t -> t > 0 ? t - 1 : 0);
 	}
 
+	/**
+	 * @return the number of requests currently running on this node
+	 */
 	public int getThreads() {
 		return threads.get();
 	}
 
+	/**
+	 * Adds a response time to the moving average. Older values lose half of their weight every
+	 * <code>halfLife</code> nanoseconds. With <code>peak</code>, a response time above the average replaces it,
+	 * so the average follows a node getting slower immediately, and one getting faster gradually.
+	 */
+	public void recordLatency(long millis, long halfLife, boolean peak) {
+		long now = System.nanoTime();
+		long last = lastLatencyUpdate;
+		lastLatencyUpdate = now;
+		double weight = last == 0 || halfLife <= 0 ? 0 : Math.pow(0.5, (double) Math.max(0, now - last) / halfLife);
+		long prev;
+		double next;
+		do {
+			prev = latencyEwma.get();
+			double ewma = Double.longBitsToDouble(prev);
+			next = ewma == 0 || (peak && millis > ewma) ? millis : ewma * weight + millis * (1 - weight);
+			// 0 means that nothing has been recorded yet
+			next = Math.max(next, Double.MIN_NORMAL);
+		} while (!latencyEwma.compareAndSet(prev, Double.doubleToLongBits(next)));
+	}
+
+	/**
+	 * @return the moving average of the response time in milliseconds, or 0 if no response has been recorded
+	 */
+	public double getLatencyEwma() {
+		return Double.longBitsToDouble(latencyEwma.get());
+	}
+
+	/**
+	 * @return the moving average of the response time, decayed towards 0 for the time since the last response
+	 * was recorded. A node which has been avoided because it was slow is therefore tried again eventually.
+	 */
+	public double getLatencyEwma(long halfLife) {
+		double ewma = getLatencyEwma();
+		long last = lastLatencyUpdate;
+		if (ewma == 0 || last == 0 || halfLife <= 0)
+			return ewma;
+		double decayed = ewma * Math.pow(0.5, (double) Math.max(0, System.nanoTime() - last) / halfLife);
+		return Math.max(decayed, Double.MIN_NORMAL);
+	}
+
 	public Map<Integer, StatisticCollector> getStatisticsByStatusCodes() {
 		return statusCodes;
 	}
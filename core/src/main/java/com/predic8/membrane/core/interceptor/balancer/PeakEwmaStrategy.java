@@ -0,0 +1,85 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.annot.MCAttribute;
+import com.predic8.membrane.annot.MCElement;
+import com.predic8.membrane.core.exchange.AbstractExchange;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * @description Picks two nodes at random and sends the request to the one with the lower expected response time:
+ * the moving average of its response times, multiplied by the number of requests running on it plus one.
+ * <p>The average is a "peak" average: a response slower than the average replaces it, so a node which gets slow
+ * is avoided immediately. Faster responses only lower it gradually, losing half of the weight of older responses
+ * every <i>halfLife</i> milliseconds. Without responses, the average decays with the same rate, so an avoided node
+ * is tried again eventually.</p>
+ * <p>Nodes which have not responded yet are only used while they have no running requests.</p>
+ */
+@MCElement(name="peakEwmaStrategy")
+public class PeakEwmaStrategy extends PowerOfTwoChoicesStrategy {
+
+	/**
+	 * Expected response time in milliseconds of a node without a response yet, as long as it has running requests.
+	 */
+	private static final double UNKNOWN_LATENCY_PENALTY = 1_000_000;
+
+	private long halfLife = 5000;
+
+	@Override
+	protected double getCost(Node node) {
+		int running = node.getThreads();
+		double latency = node.getLatencyEwma(halfLife * 1_000_000);
+		if (latency == 0)
+			return running == 0 ? 0 : UNKNOWN_LATENCY_PENALTY + running;
+		return latency * (running + 1);
+	}
+
+	@Override
+	public void done(AbstractExchange exc) {
+		Node node = (Node) exc.getProperty("dispatchedNode");
+		long sent = exc.getTimeReqSent();
+		long received = exc.getTimeResReceived();
+		if (node == null || sent == 0 || received < sent)
+			return;
+		node.recordLatency(received - sent, halfLife * 1_000_000, true);
+	}
+
+	public long getHalfLife() {
+		return halfLife;
+	}
+
+	/**
+	 * @description Time in milliseconds after which a response time only counts half as much for the average.
+	 * @default 5000
+	 */
+	@MCAttribute
+	public void setHalfLife(long halfLife) {
+		this.halfLife = halfLife;
+	}
+
+	@Override
+	public void write(XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(getElementName());
+		out.writeAttribute("halfLife", "" + halfLife);
+		out.writeEndElement();
+	}
+
+	@Override
+	protected String getElementName() {
+		return "peakEwmaStrategy";
+	}
+}
@@ -0,0 +1,46 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.annot.MCElement;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @description Picks two nodes at random and sends the request to the one with fewer requests currently running.
+ * <p>This almost matches <i>leastOutstandingStrategy</i>, but costs the same for any number of nodes, and does
+ * not send a burst of requests to the same node when several balancers use stale information.</p>
+ */
+@MCElement(name="powerOfTwoChoicesStrategy")
+public class PowerOfTwoChoicesStrategy extends AbstractLoadAwareStrategy {
+
+	@Override
+	protected Node choose(List<Node> endpoints) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int n = endpoints.size();
+		int i = random.nextInt(n);
+		int j = random.nextInt(n - 1);
+		if (j >= i)
+			j++;
+		Node a = endpoints.get(i);
+		Node b = endpoints.get(j);
+		return getCost(b) < getCost(a) ? b : a;
+	}
+
+	@Override
+	protected String getElementName() {
+		return "powerOfTwoChoicesStrategy";
+	}
+}
@@ -21,6 +21,7 @@ import com.predic8.membrane.core.config.AbstractXmlElement;
 import com.predic8.membrane.core.exchange.AbstractExchange;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Strategy that iterates the endpoints according to <a href="https://en.wikipedia.org/wiki/Round-robin">...</a>
@@ -30,14 +31,14 @@ import java.util.List;
 @MCElement(name="roundRobinStrategy")
 public class RoundRobinStrategy extends AbstractXmlElement implements DispatchingStrategy {
 
-	private int last = -1;
+	private final AtomicInteger last = new AtomicInteger(-1);
 
 	public void done(AbstractExchange exc) {
 	}
 
-	public synchronized Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
+	public Node dispatch(LoadBalancingInterceptor interceptor, AbstractExchange exc) throws EmptyNodeListException {
 		//getting a decoupled copy to avoid index out of bounds in case of concurrent modification (dynamic config files reload...)
-		List<Node> endpoints = interceptor.getEndpoints(); //this calls synchronizes access internally.
+		List<Node> endpoints = interceptor.getEndpoints(); //an unmodifiable snapshot, see Cluster.getAvailableNodes()
 		if (endpoints.isEmpty()) {
 			throw new EmptyNodeListException();
 		}
@@ -45,15 +46,8 @@ public class RoundRobinStrategy extends AbstractXmlElement implements Dispatchin
 		return endpoints.get(i);
 	}
 
-	/**
-	 * Must be atomic, therefore synchronized.
-	 */
-	private synchronized int incrementAndGet(int numEndpoints) {
-		last ++;
-		if (last >= numEndpoints) {
-			last = 0;
-		}
-		return last;
+	private int incrementAndGet(int numEndpoints) {
+		return Math.floorMod(last.incrementAndGet(), numEndpoints);
 	}
 
 	@Override
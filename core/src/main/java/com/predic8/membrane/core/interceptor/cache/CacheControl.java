@@ -0,0 +1,151 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.core.http.*;
+
+import java.util.*;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * The directives of the Cache-Control header fields of a message, see
+ * <a href="https://www.rfc-editor.org/rfc/rfc7234#section-5.2">RFC 7234, Section 5.2</a>.
+ * <p>
+ * Directives with a delta-seconds argument are -1 if they are absent or cannot be parsed. The
+ * <code>Pragma: no-cache</code> header is treated as <code>Cache-Control: no-cache</code>, as described in
+ * Section 5.4.
+ */
+public class CacheControl {
+
+    private final Map<String, String> directives = new HashMap<>();
+
+    CacheControl(String value) {
+        if (value == null)
+            return;
+        for (String directive : splitOutsideQuotes(value)) {
+            directive = directive.trim();
+            if (directive.isEmpty())
+                continue;
+            int eq = directive.indexOf('=');
+            if (eq == -1) {
+                directives.put(directive.toLowerCase(ROOT), null);
+                continue;
+            }
+            String argument = directive.substring(eq + 1).trim();
+            if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\""))
+                argument = argument.substring(1, argument.length() - 1);
+            directives.put(directive.substring(0, eq).trim().toLowerCase(ROOT), argument);
+        }
+    }
+
+    public static CacheControl of(Message message) {
+        Header header = message.getHeader();
+        CacheControl cc = new CacheControl(header.getNormalizedValue("Cache-Control"));
+        String pragma = header.getNormalizedValue("Pragma");
+        if (pragma != null && pragma.toLowerCase(ROOT).contains("no-cache"))
+            cc.directives.putIfAbsent("no-cache", null);
+        return cc;
+    }
+
+    private static List<String> splitOutsideQuotes(String value) {
+        List<String> result = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                result.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(value.substring(start));
+        return result;
+    }
+
+    public boolean has(String directive) {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * @return the argument in seconds or -1
+     */
+    public long getSeconds(String directive) {
+        String argument = directives.get(directive);
+        if (argument == null)
+            return -1;
+        try {
+            return Math.max(0, Long.parseLong(argument));
+        } catch (NumberFormatException e) {
+            // too large values have to be treated as 2^31 (RFC 7234, 1.2.1)
+            return argument.chars().allMatch(Character::isDigit) && !argument.isEmpty() ? Integer.MAX_VALUE : -1;
+        }
+    }
+
+    public boolean isNoStore() {
+        return has("no-store");
+    }
+
+    /**
+     * @return true for <code>no-cache</code> without field names. With field names, the response may be stored
+     * without these fields, which is not supported, so it is treated as unqualified no-cache.
+     */
+    public boolean isNoCache() {
+        return has("no-cache");
+    }
+
+    public boolean isPrivate() {
+        return has("private");
+    }
+
+    public boolean isPublic() {
+        return has("public");
+    }
+
+    public boolean isMustRevalidate() {
+        return has("must-revalidate");
+    }
+
+    public boolean isProxyRevalidate() {
+        return has("proxy-revalidate");
+    }
+
+    public boolean isOnlyIfCached() {
+        return has("only-if-cached");
+    }
+
+    public long getMaxAge() {
+        return getSeconds("max-age");
+    }
+
+    public long getSMaxAge() {
+        return getSeconds("s-maxage");
+    }
+
+    public long getMinFresh() {
+        return getSeconds("min-fresh");
+    }
+
+    /**
+     * @return the argument of <code>max-stale</code>, Long.MAX_VALUE if it has no argument, or -1 if it is absent
+     */
+    public long getMaxStale() {
+        if (!has("max-stale"))
+            return -1;
+        long seconds = getSeconds("max-stale");
+        return seconds == -1 ? Long.MAX_VALUE : seconds;
+    }
+}
@@ -48,6 +48,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *                  package updates will be stuck in the past until the cache (on disk) is cleared manually. -
  *                  This is - simply put - the only use case, where using this class makes any sense.
  *              </p>
+ *              <p>
+ *                  For HTTP caching of APIs, use <i>httpCache</i> instead.
+ *              </p>
  * @topic 4. Interceptors/Features
  */
 @MCElement(name="cache")
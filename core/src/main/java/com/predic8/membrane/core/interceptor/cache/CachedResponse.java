@@ -0,0 +1,296 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.core.http.*;
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+
+/**
+ * A response stored by the {@link ResponseCache}, see
+ * <a href="https://www.rfc-editor.org/rfc/rfc7234#section-4.2">RFC 7234, Section 4.2</a> for the calculation of
+ * freshness and age.
+ * <p>
+ * Instances are immutable. Bodies of at least <code>offHeapThreshold</code> bytes are kept in a direct buffer
+ * outside the Java heap, so large cached responses do not add to the work of the garbage collector. Revalidation
+ * creates a new instance sharing the body.
+ */
+public class CachedResponse {
+
+    /**
+     * Hop-by-hop headers and headers describing the transfer of the body are not stored.
+     */
+    private static final List<String> NOT_STORED = List.of("Connection", "Keep-Alive", "Proxy-Connection",
+            "Transfer-Encoding", "TE", "Trailer", "Upgrade", "Content-Length", "Age");
+
+    /**
+     * Headers not updated by a 304 response, see RFC 7234, Section 4.3.4.
+     */
+    private static final List<String> NOT_UPDATED = List.of("Content-Length", "Content-Encoding", "Content-Type",
+            "Content-Range");
+
+    /**
+     * Status codes that are cacheable by default, see RFC 7231, Section 6.1.
+     */
+    static final Set<Integer> CACHEABLE_BY_DEFAULT = Set.of(200, 203, 204, 300, 301, 404, 405, 410, 414, 501);
+
+    static final long MAX_HEURISTIC_LIFETIME = Duration.ofDays(1).toMillis();
+
+    private final int statusCode;
+    private final String statusMessage;
+    private final Header header;
+    private final byte[] heapBody;
+    private final ByteBuffer offHeapBody;
+    private final long requestTime;
+    private final long responseTime;
+
+    /**
+     * @param requestTime time the request was sent, in milliseconds since the epoch
+     * @param responseTime time the response was received, in milliseconds since the epoch
+     */
+    CachedResponse(Response response, byte[] body, int offHeapThreshold, long requestTime, long responseTime) {
+        this.statusCode = response.getStatusCode();
+        this.statusMessage = response.getStatusMessage();
+        this.header = new Header(response.getHeader());
+        for (String name : NOT_STORED)
+            header.removeFields(name);
+        if (body.length >= offHeapThreshold) {
+            heapBody = null;
+            offHeapBody = ByteBuffer.allocateDirect(body.length).put(body).flip().asReadOnlyBuffer();
+        } else {
+            heapBody = body;
+            offHeapBody = null;
+        }
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+    }
+
+    private CachedResponse(CachedResponse stored, Header header, long requestTime, long responseTime) {
+        this.statusCode = stored.statusCode;
+        this.statusMessage = stored.statusMessage;
+        this.header = header;
+        this.heapBody = stored.heapBody;
+        this.offHeapBody = stored.offHeapBody;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+    }
+
+    /**
+     * Creates the updated response after a successful revalidation.
+     *
+     * @param notModified the 304 response of the server
+     */
+    CachedResponse revalidated(Response notModified, long requestTime, long responseTime) {
+        Header updated = new Header(header);
+        for (HeaderField field : notModified.getHeader().getAllHeaderFields()) {
+            String name = field.getHeaderName().toString();
+            if (NOT_STORED.stream().anyMatch(name::equalsIgnoreCase) || NOT_UPDATED.stream().anyMatch(name::equalsIgnoreCase))
+                continue;
+            updated.removeFields(name);
+        }
+        for (HeaderField field : notModified.getHeader().getAllHeaderFields()) {
+            String name = field.getHeaderName().toString();
+            if (NOT_STORED.stream().noneMatch(name::equalsIgnoreCase) && NOT_UPDATED.stream().noneMatch(name::equalsIgnoreCase))
+                updated.add(new HeaderField(field));
+        }
+        return new CachedResponse(this, updated, requestTime, responseTime);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Header getHeader() {
+        return header;
+    }
+
+    public String getETag() {
+        return header.getFirstValue("ETag");
+    }
+
+    public String getLastModified() {
+        return header.getFirstValue("Last-Modified");
+    }
+
+    public CacheControl getCacheControl() {
+        return new CacheControl(header.getNormalizedValue("Cache-Control"));
+    }
+
+    public int getBodyLength() {
+        return heapBody != null ? heapBody.length : offHeapBody.capacity();
+    }
+
+    public boolean isOffHeap() {
+        return offHeapBody != null;
+    }
+
+    /**
+     * Rough number of bytes the entry occupies, used to bound the size of the cache.
+     */
+    long getSize() {
+        return 200L + header.estimateHeapSize() + getBodyLength();
+    }
+
+    /**
+     * @return the current age in milliseconds
+     */
+    long getAge(long now) {
+        long apparentAge = Math.max(0, responseTime - getDate());
+        long ageValue = parseAge(header.getFirstValue("Age"));
+        long correctedAgeValue = ageValue + (responseTime - requestTime);
+        long correctedInitialAge = Math.max(apparentAge, correctedAgeValue);
+        return correctedInitialAge + Math.max(0, now - responseTime);
+    }
+
+    /**
+     * @param shared whether s-maxage applies
+     * @return the freshness lifetime in milliseconds
+     */
+    long getFreshnessLifetime(boolean shared) {
+        CacheControl cc = getCacheControl();
+        if (shared && cc.getSMaxAge() != -1)
+            return cc.getSMaxAge() * 1000;
+        if (cc.getMaxAge() != -1)
+            return cc.getMaxAge() * 1000;
+        String expires = header.getFirstValue("Expires");
+        if (expires != null) {
+            long expiresTime = parseDate(expires);
+            return expiresTime == -1 ? 0 : Math.max(0, expiresTime - getDate());
+        }
+        return getHeuristicFreshnessLifetime();
+    }
+
+    /**
+     * 10% of the time since the last modification, see RFC 7234, Section 4.2.2.
+     */
+    private long getHeuristicFreshnessLifetime() {
+        if (!CACHEABLE_BY_DEFAULT.contains(statusCode) || getLastModified() == null)
+            return 0;
+        long lastModified = parseDate(getLastModified());
+        if (lastModified == -1)
+            return 0;
+        return Math.min(MAX_HEURISTIC_LIFETIME, Math.max(0, (getDate() - lastModified) / 10));
+    }
+
+    boolean hasExplicitExpiration(boolean shared) {
+        CacheControl cc = getCacheControl();
+        return (shared && cc.getSMaxAge() != -1) || cc.getMaxAge() != -1 || header.getFirstValue("Expires") != null;
+    }
+
+    boolean hasValidator() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    /**
+     * The time of the Date header, or the response time if there is none.
+     */
+    private long getDate() {
+        long date = parseDate(header.getFirstValue("Date"));
+        return date == -1 ? responseTime : date;
+    }
+
+    /**
+     * Off-heap bodies are streamed from the shared buffer instead of being copied onto the heap first.
+     */
+    Response toResponse(long now) {
+        Header h = new Header(header);
+        h.add("Age", Long.toString(getAge(now) / 1000));
+        Response response = Response.ResponseBuilder.newInstance()
+                .status(statusCode, statusMessage)
+                .header(h)
+                .build();
+        if (heapBody != null) {
+            response.setBodyContent(heapBody);
+        } else {
+            try {
+                response.setBody(new Body(new ByteBufferInputStream(offHeapBody.duplicate()), getBodyLength()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        response.getHeader().setContentLength(getBodyLength());
+        return response;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static long parseAge(String age) {
+        if (age == null)
+            return 0;
+        try {
+            return Math.max(0, Long.parseLong(age.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return milliseconds since the epoch, or -1 if the date is missing or invalid
+     */
+    static long parseDate(@Nullable String date) {
+        if (date == null)
+            return -1;
+        try {
+            return ZonedDateTime.parse(date.trim(), RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    static String formatDate(long millis) {
+        return RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,571 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.annot.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.model.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import static com.predic8.membrane.core.interceptor.Outcome.*;
+
+/**
+ * @description <p>Caches responses of GET requests in memory following
+ * <a href="https://www.rfc-editor.org/rfc/rfc7234">RFC 7234</a> as a shared cache. Cache-Control, Expires, Vary,
+ * ETag and Last-Modified of the responses are honored. Stale responses are revalidated with conditional requests,
+ * and conditional requests of clients are answered from the cache.</p>
+ * <p>The cache is bounded by <i>maxSize</i> and evicts the least recently used responses first. While a response
+ * is fetched from the backend, further requests for the same URL wait for it instead of being sent to the backend
+ * as well. Successful POST, PUT, PATCH and DELETE requests invalidate the responses cached for their URL.</p>
+ * <p>Responses setting cookies, partial responses, and responses to requests with an Authorization header (unless
+ * they are marked as public) are not cached.</p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name = "httpCache")
+public class HttpCacheInterceptor extends AbstractInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpCacheInterceptor.class);
+
+    private static final String PROPERTY_PREFIX = "membrane.httpCache.";
+    static final String REQUEST_TIME = PROPERTY_PREFIX + "requestTime";
+    static final String REVALIDATING = PROPERTY_PREFIX + "revalidating";
+    static final String CLIENT_CONDITIONALS = PROPERTY_PREFIX + "clientConditionals";
+    static final String FETCH = PROPERTY_PREFIX + "fetch";
+    static final String INVALIDATE = PROPERTY_PREFIX + "invalidate";
+
+    private static final Set<String> INVALIDATING_METHODS = Set.of("POST", "PUT", "PATCH", "DELETE");
+    private static final List<String> CONDITIONALS = List.of("If-None-Match", "If-Modified-Since");
+
+    private long maxSize = 64 * 1024 * 1024;
+    private int offHeapThreshold = 64 * 1024;
+    private boolean shared = true;
+    private boolean coalesce = true;
+    private long coalesceTimeout = 10000;
+    private long hitForPassTtl = 120;
+
+    private ResponseCache cache;
+    private LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * Backend requests in progress by URL. Requests for the same URL wait for them to complete.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> fetches = new ConcurrentHashMap<>();
+
+    /**
+     * URLs whose last response could not be stored, and until when requests for them are not coalesced.
+     */
+    private final ConcurrentHashMap<String, Long> passes = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder hitBytes = new LongAdder();
+
+    public record Statistics(long hits, long misses, long revalidations, long coalesced, long stores, long evictions,
+                             long hitBytes, long size, long entries) {
+    }
+
+    public HttpCacheInterceptor() {
+        name = "HTTP Cache";
+    }
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+        cache = new ResponseCache(maxSize);
+    }
+
+    @Override
+    public Outcome handleRequest(Exchange exc) throws Exception {
+        Request req = exc.getRequest();
+        String url = getUrl(exc);
+
+        if (INVALIDATING_METHODS.contains(req.getMethod())) {
+            exc.setProperty(INVALIDATE, url);
+            return CONTINUE;
+        }
+        if (!"GET".equals(req.getMethod()) || req.getHeader().contains("Range"))
+            return CONTINUE;
+
+        CacheControl cc = CacheControl.of(req);
+        if (cc.isNoStore())
+            return CONTINUE;
+
+        CachedResponse cached = cache.get(url, req.getHeader());
+        long now = clock.getAsLong();
+        if (cached != null && isUsable(cached, cc, now))
+            return serve(exc, cached);
+
+        // RFC 7234, 5.2.1.7: the backend must not be contacted, not even to revalidate a stale response
+        if (cc.isOnlyIfCached()) {
+            exc.setResponse(Response.gatewayTimeout("No usable response is cached.").build());
+            return RETURN;
+        }
+
+        if (cached == null && coalesce && !isPass(url)) {
+            cached = waitForFetch(exc, url);
+            now = clock.getAsLong();
+            if (cached != null && isUsable(cached, cc, now)) {
+                coalesced.increment();
+                return serve(exc, cached);
+            }
+        }
+
+        misses.increment();
+        exc.setProperty(REQUEST_TIME, now);
+        if (cached != null && cached.hasValidator())
+            addValidators(exc, cached);
+        return CONTINUE;
+    }
+
+    /**
+     * Waits for a concurrent backend request for the same URL, or registers this request as the one fetching it.
+     *
+     * @return the cached response after waiting, or null
+     */
+    private CachedResponse waitForFetch(Exchange exc, String url) {
+        CompletableFuture<Void> fetch = new CompletableFuture<>();
+        CompletableFuture<Void> running = fetches.putIfAbsent(url, fetch);
+        if (running == null) {
+            exc.setProperty(FETCH, fetch);
+            // wakes the waiting requests if the exchange fails before the response could be stored
+            exc.addExchangeViewerListener(new FetchListener(exc));
+            return null;
+        }
+        try {
+            running.get(coalesceTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // let the next request try again
+            fetches.remove(url, running);
+            log.debug("Timeout waiting for the response of a concurrent request for {}.", url);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+        return cache.get(url, exc.getRequest().getHeader());
+    }
+
+    /**
+     * Whether the last response for the URL could not be stored. Requests for such URLs are sent to the backend
+     * concurrently instead of waiting for each other.
+     */
+    private boolean isPass(String url) {
+        Long until = passes.get(url);
+        if (until == null)
+            return false;
+        if (until > clock.getAsLong())
+            return true;
+        passes.remove(url, until);
+        return false;
+    }
+
+    private void recordPass(String url) {
+        if (!coalesce || hitForPassTtl <= 0)
+            return;
+        long now = clock.getAsLong();
+        if (passes.size() >= 10000) {
+            passes.values().removeIf(until -> until <= now);
+            if (passes.size() >= 10000)
+                passes.clear();
+        }
+        passes.put(url, now + hitForPassTtl * 1000);
+    }
+
+    private Outcome serve(Exchange exc, CachedResponse cached) {
+        hits.increment();
+        long now = clock.getAsLong();
+        if (matchesConditionals(exc.getRequest().getHeader(), cached)) {
+            exc.setResponse(createNotModified(cached));
+        } else {
+            exc.setResponse(cached.toResponse(now));
+            hitBytes.add(cached.getBodyLength());
+        }
+        return RETURN;
+    }
+
+    /**
+     * Sends the validators of the stored response instead of those of the client. The conditionals of the client are
+     * evaluated against the response after the revalidation.
+     */
+    private void addValidators(Exchange exc, CachedResponse cached) {
+        Header header = exc.getRequest().getHeader();
+        Header clientConditionals = new Header();
+        for (String name : CONDITIONALS) {
+            for (HeaderField field : header.getAllHeaderFields())
+                if (field.getHeaderName().hasName(name))
+                    clientConditionals.add(new HeaderField(field));
+            header.removeFields(name);
+        }
+        if (cached.getETag() != null)
+            header.add("If-None-Match", cached.getETag());
+        if (cached.getLastModified() != null)
+            header.add("If-Modified-Since", cached.getLastModified());
+        exc.setProperty(REVALIDATING, cached);
+        exc.setProperty(CLIENT_CONDITIONALS, clientConditionals);
+    }
+
+    @Override
+    public Outcome handleResponse(Exchange exc) throws Exception {
+        String invalidate = (String) exc.getProperty(INVALIDATE);
+        if (invalidate != null) {
+            int status = exc.getResponse().getStatusCode();
+            if (status >= 200 && status < 400)
+                cache.invalidate(invalidate);
+            return CONTINUE;
+        }
+        Long requestTime = (Long) exc.getProperty(REQUEST_TIME);
+        if (requestTime == null)
+            return CONTINUE;
+
+        boolean storing = false;
+        try {
+            CachedResponse revalidating = (CachedResponse) exc.getProperty(REVALIDATING);
+            if (revalidating != null && exc.getResponse().getStatusCode() == 304) {
+                revalidated(exc, revalidating, requestTime);
+                return CONTINUE;
+            }
+            if (isStorable(exc.getRequest(), exc.getResponse())) {
+                storing = store(exc, requestTime);
+                return CONTINUE;
+            }
+            recordPass(getUrl(exc));
+        } catch (Exception e) {
+            log.warn("Could not cache response.", e);
+        } finally {
+            if (!storing)
+                completeFetch(exc);
+        }
+        return CONTINUE;
+    }
+
+    @Override
+    public void handleAbort(Exchange exc) {
+        completeFetch(exc);
+    }
+
+    private void revalidated(Exchange exc, CachedResponse stale, long requestTime) {
+        revalidations.increment();
+        long now = clock.getAsLong();
+        CachedResponse updated = stale.revalidated(exc.getResponse(), requestTime, now);
+        cache.replace(getUrl(exc), exc.getRequest().getHeader(), stale, updated);
+
+        Header clientConditionals = (Header) exc.getProperty(CLIENT_CONDITIONALS);
+        if (clientConditionals != null && matchesConditionals(clientConditionals, updated)) {
+            exc.setResponse(createNotModified(updated));
+            return;
+        }
+        exc.setResponse(updated.toResponse(now));
+    }
+
+    /**
+     * Stores the response as soon as its body has been streamed to the client.
+     *
+     * @return whether the response will be stored when its body is complete
+     */
+    private boolean store(Exchange exc, long requestTime) {
+        String url = getUrl(exc);
+        Header requestHeader = new Header(exc.getRequest().getHeader());
+        Response response = exc.getResponse();
+        long limit = Math.min(cache.getMaxEntrySize(), Integer.MAX_VALUE - 8);
+        if (response.getHeader().hasContentLength() && response.getHeader().getContentLength() > limit) {
+            recordPass(url);
+            return false;
+        }
+        response.addObserver(new AbstractMessageObserver() {
+            private final ByteArrayOutputStream collected = new ByteArrayOutputStream();
+            private boolean tooLarge;
+
+            @Override
+            public void bodyChunk(Chunk chunk) {
+                bodyChunk(chunk.getContent(), 0, chunk.getLength());
+            }
+
+            @Override
+            public void bodyChunk(byte[] buffer, int offset, int length) {
+                if (tooLarge || collected.size() + length > limit) {
+                    tooLarge = true;
+                    collected.reset();
+                    return;
+                }
+                collected.write(buffer, offset, length);
+            }
+
+            @Override
+            public void bodyComplete(AbstractBody body) {
+                try {
+                    if (tooLarge) {
+                        recordPass(url);
+                        return;
+                    }
+                    byte[] content = body.wasStreamed() ? collected.toByteArray() : body.getContent();
+                    cache.put(url, response.getHeader().getNormalizedValue("Vary"), requestHeader,
+                            new CachedResponse(response, content, offHeapThreshold, requestTime, clock.getAsLong()));
+                    stores.increment();
+                    passes.remove(url);
+                } catch (Exception e) {
+                    log.warn("Could not cache response.", e);
+                } finally {
+                    completeFetch(exc);
+                }
+            }
+        });
+        return true;
+    }
+
+    private void completeFetch(Exchange exc) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Void> fetch = (CompletableFuture<Void>) exc.getProperty(FETCH);
+        if (fetch == null)
+            return;
+        exc.getProperties().remove(FETCH);
+        fetches.remove(getUrl(exc), fetch);
+        fetch.complete(null);
+    }
+
+    private class FetchListener implements IExchangeViewerListener {
+
+        private final Exchange exc;
+
+        FetchListener(Exchange exc) {
+            this.exc = exc;
+        }
+
+        @Override
+        public void addRequest(Request request) {
+        }
+
+        @Override
+        public void addResponse(Response response) {
+        }
+
+        @Override
+        public void removeExchange() {
+        }
+
+        @Override
+        public void setExchangeFinished() {
+            completeFetch(exc);
+        }
+
+        @Override
+        public void setExchangeStopped() {
+            completeFetch(exc);
+        }
+    }
+
+    /**
+     * See RFC 7234, Section 3.
+     */
+    boolean isStorable(Request request, Response response) {
+        int status = response.getStatusCode();
+        if (status < 200 || status == 206 || status == 304)
+            return false;
+        CacheControl requestCc = CacheControl.of(request);
+        CacheControl responseCc = CacheControl.of(response);
+        if (requestCc.isNoStore() || responseCc.isNoStore())
+            return false;
+        if (shared && responseCc.isPrivate())
+            return false;
+        if (shared && request.getHeader().contains("Authorization")
+                && !(responseCc.isPublic() || responseCc.isMustRevalidate() || responseCc.getSMaxAge() != -1))
+            return false;
+        if (response.getHeader().contains("Set-Cookie") || response.getHeader().contains("Content-Range"))
+            return false;
+        String vary = response.getHeader().getNormalizedValue("Vary");
+        if (vary != null && vary.contains("*"))
+            return false;
+        return responseCc.isPublic()
+                || responseCc.getMaxAge() != -1
+                || (shared && responseCc.getSMaxAge() != -1)
+                || response.getHeader().contains("Expires")
+                || CachedResponse.CACHEABLE_BY_DEFAULT.contains(status);
+    }
+
+    /**
+     * Whether the stored response may be sent without revalidation, see RFC 7234, Section 4.2.
+     */
+    boolean isUsable(CachedResponse cached, CacheControl requestCc, long now) {
+        CacheControl responseCc = cached.getCacheControl();
+        if (requestCc.isNoCache() || responseCc.isNoCache())
+            return false;
+        long age = cached.getAge(now);
+        long lifetime = cached.getFreshnessLifetime(shared);
+        // max-age=0 is sent by clients to force a revalidation, even if the response is younger than a second
+        if (requestCc.getMaxAge() == 0 || (requestCc.getMaxAge() != -1 && age > requestCc.getMaxAge() * 1000))
+            return false;
+        if (requestCc.getMinFresh() != -1 && lifetime - age < requestCc.getMinFresh() * 1000)
+            return false;
+        if (lifetime > age)
+            return true;
+        if (responseCc.isMustRevalidate() || (shared && (responseCc.isProxyRevalidate() || responseCc.getSMaxAge() != -1)))
+            return false;
+        long maxStale = requestCc.getMaxStale();
+        return maxStale != -1 && (maxStale == Long.MAX_VALUE || age - lifetime <= maxStale * 1000);
+    }
+
+    /**
+     * Evaluates If-None-Match or, if absent, If-Modified-Since, see RFC 7232, Section 6.
+     */
+    static boolean matchesConditionals(Header requestHeader, CachedResponse cached) {
+        String ifNoneMatch = requestHeader.getNormalizedValue("If-None-Match");
+        if (ifNoneMatch != null) {
+            String etag = cached.getETag();
+            if (ifNoneMatch.trim().equals("*"))
+                return etag != null;
+            if (etag == null)
+                return false;
+            for (String candidate : ifNoneMatch.split(","))
+                if (weakTag(candidate).equals(weakTag(etag)))
+                    return true;
+            return false;
+        }
+        String ifModifiedSince = requestHeader.getFirstValue("If-Modified-Since");
+        if (ifModifiedSince == null)
+            return false;
+        long since = CachedResponse.parseDate(ifModifiedSince);
+        long lastModified = CachedResponse.parseDate(cached.getLastModified());
+        return since != -1 && lastModified != -1 && lastModified <= since;
+    }
+
+    private static String weakTag(String etag) {
+        etag = etag.trim();
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static Response createNotModified(CachedResponse cached) {
+        Response response = Response.ResponseBuilder.newInstance().status(304, "Not Modified").build();
+        for (String name : List.of("Cache-Control", "Content-Location", "Date", "ETag", "Expires", "Vary", "Last-Modified")) {
+            String value = cached.getHeader().getFirstValue(name);
+            if (value != null)
+                response.getHeader().add(name, value);
+        }
+        return response;
+    }
+
+    private static String getUrl(Exchange exc) {
+        if (!exc.getDestinations().isEmpty())
+            return exc.getDestinations().get(0);
+        return exc.getRequest().getHeader().getHost() + exc.getRequest().getUri();
+    }
+
+    public Statistics getStatistics() {
+        if (cache == null)
+            return new Statistics(0, 0, 0, 0, 0, 0, 0, 0, 0);
+        return new Statistics(hits.sum(), misses.sum(), revalidations.sum(), coalesced.sum(), stores.sum(),
+                cache.getEvictions(), hitBytes.sum(), cache.getSize(), cache.getEntries());
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @description Maximum size of the cached responses in bytes. Single responses may use up to 1/16 of it.
+     * @default 67108864
+     */
+    @MCAttribute
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getOffHeapThreshold() {
+        return offHeapThreshold;
+    }
+
+    /**
+     * @description Bodies of at least this number of bytes are stored outside the Java heap.
+     * @default 65536
+     */
+    @MCAttribute
+    public void setOffHeapThreshold(int offHeapThreshold) {
+        this.offHeapThreshold = offHeapThreshold;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @description Whether the cache is shared between users. A shared cache does not store private responses and
+     * honors s-maxage and proxy-revalidate. Set this to false only if each client has its own gateway.
+     * @default true
+     */
+    @MCAttribute
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * @description Whether requests for a URL that is being fetched from the backend wait for that response.
+     * @default true
+     */
+    @MCAttribute
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public long getCoalesceTimeout() {
+        return coalesceTimeout;
+    }
+
+    /**
+     * @description Maximum time in milliseconds a request waits for a concurrent request for the same URL, before
+     * it is sent to the backend itself.
+     * @default 10000
+     */
+    @MCAttribute
+    public void setCoalesceTimeout(long coalesceTimeout) {
+        this.coalesceTimeout = coalesceTimeout;
+    }
+
+    public long getHitForPassTtl() {
+        return hitForPassTtl;
+    }
+
+    /**
+     * @description Time in seconds during which requests for a URL whose response could not be cached are sent to
+     * the backend concurrently instead of waiting for each other. 0 disables this.
+     * @default 120
+     */
+    @MCAttribute
+    public void setHitForPassTtl(long hitForPassTtl) {
+        this.hitForPassTtl = hitForPassTtl;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Caches responses following RFC 7234, up to " + maxSize / 1024 + " KiB.";
+    }
+}
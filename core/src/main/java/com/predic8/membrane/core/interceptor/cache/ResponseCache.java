@@ -0,0 +1,209 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.core.http.*;
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Stores responses by URL and the values of the request headers listed in their Vary header.
+ * <p>
+ * The cache is bounded by the estimated size of its entries in bytes. The entries are distributed over
+ * {@link #SEGMENTS} segments by the hash of their key, each with its own lock and its own share of the size,
+ * and each evicting its least recently used entries. So lookups of different keys rarely contend.
+ * <p>
+ * For every URL, the header names of the most recently stored Vary header are kept together with a generation.
+ * Invalidating a URL drops this information, so all its variants become unreachable at once and are evicted over
+ * time.
+ */
+public class ResponseCache {
+
+    static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<String, Variants> variantsByUrl = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize maximum estimated size of all entries in bytes
+     */
+    public ResponseCache(long maxSize) {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maxSize / SEGMENTS);
+    }
+
+    /**
+     * The header names of the Vary header of the responses stored for a URL.
+     */
+    private record Variants(List<String> names, long generation) {
+    }
+
+    /**
+     * Largest entry that can be stored.
+     */
+    public long getMaxEntrySize() {
+        return segments[0].maxSize;
+    }
+
+    public @Nullable CachedResponse get(String url, Header requestHeader) {
+        Variants variants = variantsByUrl.get(url);
+        if (variants == null)
+            return null;
+        String key = getKey(url, variants, requestHeader);
+        return getSegment(key).get(key);
+    }
+
+    /**
+     * @param vary the value of the Vary header of the response, or null. Must not be <code>*</code>.
+     */
+    public void put(String url, @Nullable String vary, Header requestHeader, CachedResponse response) {
+        if (response.getSize() > getMaxEntrySize())
+            return;
+        List<String> names = parseVary(vary);
+        Variants variants = variantsByUrl.compute(url, (u, old) ->
+                old != null && old.names.equals(names) ? old : new Variants(names, generations.incrementAndGet()));
+        String key = getKey(url, variants, requestHeader);
+        getSegment(key).put(key, response);
+    }
+
+    /**
+     * Replaces the entry, if it is still stored.
+     */
+    boolean replace(String url, Header requestHeader, CachedResponse old, CachedResponse updated) {
+        Variants variants = variantsByUrl.get(url);
+        if (variants == null)
+            return false;
+        String key = getKey(url, variants, requestHeader);
+        return getSegment(key).replace(key, old, updated);
+    }
+
+    /**
+     * Makes all responses stored for the URL unreachable.
+     */
+    public void invalidate(String url) {
+        variantsByUrl.remove(url);
+    }
+
+    static List<String> parseVary(@Nullable String vary) {
+        if (vary == null)
+            return List.of();
+        return Arrays.stream(vary.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(name -> name.toLowerCase(ROOT))
+                .sorted()
+                .distinct()
+                .toList();
+    }
+
+    private static String getKey(String url, Variants variants, Header requestHeader) {
+        if (variants.names.isEmpty())
+            return url + " " + variants.generation;
+        StringBuilder sb = new StringBuilder(url).append(' ').append(variants.generation);
+        for (String name : variants.names) {
+            String value = requestHeader.getNormalizedValue(name);
+            sb.append('\n').append(name).append(':');
+            if (value != null)
+                sb.append(value.trim());
+        }
+        return sb.toString();
+    }
+
+    private Segment getSegment(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public long getSize() {
+        return Arrays.stream(segments).mapToLong(s -> s.size).sum();
+    }
+
+    public int getEntries() {
+        return Arrays.stream(segments).mapToInt(Segment::count).sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private class Segment {
+        private final long maxSize;
+        private final Lock lock = new ReentrantLock();
+        private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile long size;
+
+        Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        CachedResponse get(String key) {
+            lock.lock();
+            try {
+                return entries.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, CachedResponse response) {
+            lock.lock();
+            try {
+                CachedResponse old = entries.put(key, response);
+                long newSize = size + response.getSize() - (old == null ? 0 : old.getSize());
+                Iterator<CachedResponse> it = entries.values().iterator();
+                while (newSize > maxSize && it.hasNext()) {
+                    CachedResponse eldest = it.next();
+                    if (eldest == response)
+                        continue;
+                    it.remove();
+                    newSize -= eldest.getSize();
+                    evictions.increment();
+                }
+                size = newSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean replace(String key, CachedResponse old, CachedResponse updated) {
+            lock.lock();
+            try {
+                if (!entries.replace(key, old, updated))
+                    return false;
+                size += updated.getSize() - old.getSize();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int count() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -21,12 +21,21 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.predic8.membrane.annot.Required;
+import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 
 import com.googlecode.jatl.Html;
@@ -49,10 +58,24 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 	private List<Case> cases = new ArrayList<>();
 	private Map<String, String> namespaces;
 
+	/**
+	 * Compiled XPath expressions and DocumentBuilders are not thread-safe, so every request borrows a set from this
+	 * pool. The pool grows up to the number of concurrent requests.
+	 */
+	private final Queue<CompiledCases> compiledCases = new ConcurrentLinkedQueue<>();
+
 	public XPathCBRInterceptor() {
 		name = "Content Based Router";
 	}
 
+	@Override
+	public void init() throws Exception {
+		super.init();
+		// Compiles the expressions once, so that invalid expressions are reported on startup.
+		compiledCases.clear();
+		compiledCases.offer(new CompiledCases());
+	}
+
 	@Override
 	public Outcome handleRequest(Exchange exc) throws Exception {
 		if (exc.getRequest().isBodyEmpty()) {
@@ -76,15 +99,48 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 	}
 
 	private Case findRoute(Request request) throws Exception {
-		for (Case r : cases) {
-			//TODO getBodyAsStream creates ByteArray each call. That could be a performance issue. Using BufferedInputStream did't work, because stream got closed.
+		CompiledCases compiled = borrowCompiledCases();
+		try {
+			// The body is parsed once, and all cases are evaluated against the same document.
 			InputSource is = new InputSource(request.getBodyAsStreamDecoded());
 			is.setEncoding(request.getCharset());
-			if ( (Boolean) newXPath(namespaces).evaluate(r.getXPath(), is, XPathConstants.BOOLEAN) )
-				return r;
-			log.debug("no match found for xpath {"+r.getXPath()+"}");
+			Document doc = compiled.builder.parse(is);
+			for (int i = 0; i < compiled.expressions.length; i++) {
+				if ( (Boolean) compiled.expressions[i].evaluate(doc, XPathConstants.BOOLEAN) )
+					return cases.get(i);
+				log.debug("no match found for xpath {"+cases.get(i).getXPath()+"}");
+			}
+			return null;
+		} finally {
+			compiled.builder.reset();
+			compiledCases.offer(compiled);
+		}
+	}
+
+	private CompiledCases borrowCompiledCases() throws ParserConfigurationException, XPathExpressionException {
+		CompiledCases compiled = compiledCases.poll();
+		return compiled != null ? compiled : new CompiledCases();
+	}
+
+	private class CompiledCases {
+		final DocumentBuilder builder;
+		final XPathExpression[] expressions;
+
+		CompiledCases() throws ParserConfigurationException, XPathExpressionException {
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			dbf.setNamespaceAware(true);
+			dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			dbf.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			dbf.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			dbf.setXIncludeAware(false);
+			dbf.setExpandEntityReferences(false);
+			builder = dbf.newDocumentBuilder();
+
+			XPath xPath = newXPath(namespaces);
+			expressions = new XPathExpression[cases.size()];
+			for (int i = 0; i < expressions.length; i++)
+				expressions[i] = xPath.compile(cases.get(i).getXPath());
 		}
-		return null;
 	}
 
 	public Map<String, String> getNamespaces() {
@@ -93,6 +149,7 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 
 	public void setNamespaces(Map<String, String> namespaces) {
 		this.namespaces = namespaces;
+		compiledCases.clear();
 	}
 
 	/**
@@ -102,6 +159,7 @@ public class XPathCBRInterceptor extends AbstractInterceptor {
 	@MCChildElement
 	public void setCases(List<Case> cases) {
 		this.cases = cases;
+		compiledCases.clear();
 	}
 
 	public List<Case> getCases() {
@@ -0,0 +1,114 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.annot.*;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Base of the codings using {@link Deflater}s, which are taken from a {@link DeflaterPool}.
+ */
+public abstract class AbstractDeflaterCodec implements ContentCodec {
+
+    private int level = 6;
+    private int poolSize = 64;
+
+    private DeflaterPool pool;
+
+    /**
+     * @return whether the codec writes raw deflate data and its own framing
+     */
+    protected abstract boolean isNowrap();
+
+    protected abstract OutputStream createStream(OutputStream out, DeflaterPool pool) throws IOException;
+
+    @Override
+    public void init() {
+        pool = new DeflaterPool(level, isNowrap(), poolSize);
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        if (pool == null)
+            init();
+        return createStream(out, pool);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @description The compression level from 1 (fastest) to 9 (best compression).
+     * @default 6
+     */
+    @MCAttribute
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @description The maximum number of idle compressors kept for reuse.
+     * @default 64
+     */
+    @MCAttribute
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public DeflaterPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Flushes using {@link Deflater#SYNC_FLUSH}, so that the client can decode everything written so far, and returns
+     * the deflater to the pool when closed.
+     */
+    protected static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+        private final DeflaterPool pool;
+        private boolean closed;
+
+        protected PooledDeflaterOutputStream(OutputStream out, DeflaterPool pool) {
+            super(out, pool.acquire(), 8192, true);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                finish();
+                writeTrailer();
+                out.close();
+            } finally {
+                pool.release(def);
+            }
+        }
+
+        /**
+         * Called after the deflater finished, before it is returned to the pool.
+         */
+        protected void writeTrailer() throws IOException {
+        }
+    }
+}
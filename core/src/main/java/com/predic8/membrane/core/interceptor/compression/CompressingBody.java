@@ -0,0 +1,160 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.core.http.*;
+
+import javax.annotation.*;
+import java.io.*;
+
+/**
+ * Encodes another body using a {@link ContentCodec}.
+ * <p>
+ * When streamed, every part of the source body is encoded and passed on as soon as it has been received, so neither
+ * the source body nor the encoded body are held in memory. This also works for long-running chunked responses like
+ * server-sent events. The trailer of the source body is passed on.
+ */
+class CompressingBody extends AbstractBody {
+
+	private final AbstractBody source;
+	private final ContentCodec codec;
+	private Header trailer;
+	private long streamedLength;
+
+	CompressingBody(AbstractBody source, ContentCodec codec) {
+		this.source = source;
+		this.codec = codec;
+		// the observers are interested in the body of the message, which is now this one
+		observers.addAll(source.getObservers());
+		source.getObservers().clear();
+	}
+
+	@Override
+	protected void readLocal() throws IOException {
+		transfer(null);
+	}
+
+	@Override
+	protected void writeAlreadyRead(AbstractBodyTransferrer out) throws IOException {
+		for (Chunk chunk : chunks)
+			out.write(chunk);
+		out.finish(trailer);
+	}
+
+	@Override
+	protected void writeNotRead(AbstractBodyTransferrer out) throws IOException {
+		read();
+		writeAlreadyRead(out);
+	}
+
+	@Override
+	protected void writeStreamed(AbstractBodyTransferrer out) throws IOException {
+		transfer(out);
+		markAsRead();
+	}
+
+	private void transfer(@Nullable AbstractBodyTransferrer out) throws IOException {
+		EncodingTransferrer encoding = new EncodingTransferrer(out);
+		try {
+			source.write(encoding, false);
+		} finally {
+			// releases the encoder's resources if the transfer failed
+			encoding.closeEncoder();
+		}
+	}
+
+	@Override
+	protected byte[] getRawLocal() throws IOException {
+		return getContent();
+	}
+
+	@Override
+	public int getLength() throws IOException {
+		if (wasStreamed())
+			return (int) streamedLength;
+		return super.getLength();
+	}
+
+	@Override
+	public Header getTrailer() {
+		return trailer;
+	}
+
+	@Override
+	public boolean hasTrailer() {
+		return trailer != null;
+	}
+
+	/**
+	 * Encodes the parts of the source body, and either passes them on to <code>out</code> or collects them as chunks
+	 * if <code>out</code> is null.
+	 */
+	private class EncodingTransferrer extends AbstractBodyTransferrer {
+
+		private final AbstractBodyTransferrer out;
+		private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(8192);
+		private final OutputStream encoder;
+		private boolean closed;
+
+		EncodingTransferrer(@Nullable AbstractBodyTransferrer out) throws IOException {
+			this.out = out;
+			this.encoder = codec.encode(encoded);
+		}
+
+		@Override
+		public void write(byte[] content, int i, int length) throws IOException {
+			if (length == 0)
+				return;
+			encoder.write(content, i, length);
+			encoder.flush();
+			passOn();
+		}
+
+		@Override
+		public void write(Chunk chunk) throws IOException {
+			write(chunk.getContent(), 0, chunk.getLength());
+		}
+
+		@Override
+		public void finish(@Nullable Header header) throws IOException {
+			closeEncoder();
+			passOn();
+			trailer = header;
+			if (out != null)
+				out.finish(header);
+		}
+
+		void closeEncoder() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			encoder.close();
+		}
+
+		private void passOn() throws IOException {
+			if (encoded.size() == 0)
+				return;
+			Chunk chunk = new Chunk(encoded.toByteArray());
+			encoded.reset();
+			if (out == null)
+				chunks.add(chunk);
+			else {
+				out.write(chunk);
+				streamedLength += chunk.getLength();
+			}
+			for (MessageObserver observer : observers)
+				observer.bodyChunk(chunk);
+		}
+	}
+}
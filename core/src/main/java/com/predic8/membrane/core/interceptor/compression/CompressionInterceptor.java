@@ -0,0 +1,191 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.annot.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static com.predic8.membrane.core.http.Header.*;
+import static com.predic8.membrane.core.interceptor.Interceptor.Flow.Set.*;
+import static com.predic8.membrane.core.interceptor.Outcome.*;
+import static java.util.Locale.*;
+
+/**
+ * @description <p>Compresses response bodies using a content coding accepted by the client, by default
+ * <code>gzip</code> or <code>deflate</code>. The coding with the highest quality value in the
+ * <code>Accept-Encoding</code> header of the request is used; on a tie, the first configured one.</p>
+ * <p>The body is compressed while it is sent: every part received from the backend is compressed and passed on
+ * immediately, so bodies are never held in memory as a whole and streamed responses like server-sent events keep
+ * working.</p>
+ * <p>Responses which are already encoded, have a media type that is compressed by itself (like images, videos or
+ * archives), are smaller than <i>minSize</i> or forbid transformations using <code>Cache-Control: no-transform</code>
+ * are not compressed.</p>
+ * <p>Further codings like <code>br</code> can be added as Spring beans implementing
+ * <code>com.predic8.membrane.core.interceptor.compression.ContentCodec</code>.</p>
+ * @topic 4. Interceptors/Features
+ */
+@MCElement(name = "compression")
+public class CompressionInterceptor extends AbstractInterceptor {
+
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/zstd", "application/x-7z-compressed", "application/x-rar-compressed", "application/pdf",
+            "application/octet-stream", "font/woff", "font/woff2");
+
+    private final List<ContentCodec> codecs = new ArrayList<>();
+    private final List<String> encodings = new ArrayList<>();
+    private int minSize = 1024;
+
+    private final LongAdder compressed = new LongAdder();
+
+    public CompressionInterceptor() {
+        name = "Compression";
+        setFlow(RESPONSE);
+    }
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+        if (codecs.isEmpty()) {
+            codecs.add(new GzipCodec());
+            codecs.add(new DeflateCodec());
+        }
+        encodings.clear();
+        for (ContentCodec codec : codecs) {
+            codec.init();
+            encodings.add(codec.getEncoding());
+        }
+    }
+
+    @Override
+    public Outcome handleResponse(Exchange exc) throws Exception {
+        Response response = exc.getResponse();
+        if (!isCompressible(exc.getRequest(), response))
+            return CONTINUE;
+
+        addVary(response.getHeader());
+
+        String encoding = AcceptEncoding.of(exc.getRequest()).select(encodings);
+        if (encoding == null)
+            return CONTINUE;
+
+        compress(response, codecs.get(encodings.indexOf(encoding)));
+        compressed.increment();
+        return CONTINUE;
+    }
+
+    private boolean isCompressible(Request request, Response response) throws Exception {
+        if (response == null || request == null)
+            return false;
+        if (request.isHEADRequest() || request.isHTTP10())
+            return false;
+        int status = response.getStatusCode();
+        if (status < 200 || status == 204 || status == 206 || status == 304 || response.shouldNotContainBody())
+            return false;
+        Header header = response.getHeader();
+        String contentEncoding = header.getContentEncoding();
+        if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity"))
+            return false;
+        if (header.getFirstValue("Content-Range") != null)
+            return false;
+        String cacheControl = header.getNormalizedValue(CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.toLowerCase(ROOT).contains("no-transform"))
+            return false;
+        if (isCompressedMediaType(header.getContentType()))
+            return false;
+        return !isSmallerThanMinSize(response);
+    }
+
+    private boolean isSmallerThanMinSize(Response response) throws Exception {
+        Header header = response.getHeader();
+        if (header.hasContentLength())
+            return header.getContentLength() < minSize;
+        // the length of a streamed body is only known once it has been received
+        return response.getBody().isRead() && response.getBody().getLength() < minSize;
+    }
+
+    static boolean isCompressedMediaType(String contentType) {
+        if (contentType == null)
+            return false;
+        String type = contentType.split(";", 2)[0].trim().toLowerCase(ROOT);
+        if (type.startsWith("image/"))
+            return !type.equals("image/svg+xml") && !type.equals("image/bmp");
+        return type.startsWith("video/") || type.startsWith("audio/") || COMPRESSED_TYPES.contains(type);
+    }
+
+    private static void addVary(Header header) {
+        String vary = header.getNormalizedValue("Vary");
+        if (vary == null) {
+            header.add("Vary", ACCEPT_ENCODING);
+            return;
+        }
+        for (String name : vary.split(","))
+            if (name.trim().equals("*") || name.trim().equalsIgnoreCase(ACCEPT_ENCODING))
+                return;
+        header.add("Vary", ACCEPT_ENCODING);
+    }
+
+    private static void compress(Response response, ContentCodec codec) {
+        Header header = response.getHeader();
+        response.setBody(new CompressingBody(response.getBody(), codec));
+        header.removeFields(CONTENT_LENGTH);
+        header.removeFields(CONTENT_ENCODING);
+        header.setValue(TRANSFER_ENCODING, CHUNKED);
+        header.add(CONTENT_ENCODING, codec.getEncoding());
+
+        // the compressed body is a different representation, which is only weakly equivalent
+        String etag = header.getFirstValue("ETag");
+        if (etag != null && !etag.startsWith("W/"))
+            header.setValue("ETag", "W/" + etag);
+    }
+
+    public List<ContentCodec> getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * @description The content codings to use, in the order of preference. Defaults to gzip and deflate.
+     */
+    @MCChildElement(allowForeign = true)
+    public void setCodecs(List<ContentCodec> codecs) {
+        this.codecs.addAll(codecs);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @description Responses with a known length below this number of bytes are not compressed.
+     * @default 1024
+     */
+    @MCAttribute
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public long getCompressedResponses() {
+        return compressed.sum();
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Compresses responses using " + String.join(", ", encodings) + ".";
+    }
+}
@@ -0,0 +1,43 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import java.io.*;
+
+/**
+ * A content coding the {@link CompressionInterceptor} can apply to response bodies.
+ * <p>
+ * Further codings like <code>br</code> can be plugged in as Spring beans, e.g. by wrapping the
+ * <code>OutputStream</code> of a Brotli library.
+ */
+public interface ContentCodec {
+
+    /**
+     * @return the name of the coding as used in <code>Accept-Encoding</code> and <code>Content-Encoding</code>
+     */
+    String getEncoding();
+
+    default void init() {
+    }
+
+    /**
+     * Returns a stream encoding the data written to it into <code>out</code>.
+     * <p>
+     * {@link OutputStream#flush()} has to write everything written so far to <code>out</code> in a form the client
+     * can decode without waiting for more data, as the body is sent while it is received from the backend.
+     * {@link OutputStream#close()} has to finish the encoding and release all resources. It is called exactly once,
+     * also when sending the body fails.
+     */
+    OutputStream encode(OutputStream out) throws IOException;
+}
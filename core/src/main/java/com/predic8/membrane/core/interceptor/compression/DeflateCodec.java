@@ -0,0 +1,41 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.annot.*;
+
+import java.io.*;
+
+/**
+ * @description The <code>deflate</code> content coding, which is the zlib format
+ * (<a href="https://www.rfc-editor.org/rfc/rfc1950">RFC 1950</a>).
+ */
+@MCElement(name = "deflate", topLevel = false)
+public class DeflateCodec extends AbstractDeflaterCodec {
+
+    @Override
+    public String getEncoding() {
+        return "deflate";
+    }
+
+    @Override
+    protected boolean isNowrap() {
+        return false;
+    }
+
+    @Override
+    protected OutputStream createStream(OutputStream out, DeflaterPool pool) {
+        return new PooledDeflaterOutputStream(out, pool);
+    }
+}
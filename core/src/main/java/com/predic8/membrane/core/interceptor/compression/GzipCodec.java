@@ -0,0 +1,74 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.annot.*;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * @description The <code>gzip</code> content coding (<a href="https://www.rfc-editor.org/rfc/rfc1952">RFC 1952</a>).
+ */
+@MCElement(name = "gzip", topLevel = false)
+public class GzipCodec extends AbstractDeflaterCodec {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    @Override
+    public String getEncoding() {
+        return "gzip";
+    }
+
+    @Override
+    protected boolean isNowrap() {
+        return true;
+    }
+
+    @Override
+    protected OutputStream createStream(OutputStream out, DeflaterPool pool) throws IOException {
+        return new GzipStream(out, pool);
+    }
+
+    private static class GzipStream extends PooledDeflaterOutputStream {
+
+        private final CRC32 crc = new CRC32();
+
+        GzipStream(OutputStream out, DeflaterPool pool) throws IOException {
+            super(out, pool);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        protected void writeTrailer() throws IOException {
+            byte[] trailer = new byte[8];
+            writeInt((int) crc.getValue(), trailer, 0);
+            writeInt((int) def.getBytesRead(), trailer, 4);
+            out.write(trailer);
+        }
+
+        private static void writeInt(int i, byte[] buf, int offset) {
+            buf[offset] = (byte) i;
+            buf[offset + 1] = (byte) (i >> 8);
+            buf[offset + 2] = (byte) (i >> 16);
+            buf[offset + 3] = (byte) (i >> 24);
+        }
+    }
+}
@@ -23,10 +23,13 @@ import com.predic8.membrane.core.config.security.Blob;
 import com.predic8.membrane.core.interceptor.oauth2.authorizationservice.AuthorizationService;
 import com.predic8.membrane.core.resolver.ResolverMap;
 import com.predic8.membrane.core.util.TextUtil;
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.lang.JoseException;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +39,8 @@ public class Jwks {
     List<Jwk> jwks = new ArrayList<>();
     String jwksUris;
     AuthorizationService authorizationService;
+    int refreshInterval = 3600;
+    int minRefetchInterval = 30;
 
     public List<Jwk> getJwks() {
         return jwks;
@@ -57,22 +62,31 @@ public class Jwks {
         return this;
     }
 
-    public void init(ResolverMap resolverMap, String baseLocation) {
-        if(jwksUris == null || jwksUris.isEmpty())
-            return;
-
+    /**
+     * Loads the configured keys and the keys currently published at the JWKS URIs. Keys of other types than RSA
+     * are skipped.
+     *
+     * @return the keys by their key ID
+     */
+    public Map<String, RsaJsonWebKey> loadKeys(ResolverMap resolverMap, String baseLocation) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
-        for (String uri : jwksUris.split(" ")) {
-            try {
-                for (Object jwkRaw : parseJwksUriIntoList(resolverMap, baseLocation, mapper, uri)) {
-                    Jwk jwk = new Jwk();
-                    jwk.setContent(mapper.writeValueAsString(jwkRaw));
-                    this.jwks.add(jwk);
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
+        Map<String, RsaJsonWebKey> keys = new HashMap<>();
+        for (Jwk jwk : jwks)
+            add(keys, mapper.readValue(jwk.getJwk(resolverMap, baseLocation, mapper), Map.class));
+
+        if (jwksUris == null || jwksUris.isEmpty())
+            return keys;
+
+        for (String uri : jwksUris.split(" "))
+            for (Object jwkRaw : parseJwksUriIntoList(resolverMap, baseLocation, mapper, uri))
+                if ("RSA".equals(((Map<?, ?>) jwkRaw).get("kty")))
+                    add(keys, (Map<String, Object>) jwkRaw);
+        return keys;
+    }
+
+    private static void add(Map<String, RsaJsonWebKey> keys, Map<String, Object> jwk) throws JoseException {
+        RsaJsonWebKey key = new RsaJsonWebKey(jwk);
+        keys.put(key.getKeyId(), key);
     }
 
     private List parseJwksUriIntoList(ResolverMap resolverMap, String baseLocation, ObjectMapper mapper, String uri) throws Exception {
@@ -82,6 +96,36 @@ public class Jwks {
         return (List) mapper.readValue(resolve, Map.class).get("keys");
     }
 
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * @description Interval in seconds to reload the keys from the <i>jwksUris</i> in the background. 0 disables
+     * the periodic reload.
+     * @default 3600
+     */
+    @MCAttribute
+    public Jwks setRefreshInterval(int refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        return this;
+    }
+
+    public int getMinRefetchInterval() {
+        return minRefetchInterval;
+    }
+
+    /**
+     * @description When a token signed by an unknown key arrives, the keys are reloaded from the <i>jwksUris</i>,
+     * but at most once per this number of seconds.
+     * @default 30
+     */
+    @MCAttribute
+    public Jwks setMinRefetchInterval(int minRefetchInterval) {
+        this.minRefetchInterval = minRefetchInterval;
+        return this;
+    }
+
     public AuthorizationService getAuthorizationService() {
         return authorizationService;
     }
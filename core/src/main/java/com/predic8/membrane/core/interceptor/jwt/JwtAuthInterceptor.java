@@ -21,19 +21,37 @@ import com.predic8.membrane.core.exchange.*;
 import com.predic8.membrane.core.http.*;
 import com.predic8.membrane.core.interceptor.*;
 import com.predic8.membrane.core.security.*;
-import org.jose4j.jwk.*;
+import com.predic8.membrane.core.stats.*;
+import com.predic8.membrane.core.transport.http.*;
 import org.jose4j.jwt.consumer.*;
 import org.slf4j.*;
+import org.springframework.beans.factory.*;
 
+import java.nio.*;
+import java.security.*;
+import java.security.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 import static com.predic8.membrane.core.interceptor.Interceptor.Flow.*;
 import static com.predic8.membrane.core.interceptor.Outcome.*;
+import static java.nio.charset.StandardCharsets.*;
 import static java.util.EnumSet.*;
+import static java.util.concurrent.TimeUnit.*;
 import static org.apache.commons.text.StringEscapeUtils.*;
 
+/**
+ * @description <p>Checks the JWT of a request using the keys given by <i>jwks</i>.</p>
+ * <p>Successfully verified tokens are cached until they expire, so that a token sent again is not verified again.
+ * Keys loaded from the <i>jwksUris</i> are reloaded periodically in the background, and additionally when a token
+ * signed by an unknown key arrives (at most once per <i>minRefetchInterval</i>), so that key rotation at the
+ * identity provider does not require a restart.</p>
+ * @topic 4. Interceptors/Features
+ */
 @MCElement(name = "jwtAuth")
-public class JwtAuthInterceptor extends AbstractInterceptor {
+public class JwtAuthInterceptor extends AbstractInterceptor implements DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(JwtAuthInterceptor.class);
     public static final String ERROR_JWT_NOT_FOUND = "Could not retrieve JWT";
@@ -41,14 +59,52 @@ public class JwtAuthInterceptor extends AbstractInterceptor {
     public static final String ERROR_UNKNOWN_KEY = "JWT signed by unknown key";
     public static final String ERROR_VALIDATION_FAILED = "JWT validation failed";
 
+    /**
+     * How long a request with a token signed by an unknown key waits for the keys to be reloaded.
+     */
+    private static final long UNKNOWN_KEY_WAIT_MILLIS = 5000;
+
     ObjectMapper mapper = new ObjectMapper();
     JwtRetriever jwtRetriever;
     Jwks jwks;
     String expectedAud;
+    int tokenCacheSize = 10000;
+
+    /**
+     * The keys and the validators built for them, replaced as a whole when the keys are reloaded.
+     */
+    private volatile KeySet keySet;
+
+    private final ConcurrentHashMap<TokenHash, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<Void>> refresh = new AtomicReference<>();
+    /**
+     * Reloads the keys, so that the blocking HTTP requests to the <i>jwksUris</i> do not occupy threads of the common
+     * pool. As only one reload runs at a time, one thread suffices.
+     */
+    private ThreadPoolExecutor refreshExecutor;
+    private volatile long lastRefresh;
+    private LongSupplier clock = System::currentTimeMillis;
 
-    // should be used read only after init
-    // Hashmap done on purpose as only here the read only thread safety is guaranteed
-    volatile HashMap<String, RsaJsonWebKey> kidToKey;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder keyRefreshes = new LongAdder();
+    private final LatencyHistogram verificationTime = new LatencyHistogram();
+
+    private record KeySet(Map<String, RSAPublicKey> keys, Map<String, JwtConsumer> validators) {
+    }
+
+    private record TokenHash(long h0, long h1, long h2, long h3) {
+    }
+
+    private record VerifiedToken(Map<String, Object> claims, long expiresAt) {
+    }
+
+    /**
+     * @param verificationTime of tokens not found in the cache, in microseconds
+     */
+    public record Statistics(long cacheHits, long cacheMisses, long cachedTokens, long keyRefreshes,
+                             LatencyHistogram verificationTime) {
+    }
 
     public JwtAuthInterceptor() {
         name = "JWT Checker.";
@@ -62,20 +118,84 @@ public class JwtAuthInterceptor extends AbstractInterceptor {
         if(jwtRetriever == null)
             jwtRetriever = new HeaderJwtRetriever("Authorization","Bearer");
 
-        jwks.init(router.getResolverMap(),router.getBaseLocation());
+        if (refreshExecutor != null)
+            refreshExecutor.shutdown();
+        refreshExecutor = new ThreadPoolExecutor(1, 1, 60L, SECONDS, new LinkedBlockingQueue<>(), new HttpServerThreadFactory("JWKS Refresh", true));
+        refreshExecutor.allowCoreThreadTimeOut(true);
 
-        kidToKey = jwks.getJwks().stream()
-                .map(jwk -> {
-                    try {
-                        return new RsaJsonWebKey(mapper.readValue(jwk.getJwk(router.getResolverMap(), router.getBaseLocation(),mapper),Map.class));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                })
-                .collect(HashMap::new, (m,e) -> m.put(e.getKeyId(),e), HashMap::putAll);
-
-        if (kidToKey.isEmpty())
+        loadKeys();
+        if (keySet.keys().isEmpty())
             throw new RuntimeException("No JWKs given or none resolvable - please specify at least one resolvable JWK");
+
+        if (isRefreshable() && jwks.getRefreshInterval() > 0)
+            router.getTimerManager().schedulePeriodicTask(new TimerTask() {
+                @Override
+                public void run() {
+                    refreshKeys(false);
+                }
+            }, jwks.getRefreshInterval() * 1000L, "JWKS refresh");
+    }
+
+    private boolean isRefreshable() {
+        return jwks.getJwksUris() != null && !jwks.getJwksUris().isEmpty();
+    }
+
+    private void loadKeys() throws Exception {
+        Map<String, RSAPublicKey> keys = new HashMap<>();
+        jwks.loadKeys(router.getResolverMap(), router.getBaseLocation()).forEach((kid, key) -> keys.put(kid, key.getRsaPublicKey()));
+
+        KeySet old = keySet;
+        if (old != null && old.keys().equals(keys))
+            return;
+        keySet = createKeySet(keys);
+        if (old != null) {
+            // tokens signed by keys which have been removed must not be accepted any longer
+            verifiedTokens.clear();
+            LOG.info("Reloaded JWKs, key IDs are now {}.", keys.keySet());
+        }
+    }
+
+    private KeySet createKeySet(Map<String, RSAPublicKey> keys) {
+        Map<String, JwtConsumer> validators = new HashMap<>();
+        keys.forEach((kid, key) -> validators.put(kid, createValidator(key)));
+        return new KeySet(keys, validators);
+    }
+
+    /**
+     * Reloads the keys in the background, unless a reload is already running.
+     *
+     * @param rateLimited whether to skip the reload if the last one started less than <i>minRefetchInterval</i> ago
+     * @return the running reload, or null if it was skipped
+     */
+    CompletableFuture<Void> refreshKeys(boolean rateLimited) {
+        CompletableFuture<Void> running = refresh.get();
+        if (running != null)
+            return running;
+        long now = clock.getAsLong();
+        if (rateLimited && now - lastRefresh < jwks.getMinRefetchInterval() * 1000L)
+            return null;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!refresh.compareAndSet(null, future))
+            return refresh.get();
+        lastRefresh = now;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    loadKeys();
+                    keyRefreshes.increment();
+                } catch (Exception e) {
+                    LOG.warn("Could not reload JWKs from {}: {}", jwks.getJwksUris(), e.getMessage());
+                } finally {
+                    refresh.set(null);
+                    future.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // stopped
+            refresh.set(null);
+            future.complete(null);
+        }
+        return future;
     }
 
     @Override
@@ -98,32 +218,113 @@ public class JwtAuthInterceptor extends AbstractInterceptor {
         if (jwt == null)
             throw new JWTException(ERROR_JWT_NOT_FOUND);
 
+        TokenHash hash = tokenCacheSize > 0 ? hash(jwt) : null;
+        if (hash != null) {
+            VerifiedToken cached = verifiedTokens.get(hash);
+            if (cached != null) {
+                if (cached.expiresAt() > clock.getAsLong()) {
+                    cacheHits.increment();
+                    return authorize(exc, cached.claims());
+                }
+                verifiedTokens.remove(hash, cached);
+            }
+            cacheMisses.increment();
+        }
+
+        KeySet keys = keySet;
+        long start = System.nanoTime();
+        Map<String, Object> jwtClaims = verify(jwt);
+        verificationTime.record((System.nanoTime() - start) / 1000);
+
+        // not cached if the keys have been reloaded meanwhile, as the cache might have been cleared
+        if (hash != null && keys == keySet)
+            store(hash, jwtClaims);
+
+        return authorize(exc, jwtClaims);
+    }
+
+    private Map<String, Object> verify(String jwt) throws JWTException, JsonProcessingException, InvalidJwtException {
         var decodedJwt = new JsonWebToken(jwt);
         var kid = decodedJwt.getHeader().kid();
 
-        if (!kidToKey.containsKey(kid)) {
-            throw new JWTException(ERROR_UNKNOWN_KEY);
-        }
-
         // we could make it possible that every key is checked instead of having the "kid" field mandatory
         // this would then need up to n checks per incoming JWT - could be a performance problem
-        RsaJsonWebKey key = kidToKey.get(kid);
+        JwtConsumer validator = keySet.validators().get(kid);
+        if (validator == null)
+            validator = getValidatorAfterRefresh(kid);
+        if (validator == null)
+            throw new JWTException(ERROR_UNKNOWN_KEY);
+
+        return validator.processToClaims(jwt).getClaimsMap();
+    }
+
+    /**
+     * The identity provider might have rotated its keys: reload them, if this has not been done recently.
+     */
+    private JwtConsumer getValidatorAfterRefresh(String kid) {
+        if (!isRefreshable())
+            return null;
+        CompletableFuture<Void> reload = refreshKeys(true);
+        if (reload == null)
+            return null;
+        try {
+            reload.get(UNKNOWN_KEY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return keySet.validators().get(kid);
+    }
 
-        Map<String, Object> jwtClaims = createValidator(key).processToClaims(jwt).getClaimsMap();
+    private Outcome authorize(Exchange exc, Map<String, Object> jwtClaims) {
+        // every exchange gets its own copy, as the claims of a cached token are shared
+        Map<String, Object> claims = new HashMap<>(jwtClaims);
 
-        exc.getProperties().put("jwt",jwtClaims);
+        exc.getProperties().put("jwt", claims);
 
-        new JWTSecurityScheme(jwtClaims).add(exc);
+        new JWTSecurityScheme(claims).add(exc);
 
         return CONTINUE;
     }
 
-    private JwtConsumer createValidator(RsaJsonWebKey key) {
+    private static TokenHash hash(String jwt) {
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(jwt.getBytes(US_ASCII)));
+            return new TokenHash(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void store(TokenHash hash, Map<String, Object> claims) {
+        if (!(claims.get("exp") instanceof Number exp))
+            return;
+        if (verifiedTokens.size() >= tokenCacheSize)
+            evict();
+        verifiedTokens.put(hash, new VerifiedToken(claims, exp.longValue() * 1000));
+    }
+
+    private void evict() {
+        long now = clock.getAsLong();
+        verifiedTokens.values().removeIf(token -> token.expiresAt() <= now);
+        // Still full: drop a tenth of the entries, so that this does not happen again for the next inserts.
+        // A token no longer cached only costs another verification.
+        int toRemove = verifiedTokens.size() - tokenCacheSize + tokenCacheSize / 10 + 1;
+        Iterator<TokenHash> it = verifiedTokens.keySet().iterator();
+        while (toRemove-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private JwtConsumer createValidator(RSAPublicKey key) {
         JwtConsumerBuilder jwtConsumerBuilder = new JwtConsumerBuilder()
                 .setRequireExpirationTime()
                 .setAllowedClockSkewInSeconds(30)
                 .setRequireSubject()
-                .setVerificationKey(key.getRsaPublicKey());
+                .setVerificationKey(key);
 
         if (acceptAnyAud())
             jwtConsumerBuilder.setSkipDefaultAudienceValidation();
@@ -181,6 +382,28 @@ public class JwtAuthInterceptor extends AbstractInterceptor {
         this.jwks = jwks;
     }
 
+    public int getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    /**
+     * @description Maximum number of verified tokens to cache until they expire. 0 disables the cache.
+     * @default 10000
+     */
+    @MCAttribute
+    public JwtAuthInterceptor setTokenCacheSize(int tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+        return this;
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(cacheHits.sum(), cacheMisses.sum(), verifiedTokens.size(), keyRefreshes.sum(), verificationTime);
+    }
+
     public String getExpectedAud() {
         return expectedAud;
     }
@@ -193,9 +416,25 @@ public class JwtAuthInterceptor extends AbstractInterceptor {
     @MCAttribute
     public JwtAuthInterceptor setExpectedAud(String expectedAud) {
         this.expectedAud = expectedAud;
+        KeySet current = keySet;
+        if (current != null) {
+            // the validators check the audience, and the cached tokens have been checked against the old one
+            keySet = createKeySet(current.keys());
+            verifiedTokens.clear();
+        }
         return this;
     }
 
+    public void stop() {
+        if (refreshExecutor != null)
+            refreshExecutor.shutdownNow();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
     @Override
     public String getShortDescription() {
         return "Checks for a valid JWT.";
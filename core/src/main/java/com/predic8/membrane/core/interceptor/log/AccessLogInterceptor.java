@@ -20,7 +20,11 @@ import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.interceptor.log.AsyncAccessLogWriter.Format;
+import org.springframework.beans.factory.DisposableBean;
 
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,16 +32,23 @@ import static com.predic8.membrane.core.interceptor.Outcome.CONTINUE;
 
 /**
  * @description Writes exchange metrics into a Log4j appender
- * @explanation Defaults to Apache Common Log pattern
+ * @explanation Defaults to Apache Common Log pattern. With <i>async="true"</i>, the lines are not passed to Log4j,
+ * but formatted and written in batches by a background thread into a file or to stdout. If the writer cannot keep
+ * up, lines are dropped instead of slowing down requests.
  */
 @MCElement(name = "accessLog")
-public class AccessLogInterceptor extends AbstractInterceptor {
+public class AccessLogInterceptor extends AbstractInterceptor implements DisposableBean {
     private List<AdditionalVariable> additionalVariables = new ArrayList<>();
     private String defaultValue = "-";
     private String dateTimePattern = "dd/MM/yyyy:HH:mm:ss Z";
     private boolean excludePayloadSize = false;
+    private boolean async = false;
+    private Format format = Format.CLF;
+    private String file;
+    private int bufferSize = 8192;
 
     private AccessLogInterceptorService accessLogInterceptorService;
+    private AsyncAccessLogWriter asyncWriter;
 
     public AccessLogInterceptor() {
         name = "Access Log";
@@ -52,6 +63,22 @@ public class AccessLogInterceptor extends AbstractInterceptor {
     public void init() throws Exception {
         super.init();
 
+        stop();
+        asyncWriter = null;
+
+        if (async) {
+            asyncWriter = new AsyncAccessLogWriter(
+                    bufferSize,
+                    format,
+                    dateTimePattern,
+                    defaultValue,
+                    additionalVariables,
+                    excludePayloadSize,
+                    openOutput()
+            );
+            return;
+        }
+
         accessLogInterceptorService = new AccessLogInterceptorService(
                 dateTimePattern,
                 defaultValue,
@@ -60,15 +87,41 @@ public class AccessLogInterceptor extends AbstractInterceptor {
         );
     }
 
+    /**
+     * Writes the lines still buffered in async mode and closes the log file.
+     */
+    public void stop() {
+        if (asyncWriter != null)
+            asyncWriter.stop();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    private OutputStream openOutput() throws Exception {
+        if (file == null)
+            return System.out;
+        return new FileOutputStream(file, true);
+    }
+
     @Override
     public Outcome handleResponse(Exchange exc) throws Exception {
-        accessLogInterceptorService.handleAccessLogging(exc);
+        handleAccessLogging(exc);
         return CONTINUE;
     }
 
     @Override
     public void handleAbort(Exchange exc) {
-        accessLogInterceptorService.handleAccessLogging(exc);
+        handleAccessLogging(exc);
+    }
+
+    private void handleAccessLogging(Exchange exc) {
+        if (asyncWriter != null)
+            asyncWriter.log(exc);
+        else
+            accessLogInterceptorService.handleAccessLogging(exc);
     }
 
     @SuppressWarnings("unused")
@@ -119,4 +172,73 @@ public class AccessLogInterceptor extends AbstractInterceptor {
     public void setExcludePayloadSize(boolean excludePayloadSize) {
         this.excludePayloadSize = excludePayloadSize;
     }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @description - Format and write the lines in a background thread instead of passing them to Log4j, defaults to false
+     */
+    @MCAttribute
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @description - Format of the lines written in async mode: "clf" (Common Log Format) or "json", defaults to "clf"
+     */
+    @MCAttribute
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @description - File the lines are appended to in async mode, defaults to stdout
+     */
+    @MCAttribute
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @description - Number of lines buffered in async mode before lines are dropped, defaults to 8192
+     */
+    @MCAttribute
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return number of lines dropped in async mode, because the writer could not keep up
+     */
+    public long getDropped() {
+        return asyncWriter != null ? asyncWriter.getDropped() : 0;
+    }
+
+    /**
+     * @return number of lines waiting to be written in async mode
+     */
+    public int getPending() {
+        return asyncWriter != null ? asyncWriter.getPending() : 0;
+    }
+
+    /**
+     * @return number of lines written in async mode
+     */
+    public long getWritten() {
+        return asyncWriter != null ? asyncWriter.getWritten() : 0;
+    }
 }
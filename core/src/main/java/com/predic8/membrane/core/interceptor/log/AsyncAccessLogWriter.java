@@ -0,0 +1,384 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.log;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Message;
+import com.predic8.membrane.core.lang.spel.ExchangeEvaluationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes access log lines from a background thread.
+ * <p>
+ * The request thread only copies the raw fields of the exchange into a preallocated slot of a bounded ring buffer.
+ * Formatting and writing happens in a single writer thread, which writes the lines in batches. If the ring buffer is
+ * full, because the output cannot keep up, lines are dropped and counted instead of blocking the request.
+ * <p>
+ * The ring buffer is a bounded multi-producer queue, where every slot carries a sequence number telling whether it
+ * is free or filled (see Dmitry Vyukov's bounded MPMC queue).
+ */
+public class AsyncAccessLogWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncAccessLogWriter.class);
+
+    public enum Format {
+        /**
+         * Apache Common Log Format, followed by the additional variables in quotes
+         */
+        CLF,
+        JSON
+    }
+
+    private static final int MAX_BATCH = 256;
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final Format format;
+    private final DateTimeFormatter dateTimeFormat;
+    private final String defaultValue;
+    private final List<AdditionalVariable> additionalVariables;
+    private final boolean excludePayloadSize;
+    private final OutputStream out;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity number of log lines that can be buffered, rounded up to a power of two
+     * @param out      where the lines are written to. It is closed when the writer is stopped, unless it is
+     *                 {@link System#out}.
+     */
+    public AsyncAccessLogWriter(int capacity, Format format, String dateTimePattern, String defaultValue,
+                                List<AdditionalVariable> additionalVariables, boolean excludePayloadSize, OutputStream out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry(additionalVariables.size());
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.format = format;
+        this.dateTimeFormat = DateTimeFormatter.ofPattern(dateTimePattern).withZone(ZoneId.systemDefault());
+        this.defaultValue = defaultValue;
+        this.additionalVariables = additionalVariables;
+        this.excludePayloadSize = excludePayloadSize;
+        this.out = out;
+
+        writer = new Thread(this::run, "Access Log Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Copies the fields of the exchange into the ring buffer. Never blocks.
+     */
+    public void log(Exchange exc) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long seq = sequences.get(index);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = tail.get();
+            } else if (seq < pos) {
+                dropped.incrementAndGet();
+                return; // full
+            } else {
+                pos = tail.get();
+            }
+        }
+        int index = (int) (pos & mask);
+        try {
+            entries[index].capture(exc);
+        } catch (Exception e) {
+            log.debug("Could not capture exchange for access log.", e);
+        } finally {
+            // The slot has to be published in any case, otherwise the writer would wait for it forever.
+            sequences.set(index, pos + 1);
+        }
+    }
+
+    private void run() {
+        StringBuilder sb = new StringBuilder(MAX_BATCH * 200);
+        while (true) {
+            int count = drain(sb);
+            if (count > 0) {
+                write(sb);
+                written.addAndGet(count);
+                continue;
+            }
+            if (!running)
+                break;
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        try {
+            out.flush();
+            if (out != System.out)
+                out.close();
+        } catch (IOException e) {
+            log.warn("Could not close access log.", e);
+        }
+    }
+
+    private int drain(StringBuilder sb) {
+        sb.setLength(0);
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1)
+                break;
+            Entry entry = entries[index];
+            if (format == Format.JSON)
+                entry.appendJson(sb);
+            else
+                entry.appendClf(sb);
+            sb.append('\n');
+            entry.clear();
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    private void write(StringBuilder sb) {
+        try {
+            out.write(sb.toString().getBytes(UTF_8));
+            if (sequences.get((int) (head & mask)) != head + 1)
+                out.flush(); // nothing more to write at the moment
+        } catch (IOException e) {
+            log.warn("Could not write access log.", e);
+        }
+    }
+
+    /**
+     * Writes the remaining lines and stops the writer thread.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of lines that were written
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return number of lines that were dropped, because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of lines waiting to be written
+     */
+    public int getPending() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Raw fields of one exchange. Instances are reused.
+     */
+    private class Entry {
+        String ip;
+        String host;
+        int port;
+        String method;
+        String uri;
+        String version;
+        String proto;
+        int statusCode;
+        long reqSize;
+        long resSize;
+        long timeReqReceived;
+        long timeReqSent;
+        long timeResReceived;
+        long timeResSent;
+        final String[] additional;
+
+        Entry(int additionalVariables) {
+            additional = new String[additionalVariables];
+        }
+
+        void capture(Exchange exc) {
+            ip = exc.getRemoteAddrIp();
+            try {
+                host = exc.getOriginalHostHeaderHost();
+                port = Integer.parseInt(exc.getOriginalHostHeaderPort());
+            } catch (Exception e) {
+                port = -1;
+            }
+            uri = exc.getOriginalRequestUri();
+            if (exc.getRequest() != null) {
+                method = exc.getRequest().getMethod();
+                version = exc.getRequest().getVersion();
+                proto = exc.getRequest().getHeader().getFirstValue("x-forwarded-proto");
+            }
+            statusCode = exc.getResponse() != null ? exc.getResponse().getStatusCode() : -1;
+            reqSize = excludePayloadSize ? -1 : getPayloadSize(exc.getRequest());
+            resSize = excludePayloadSize ? -1 : getPayloadSize(exc.getResponse());
+            timeReqReceived = exc.getTimeReqReceived();
+            timeReqSent = exc.getTimeReqSent();
+            timeResReceived = exc.getTimeResReceived();
+            timeResSent = exc.getTimeResSent();
+            // The expressions need the exchange, so they cannot be deferred to the writer thread.
+            for (int i = 0; i < additional.length; i++)
+                additional[i] = evaluate(additionalVariables.get(i), exc);
+        }
+
+        void clear() {
+            ip = host = method = uri = version = proto = null;
+            for (int i = 0; i < additional.length; i++)
+                additional[i] = null;
+        }
+
+        void appendClf(StringBuilder sb) {
+            sb.append(orDefault(ip)).append(" - - [");
+            appendTime(sb, timeReqReceived);
+            sb.append("] \"").append(orDefault(method)).append(' ').append(orDefault(uri)).append(" HTTP/")
+                    .append(orDefault(version)).append("\" ");
+            appendNumber(sb, statusCode);
+            sb.append(' ');
+            appendNumber(sb, resSize);
+            for (String value : additional)
+                sb.append(" \"").append(orDefault(value).replace("\"", "\\\"")).append('"');
+        }
+
+        void appendJson(StringBuilder sb) {
+            sb.append("{\"time\":\"");
+            appendTime(sb, timeReqReceived);
+            sb.append('"');
+            appendJsonField(sb, "ip", ip);
+            appendJsonField(sb, "host", host);
+            if (port != -1)
+                sb.append(",\"port\":").append(port);
+            appendJsonField(sb, "method", method);
+            appendJsonField(sb, "uri", uri);
+            appendJsonField(sb, "http.version", version);
+            appendJsonField(sb, "proto", proto);
+            sb.append(",\"statusCode\":").append(statusCode);
+            if (reqSize >= 0)
+                sb.append(",\"req.payload.size\":").append(reqSize);
+            if (resSize >= 0)
+                sb.append(",\"res.payload.size\":").append(resSize);
+            if (timeReqSent != 0)
+                sb.append(",\"time.diff.sent\":").append(timeResSent - timeReqSent);
+            if (timeResReceived != 0)
+                sb.append(",\"time.diff.received\":").append(timeResReceived - timeReqReceived);
+            for (int i = 0; i < additional.length; i++)
+                appendJsonField(sb, additionalVariables.get(i).getName(), additional[i]);
+            sb.append('}');
+        }
+
+        private void appendTime(StringBuilder sb, long time) {
+            if (time == 0)
+                sb.append(defaultValue);
+            else
+                dateTimeFormat.formatTo(Instant.ofEpochMilli(time), sb);
+        }
+
+        private void appendNumber(StringBuilder sb, long value) {
+            if (value < 0)
+                sb.append(defaultValue);
+            else
+                sb.append(value);
+        }
+    }
+
+    private String evaluate(AdditionalVariable variable, Exchange exc) {
+        try {
+            return String.valueOf(variable.getExpression().getValue(new ExchangeEvaluationContext(exc)));
+        } catch (Exception e) {
+            return variable.getDefaultValue();
+        }
+    }
+
+    private static long getPayloadSize(Message msg) {
+        if (msg == null)
+            return -1;
+        try {
+            return msg.getBody().getLength();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private String orDefault(String value) {
+        return value != null ? value : defaultValue;
+    }
+
+    private static void appendJsonField(StringBuilder sb, String name, String value) {
+        if (value == null)
+            return;
+        sb.append(",\"");
+        appendJsonEscaped(sb, name);
+        sb.append("\":\"");
+        appendJsonEscaped(sb, value);
+        sb.append('"');
+    }
+
+    static void appendJsonEscaped(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+    }
+}
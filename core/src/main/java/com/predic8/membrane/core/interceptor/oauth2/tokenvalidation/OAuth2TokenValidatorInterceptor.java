@@ -23,22 +23,102 @@ import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpServerThreadFactory;
 import com.predic8.membrane.annot.Required;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @description <p>Grants access to resources with access tokens which are accepted by the validation endpoint.</p>
+ * <p>Validation results are cached per token for <i>validTtl</i> or <i>invalidTtl</i> seconds. Concurrent requests
+ * with the same token, which is not cached yet, share a single call to the endpoint. With
+ * <i>staleWhileRevalidate</i>, an expired result is still used for that many seconds while it is renewed in the
+ * background, so a slow endpoint does not delay requests.</p>
+ */
 @MCElement(name="tokenValidator")
-public class OAuth2TokenValidatorInterceptor extends AbstractInterceptor {
+public class OAuth2TokenValidatorInterceptor extends AbstractInterceptor implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OAuth2TokenValidatorInterceptor.class);
+
+    private static final int REVALIDATION_THREADS = 4;
+    private static final int REVALIDATION_QUEUE_SIZE = 1000;
 
     private String endpoint;
+    private int validTtl = 60;
+    private int invalidTtl = 10;
+    private int staleWhileRevalidate = 0;
+    private int cacheSize = 10000;
 
     HttpClient client;
 
+    private final ConcurrentHashMap<TokenHash, Validation> validations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TokenHash, CompletableFuture<Validation>> running = new ConcurrentHashMap<>();
+    private LongSupplier clock = System::currentTimeMillis;
+    /**
+     * Calls the endpoint for revalidations in the background. When its queue is full, stale results are used
+     * until a later request gets to revalidate them.
+     */
+    private ThreadPoolExecutor revalidator = createRevalidator();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+
+    private record TokenHash(long h0, long h1, long h2, long h3) {
+    }
+
+    /**
+     * @param cacheable false if the endpoint could not decide, e.g. because it failed with a server error
+     */
+    private record Validation(boolean valid, boolean cacheable, long expiresAt) {
+    }
+
+    public record Statistics(long hits, long staleHits, long misses, long coalesced, long calls, long cachedTokens) {
+    }
+
     @Override
     public void init(Router router) throws Exception {
         setFlow(Flow.Set.REQUEST);
         name = "OAuth2 Token Validator";
         client = router.getHttpClientFactory().createClient(null);
+        if (revalidator.isShutdown())
+            revalidator = createRevalidator();
+    }
+
+    private static ThreadPoolExecutor createRevalidator() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(REVALIDATION_THREADS, REVALIDATION_THREADS, 60L, SECONDS,
+                new ArrayBlockingQueue<>(REVALIDATION_QUEUE_SIZE), new HttpServerThreadFactory("Token Revalidation", true));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public void stop() {
+        revalidator.shutdownNow();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
     }
 
     @Override
@@ -49,30 +129,144 @@ public class OAuth2TokenValidatorInterceptor extends AbstractInterceptor {
 
     @Override
     public Outcome handleRequest(Exchange exc) throws Exception {
-        synchronized (client){
-            if(callExchangeAndCheckFor200(buildAccessTokenValidationExchange(exc)))
-                return Outcome.CONTINUE;
-        }
+        if(isValid(getAuthorizationHeaderValue(exc)))
+            return Outcome.CONTINUE;
         setResponseToBadRequest(exc);
         return Outcome.RETURN;
     }
 
-    private boolean callExchangeAndCheckFor200(Exchange e) throws Exception {
-        return client.call(e).getResponse().getStatusCode() == 200;
+    private boolean isValid(String authorization) throws Exception {
+        if (cacheSize <= 0 || authorization == null)
+            return validate(authorization).valid();
+
+        TokenHash hash = hash(authorization);
+        Validation cached = validations.get(hash);
+        if (cached != null) {
+            long now = clock.getAsLong();
+            if (now < cached.expiresAt()) {
+                hits.increment();
+                return cached.valid();
+            }
+            if (now < cached.expiresAt() + staleWhileRevalidate * 1000L) {
+                staleHits.increment();
+                revalidate(hash, authorization);
+                return cached.valid();
+            }
+        }
+        misses.increment();
+        return validateOnce(hash, authorization).valid();
+    }
+
+    /**
+     * Validates the token, or waits for the result of a concurrent validation of the same token.
+     */
+    private Validation validateOnce(TokenHash hash, String authorization) throws Exception {
+        CompletableFuture<Validation> future = new CompletableFuture<>();
+        CompletableFuture<Validation> other = running.putIfAbsent(hash, future);
+        if (other != null) {
+            coalesced.increment();
+            try {
+                return other.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        try {
+            Validation validation = validateAndStore(hash, authorization);
+            future.complete(validation);
+            return validation;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(hash, future);
+        }
+    }
+
+    /**
+     * Renews a cached result in the background. The stale result is kept if the endpoint cannot be reached.
+     */
+    private void revalidate(TokenHash hash, String authorization) {
+        CompletableFuture<Validation> future = new CompletableFuture<>();
+        if (running.putIfAbsent(hash, future) != null)
+            return;
+        try {
+            revalidator.execute(() -> {
+                try {
+                    future.complete(validateAndStore(hash, authorization));
+                } catch (Exception e) {
+                    log.warn("Could not revalidate access token at {}: {}", endpoint, e.getMessage());
+                    future.completeExceptionally(e);
+                } finally {
+                    running.remove(hash, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(hash, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private Validation validateAndStore(TokenHash hash, String authorization) throws Exception {
+        Validation validation = validate(authorization);
+        if (validation.cacheable() && validation.expiresAt() > clock.getAsLong()) {
+            if (validations.size() >= cacheSize)
+                evict();
+            validations.put(hash, validation);
+        }
+        return validation;
+    }
+
+    private Validation validate(String authorization) throws Exception {
+        calls.increment();
+        int status = client.call(buildAccessTokenValidationExchange(authorization)).getResponse().getStatusCode();
+        if (status == 200)
+            return new Validation(true, true, clock.getAsLong() + validTtl * 1000L);
+        return new Validation(false, status < 500, clock.getAsLong() + invalidTtl * 1000L);
+    }
+
+    private void evict() {
+        long now = clock.getAsLong();
+        long staleMillis = staleWhileRevalidate * 1000L;
+        validations.values().removeIf(validation -> validation.expiresAt() + staleMillis <= now);
+        // Make room for the next few tokens as well. An evicted token is just validated again.
+        int toRemove = validations.size() - cacheSize + cacheSize / 10 + 1;
+        Iterator<TokenHash> it = validations.keySet().iterator();
+        while (toRemove-- > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static TokenHash hash(String authorization) {
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(authorization.getBytes(UTF_8)));
+            return new TokenHash(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private void setResponseToBadRequest(Exchange exc) {
         exc.setResponse(new Response().badRequest().build());
     }
 
-    private Exchange buildAccessTokenValidationExchange(Exchange exc) throws URISyntaxException {
-        return new Request.Builder().get(endpoint).header(Header.AUTHORIZATION, getAuthorizationHeaderValue(exc)).buildExchange();
+    private Exchange buildAccessTokenValidationExchange(String authorization) throws URISyntaxException {
+        return new Request.Builder().get(endpoint).header(Header.AUTHORIZATION, authorization).buildExchange();
     }
 
     private String getAuthorizationHeaderValue(Exchange exc) {
         return exc.getRequest().getHeader().getFirstValue(Header.AUTHORIZATION);
     }
 
+    public Statistics getStatistics() {
+        return new Statistics(hits.sum(), staleHits.sum(), misses.sum(), coalesced.sum(), calls.sum(), validations.size());
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
     public String getEndpoint() {
         return endpoint;
     }
@@ -86,4 +280,58 @@ public class OAuth2TokenValidatorInterceptor extends AbstractInterceptor {
     public void setEndpoint(String endpoint) {
         this.endpoint = endpoint;
     }
+
+    public int getValidTtl() {
+        return validTtl;
+    }
+
+    /**
+     * @description Number of seconds an accepted token is not validated again. 0 disables caching of accepted tokens.
+     * @default 60
+     */
+    @MCAttribute
+    public void setValidTtl(int validTtl) {
+        this.validTtl = validTtl;
+    }
+
+    public int getInvalidTtl() {
+        return invalidTtl;
+    }
+
+    /**
+     * @description Number of seconds a rejected token is rejected without asking the endpoint again. Server errors
+     * of the endpoint are never cached.
+     * @default 10
+     */
+    @MCAttribute
+    public void setInvalidTtl(int invalidTtl) {
+        this.invalidTtl = invalidTtl;
+    }
+
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @description Number of seconds an expired result is still used while the token is validated again in the
+     * background. 0 validates expired tokens before the request is passed on.
+     * @default 0
+     */
+    @MCAttribute
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @description Maximum number of cached validation results. 0 disables the cache.
+     * @default 10000
+     */
+    @MCAttribute
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
 }
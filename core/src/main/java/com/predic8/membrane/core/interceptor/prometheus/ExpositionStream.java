@@ -0,0 +1,94 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.prometheus;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.*;
+
+/**
+ * Renders the metric families one after another while the response body is read, so that only one family is held
+ * in memory at a time. Optionally compresses the output with gzip.
+ */
+class ExpositionStream extends InputStream {
+
+    private final Iterator<Consumer<PrometheusWriter>> families;
+    private final PrometheusWriter writer;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private final OutputStream out;
+
+    private byte[] chunk = new byte[0];
+    private int pos;
+    private boolean finished;
+
+    ExpositionStream(List<Consumer<PrometheusWriter>> families, boolean openMetrics, boolean gzip) throws IOException {
+        this.families = families.iterator();
+        this.writer = new PrometheusWriter(openMetrics);
+        this.out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable())
+            return -1;
+        return chunk[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensureAvailable())
+            return -1;
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - pos;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        // A family without samples or buffered by the compressor results in an empty chunk.
+        while (pos == chunk.length) {
+            if (finished)
+                return false;
+            refill();
+        }
+        return true;
+    }
+
+    private void refill() throws IOException {
+        StringBuilder sb = writer.getBuffer();
+        sb.setLength(0);
+        if (families.hasNext()) {
+            families.next().accept(writer);
+            out.write(sb.toString().getBytes(UTF_8));
+        } else {
+            writer.eof();
+            out.write(sb.toString().getBytes(UTF_8));
+            out.close();
+            finished = true;
+        }
+        chunk = buffer.toByteArray();
+        buffer.reset();
+        pos = 0;
+    }
+}
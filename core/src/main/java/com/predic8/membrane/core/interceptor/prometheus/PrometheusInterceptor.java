@@ -19,108 +19,112 @@ package com.predic8.membrane.core.interceptor.prometheus;
 import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
-import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.exchangestore.ElasticSearchExchangeStore;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
+import com.predic8.membrane.core.interceptor.Interceptor;
+import com.predic8.membrane.core.interceptor.cache.HttpCacheInterceptor;
+import com.predic8.membrane.core.interceptor.jwt.JwtAuthInterceptor;
+import com.predic8.membrane.core.interceptor.log.AccessLogInterceptor;
+import com.predic8.membrane.core.interceptor.shadowing.ShadowingInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.openapi.serviceproxy.*;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.StatisticCollector;
 import com.predic8.membrane.core.rules.TimeCollector;
+import com.predic8.membrane.core.stats.LatencyHistogram;
+import com.predic8.membrane.core.transport.http.ConnectionManager;
+import com.predic8.membrane.core.transport.ssl.HandshakeStatistics;
 import com.predic8.membrane.core.transport.ssl.SSLContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URLDecoder;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import java.util.regex.Pattern;
 
+import static com.predic8.membrane.core.http.Header.*;
+import static com.predic8.membrane.core.interceptor.prometheus.PrometheusWriter.*;
 import static com.predic8.membrane.core.openapi.util.Utils.joinByComma;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 
+/**
+ * @description Returns Membrane's internal metrics in the Prometheus text format or, if requested by the
+ * <i>Accept</i> header, in the OpenMetrics format. The metrics are rendered while the response is sent, and are
+ * compressed with gzip if the client accepts it. The metrics can be restricted to some rules by adding
+ * <i>name[]</i> query parameters, e.g. <i>/metrics?name[]=orders&amp;name[]=customers</i>.
+ * @topic 4. Interceptors/Features
+ */
 @MCElement(name = "prometheus")
 public class PrometheusInterceptor extends AbstractInterceptor {
 
     static final Logger LOG = LoggerFactory.getLogger(PrometheusInterceptor.class);
     static volatile boolean issuedDuplicateRuleNameWarning = false;
 
+    static final String TEXT_FORMAT = "text/plain; version=0.0.4";
+    static final String OPENMETRICS_FORMAT = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * Label strings of the rules, so that they do not have to be built again on every scrape.
+     */
+    private final Map<Rule, RuleSeries> series = new ConcurrentHashMap<>();
+
     public PrometheusInterceptor() {
         name = "Prometheus Interceptor";
     }
 
     @Override
     public Outcome handleRequest(Exchange exc) throws Exception {
-        Context ctx = new Context();
-        buildPrometheusStyleResponse(ctx);
-        exc.setResponse(Response.ok(ctx.sb.toString()).header(Header.CONTENT_TYPE, "text/plain; version=0.0.4").build());
+        Set<String> ruleNames = getRuleNameFilter(exc.getRequest().getUri());
+        boolean openMetrics = accepts(exc.getRequest().getHeader().getFirstValue(ACCEPT), "application/openmetrics-text");
+        boolean gzip = accepts(exc.getRequest().getHeader().getFirstValue(ACCEPT_ENCODING), "gzip");
+
+        Response.ResponseBuilder rb = Response.ok().header(CONTENT_TYPE, openMetrics ? OPENMETRICS_FORMAT : TEXT_FORMAT);
+        if (gzip)
+            rb.header(CONTENT_ENCODING, "gzip");
+        exc.setResponse(rb.body(new ExpositionStream(getFamilies(getSeries(ruleNames), ruleNames == null), openMetrics, gzip), true).build());
         return Outcome.RETURN;
     }
 
-    private static class Context {
-        StringBuilder sb = new StringBuilder();
-
-        List<StringBuilder> dynamic = new ArrayList<>();
-
-        StringBuilder s1 = new StringBuilder();
-        StringBuilder s2 = new StringBuilder();
-        StringBuilder s3 = new StringBuilder();
-        StringBuilder s4 = new StringBuilder();
-        StringBuilder s5 = new StringBuilder();
-        StringBuilder s6 = new StringBuilder();
-        StringBuilder s7 = new StringBuilder();
-        StringBuilder s8 = new StringBuilder();
-        StringBuilder s9 = new StringBuilder();
-        StringBuilder s10 = new StringBuilder();
-
-        HashSet<String> seenRules = new HashSet<>();
-
-        private StringBuilder getNew() {
-            StringBuilder b = new StringBuilder();
-            dynamic.add(b);
-            return b;
-        }
-
-        private void reset() {
-            s1.setLength(0);
-            s2.setLength(0);
-            s3.setLength(0);
-            s4.setLength(0);
-            s5.setLength(0);
-            s6.setLength(0);
-            s7.setLength(0);
-            s8.setLength(0);
-            s9.setLength(0);
-            s10.setLength(0);
-
-            dynamic.forEach(s -> s.setLength(0));
-        }
-
-        private void resetAll() {
-            sb.setLength(0);
-            seenRules.clear();
-        }
+    private static boolean accepts(String headerValue, String token) {
+        return headerValue != null && headerValue.toLowerCase(Locale.ROOT).contains(token);
+    }
 
-        private void collect() {
-            sb.append(s1);
-            sb.append(s2);
-            sb.append(s3);
-            sb.append(s4);
-            sb.append(s5);
-            sb.append(s6);
-            sb.append(s7);
-            sb.append(s8);
-            sb.append(s9);
-            sb.append(s10);
-
-            dynamic.forEach(s -> sb.append(s));
+    /**
+     * @return the values of the <i>name[]</i> query parameters, or null if there are none
+     */
+    static Set<String> getRuleNameFilter(String uri) {
+        int q = uri.indexOf('?');
+        if (q == -1)
+            return null;
+        Set<String> result = null;
+        for (String param : uri.substring(q + 1).split("&")) {
+            int eq = param.indexOf('=');
+            if (eq == -1)
+                continue;
+            String key = URLDecoder.decode(param.substring(0, eq), UTF_8);
+            if (!key.equals("name[]"))
+                continue;
+            if (result == null)
+                result = new HashSet<>();
+            result.add(URLDecoder.decode(param.substring(eq + 1), UTF_8));
         }
+        return result;
     }
 
-    private void buildPrometheusStyleResponse(Context ctx) {
-        ctx.resetAll();
-        ctx.reset();
+    private List<RuleSeries> getSeries(Set<String> ruleNames) {
+        List<RuleSeries> result = new ArrayList<>();
+        Set<String> seenRules = new HashSet<>();
+        Set<Rule> rules = new HashSet<>();
         for (Rule r : router.getRuleManager().getRules()) {
-            if (!ctx.seenRules.add(prometheusCompatibleName(r.getName()))) {
+            rules.add(r);
+            if (!seenRules.add(prometheusCompatibleName(r.getName()))) {
                 // the prometheus format is not allowed to contain the same metric more than once
                 if (issuedDuplicateRuleNameWarning)
                     continue;
@@ -128,201 +132,361 @@ public class PrometheusInterceptor extends AbstractInterceptor {
                 issuedDuplicateRuleNameWarning = true;
                 continue;
             }
+            if (ruleNames != null && !ruleNames.contains(r.getName()) && !ruleNames.contains(prometheusCompatibleName(r.getName())))
+                continue;
 
-            buildStatuscodeLines(ctx, r);
-            buildBuckets(ctx, r);
-            buildActive(ctx, r);
-
-            if (r.isActive()) {
-                SSLContext sslib = r.getSslInboundContext();
-                if (sslib != null)
-                    buildSSLLines(ctx, r, sslib);
-            }
-
-            if (r instanceof APIProxy) {
-                buildOpenAPIValidatorLines(ctx, (APIProxy) r);
+            RuleSeries rs = series.get(r);
+            if (rs == null || !rs.name.equals(r.getName())) {
+                rs = new RuleSeries(r);
+                series.put(r, rs);
             }
-
+            result.add(rs);
         }
-        buildDuplicateRuleNameWarning(ctx, issuedDuplicateRuleNameWarning);
-        ctx.collect();
-
+        series.keySet().retainAll(rules);
+        return result;
     }
 
-    private void buildOpenAPIValidatorLines(Context ctx, APIProxy proxy) {
-        for (Map.Entry<ValidationStatsKey, Integer> e : proxy.getValidationStatisticCollector().getStats().entrySet()) {
-            buildLine(ctx.s10, proxy.getName(), e.getValue(), e.getKey().getLabels(), "openapi_validation");
+    /**
+     * @param global whether to include metrics that do not belong to a rule
+     */
+    private List<Consumer<PrometheusWriter>> getFamilies(List<RuleSeries> rules, boolean global) {
+        List<Consumer<PrometheusWriter>> families = new ArrayList<>();
+        families.add(w -> buildStatuscodeLines(w, rules, "count", StatisticCollector::getCount));
+        families.add(w -> buildStatuscodeLines(w, rules, "good_count", StatisticCollector::getGoodCount));
+        families.add(w -> buildStatuscodeLines(w, rules, "good_time", StatisticCollector::getGoodTotalTime));
+        families.add(w -> buildStatuscodeLines(w, rules, "good_bytes_req_body", StatisticCollector::getGoodTotalBytesSent));
+        families.add(w -> buildStatuscodeLines(w, rules, "good_bytes_res_body", StatisticCollector::getGoodTotalBytesReceived));
+        if (global)
+            families.add(this::buildDuplicateRuleNameWarning);
+        families.add(w -> buildActive(w, rules));
+        families.add(w -> buildSSLLines(w, rules, "ssl_haskeyandcert", false, ctx -> ctx.hasKeyAndCertificate() ? 1 : 0));
+        families.add(w -> buildSSLLines(w, rules, "ssl_validfrom_ms", true, SSLContext::getValidFrom));
+        families.add(w -> buildSSLLines(w, rules, "ssl_validuntil_ms", true, SSLContext::getValidUntil));
+        families.add(w -> buildHandshakeLines(w, rules, global));
+        families.add(w -> buildHandshakeTimeLines(w, rules, global));
+        families.add(w -> buildOpenAPIValidatorLines(w, rules));
+        for (String phase : TimeCollector.PHASES) {
+            families.add(w -> buildBuckets(w, rules, phase));
+            families.add(w -> buildPercentiles(w, rules, phase));
         }
+        if (global) {
+            buildConnectionPoolLines(families);
+            buildElasticSearchLines(families);
+        }
+        buildHttpCacheLines(families, rules);
+        buildJwtLines(families, rules);
+        buildShadowingLines(families, rules);
+        buildAccessLogLines(families, rules);
+        return families;
     }
 
-    private StringBuilder buildLine(StringBuilder sb, String ruleName, long value, Map<String, String> labels, String postFix) {
-        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
-        if (sb.length() == 0) {
-            sb.append("# TYPE ");
-            sb.append(prometheusName);
-            sb.append(" counter\n");
-        }
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\",");
-
-        for (Map.Entry<String, String> e : labels.entrySet()) {
-            sb.append(e.getKey());
-            sb.append("=\"");
-            sb.append(e.getValue());  // TODO Sanitize / Ok aber \ nicht wie prometheusCompatibleName
-            sb.append("\",");
+    private class RuleSeries {
+        final Rule rule;
+        final String name;
+        final String label;
+        private final Map<Integer, String> codeLabels = new ConcurrentHashMap<>();
+
+        RuleSeries(Rule rule) {
+            this.rule = rule;
+            this.name = rule.getName();
+            this.label = "rule=\"" + prometheusCompatibleName(name) + "\"";
         }
-        sb.append("} ");
-        sb.append(value);
-        sb.append("\n");
-        return sb;
-    }
-
-    private void buildSSLLines(Context ctx, Rule r, SSLContext sslib) {
-        boolean hasKeyAndCert = sslib.hasKeyAndCertificate();
-        buildSSLLine(ctx.s7, r.getName(), sslib.getPrometheusContextTypeName(), "ssl_haskeyandcert", hasKeyAndCert ? 1 : 0);
-        if (hasKeyAndCert) {
-            buildSSLLine(ctx.s8, r.getName(), sslib.getPrometheusContextTypeName(), "ssl_validfrom_ms", sslib.getValidFrom());
-            buildSSLLine(ctx.s9, r.getName(), sslib.getPrometheusContextTypeName(), "ssl_validuntil_ms", sslib.getValidUntil());
+
+        String withCode(int code) {
+            return codeLabels.computeIfAbsent(code, c -> label + ",code=\"" + c + "\"");
         }
     }
 
-    private void buildSSLLine(StringBuilder sb, String ruleName, String prometheusContextTypeName, String metric, long value) {
-        String prometheusName = prometheusCompatibleName("membrane_" + metric);
+    private void buildStatuscodeLines(PrometheusWriter w, List<RuleSeries> rules, String postFix, ToLongFunction<StatisticCollector> metric) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, COUNTER);
+        for (RuleSeries rs : rules)
+            rs.rule.getStatisticCollector().getStatisticsByStatusCodes().forEach((code, sc) ->
+                    w.sample(prometheusName, rs.withCode(code), metric.applyAsLong(sc)));
+    }
+
+    private void buildDuplicateRuleNameWarning(PrometheusWriter w) {
+        w.family("membrane_duplicate_rule_name", GAUGE);
+        w.sample("membrane_duplicate_rule_name", null, issuedDuplicateRuleNameWarning ? 1 : 0);
+    }
+
+    private void buildActive(PrometheusWriter w, List<RuleSeries> rules) {
+        w.family("membrane_rule_active", GAUGE);
+        for (RuleSeries rs : rules)
+            w.sample("membrane_rule_active", rs.label, rs.rule.isActive() ? 1 : 0);
+    }
 
-        if (sb.length() == 0) {
-            sb.append("# TYPE ");
-            sb.append(prometheusName);
-            sb.append(" gauge\n");
+    private void buildSSLLines(PrometheusWriter w, List<RuleSeries> rules, String metric, boolean needsKeyAndCert, ToLongFunction<SSLContext> value) {
+        String prometheusName = prometheusCompatibleName("membrane_" + metric);
+        w.family(prometheusName, GAUGE);
+        for (RuleSeries rs : rules) {
+            if (!rs.rule.isActive())
+                continue;
+            SSLContext sslib = rs.rule.getSslInboundContext();
+            if (sslib == null || (needsKeyAndCert && !sslib.hasKeyAndCertificate()))
+                continue;
+            w.sample(prometheusName, rs.label, "type", prometheusCompatibleName(sslib.getPrometheusContextTypeName()), value.applyAsLong(sslib));
         }
+    }
 
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\",type=\"");
-        sb.append(prometheusCompatibleName(prometheusContextTypeName));
-        sb.append("\"} ");
-        sb.append(value);
-        sb.append("\n");
+    private void buildHandshakeLines(PrometheusWriter w, List<RuleSeries> rules, boolean global) {
+        w.family("membrane_ssl_handshakes", COUNTER);
+        forEachHandshakeStatistics(rules, global, (labels, statistics) -> {
+            w.sample("membrane_ssl_handshakes", labels, "type", "full", statistics.getFullHandshakes());
+            w.sample("membrane_ssl_handshakes", labels, "type", "resumed", statistics.getResumedHandshakes());
+            w.sample("membrane_ssl_handshakes", labels, "type", "failed", statistics.getFailedHandshakes());
+        });
     }
 
-    private void buildDuplicateRuleNameWarning(Context ctx, boolean hasDuplicateRuleName) {
-        ctx.s6.append("# TYPE membrane_duplicate_rule_name gauge\n");
+    /**
+     * Handshake times are in microseconds.
+     */
+    private void buildHandshakeTimeLines(PrometheusWriter w, List<RuleSeries> rules, boolean global) {
+        w.family("membrane_ssl_handshake_time_us_percentile", GAUGE);
+        forEachHandshakeStatistics(rules, global, (labels, statistics) -> {
+            buildHandshakeTimeLines(w, labels + ",type=\"full\"", statistics.getFullHandshakeTime());
+            buildHandshakeTimeLines(w, labels + ",type=\"resumed\"", statistics.getResumedHandshakeTime());
+        });
+    }
 
-        buildLine(ctx.s6, "duplicate_rule_name", hasDuplicateRuleName ? 1 : 0);
+    private void buildHandshakeTimeLines(PrometheusWriter w, String labels, LatencyHistogram histogram) {
+        if (histogram.isEmpty())
+            return;
+        for (double quantile : QUANTILES)
+            w.sample("membrane_ssl_handshake_time_us_percentile", labels, "quantile", String.valueOf(quantile), histogram.getValueAtPercentile(quantile * 100));
     }
 
-    private void buildActive(Context ctx, Rule r) {
-        if (ctx.s6.length() == 0)
-            ctx.s6.append("# TYPE membrane_rule_active gauge\n");
+    private interface HandshakeStatisticsConsumer {
+        void accept(String labels, HandshakeStatistics statistics);
+    }
 
-        buildBucketLine(ctx.s6, r.getName(), "rule_active", r.isActive() ? 1 : 0);
+    /**
+     * Per rule for the contexts configured by the rule's &lt;ssl&gt; elements and, if <code>global</code>, summed up
+     * over all connections.
+     */
+    private void forEachHandshakeStatistics(List<RuleSeries> rules, boolean global, HandshakeStatisticsConsumer consumer) {
+        for (RuleSeries rs : rules) {
+            if (!rs.rule.isActive())
+                continue;
+            SSLContext inbound = rs.rule.getSslInboundContext();
+            if (inbound != null)
+                consumer.accept(rs.label + ",direction=\"inbound\"", inbound.getInboundHandshakes());
+            if (rs.rule.getSslOutboundContext() instanceof SSLContext outbound)
+                consumer.accept(rs.label + ",direction=\"outbound\"", outbound.getOutboundHandshakes());
+        }
+        if (global) {
+            consumer.accept("direction=\"inbound\"", HandshakeStatistics.INBOUND);
+            consumer.accept("direction=\"outbound\"", HandshakeStatistics.OUTBOUND);
+        }
     }
 
-    private void buildBuckets(Context ctx, Rule rule) {
-        rule.getStatisticCollector().getTimeStatisticsByStatusCodeRange().forEach((code, tc) -> tc.getTrackedTimes().forEach((name, tt) -> {
-            if (tt.isEmpty())
-                return;
+    private void buildOpenAPIValidatorLines(PrometheusWriter w, List<RuleSeries> rules) {
+        w.family("membrane_openapi_validation", COUNTER);
+        for (RuleSeries rs : rules) {
+            if (!(rs.rule instanceof APIProxy proxy))
+                continue;
+            for (Map.Entry<ValidationStatsKey, Integer> e : proxy.getValidationStatisticCollector().getStats().entrySet()) {
+                StringBuilder labels = new StringBuilder(rs.label);
+                for (Map.Entry<String, String> l : e.getKey().getLabels().entrySet())
+                    labels.append(',').append(l.getKey()).append("=\"").append(escapeLabelValue(l.getValue())).append('"');
+                w.sample("membrane_openapi_validation", labels.toString(), e.getValue());
+            }
+        }
+    }
 
-            StringBuilder sb = ctx.getNew();
-            tt.forEach((le, count) -> {
-                if (le.equals("SUM") || le.equals("COUNT"))
-                    return;
+    private void buildBuckets(PrometheusWriter w, List<RuleSeries> rules, String phase) {
+        String prometheusName = prometheusCompatibleName("membrane_" + phase);
+        String bucketName = prometheusName + "_bucket";
+        String sumName = prometheusName + "_sum";
+        String countName = prometheusName + "_count";
+        List<Long> buckets = TimeCollector.getBuckets();
+        w.family(prometheusName, HISTOGRAM);
+        forEachHistogram(rules, phase, (labels, histogram) -> {
+            for (long le : buckets)
+                w.sample(bucketName, labels, "le", w.le(le), histogram.getCountAtOrBelow(le));
+            w.sample(bucketName, labels, "le", "+Inf", histogram.getCount());
+            w.sample(sumName, labels, histogram.getSum());
+            w.sample(countName, labels, histogram.getCount());
+        });
+    }
 
-                buildBucketLine(sb, rule.getName(), code, le, count, name);
-            });
-            buildBucketLine(sb, rule.getName(), code, name + "_sum", tt.get("SUM"));
-            buildBucketLine(sb, rule.getName(), code,name + "_count", tt.get("COUNT"));
-        }));
-    }
-
-    private void buildStatuscodeLines(Context ctx, Rule rule) {
-        rule.getStatisticCollector().getStatisticsByStatusCodes().forEach((key, value) -> {
-            buildLine(ctx.s1, rule.getName(), value.getCount(), "code", key, "count");
-            buildLine(ctx.s2, rule.getName(), value.getGoodCount(), "code", key, "good_count");
-            buildLine(ctx.s3, rule.getName(), value.getGoodTotalTime(), "code", key, "good_time");
-            buildLine(ctx.s4, rule.getName(), value.getGoodTotalBytesSent(), "code", key, "good_bytes_req_body");
-            buildLine(ctx.s5, rule.getName(), value.getGoodTotalBytesReceived(), "code", key, "good_bytes_res_body");
+    private void buildPercentiles(PrometheusWriter w, List<RuleSeries> rules, String phase) {
+        String prometheusName = prometheusCompatibleName("membrane_" + phase + "_percentile");
+        w.family(prometheusName, GAUGE);
+        forEachHistogram(rules, phase, (labels, histogram) -> {
+            for (double quantile : QUANTILES)
+                w.sample(prometheusName, labels, "quantile", String.valueOf(quantile), histogram.getValueAtPercentile(quantile * 100));
         });
     }
 
-    private void buildLine(StringBuilder sb, String label, long value) {
-        String prometheusName = prometheusCompatibleName("membrane_" + label);
+    private interface HistogramConsumer {
+        void accept(String labels, LatencyHistogram histogram);
+    }
+
+    private void forEachHistogram(List<RuleSeries> rules, String phase, HistogramConsumer consumer) {
+        for (RuleSeries rs : rules) {
+            rs.rule.getStatisticCollector().getTimeStatisticsByStatusCodeRange().forEach((code, tc) -> {
+                LatencyHistogram histogram = tc.getTrackedTimes().get(phase);
+                if (histogram == null || histogram.isEmpty())
+                    return;
+                consumer.accept(rs.withCode(code), histogram);
+            });
+        }
+    }
+
+    /**
+     * Sums up the statistics of the outbound connection pools per target host and port.
+     */
+    private void buildConnectionPoolLines(List<Consumer<PrometheusWriter>> families) {
+        Map<String, long[]> byTarget = new TreeMap<>();
+        for (ConnectionManager.PoolStatistics ps : router.getHttpClientFactory().getPoolStatistics()) {
+            long[] values = byTarget.computeIfAbsent(ps.key().host + ":" + ps.key().port, k -> new long[4]);
+            values[0] += ps.idle();
+            values[1] += ps.active();
+            values[2] += ps.waits();
+            values[3] += ps.created();
+        }
+        if (byTarget.isEmpty())
+            return;
+        families.add(w -> buildConnectionPoolLines(w, byTarget, 0, "connection_pool_idle", GAUGE));
+        families.add(w -> buildConnectionPoolLines(w, byTarget, 1, "connection_pool_active", GAUGE));
+        families.add(w -> buildConnectionPoolLines(w, byTarget, 2, "connection_pool_waits", COUNTER));
+        families.add(w -> buildConnectionPoolLines(w, byTarget, 3, "connection_pool_created", COUNTER));
+    }
+
+    private void buildConnectionPoolLines(PrometheusWriter w, Map<String, long[]> byTarget, int index, String postFix, String type) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, type);
+        byTarget.forEach((target, values) -> w.sample(prometheusName, null, "target", escapeLabelValue(target), values[index]));
+    }
+
+    private void buildElasticSearchLines(List<Consumer<PrometheusWriter>> families) {
+        if (!(router.getExchangeStore() instanceof ElasticSearchExchangeStore store))
+            return;
+        families.add(w -> buildElasticSearchLines(w, store.getQueueDepth(), "elasticsearch_queue_depth", GAUGE));
+        families.add(w -> buildElasticSearchLines(w, store.getIndexed(), "elasticsearch_indexed", COUNTER));
+        families.add(w -> buildElasticSearchLines(w, store.getFailed(), "elasticsearch_failed", COUNTER));
+        families.add(w -> buildElasticSearchLines(w, store.getDropped(), "elasticsearch_dropped", COUNTER));
+        families.add(w -> buildElasticSearchLines(w, store.getSampledOut(), "elasticsearch_sampled_out", COUNTER));
+        families.add(w -> buildElasticSearchIndexingTimeLines(w, store.getIndexingLatency()));
+    }
 
-        sb.append(prometheusName);
-        sb.append(" ");
-        sb.append(value);
-        sb.append("\n");
+    private void buildElasticSearchLines(PrometheusWriter w, long value, String postFix, String type) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, type);
+        w.sample(prometheusName, null, value);
     }
 
-    private void buildBucketLine(StringBuilder sb, String ruleName, String label, long value) {
-        String prometheusName = prometheusCompatibleName("membrane_" + label);
+    private void buildElasticSearchIndexingTimeLines(PrometheusWriter w, LatencyHistogram histogram) {
+        String prometheusName = "membrane_elasticsearch_indexing_time_ms_percentile";
+        w.family(prometheusName, GAUGE);
+        if (histogram.isEmpty())
+            return;
+        for (double quantile : QUANTILES)
+            w.sample(prometheusName, null, "quantile", String.valueOf(quantile), histogram.getValueAtPercentile(quantile * 100));
+    }
 
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\"} ");
-        sb.append(value);
-        sb.append("\n");
+    private void buildHttpCacheLines(List<Consumer<PrometheusWriter>> families, List<RuleSeries> rules) {
+        Map<String, HttpCacheInterceptor.Statistics> caches = new TreeMap<>();
+        for (RuleSeries rs : rules)
+            if (rs.rule.getInterceptors() != null)
+                for (Interceptor i : rs.rule.getInterceptors())
+                    if (i instanceof HttpCacheInterceptor cache)
+                        caches.put(rs.label, cache.getStatistics());
+        if (caches.isEmpty())
+            return;
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::hits, "http_cache_hits", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::misses, "http_cache_misses", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::revalidations, "http_cache_revalidations", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::coalesced, "http_cache_coalesced", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::stores, "http_cache_stores", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::evictions, "http_cache_evictions", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::hitBytes, "http_cache_hit_bytes", COUNTER));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::size, "http_cache_size_bytes", GAUGE));
+        families.add(w -> buildHttpCacheLines(w, caches, HttpCacheInterceptor.Statistics::entries, "http_cache_entries", GAUGE));
     }
 
-    private void buildBucketLine(StringBuilder sb, String ruleName, int code, String label, long value) {
-        String prometheusName = prometheusCompatibleName("membrane_" + label);
+    private void buildHttpCacheLines(PrometheusWriter w, Map<String, HttpCacheInterceptor.Statistics> caches,
+                                     ToLongFunction<HttpCacheInterceptor.Statistics> metric, String postFix, String type) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, type);
+        caches.forEach((ruleLabel, statistics) -> w.sample(prometheusName, ruleLabel, metric.applyAsLong(statistics)));
+    }
 
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\",code=\"");
-        sb.append(code);
-        sb.append("\"} ");
-        sb.append(value);
-        sb.append("\n");
+    private void buildJwtLines(List<Consumer<PrometheusWriter>> families, List<RuleSeries> rules) {
+        Map<String, JwtAuthInterceptor.Statistics> jwtAuths = new TreeMap<>();
+        for (RuleSeries rs : rules)
+            if (rs.rule.getInterceptors() != null)
+                for (Interceptor i : rs.rule.getInterceptors())
+                    if (i instanceof JwtAuthInterceptor jwtAuth)
+                        jwtAuths.put(rs.label, jwtAuth.getStatistics());
+        if (jwtAuths.isEmpty())
+            return;
+        families.add(w -> buildJwtLines(w, jwtAuths, JwtAuthInterceptor.Statistics::cacheHits, "jwt_cache_hits", COUNTER));
+        families.add(w -> buildJwtLines(w, jwtAuths, JwtAuthInterceptor.Statistics::cacheMisses, "jwt_cache_misses", COUNTER));
+        families.add(w -> buildJwtLines(w, jwtAuths, JwtAuthInterceptor.Statistics::cachedTokens, "jwt_cache_entries", GAUGE));
+        families.add(w -> buildJwtLines(w, jwtAuths, JwtAuthInterceptor.Statistics::keyRefreshes, "jwks_refreshes", COUNTER));
+        families.add(w -> buildJwtVerificationTimeLines(w, jwtAuths));
     }
 
-    private void buildBucketLine(StringBuilder sb, String ruleName, int code, String le, long valueCount, String infix) {
-        String prometheusName = prometheusCompatibleName("membrane_" + infix + "_bucket");
-        if (sb.length() == 0) {
-            sb.append("# TYPE ");
-            sb.append(prometheusName);
-            sb.append(" histogram\n");
-        }
+    private void buildJwtLines(PrometheusWriter w, Map<String, JwtAuthInterceptor.Statistics> jwtAuths,
+                               ToLongFunction<JwtAuthInterceptor.Statistics> metric, String postFix, String type) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, type);
+        jwtAuths.forEach((ruleLabel, statistics) -> w.sample(prometheusName, ruleLabel, metric.applyAsLong(statistics)));
+    }
+
+    private void buildJwtVerificationTimeLines(PrometheusWriter w, Map<String, JwtAuthInterceptor.Statistics> jwtAuths) {
+        String prometheusName = "membrane_jwt_verification_time_us_percentile";
+        w.family(prometheusName, GAUGE);
+        jwtAuths.forEach((ruleLabel, statistics) -> {
+            LatencyHistogram histogram = statistics.verificationTime();
+            if (histogram.isEmpty())
+                return;
+            for (double quantile : QUANTILES)
+                w.sample(prometheusName, ruleLabel, "quantile", String.valueOf(quantile), histogram.getValueAtPercentile(quantile * 100));
+        });
+    }
 
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\",code=\"");
-        sb.append(code);
-        sb.append("\",le=\"");
-        sb.append(le);
-        sb.append("\"} ");
-        sb.append(valueCount);
-        sb.append("\n");
+    private void buildShadowingLines(List<Consumer<PrometheusWriter>> families, List<RuleSeries> rules) {
+        Map<String, ShadowingInterceptor> shadowings = findInterceptors(rules, ShadowingInterceptor.class);
+        if (shadowings.isEmpty())
+            return;
+        families.add(w -> buildInterceptorLines(w, shadowings, ShadowingInterceptor::getQueueDepth, "shadowing_queue_depth", GAUGE));
+        families.add(w -> buildInterceptorLines(w, shadowings, ShadowingInterceptor::getActiveCount, "shadowing_active", GAUGE));
+        families.add(w -> buildInterceptorLines(w, shadowings, ShadowingInterceptor::getSent, "shadowing_sent", COUNTER));
+        families.add(w -> buildInterceptorLines(w, shadowings, ShadowingInterceptor::getDropped, "shadowing_dropped", COUNTER));
+        families.add(w -> buildInterceptorLines(w, shadowings, ShadowingInterceptor::getSkipped, "shadowing_skipped", COUNTER));
+    }
 
+    private void buildAccessLogLines(List<Consumer<PrometheusWriter>> families, List<RuleSeries> rules) {
+        Map<String, AccessLogInterceptor> accessLogs = findInterceptors(rules, AccessLogInterceptor.class);
+        accessLogs.values().removeIf(accessLog -> !accessLog.isAsync());
+        if (accessLogs.isEmpty())
+            return;
+        families.add(w -> buildInterceptorLines(w, accessLogs, AccessLogInterceptor::getPending, "access_log_pending", GAUGE));
+        families.add(w -> buildInterceptorLines(w, accessLogs, AccessLogInterceptor::getWritten, "access_log_written", COUNTER));
+        families.add(w -> buildInterceptorLines(w, accessLogs, AccessLogInterceptor::getDropped, "access_log_dropped", COUNTER));
     }
 
     /**
-     * see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition Formats</a> .
+     * @return the first interceptor of the given type of each rule by the label of the rule
      */
-    private StringBuilder buildLine(StringBuilder sb, String ruleName, long value, String labelName, int labelValue, String postFix) {
-        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
-        if (sb.length() == 0) {
-            sb.append("# TYPE ");
-            sb.append(prometheusName);
-            sb.append(" counter\n");
-        }
+    private static <T extends Interceptor> Map<String, T> findInterceptors(List<RuleSeries> rules, Class<T> type) {
+        Map<String, T> result = new TreeMap<>();
+        for (RuleSeries rs : rules)
+            if (rs.rule.getInterceptors() != null)
+                for (Interceptor i : rs.rule.getInterceptors())
+                    if (type.isInstance(i))
+                        result.putIfAbsent(rs.label, type.cast(i));
+        return result;
+    }
 
-        sb.append(prometheusName);
-        sb.append("{rule=\"");
-        sb.append(prometheusCompatibleName(ruleName));
-        sb.append("\",");
-        sb.append(prometheusCompatibleName(labelName));
-        sb.append("=\"");
-        sb.append(labelValue);
-        sb.append("\"} ");
-        sb.append(value);
-        sb.append("\n");
-        return sb;
+    private <T> void buildInterceptorLines(PrometheusWriter w, Map<String, T> interceptors,
+                                           ToLongFunction<T> metric, String postFix, String type) {
+        String prometheusName = prometheusCompatibleName("membrane_" + postFix);
+        w.family(prometheusName, type);
+        interceptors.forEach((ruleLabel, interceptor) -> w.sample(prometheusName, ruleLabel, metric.applyAsLong(interceptor)));
     }
 
     ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
@@ -0,0 +1,102 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.prometheus;
+
+/**
+ * Writes metric families in the Prometheus text format 0.0.4 or in the OpenMetrics text format into a buffer.
+ * <p>
+ * The <code># TYPE</code> line of a family is only written together with its first sample, so families without
+ * samples do not appear in the output.
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition Formats</a>
+ * @see <a href="https://github.com/OpenObservability/OpenMetrics/blob/main/specification/OpenMetrics.md">OpenMetrics</a>
+ */
+class PrometheusWriter {
+
+    static final String COUNTER = "counter";
+    static final String GAUGE = "gauge";
+    static final String HISTOGRAM = "histogram";
+
+    private final boolean openMetrics;
+    private final StringBuilder sb = new StringBuilder(8192);
+
+    private String family;
+    private String type;
+    private boolean typeWritten;
+
+    PrometheusWriter(boolean openMetrics) {
+        this.openMetrics = openMetrics;
+    }
+
+    void family(String name, String type) {
+        this.family = name;
+        this.type = type;
+        this.typeWritten = false;
+    }
+
+    void sample(String name, String labels, long value) {
+        sample(name, labels, null, null, value);
+    }
+
+    /**
+     * @param labels preformatted labels without braces, e.g. <code>rule="a",code="200"</code>, or null
+     * @param extraLabel name of an additional label, or null
+     */
+    void sample(String name, String labels, String extraLabel, String extraValue, long value) {
+        if (!typeWritten) {
+            sb.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+            typeWritten = true;
+        }
+        sb.append(name);
+        if (openMetrics && COUNTER.equals(type))
+            sb.append("_total");
+        boolean hasLabels = labels != null && !labels.isEmpty();
+        if (hasLabels || extraLabel != null) {
+            sb.append('{');
+            if (hasLabels)
+                sb.append(labels);
+            if (extraLabel != null) {
+                if (hasLabels)
+                    sb.append(',');
+                sb.append(extraLabel).append("=\"").append(extraValue).append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * OpenMetrics requires the bucket bounds to be floating point numbers.
+     */
+    String le(long bound) {
+        return openMetrics ? bound + ".0" : String.valueOf(bound);
+    }
+
+    void eof() {
+        if (openMetrics)
+            sb.append("# EOF\n");
+    }
+
+    StringBuilder getBuffer() {
+        return sb;
+    }
+
+    static String escapeLabelValue(String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf('\\') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1)
+            return value;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Base class for strategies keeping independent state per key.
+ * <p>
+ * The state of a key is only updated with compare-and-set, there is no lock shared between keys. Time is measured
+ * with a monotonic clock ({@link System#nanoTime()}), so changes of the wall clock do not affect the limits.
+ * <p>
+ * Once per duration, the thread handling a request evicts the keys that have been idle long enough that dropping
+ * their state makes no difference. Evicted states are marked before they are removed from the map, so a request
+ * racing with the eviction retries with a fresh state instead of updating the removed one.
+ */
+abstract class KeyedRateLimit<S> extends RateLimitStrategy {
+
+    enum Acquisition { PERMITTED, REJECTED, EVICTED }
+
+    final ConcurrentHashMap<String, S> states = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+    private final AtomicLong nextEviction = new AtomicLong();
+
+    protected long durationNanos;
+
+    KeyedRateLimit(Duration requestLimitDuration, int requestLimit, LongSupplier clock) {
+        this.requestLimitDuration = requestLimitDuration;
+        this.requestLimit = requestLimit;
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean isRequestLimitReached(String key) {
+        long now = clock.getAsLong();
+        evictIdleKeys(now);
+        while (true) {
+            S state = states.get(key);
+            if (state == null)
+                state = states.computeIfAbsent(key, k -> createState(k, now));
+            switch (tryAcquire(state, now)) {
+                case PERMITTED:
+                    return false;
+                case REJECTED:
+                    return true;
+                case EVICTED:
+                    states.remove(key, state);
+            }
+        }
+    }
+
+    @Override
+    public LocalDateTime getServiceAvailableAgainTime(String key) {
+        S state = states.get(key);
+        long nanos = state == null ? 0 : getNanosUntilPermitted(state, clock.getAsLong());
+        return LocalDateTime.now().plusNanos(nanos);
+    }
+
+    @Override
+    public void updateAfterConfigChange() {
+        durationNanos = Math.max(1, requestLimitDuration.toNanos());
+        nextEviction.set(clock.getAsLong() + durationNanos);
+        states.clear();
+    }
+
+    private void evictIdleKeys(long now) {
+        long next = nextEviction.get();
+        if (now - next < 0 || !nextEviction.compareAndSet(next, now + durationNanos))
+            return;
+        states.forEach((key, state) -> {
+            if (tryEvict(state, now))
+                states.remove(key, state);
+        });
+    }
+
+    abstract S createState(String key, long now);
+
+    /**
+     * Counts the request, if the limit allows it.
+     *
+     * @return EVICTED, if the state has been evicted concurrently and must not be used anymore
+     */
+    abstract Acquisition tryAcquire(S state, long now);
+
+    /**
+     * Marks the state as evicted, if the key has been idle long enough.
+     */
+    abstract boolean tryEvict(S state, long now);
+
+    abstract long getNanosUntilPermitted(S state, long now);
+}
@@ -41,13 +41,7 @@ public class LazyRateLimit extends RateLimitStrategy {
 			}
 		}
 
-		addRequestEntry(key);
-		return requestCounterFromKey.get(key).get() > requestLimit;
-	}
-
-	private void addRequestEntry(String addr) {
-		requestCounterFromKey.computeIfAbsent(addr, s -> new AtomicInteger());
-		requestCounterFromKey.get(addr).incrementAndGet();
+		return requestCounterFromKey.computeIfAbsent(key, s -> new AtomicInteger()).incrementAndGet() > requestLimit;
 	}
 
 	private void incrementNextCleanupTime() {
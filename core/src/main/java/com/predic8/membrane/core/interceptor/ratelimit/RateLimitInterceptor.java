@@ -20,6 +20,7 @@ import com.predic8.membrane.core.exchange.*;
 import com.predic8.membrane.core.http.*;
 import com.predic8.membrane.core.interceptor.*;
 import com.predic8.membrane.core.lang.spel.*;
+import com.predic8.membrane.core.util.RedisConnector;
 import org.slf4j.*;
 import org.springframework.expression.*;
 import org.springframework.expression.spel.*;
@@ -67,7 +68,27 @@ public class RateLimitInterceptor extends AbstractInterceptor {
      */
     public static final String X_RATELIMIT_RESET = "X-RateLimit-Reset";
 
-    private final RateLimitStrategy strategy;
+    public enum Algorithm {
+        /**
+         * Counts the requests in fixed windows. All counters are reset at the end of a window.
+         */
+        FIXED_WINDOW,
+        /**
+         * Estimates the requests in a window sliding with the current time, see {@link SlidingWindowRateLimit}.
+         */
+        SLIDING_WINDOW,
+        /**
+         * Refills the quota continuously, see {@link TokenBucketRateLimit}.
+         */
+        TOKEN_BUCKET
+    }
+
+    private Algorithm algorithm = Algorithm.FIXED_WINDOW;
+    private RateLimitStrategy strategy;
+
+    private RedisConnector connector;
+    private String redisKeyPrefix = "membrane:ratelimit:";
+    private int reservationSize = 10;
 
     private final SpelParserConfiguration spelConfig = new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, this.getClass().getClassLoader());
     private String keyExpression;
@@ -88,7 +109,7 @@ public class RateLimitInterceptor extends AbstractInterceptor {
     }
 
     public RateLimitInterceptor(Duration requestLimitDuration, int requestLimit) {
-        strategy = new LazyRateLimit(requestLimitDuration, requestLimit);
+        strategy = createStrategy(algorithm, requestLimitDuration, requestLimit);
         name = "RateLimiter";
         setFlow(REQUEST);
     }
@@ -96,8 +117,10 @@ public class RateLimitInterceptor extends AbstractInterceptor {
     @Override
     public Outcome handleRequest(Exchange exc) throws Exception {
 
+        String key;
         try {
-            if (!strategy.isRequestLimitReached(getKey(exc)))
+            key = getKey(exc);
+            if (!strategy.isRequestLimitReached(key))
                 return CONTINUE;
         } catch (SpelEvaluationException e) {
             exc.setResponse(ProblemDetails.internal(router.isProduction())
@@ -107,16 +130,16 @@ public class RateLimitInterceptor extends AbstractInterceptor {
             return RETURN;
         }
 
-        log.info(getKey(exc) + " limit: " + getRequestLimit() + " duration: " + getRequestLimitDuration() + " is exceeded. (clientIp: " + exc.getRemoteAddrIp()+")");
+        log.info(key + " limit: " + getRequestLimit() + " duration: " + getRequestLimitDuration() + " is exceeded. (clientIp: " + exc.getRemoteAddrIp()+")");
         exc.setResponse(ProblemDetails.user(false)
                         .statusCode(429)
                         .addSubType("rate-limiter")
                         .title("Rate limit is exceeded")
-                        .detail("The quota of the ratelimiter is exceeded. Try again in %s seconds.".formatted(strategy.getLimitReset(exc.getRemoteAddrIp())))
+                        .detail("The quota of the ratelimiter is exceeded. Try again in %s seconds.".formatted(strategy.getLimitReset(key)))
                         .extension("limit",getRequestLimit())
                         .extension("duration",getRequestLimitDuration())
                 .build());
-        setHeaderRateLimitFieldsOnResponse(exc);
+        setHeaderRateLimitFieldsOnResponse(exc, key);
 
         return RETURN;
     }
@@ -124,6 +147,8 @@ public class RateLimitInterceptor extends AbstractInterceptor {
     @Override
     public void init() throws Exception {
         super.init();
+        if (connector != null && !(strategy instanceof RedisRateLimit))
+            strategy = new RedisRateLimit(connector, redisKeyPrefix, reservationSize, strategy);
         if (keyExpression == null || keyExpression.isBlank())
             return;
         expression = new SpelExpressionParser(spelConfig).parseExpression(keyExpression);
@@ -210,11 +235,11 @@ public class RateLimitInterceptor extends AbstractInterceptor {
         return l.get(l.size() - count - 1).trim();
     }
 
-    private void setHeaderRateLimitFieldsOnResponse(Exchange exc) {
+    private void setHeaderRateLimitFieldsOnResponse(Exchange exc, String key) {
         Header h = exc.getResponse().getHeader();
         h.add(X_RATELIMIT_DURATION, strategy.getLimitDurationPeriod());
         h.add(X_RATELIMIT_LIMIT, Integer.toString(strategy.requestLimit));
-        h.add(X_RATELIMIT_RESET, strategy.getLimitReset(exc.getRemoteAddrIp()));
+        h.add(X_RATELIMIT_RESET, strategy.getLimitReset(key));
     }
 
     @SuppressWarnings("unused")
@@ -310,6 +335,82 @@ public class RateLimitInterceptor extends AbstractInterceptor {
         this.trustForwardedFor = trustForwardedFor;
     }
 
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @description <p>How requests are counted. With <i>fixed_window</i>, the requests are counted in consecutive
+     * windows of <i>requestLimitDuration</i> and all counters are reset at the end of each window. Clients may send
+     * up to twice the limit around the end of a window.</p>
+     * <p>With <i>sliding_window</i>, the number of requests in the last <i>requestLimitDuration</i> is estimated
+     * from the counts of the current and the previous window of the key. With <i>token_bucket</i>, each key may send
+     * bursts of up to <i>requestLimit</i> requests, and the quota is refilled continuously at a rate of
+     * <i>requestLimit</i> requests per <i>requestLimitDuration</i>.</p>
+     * <p>Rejected requests are counted with <i>fixed_window</i>, but not with the other algorithms.</p>
+     * @default fixed_window
+     * @example token_bucket
+     */
+    @MCAttribute
+    public void setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+        strategy = createStrategy(algorithm, strategy.getRequestLimitDuration(), strategy.getRequestLimit());
+    }
+
+    private static RateLimitStrategy createStrategy(Algorithm algorithm, Duration requestLimitDuration, int requestLimit) {
+        return switch (algorithm) {
+            case FIXED_WINDOW -> new LazyRateLimit(requestLimitDuration, requestLimit);
+            case SLIDING_WINDOW -> new SlidingWindowRateLimit(requestLimitDuration, requestLimit);
+            case TOKEN_BUCKET -> new TokenBucketRateLimit(requestLimitDuration, requestLimit);
+        };
+    }
+
+    @SuppressWarnings("unused")
+    public RedisConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * @description <p>Counts the requests in Redis, so that all gateway instances using the same Redis share the
+     * limit. The requests are counted in fixed windows, <i>algorithm</i> is only used while Redis is unavailable.
+     * Then, each instance counts its requests locally.</p>
+     */
+    @MCAttribute
+    public void setConnector(RedisConnector connector) {
+        this.connector = connector;
+    }
+
+    @SuppressWarnings("unused")
+    public String getRedisKeyPrefix() {
+        return redisKeyPrefix;
+    }
+
+    /**
+     * @description Prefix of the counters in Redis. Rate limiters with different limits sharing a Redis instance
+     * should use different prefixes.
+     * @default membrane:ratelimit:
+     */
+    @MCAttribute
+    public void setRedisKeyPrefix(String redisKeyPrefix) {
+        this.redisKeyPrefix = redisKeyPrefix;
+    }
+
+    @SuppressWarnings("unused")
+    public int getReservationSize() {
+        return reservationSize;
+    }
+
+    /**
+     * @description Number of requests an instance reserves in Redis with one round trip. Higher values reduce the
+     * load on Redis, but reserved requests an instance does not use within the window are lost for the others.
+     * Only used together with <i>connector</i>.
+     * @default 10
+     */
+    @MCAttribute
+    public void setReservationSize(int reservationSize) {
+        this.reservationSize = reservationSize;
+    }
+
     @Override
     public String getShortDescription() {
         return "Limits incoming requests. It limits to " + strategy.getRequestLimit() + " requests every " + strategy.getRequestLimitDuration().toString() + ".";
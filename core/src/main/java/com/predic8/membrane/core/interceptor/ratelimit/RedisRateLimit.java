@@ -0,0 +1,254 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import com.predic8.membrane.core.util.*;
+import org.slf4j.*;
+import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.*;
+
+import java.security.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * Counts requests in Redis, so that several gateway instances share one limit.
+ * <p>
+ * Requests are counted in fixed windows aligned to the wall clock, so all instances use the same windows. To avoid
+ * a round trip to Redis for every request, an instance reserves up to <code>reservationSize</code> requests of a key
+ * at once with an atomic INCRBY/PEXPIRE script and hands them out locally. Reserved but unused requests are lost at
+ * the end of the window, so instances might be throttled slightly before the limit is reached, but never after.
+ * <p>
+ * If Redis cannot be reached, the requests are counted by a local fallback strategy instead, i.e. each instance
+ * enforces the limit on its own. Redis is tried again after {@link #RETRY_INTERVAL}.
+ */
+public class RedisRateLimit extends KeyedRateLimit<RedisRateLimit.Quota> {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisRateLimit.class);
+
+    static final Duration RETRY_INTERVAL = Duration.ofSeconds(5);
+
+    private static final long EVICTED = Long.MIN_VALUE;
+    private static final long AVAILABLE = Long.MIN_VALUE;
+
+    /**
+     * Increments the counter of the window and sets its expiry on the first increment. Returns the new count.
+     */
+    static final String SCRIPT = """
+            local count = redis.call('INCRBY', KEYS[1], ARGV[1])
+            if count == tonumber(ARGV[1]) then
+                redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return count""";
+
+    private static final String SCRIPT_SHA = sha1(SCRIPT);
+
+    private final RedisConnector connector;
+    private final String keyPrefix;
+    private final int reservationSize;
+    private final RateLimitStrategy fallback;
+    private final LongSupplier clock;
+
+    /**
+     * While Redis is unavailable, the time at which it should be tried again. Otherwise, AVAILABLE.
+     */
+    private final AtomicLong retryRedisAt = new AtomicLong(AVAILABLE);
+
+    /**
+     * @param keyPrefix prepended to the keys in Redis
+     * @param reservationSize number of requests reserved with one round trip
+     * @param fallback used while Redis is unavailable
+     */
+    public RedisRateLimit(RedisConnector connector, String keyPrefix, int reservationSize, RateLimitStrategy fallback) {
+        this(connector, keyPrefix, reservationSize, fallback, () -> MILLISECONDS.toNanos(System.currentTimeMillis()));
+    }
+
+    RedisRateLimit(RedisConnector connector, String keyPrefix, int reservationSize, RateLimitStrategy fallback, LongSupplier clock) {
+        super(fallback.getRequestLimitDuration(), fallback.getRequestLimit(), clock);
+        this.connector = connector;
+        this.keyPrefix = keyPrefix;
+        this.reservationSize = Math.max(1, reservationSize);
+        this.fallback = fallback;
+        this.clock = clock;
+        updateAfterConfigChange();
+    }
+
+    /**
+     * Requests of one key that have been reserved in Redis and not been used yet.
+     */
+    static final class Quota {
+        private final String key;
+        private final Lock lock = new ReentrantLock();
+        private final AtomicInteger remaining = new AtomicInteger();
+        /**
+         * The window the remaining requests belong to, or EVICTED
+         */
+        private volatile long window;
+        /**
+         * Whether the limit of the window has been reached in Redis
+         */
+        private volatile boolean exhausted;
+
+        Quota(String key, long window) {
+            this.key = key;
+            this.window = window;
+        }
+
+        boolean tryTake(long window) {
+            if (this.window != window)
+                return false;
+            while (true) {
+                int r = remaining.get();
+                if (r <= 0)
+                    return false;
+                if (remaining.compareAndSet(r, r - 1))
+                    return true;
+            }
+        }
+
+        /**
+         * The remaining requests are set before the window, so a thread seeing the new window sees them as well.
+         */
+        void refill(long window, int remaining, boolean exhausted) {
+            this.remaining.set(remaining);
+            this.exhausted = exhausted;
+            this.window = window;
+        }
+    }
+
+    @Override
+    public boolean isRequestLimitReached(String key) {
+        if (isRedisUnavailable())
+            return fallback.isRequestLimitReached(key);
+        try {
+            return super.isRequestLimitReached(key);
+        } catch (JedisException e) {
+            if (retryRedisAt.getAndSet(clock.getAsLong() + RETRY_INTERVAL.toNanos()) == AVAILABLE)
+                log.warn("Cannot reach Redis, counting requests locally for the next {}. Cause: {}", RETRY_INTERVAL, e.getMessage());
+            return fallback.isRequestLimitReached(key);
+        }
+    }
+
+    private boolean isRedisUnavailable() {
+        long retryAt = retryRedisAt.get();
+        if (retryAt == AVAILABLE)
+            return false;
+        if (clock.getAsLong() - retryAt < 0)
+            return true;
+        if (retryRedisAt.compareAndSet(retryAt, AVAILABLE))
+            log.info("Trying to count requests in Redis again.");
+        return false;
+    }
+
+    @Override
+    public LocalDateTime getServiceAvailableAgainTime(String key) {
+        if (retryRedisAt.get() != AVAILABLE)
+            return fallback.getServiceAvailableAgainTime(key);
+        return super.getServiceAvailableAgainTime(key);
+    }
+
+    @Override
+    public void updateAfterConfigChange() {
+        super.updateAfterConfigChange();
+        if (!requestLimitDuration.equals(fallback.getRequestLimitDuration()))
+            fallback.setRequestLimitDuration(requestLimitDuration);
+        if (requestLimit != fallback.getRequestLimit())
+            fallback.setRequestLimit(requestLimit);
+    }
+
+    @Override
+    Quota createState(String key, long now) {
+        return new Quota(key, now / durationNanos);
+    }
+
+    @Override
+    Acquisition tryAcquire(Quota quota, long now) {
+        long window = now / durationNanos;
+        if (quota.tryTake(window))
+            return Acquisition.PERMITTED;
+
+        quota.lock.lock();
+        try {
+            if (quota.window == EVICTED)
+                return Acquisition.EVICTED;
+            if (quota.tryTake(window))
+                return Acquisition.PERMITTED;
+            if (quota.window == window && quota.exhausted)
+                return Acquisition.REJECTED;
+
+            long count = incrementBy(keyPrefix + quota.key + ":" + window, reservationSize, durationNanos / 1_000_000 + 1);
+            long before = count - reservationSize;
+            int granted = (int) Math.max(0, Math.min(reservationSize, requestLimit - before));
+            quota.refill(window, Math.max(0, granted - 1), count >= requestLimit);
+            return granted > 0 ? Acquisition.PERMITTED : Acquisition.REJECTED;
+        } finally {
+            quota.lock.unlock();
+        }
+    }
+
+    @Override
+    boolean tryEvict(Quota quota, long now) {
+        if (quota.window >= now / durationNanos || !quota.lock.tryLock())
+            return false;
+        try {
+            if (quota.window == EVICTED || quota.window >= now / durationNanos)
+                return false;
+            quota.window = EVICTED;
+            return true;
+        } finally {
+            quota.lock.unlock();
+        }
+    }
+
+    @Override
+    long getNanosUntilPermitted(Quota quota, long now) {
+        long window = now / durationNanos;
+        if (quota.window != window || !quota.exhausted || quota.remaining.get() > 0)
+            return 0;
+        return (window + 1) * durationNanos - now;
+    }
+
+    /**
+     * Adds the tokens to the counter in Redis.
+     *
+     * @return the value of the counter after the increment
+     * @throws JedisException if Redis is unavailable
+     */
+    protected long incrementBy(String redisKey, int tokens, long expireMillis) {
+        List<String> keys = List.of(redisKey);
+        List<String> args = List.of(Integer.toString(tokens), Long.toString(expireMillis));
+        try (Jedis jedis = connector.getJedisWithDb()) {
+            try {
+                return (Long) jedis.evalsha(SCRIPT_SHA, keys, args);
+            } catch (JedisNoScriptException e) {
+                // eval also adds the script to the cache of Redis
+                return (Long) jedis.eval(SCRIPT, keys, args);
+            }
+        }
+    }
+
+    private static String sha1(String s) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(s.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
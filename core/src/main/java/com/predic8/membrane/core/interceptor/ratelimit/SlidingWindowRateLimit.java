@@ -0,0 +1,103 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Sliding window counter: the number of requests in the last <code>requestLimitDuration</code> is estimated from
+ * the counts of the current and the previous window, weighting the previous one by how much it still overlaps the
+ * sliding window.
+ * <p>
+ * Unlike {@link LazyRateLimit}, the counters are not reset all at once, so clients cannot send twice the limit
+ * around a window boundary. The windows of each key start with its first request. The state of a key is an
+ * immutable {@link Window} replaced with compare-and-set. Rejected requests are not counted.
+ */
+public class SlidingWindowRateLimit extends KeyedRateLimit<AtomicReference<SlidingWindowRateLimit.Window>> {
+
+    private static final Window EVICTED = new Window(0, 0, 0);
+
+    public SlidingWindowRateLimit(Duration requestLimitDuration, int requestLimit) {
+        this(requestLimitDuration, requestLimit, System::nanoTime);
+    }
+
+    SlidingWindowRateLimit(Duration requestLimitDuration, int requestLimit, LongSupplier clock) {
+        super(requestLimitDuration, requestLimit, clock);
+        updateAfterConfigChange();
+    }
+
+    /**
+     * @param start start of the current window
+     * @param previous number of requests in the previous window
+     * @param current number of requests in the current window
+     */
+    record Window(long start, int previous, int current) {
+
+        Window advance(long now, long duration) {
+            long elapsed = now - start;
+            if (elapsed < duration)
+                return this;
+            if (elapsed < 2 * duration)
+                return new Window(start + duration, current, 0);
+            return new Window(start + elapsed / duration * duration, 0, 0);
+        }
+
+        double estimate(long now, long duration) {
+            return previous * ((double) (duration - (now - start)) / duration) + current;
+        }
+    }
+
+    @Override
+    AtomicReference<Window> createState(String key, long now) {
+        return new AtomicReference<>(new Window(now, 0, 0));
+    }
+
+    @Override
+    Acquisition tryAcquire(AtomicReference<Window> state, long now) {
+        while (true) {
+            Window window = state.get();
+            if (window == EVICTED)
+                return Acquisition.EVICTED;
+            Window current = window.advance(now, durationNanos);
+            if (current.estimate(now, durationNanos) + 1 > requestLimit)
+                return Acquisition.REJECTED;
+            if (state.compareAndSet(window, new Window(current.start, current.previous, current.current + 1)))
+                return Acquisition.PERMITTED;
+        }
+    }
+
+    @Override
+    boolean tryEvict(AtomicReference<Window> state, long now) {
+        Window window = state.get();
+        return window != EVICTED && now - window.start >= 2 * durationNanos && state.compareAndSet(window, EVICTED);
+    }
+
+    @Override
+    long getNanosUntilPermitted(AtomicReference<Window> state, long now) {
+        Window window = state.get();
+        if (window == EVICTED)
+            return 0;
+        window = window.advance(now, durationNanos);
+        if (window.estimate(now, durationNanos) + 1 <= requestLimit)
+            return 0;
+        long untilWindowEnd = durationNanos - (now - window.start);
+        if (window.current + 1 > requestLimit || window.previous == 0)
+            return untilWindowEnd;
+        // previous * (untilWindowEnd - x) / duration + current + 1 <= limit
+        double x = untilWindowEnd - (double) (requestLimit - window.current - 1) * durationNanos / window.previous;
+        return Math.max(0, (long) Math.ceil(x));
+    }
+}
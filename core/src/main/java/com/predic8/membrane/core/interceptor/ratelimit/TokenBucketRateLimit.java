@@ -0,0 +1,86 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Token bucket holding up to <code>requestLimit</code> tokens, refilled at a rate of <code>requestLimit</code> tokens
+ * per <code>requestLimitDuration</code>. Every request takes one token.
+ * <p>
+ * Unlike a fixed window, the tokens are refilled continuously, so there is no burst at the start of every window.
+ * The bucket is implemented as a generic cell rate algorithm: the only state per key is the time at which the bucket
+ * would be full again, stored in an {@link AtomicLong}. Checking a request neither locks nor allocates.
+ */
+public class TokenBucketRateLimit extends KeyedRateLimit<AtomicLong> {
+
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    /**
+     * Time it takes to refill one token
+     */
+    private long intervalNanos;
+
+    public TokenBucketRateLimit(Duration requestLimitDuration, int requestLimit) {
+        this(requestLimitDuration, requestLimit, System::nanoTime);
+    }
+
+    TokenBucketRateLimit(Duration requestLimitDuration, int requestLimit, LongSupplier clock) {
+        super(requestLimitDuration, requestLimit, clock);
+        updateAfterConfigChange();
+    }
+
+    @Override
+    public void updateAfterConfigChange() {
+        super.updateAfterConfigChange();
+        intervalNanos = Math.max(1, durationNanos / Math.max(1, requestLimit));
+    }
+
+    @Override
+    AtomicLong createState(String key, long now) {
+        return new AtomicLong(now);
+    }
+
+    @Override
+    Acquisition tryAcquire(AtomicLong full, long now) {
+        if (requestLimit <= 0)
+            return Acquisition.REJECTED;
+        while (true) {
+            long current = full.get();
+            if (current == EVICTED)
+                return Acquisition.EVICTED;
+            long next = Math.max(current - now, 0) + intervalNanos;
+            if (next > durationNanos)
+                return Acquisition.REJECTED;
+            if (full.compareAndSet(current, now + next))
+                return Acquisition.PERMITTED;
+        }
+    }
+
+    @Override
+    boolean tryEvict(AtomicLong full, long now) {
+        long current = full.get();
+        return current != EVICTED && current - now <= 0 && full.compareAndSet(current, EVICTED);
+    }
+
+    @Override
+    long getNanosUntilPermitted(AtomicLong full, long now) {
+        long current = full.get();
+        if (current == EVICTED)
+            return 0;
+        return Math.max(0, Math.max(current - now, 0) + intervalNanos - durationNanos);
+    }
+}
@@ -28,6 +28,7 @@ import java.nio.file.*;
 import java.util.*;
 import java.util.regex.*;
 
+import static com.predic8.membrane.core.http.Header.*;
 import static com.predic8.membrane.core.http.MimeType.*;
 import static com.predic8.membrane.core.util.HttpUtil.*;
 
@@ -41,6 +42,10 @@ import static com.predic8.membrane.core.util.HttpUtil.*;
  * The interceptor chain will not continue beyond this interceptor, as it either successfully returns a
  * HTTP response with the contents of a file, or a "404 Not Found." error.
  * </p>
+ * <p>
+ * With <i>precompressed</i> set, files compressed at build time are served instead of compressing them
+ * on every request using the compression interceptor.
+ * </p>
  * @topic 4. Interceptors/Features
  */
 @MCElement(name = "webServer")
@@ -51,10 +56,21 @@ public class WebServerInterceptor extends AbstractInterceptor {
 
     private static final String[] EMPTY = new String[0];
 
+    /**
+     * File name extensions of precompressed files by content coding, in the order of preference.
+     */
+    private static final Map<String, String> PRECOMPRESSED_EXTENSIONS = new LinkedHashMap<>();
+
+    static {
+        PRECOMPRESSED_EXTENSIONS.put("br", ".br");
+        PRECOMPRESSED_EXTENSIONS.put("gzip", ".gz");
+    }
+
     String docBase = "docBase";
     boolean docBaseIsNormalized = false;
     String[] index = EMPTY;
     boolean generateIndex;
+    boolean precompressed;
 
     public WebServerInterceptor() {
         name = "Web Server";
@@ -104,7 +120,7 @@ public class WebServerInterceptor extends AbstractInterceptor {
         try {
             exc.setTimeReqSent(System.currentTimeMillis());
 
-            exc.setResponse(createResponse(router.getResolverMap(), ResolverMap.combine(router.getBaseLocation(), docBase, uri)));
+            exc.setResponse(createResponse(exc, ResolverMap.combine(router.getBaseLocation(), docBase, uri)));
 
             exc.setReceived();
             exc.setTimeResReceived(System.currentTimeMillis());
@@ -112,7 +128,7 @@ public class WebServerInterceptor extends AbstractInterceptor {
         } catch (ResourceRetrievalException e) {
             for (String i : index) {
                 try {
-                    exc.setResponse(createResponse(router.getResolverMap(), ResolverMap.combine(router.getBaseLocation(), docBase, uri + i)));
+                    exc.setResponse(createResponse(exc, ResolverMap.combine(router.getBaseLocation(), docBase, uri + i)));
 
                     exc.setReceived();
                     exc.setTimeResReceived(System.currentTimeMillis());
@@ -122,7 +138,7 @@ public class WebServerInterceptor extends AbstractInterceptor {
             String uri2 = uri + "/";
             for (String i : index) {
                 try {
-                    exc.setResponse(createResponse(router.getResolverMap(), ResolverMap.combine(router.getBaseLocation(), docBase, uri2 + i)));
+                    exc.setResponse(createResponse(exc, ResolverMap.combine(router.getBaseLocation(), docBase, uri2 + i)));
 
                     exc.setReceived();
                     exc.setTimeResReceived(System.currentTimeMillis());
@@ -187,6 +203,39 @@ public class WebServerInterceptor extends AbstractInterceptor {
                 || uri.startsWith("..");
     }
 
+    private Response createResponse(Exchange exc, String resPath) throws IOException {
+        if (!precompressed)
+            return createResponse(router.getResolverMap(), resPath);
+
+        Response response = createPrecompressedResponse(exc.getRequest(), resPath);
+        if (response == null)
+            response = createResponse(router.getResolverMap(), resPath);
+        response.getHeader().add("Vary", ACCEPT_ENCODING);
+        return response;
+    }
+
+    /**
+     * Serves e.g. <code>app.js.gz</code> for <code>app.js</code>, if the client accepts gzip and the file exists.
+     */
+    private Response createPrecompressedResponse(Request request, String resPath) throws IOException {
+        AcceptEncoding acceptEncoding = AcceptEncoding.of(request);
+        List<String> encodings = new ArrayList<>(PRECOMPRESSED_EXTENSIONS.keySet());
+        while (true) {
+            String encoding = acceptEncoding.select(encodings);
+            if (encoding == null)
+                return null;
+            try {
+                return Response.ok()
+                        .header(createHeaders(getContentType(resPath)))
+                        .header(CONTENT_ENCODING, encoding)
+                        .body(router.getResolverMap().resolve(resPath + PRECOMPRESSED_EXTENSIONS.get(encoding)), true)
+                        .build();
+            } catch (ResourceRetrievalException e) {
+                encodings.remove(encoding);
+            }
+        }
+    }
+
     public static Response createResponse(ResolverMap rr, String resPath) throws IOException {
         return Response.ok()
                 .header(createHeaders(getContentType(resPath)))
@@ -275,6 +324,20 @@ public class WebServerInterceptor extends AbstractInterceptor {
         this.generateIndex = generateIndex;
     }
 
+    public boolean isPrecompressed() {
+        return precompressed;
+    }
+
+    /**
+     * @description Serves precompressed files, if the client accepts their content coding: <i>file</i>.br for
+     * Brotli and <i>file</i>.gz for gzip, instead of <i>file</i>.
+     * @default false
+     */
+    @MCAttribute
+    public void setPrecompressed(boolean precompressed) {
+        this.precompressed = precompressed;
+    }
+
     @Override
     public String getShortDescription() {
         return "Serves static files from<br/>" + TextUtil.linkURL(docBase) + " .";
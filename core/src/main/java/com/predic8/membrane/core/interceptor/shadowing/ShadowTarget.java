@@ -0,0 +1,43 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.shadowing;
+
+import com.predic8.membrane.annot.*;
+import com.predic8.membrane.core.rules.AbstractServiceProxy.*;
+
+/**
+ * @description Shadow host the <i>shadowing</i> interceptor sends copies of requests to.
+ */
+@MCElement(name = "target", topLevel = false, id = "shadowing-target")
+public class ShadowTarget extends Target {
+
+    private double percentage = 100;
+
+    public double getPercentage() {
+        return percentage;
+    }
+
+    /**
+     * @description Percentage of requests that are copied to this target. Use values below 100 to shadow only a
+     * random sample of the traffic.
+     * @default 100
+     * @example 5
+     */
+    @MCAttribute
+    public void setPercentage(double percentage) {
+        if (percentage < 0 || percentage > 100)
+            throw new IllegalArgumentException("percentage must be between 0 and 100, but was " + percentage);
+        this.percentage = percentage;
+    }
+}
@@ -13,6 +13,7 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.shadowing;
 
+import com.predic8.membrane.annot.MCAttribute;
 import com.predic8.membrane.annot.MCChildElement;
 import com.predic8.membrane.annot.MCElement;
 import com.predic8.membrane.core.exchange.Exchange;
@@ -21,26 +22,71 @@ import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.rules.AbstractServiceProxy.Target;
 import com.predic8.membrane.core.transport.http.HttpClient;
+import com.predic8.membrane.core.transport.http.HttpServerThreadFactory;
 import com.predic8.membrane.core.util.URIFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.predic8.membrane.core.interceptor.Outcome.CONTINUE;
-import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * @description Sends copies of requests to shadow hosts. The copies are sent in the background by a bounded pool of
+ * worker threads; if the pool and its queue are full, copies are dropped instead of slowing down the main request.
+ * @topic 4. Interceptors/Features
+ */
 @MCElement(name="shadowing")
-public class ShadowingInterceptor extends AbstractInterceptor {
+public class ShadowingInterceptor extends AbstractInterceptor implements DisposableBean {
 
     private static final HttpClient client = new HttpClient();
     private static final Logger log = LoggerFactory.getLogger(ShadowingInterceptor.class);
 
-    private List<Target> targets = new ArrayList<>();
+    private List<ShadowTarget> targets = new ArrayList<>();
+
+    private int maxThreads = 20;
+    private int queueSize = 1000;
+
+    private volatile ThreadPoolExecutor executor;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    @Override
+    public void init() throws Exception {
+        super.init();
+        if (executor != null)
+            executor.shutdown();
+        executor = createExecutor();
+    }
+
+    public void stop() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    private ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new HttpServerThreadFactory("Shadowing Thread", true));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 
     @Override
     public Outcome handleRequest(Exchange exc) throws Exception {
@@ -68,33 +114,59 @@ public class ShadowingInterceptor extends AbstractInterceptor {
     }
 
     public void cloneRequestAndSend(AbstractBody completeBody, Exchange mainExchange, Header copiedHeader) {
-        ExecutorService executor = newCachedThreadPool();
-        for (Target shadowTarget : targets) {
+        byte[] content = null;
+        for (ShadowTarget shadowTarget : targets) {
+            if (!isSampled(shadowTarget)) {
+                skipped.incrementAndGet();
+                continue;
+            }
             Exchange newExchange;
             try {
-                newExchange = buildExchange(completeBody, mainExchange, shadowTarget, copiedHeader);
+                // The body is read once and the same array is shared by all copies, as they only read it.
+                if (content == null)
+                    content = completeBody.getContent();
+                newExchange = buildExchange(content, mainExchange, shadowTarget, copiedHeader);
             } catch (Exception e) {
                 log.error("Error creating request for target {}", shadowTarget, e);
                 continue;
             }
+            submit(newExchange, shadowTarget);
+        }
+    }
 
-            executor.submit(() -> {
+    private static boolean isSampled(ShadowTarget target) {
+        return target.getPercentage() >= 100 || ThreadLocalRandom.current().nextDouble(100) < target.getPercentage();
+    }
+
+    private void submit(Exchange newExchange, ShadowTarget shadowTarget) {
+        try {
+            executor.execute(() -> {
                 try {
                     Exchange res = performCall(newExchange);
+                    sent.incrementAndGet();
                     if (res.getResponse().getStatusCode() >= 500)
                         log.info("{} returned StatusCode {}", res.getDestinations().get(0), res.getResponse().getStatusCode());
                 } catch (Exception e) {
                     log.error("Error performing call for target {}", shadowTarget, e);
                 }
             });
+        } catch (RejectedExecutionException e) {
+            // Shadow traffic must never delay or fail the main request, so copies are dropped under overload.
+            if (dropped.incrementAndGet() % 1000 == 1)
+                log.warn("Shadowing queue is full. Dropped {} requests so far.", dropped.get());
         }
     }
 
     static Exchange buildExchange(AbstractBody completeBody, Exchange mainExchange, Target shadowTarget, Header copiedHeader) throws URISyntaxException, IOException {
+        return buildExchange(completeBody.getContent(), mainExchange, shadowTarget, copiedHeader);
+    }
+
+    static Exchange buildExchange(byte[] content, Exchange mainExchange, Target shadowTarget, Header copiedHeader) throws URISyntaxException {
         // Build the new Exchange object with the same body, method, and header but targeted at the shadow host.
+        // Every copy needs its own header, as the HTTP client modifies it while sending.
         return new Request.Builder()
-                .body(completeBody.getContent())
-                .header(copiedHeader)
+                .body(content)
+                .header(new Header(copiedHeader))
                 .method(mainExchange.getRequest().getMethod())
                 .url(
                     new URIFactory(),
@@ -106,7 +178,6 @@ public class ShadowingInterceptor extends AbstractInterceptor {
                 .buildExchange();
     }
 
-
     static String getDestFromTarget(Target t, String path) {
         return (t.getUrl() != null) ? t.getUrl() : buildTargetUrl(t, path);
     }
@@ -136,14 +207,74 @@ public class ShadowingInterceptor extends AbstractInterceptor {
      * contains a 5XX status code, it will be logged.
      * </p>
      *
-     * @param targets a list of {@link Target} objects representing the shadow hosts.
+     * @param targets a list of {@link ShadowTarget} objects representing the shadow hosts.
      */
     @MCChildElement
-    public void setTargets(List<Target> targets) {
+    public void setTargets(List<ShadowTarget> targets) {
         this.targets = targets;
     }
 
-    public List<Target> getTargets() {
+    public List<ShadowTarget> getTargets() {
         return targets;
     }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @description Maximum number of threads sending requests to the shadow hosts.
+     * @default 20
+     */
+    @MCAttribute
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @description Number of requests waiting for a free thread. When the queue is full, further copies are dropped.
+     * @default 1000
+     */
+    @MCAttribute
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return number of copies waiting to be sent
+     */
+    public int getQueueDepth() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * @return number of copies that were sent to a shadow host
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of copies that were dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of copies that were not sent because the request was not part of a target's sample
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
 }
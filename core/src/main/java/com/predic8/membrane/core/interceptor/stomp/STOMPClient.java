@@ -99,7 +99,7 @@ public class STOMPClient extends AbstractInterceptor {
 	@Override
 	public void init(Router router) throws Exception {
 		super.init(router);
-		connectionManager = new ConnectionManager(connectionConfiguration.getKeepAliveTimeout(), router.getTimerManager());
+		connectionManager = new ConnectionManager(connectionConfiguration, router.getTimerManager());
 		if (sslOutboundParser != null)
 			sslOutboundProvider = new StaticSSLContext(sslOutboundParser, router.getResolverMap(), router.getBaseLocation());
 	}
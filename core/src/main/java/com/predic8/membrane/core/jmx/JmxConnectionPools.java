@@ -0,0 +1,66 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+
+package com.predic8.membrane.core.jmx;
+
+import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.transport.http.ConnectionManager.PoolStatistics;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.List;
+
+/**
+ * Exposes the outbound connection pools of the router's HTTP clients.
+ */
+@ManagedResource
+public class JmxConnectionPools {
+
+    private final Router router;
+
+    public JmxConnectionPools(Router router) {
+        this.router = router;
+    }
+
+    @ManagedAttribute
+    public int getIdleConnections() {
+        return getStatistics().stream().mapToInt(PoolStatistics::idle).sum();
+    }
+
+    @ManagedAttribute
+    public int getActiveConnections() {
+        return getStatistics().stream().mapToInt(PoolStatistics::active).sum();
+    }
+
+    @ManagedAttribute
+    public long getWaits() {
+        return getStatistics().stream().mapToLong(PoolStatistics::waits).sum();
+    }
+
+    @ManagedAttribute
+    public long getCreatedConnections() {
+        return getStatistics().stream().mapToLong(PoolStatistics::created).sum();
+    }
+
+    @ManagedAttribute
+    public String[] getPools() {
+        return getStatistics().stream()
+                .map(s -> s.key() + ": idle=" + s.idle() + " active=" + s.active() + " waits=" + s.waits() + " created=" + s.created())
+                .toArray(String[]::new);
+    }
+
+    private List<PoolStatistics> getStatistics() {
+        return router.getHttpClientFactory().getPoolStatistics();
+    }
+}
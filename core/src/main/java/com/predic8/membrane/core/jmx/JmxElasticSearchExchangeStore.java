@@ -0,0 +1,61 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.jmx;
+
+import com.predic8.membrane.core.exchangestore.ElasticSearchExchangeStore;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exposes the queue and the bulk requests of the Elasticsearch exchange store. Times are in milliseconds.
+ */
+@ManagedResource
+public class JmxElasticSearchExchangeStore {
+
+    private final ElasticSearchExchangeStore store;
+
+    public JmxElasticSearchExchangeStore(ElasticSearchExchangeStore store) {
+        this.store = store;
+    }
+
+    @ManagedAttribute
+    public int getQueueDepth() {
+        return store.getQueueDepth();
+    }
+
+    @ManagedAttribute
+    public long getIndexed() {
+        return store.getIndexed();
+    }
+
+    @ManagedAttribute
+    public long getFailed() {
+        return store.getFailed();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return store.getDropped();
+    }
+
+    @ManagedAttribute
+    public long getSampledOut() {
+        return store.getSampledOut();
+    }
+
+    @ManagedAttribute
+    public long getIndexingTime99() {
+        return store.getIndexingLatency().getValueAtPercentile(99);
+    }
+}
@@ -14,6 +14,7 @@
 package com.predic8.membrane.core.jmx;
 
 import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.exchangestore.ElasticSearchExchangeStore;
 import com.predic8.membrane.core.rules.Rule;
 import com.predic8.membrane.core.rules.ServiceProxy;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -32,6 +33,9 @@ public class JmxRouter {
         this.router = router;
         this.exporter = exporter;
         exportServiceProxyList();
+        exportConnectionPools();
+        exportTLSHandshakes();
+        exportElasticSearchExchangeStore();
     }
 
     @ManagedAttribute
@@ -47,6 +51,19 @@ public class JmxRouter {
         }
     }
 
+    private void exportConnectionPools() {
+        exporter.addBean("org.membrane-soa:00=connectionPools, name=" + router.getJmx(), new JmxConnectionPools(router));
+    }
+
+    private void exportTLSHandshakes() {
+        exporter.addBean("org.membrane-soa:00=tlsHandshakes, name=" + router.getJmx(), new JmxTLSHandshakes());
+    }
+
+    private void exportElasticSearchExchangeStore() {
+        if (router.getExchangeStore() instanceof ElasticSearchExchangeStore store)
+            exporter.addBean("org.membrane-soa:00=elasticSearchExchangeStore, name=" + router.getJmx(), new JmxElasticSearchExchangeStore(store));
+    }
+
     private void exportServiceProxy(ServiceProxy rule) {
         String prefix = "org.membrane-soa:00=serviceProxies, 01=" + router.getJmx()+ ", name=";
         exporter.addBean(prefix + rule.getName().replace(":",""), new JmxServiceProxy(rule, router));
@@ -14,12 +14,16 @@
 package com.predic8.membrane.core.jmx;
 
 import com.predic8.membrane.core.Router;
+import com.predic8.membrane.core.interceptor.Interceptor;
+import com.predic8.membrane.core.interceptor.log.AccessLogInterceptor;
+import com.predic8.membrane.core.interceptor.shadowing.ShadowingInterceptor;
 import com.predic8.membrane.core.rules.ServiceProxy;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 import java.io.IOException;
+import java.util.function.ToLongFunction;
 
 @ManagedResource
 public class JmxServiceProxy {
@@ -52,4 +56,46 @@ public class JmxServiceProxy {
     public int getProcessedExchanges(){
         return rule.getStatisticCollector().getCount();
     }
+
+    @ManagedAttribute
+    public long getShadowingQueueDepth() {
+        return sum(ShadowingInterceptor.class, ShadowingInterceptor::getQueueDepth);
+    }
+
+    @ManagedAttribute
+    public long getShadowingSent() {
+        return sum(ShadowingInterceptor.class, ShadowingInterceptor::getSent);
+    }
+
+    @ManagedAttribute
+    public long getShadowingDropped() {
+        return sum(ShadowingInterceptor.class, ShadowingInterceptor::getDropped);
+    }
+
+    @ManagedAttribute
+    public long getShadowingSkipped() {
+        return sum(ShadowingInterceptor.class, ShadowingInterceptor::getSkipped);
+    }
+
+    @ManagedAttribute
+    public long getAccessLogPending() {
+        return sum(AccessLogInterceptor.class, AccessLogInterceptor::getPending);
+    }
+
+    @ManagedAttribute
+    public long getAccessLogWritten() {
+        return sum(AccessLogInterceptor.class, AccessLogInterceptor::getWritten);
+    }
+
+    @ManagedAttribute
+    public long getAccessLogDropped() {
+        return sum(AccessLogInterceptor.class, AccessLogInterceptor::getDropped);
+    }
+
+    private <T extends Interceptor> long sum(Class<T> type, ToLongFunction<T> metric) {
+        return rule.getInterceptors().stream()
+                .filter(type::isInstance)
+                .mapToLong(i -> metric.applyAsLong(type.cast(i)))
+                .sum();
+    }
 }
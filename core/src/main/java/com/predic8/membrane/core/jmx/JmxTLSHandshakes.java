@@ -0,0 +1,87 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.jmx;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import static com.predic8.membrane.core.transport.ssl.HandshakeStatistics.INBOUND;
+import static com.predic8.membrane.core.transport.ssl.HandshakeStatistics.OUTBOUND;
+
+/**
+ * Exposes the TLS handshakes of all inbound and outbound connections. Times are in microseconds.
+ */
+@ManagedResource
+public class JmxTLSHandshakes {
+
+    @ManagedAttribute
+    public long getInboundFullHandshakes() {
+        return INBOUND.getFullHandshakes();
+    }
+
+    @ManagedAttribute
+    public long getInboundResumedHandshakes() {
+        return INBOUND.getResumedHandshakes();
+    }
+
+    @ManagedAttribute
+    public long getInboundFailedHandshakes() {
+        return INBOUND.getFailedHandshakes();
+    }
+
+    @ManagedAttribute
+    public double getInboundResumptionRatio() {
+        return INBOUND.getResumptionRatio();
+    }
+
+    @ManagedAttribute
+    public long getInboundFullHandshakeTime99() {
+        return INBOUND.getFullHandshakeTime().getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getInboundResumedHandshakeTime99() {
+        return INBOUND.getResumedHandshakeTime().getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getOutboundFullHandshakes() {
+        return OUTBOUND.getFullHandshakes();
+    }
+
+    @ManagedAttribute
+    public long getOutboundResumedHandshakes() {
+        return OUTBOUND.getResumedHandshakes();
+    }
+
+    @ManagedAttribute
+    public long getOutboundFailedHandshakes() {
+        return OUTBOUND.getFailedHandshakes();
+    }
+
+    @ManagedAttribute
+    public double getOutboundResumptionRatio() {
+        return OUTBOUND.getResumptionRatio();
+    }
+
+    @ManagedAttribute
+    public long getOutboundFullHandshakeTime99() {
+        return OUTBOUND.getFullHandshakeTime().getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute
+    public long getOutboundResumedHandshakeTime99() {
+        return OUTBOUND.getResumedHandshakeTime().getValueAtPercentile(99);
+    }
+}
@@ -20,7 +20,7 @@ import com.predic8.membrane.core.openapi.model.Request;
 import com.predic8.membrane.core.openapi.model.Response;
 import com.predic8.membrane.core.openapi.serviceproxy.*;
 import com.predic8.membrane.core.openapi.util.MethodNotAllowException;
-import com.predic8.membrane.core.openapi.util.PathDoesNotMatchException;
+import com.predic8.membrane.core.openapi.util.PathRouter;
 import com.predic8.membrane.core.openapi.util.UriUtil;
 import com.predic8.membrane.core.openapi.validators.OperationValidator;
 import com.predic8.membrane.core.openapi.validators.PathParametersValidator;
@@ -49,10 +49,17 @@ public class OpenAPIValidator {
 
     private String basePath = "";
 
+    /**
+     * Paths of the OpenAPI prefixed with the basePath. Compiled once, so that a request can be matched without
+     * trying every path.
+     */
+    private final PathRouter<Map.Entry<String, PathItem>> pathRouter = new PathRouter<>();
+
     public OpenAPIValidator(URIFactory uriFactory, OpenAPIRecord rec) {
         this.rec = rec;
         this.uriFactory = uriFactory;
         init();
+        initPathRouter();
     }
 
     /**
@@ -70,6 +77,14 @@ public class OpenAPIValidator {
         }
     }
 
+    private void initPathRouter() {
+        if (rec.getApi().getPaths() == null)
+            return;
+        for (Map.Entry<String, PathItem> path : rec.getApi().getPaths().entrySet()) {
+            pathRouter.add(normalizeUri(basePath + path.getKey()), path);
+        }
+    }
+
     private String getUrl() {
         if (rec.getSpec().hasRewrite() && rec.getSpec().getRewrite().getBasePath() != null)
             return rec.getSpec().getRewrite().getBasePath();
@@ -87,13 +102,10 @@ public class OpenAPIValidator {
 
     private ValidationErrors validateMessage(Request req, Response res) {
 
-        for (Map.Entry<String, PathItem> path : rec.getApi().getPaths().entrySet()) {
-            try {
-                return validateMethodsAndParametersIfPathMatches(req, res, path.getKey(), path.getValue());
-            } catch (PathDoesNotMatchException ignored) {
-                // All paths from the OpenAPI that do not match will cause an exception while parsing the path and parameter. Then the next uriTemplate
-                // is tried until we get a match or there is no matching path in the OpenAPI.
-            }
+        PathRouter.Match<Map.Entry<String, PathItem>> match = pathRouter.match(req.getPath());
+        if (match != null) {
+            req.setPathParameters(match.parameters());
+            return validateMethodsAndParameters(req, res, match.value().getKey(), match.value().getValue());
         }
 
         return ValidationErrors.create( ValidationContext.fromRequest(req)
@@ -102,10 +114,7 @@ public class OpenAPIValidator {
                 .statusCode(404), format("Path %s is invalid.", req.getPath()));
     }
 
-    private ValidationErrors validateMethodsAndParametersIfPathMatches(Request req, Response response, String uriTemplate, PathItem pathItem) throws PathDoesNotMatchException {
-
-        // Throws exception if path or parameters do not match
-        req.parsePathParameters(normalizeUri(basePath + uriTemplate));
+    private ValidationErrors validateMethodsAndParameters(Request req, Response response, String uriTemplate, PathItem pathItem) {
 
         ValidationContext ctx = ValidationContext.fromRequest(req);
 
@@ -120,6 +120,10 @@ public class Request<T extends Body> extends Message<T,Request<T>> {
         pathParameters = uriTemplateMatcher.match(uriTemplate, path);
     }
 
+    public void setPathParameters(Map<String, String> pathParameters) {
+        this.pathParameters = pathParameters;
+    }
+
     @Override
     public String toString() {
         return "Request{" +
@@ -23,7 +23,6 @@ import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.AbstractInterceptor;
 import com.predic8.membrane.core.interceptor.Outcome;
 import com.predic8.membrane.core.openapi.OpenAPIParsingException;
-import com.predic8.membrane.core.openapi.OpenAPIValidator;
 import com.predic8.membrane.core.openapi.validators.ValidationErrors;
 import com.predic8.membrane.core.rules.RuleKey;
 import io.swagger.v3.oas.models.OpenAPI;
@@ -170,14 +169,14 @@ public class OpenAPIInterceptor extends AbstractInterceptor {
         if (!shouldValidate(rec.getApi(), REQUESTS))
             return errors;
 
-        return new OpenAPIValidator(router.getUriFactory(), rec ).validate(getOpenapiValidatorRequest(exc));
+        return rec.getValidator(router.getUriFactory()).validate(getOpenapiValidatorRequest(exc));
     }
 
     private ValidationErrors validateResponse(OpenAPIRecord rec, Exchange exc) throws IOException, ParseException {
         ValidationErrors errors = new ValidationErrors();
         if (!shouldValidate(rec.getApi(), RESPONSES))
             return errors;
-        return new OpenAPIValidator(router.getUriFactory(), rec).validateResponse(getOpenapiValidatorRequest(exc), getOpenapiValidatorResponse(exc));
+        return rec.getValidator(router.getUriFactory()).validateResponse(getOpenapiValidatorRequest(exc), getOpenapiValidatorResponse(exc));
     }
 
     public boolean validationDetails(OpenAPI api) {
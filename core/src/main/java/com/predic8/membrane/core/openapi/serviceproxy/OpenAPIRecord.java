@@ -18,6 +18,7 @@ package com.predic8.membrane.core.openapi.serviceproxy;
 
 import com.fasterxml.jackson.databind.*;
 import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.openapi.*;
 import com.predic8.membrane.core.util.*;
 import io.swagger.v3.oas.models.*;
 
@@ -43,6 +44,11 @@ public class OpenAPIRecord {
      */
     String version;
 
+    /**
+     * Created on first use. The validator compiles the paths of the API, so it should not be created per request.
+     */
+    private volatile OpenAPIValidator validator;
+
     /**
      * Used for tests
      */
@@ -77,6 +83,13 @@ public class OpenAPIRecord {
         return spec.getRewrite().rewrite(this,exc,uriFactory);
     }
 
+    public OpenAPIValidator getValidator(URIFactory uriFactory) {
+        OpenAPIValidator v = validator;
+        if (v == null)
+            validator = v = new OpenAPIValidator(uriFactory, this);
+        return v;
+    }
+
     public OpenAPI getApi() {
         return api;
     }
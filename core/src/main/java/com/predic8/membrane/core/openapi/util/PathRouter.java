@@ -0,0 +1,198 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.openapi.util;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import static com.predic8.membrane.core.openapi.util.UriTemplateMatcher.*;
+import static java.util.regex.Pattern.*;
+
+/**
+ * Matches paths against a set of URI templates like <code>/users/{uid}/orders/{oid}</code>.
+ * <p>
+ * The templates are compiled once into a trie of path segments. Literal segments are looked up in a map, segments
+ * consisting of a single parameter match any non-empty segment and segments mixing text and parameters like
+ * <code>{file}.json</code> are matched with a precompiled pattern. Matching does not use exceptions and compiles
+ * nothing.
+ * <p>
+ * Unlike {@link UriTemplateMatcher}, the text outside of parameters is matched literally and not as a regular
+ * expression.
+ * <p>
+ * If several templates match a path, the one that was added first wins. Instances are not thread-safe while
+ * templates are added, but can be shared for matching afterwards.
+ */
+public class PathRouter<T> {
+
+    private final Node root = new Node();
+    private final List<Route<T>> routes = new ArrayList<>();
+
+    /**
+     * @param uriTemplate e.g. <code>/users/{uid}</code>
+     * @param value returned by {@link #match(String)} if the template matches
+     */
+    public void add(String uriTemplate, T value) {
+        Route<T> route = new Route<>(uriTemplate, value, compile(uriTemplate));
+        int index = routes.size();
+        routes.add(route);
+
+        Node node = root;
+        node.updateFirstRoute(index);
+        for (Segment segment : route.segments) {
+            node = node.getOrCreateChild(segment);
+            node.updateFirstRoute(index);
+        }
+        if (node.route == -1)
+            node.route = index;
+    }
+
+    /**
+     * @param path path of the request, may contain a query string
+     * @return the first matching template or null, if no template matches
+     */
+    public @Nullable Match<T> match(String path) {
+        String[] segments = split(normalizePath(path));
+        int index = find(root, segments, 0, Integer.MAX_VALUE);
+        if (index == Integer.MAX_VALUE)
+            return null;
+        Route<T> route = routes.get(index);
+        return new Match<>(route.uriTemplate, route.value, route.extractParameters(segments));
+    }
+
+    /**
+     * @param best index of the best route found so far
+     * @return index of the first route matching segments[i..], or best if there is no better one
+     */
+    private int find(Node node, String[] segments, int i, int best) {
+        if (node.firstRoute >= best)
+            return best;
+        if (i == segments.length)
+            return node.route == -1 ? best : Math.min(node.route, best);
+
+        String segment = segments[i];
+        Node literal = node.literals.get(segment);
+        if (literal != null)
+            best = find(literal, segments, i + 1, best);
+        if (node.parameter != null && !segment.isEmpty())
+            best = find(node.parameter, segments, i + 1, best);
+        for (Node mixed : node.mixed.values())
+            if (mixed.pattern.matcher(segment).matches())
+                best = find(mixed, segments, i + 1, best);
+        return best;
+    }
+
+    private static Segment[] compile(String uriTemplate) {
+        String[] parts = split(normalizePath(uriTemplate));
+        Segment[] segments = new Segment[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            segments[i] = Segment.compile(parts[i]);
+        return segments;
+    }
+
+    private static String[] split(String normalizedPath) {
+        return normalizedPath.split("/", -1);
+    }
+
+    public record Match<T>(String uriTemplate, T value, Map<String, String> parameters) {
+    }
+
+    private record Route<T>(String uriTemplate, T value, Segment[] segments) {
+
+        Map<String, String> extractParameters(String[] path) {
+            Map<String, String> parameters = new HashMap<>();
+            for (int i = 0; i < segments.length; i++)
+                segments[i].extractParameters(path[i], parameters);
+            return parameters;
+        }
+    }
+
+    private enum Type { LITERAL, PARAMETER, MIXED }
+
+    /**
+     * One compiled segment of a template. For MIXED segments, the text is the regular expression, otherwise the
+     * literal or the parameter name.
+     */
+    private record Segment(Type type, String text, List<String> names, Pattern pattern) {
+
+        static Segment compile(String segment) {
+            Matcher m = getNameMatcher(segment);
+            List<String> names = new ArrayList<>();
+            StringBuilder regex = new StringBuilder();
+            int last = 0;
+            while (m.find()) {
+                names.add(m.group(1));
+                if (m.start() > last)
+                    regex.append(quote(segment.substring(last, m.start())));
+                regex.append(URI_PARAM_MATCH);
+                last = m.end();
+            }
+            if (names.isEmpty())
+                return new Segment(Type.LITERAL, segment, names, null);
+            if (names.size() == 1 && m.reset().matches())
+                return new Segment(Type.PARAMETER, names.get(0), names, null);
+            if (last < segment.length())
+                regex.append(quote(segment.substring(last)));
+            return new Segment(Type.MIXED, regex.toString(), names, Pattern.compile(regex.toString()));
+        }
+
+        void extractParameters(String value, Map<String, String> parameters) {
+            switch (type) {
+                case PARAMETER -> parameters.put(text, value);
+                case MIXED -> {
+                    Matcher m = pattern.matcher(value);
+                    if (!m.matches())
+                        throw new IllegalStateException("Segment " + value + " does not match " + text);
+                    for (int i = 0; i < names.size(); i++)
+                        parameters.put(names.get(i), m.group(i + 1));
+                }
+            }
+        }
+    }
+
+    private static class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, Node> mixed = new LinkedHashMap<>();
+        private Node parameter;
+        private Pattern pattern;
+
+        /**
+         * Index of the first route ending at this node, or -1
+         */
+        private int route = -1;
+
+        /**
+         * Smallest index of all routes ending at this node or below. Used to skip subtrees that cannot improve the
+         * result.
+         */
+        private int firstRoute = Integer.MAX_VALUE;
+
+        Node getOrCreateChild(Segment segment) {
+            return switch (segment.type()) {
+                case LITERAL -> literals.computeIfAbsent(segment.text(), s -> new Node());
+                case PARAMETER -> parameter != null ? parameter : (parameter = new Node());
+                case MIXED -> mixed.computeIfAbsent(segment.text(), s -> {
+                    Node node = new Node();
+                    node.pattern = segment.pattern();
+                    return node;
+                });
+            };
+        }
+
+        void updateFirstRoute(int index) {
+            firstRoute = Math.min(firstRoute, index);
+        }
+    }
+}
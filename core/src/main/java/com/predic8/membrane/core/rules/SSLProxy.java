@@ -219,7 +219,7 @@ public class SSLProxy implements Rule {
     @Override
     public void init(Router router) throws Exception {
         this.router = router;
-        cm = new ConnectionManager(connectionConfiguration.getKeepAliveTimeout(), router.getTimerManager());
+        cm = new ConnectionManager(connectionConfiguration, router.getTimerManager());
         for (SSLInterceptor i : sslInterceptors)
             i.init(router);
     }
@@ -15,43 +15,56 @@ package com.predic8.membrane.core.rules;
 
 import com.predic8.membrane.core.exchange.AbstractExchange;
 import com.predic8.membrane.core.exchange.ExchangeState;
+import com.predic8.membrane.core.stats.LatencyHistogram;
 
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Tracks the latencies of the phases of an exchange in {@link LatencyHistogram}s:
+ * <ul>
+ *     <li><code>process_req_time</code>: time spent by the gateway processing the request</li>
+ *     <li><code>response_time</code>: time spent by the backend</li>
+ *     <li><code>process_res_time</code>: time spent by the gateway processing the response</li>
+ *     <li><code>total_time</code>: sum of the above</li>
+ * </ul>
+ * Instances are thread-safe and do not need to be synchronized.
+ */
 public class TimeCollector {
 
     private final boolean countErrorExchanges;
 
-    private static List<Long> buckets = Stream.of(500L, 1000L, 2000L, 4000L, 10_000L)
+    /**
+     * Upper bounds of the buckets reported to Prometheus. The histograms themselves have a much finer resolution.
+     */
+    private static volatile List<Long> buckets = Stream.of(500L, 1000L, 2000L, 4000L, 10_000L)
             .collect(Collectors.toList());
 
-    private Map<String, Map<String, Long>> trackedTimes;
-    private Map<String, Long> membraneReqProcess;
-    private Map<String, Long> membraneResProcess;
-    private Map<String, Long> responseProcess;
-    private Map<String, Long> totalTimeProcess;
+    public static final String PROCESS_REQ_TIME = "process_req_time";
+    public static final String PROCESS_RES_TIME = "process_res_time";
+    public static final String RESPONSE_TIME = "response_time";
+    public static final String TOTAL_TIME = "total_time";
 
-    public TimeCollector(boolean countErrorExchanges) {
-        this.countErrorExchanges = countErrorExchanges;
+    public static final List<String> PHASES = List.of(PROCESS_REQ_TIME, PROCESS_RES_TIME, RESPONSE_TIME, TOTAL_TIME);
 
-        trackedTimes = new HashMap<>();
-        membraneReqProcess = new HashMap<>();
-        membraneReqProcess = new HashMap<>();
-        membraneResProcess = new HashMap<>();
-        totalTimeProcess = new HashMap<>();
+    private final Map<String, LatencyHistogram> trackedTimes = new LinkedHashMap<>();
+    private final LatencyHistogram membraneReqProcess = new LatencyHistogram();
+    private final LatencyHistogram membraneResProcess = new LatencyHistogram();
+    private final LatencyHistogram responseProcess = new LatencyHistogram();
+    private final LatencyHistogram totalTimeProcess = new LatencyHistogram();
 
-        responseProcess = new HashMap<>();
-        trackedTimes.put("process_req_time", membraneReqProcess);
-        trackedTimes.put("process_res_time", membraneResProcess);
-        trackedTimes.put("response_time", responseProcess);
-        trackedTimes.put("total_time", totalTimeProcess);
+    public TimeCollector(boolean countErrorExchanges) {
+        this.countErrorExchanges = countErrorExchanges;
 
+        trackedTimes.put(PROCESS_REQ_TIME, membraneReqProcess);
+        trackedTimes.put(PROCESS_RES_TIME, membraneResProcess);
+        trackedTimes.put(RESPONSE_TIME, responseProcess);
+        trackedTimes.put(TOTAL_TIME, totalTimeProcess);
     }
 
-    public Map<String, Map<String, Long>> getTrackedTimes() {
-        return trackedTimes;
+    public Map<String, LatencyHistogram> getTrackedTimes() {
+        return Collections.unmodifiableMap(trackedTimes);
     }
 
     public void collectFrom(AbstractExchange exc) {
@@ -66,34 +79,20 @@ public class TimeCollector {
 
         // 2-1
         long timeMembraneReqProcess = exc.getTimeReqSent() - exc.getTimeReqReceived();
-        addToBucket(timeMembraneReqProcess, membraneReqProcess);
+        membraneReqProcess.record(timeMembraneReqProcess);
 
         if (exc.getTimeResReceived() == 0)
             return;
 
         // 3-2
         long timeResponseProcess = exc.getTimeResReceived() - exc.getTimeReqSent();
-        addToBucket(timeResponseProcess, responseProcess);
+        responseProcess.record(timeResponseProcess);
 
         // 4-3
         long timeMembraneResProcess = exc.getTimeResSent() - exc.getTimeResReceived();
-        addToBucket(timeMembraneResProcess, membraneResProcess);
-
-
-        long totalTime = timeMembraneReqProcess + timeResponseProcess + timeMembraneResProcess;
-        addToBucket(totalTime, totalTimeProcess);
-    }
-
-    private void addToBucket(long value, Map<String, Long> buckets) {
-        buckets.merge("SUM", value, Long::sum);
-        buckets.merge("COUNT", 1L, Long::sum);
+        membraneResProcess.record(timeMembraneResProcess);
 
-        for (long bucket : TimeCollector.buckets) {
-            if (value <= bucket) {
-                buckets.merge(String.valueOf(bucket), 1L, Long::sum);
-            }
-        }
-        buckets.merge("+Inf", 1L, Long::sum);
+        totalTimeProcess.record(timeMembraneReqProcess + timeResponseProcess + timeMembraneResProcess);
     }
 
     public static List<Long> getBuckets() {
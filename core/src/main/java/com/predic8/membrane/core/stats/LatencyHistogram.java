@@ -0,0 +1,143 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.stats;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock-free histogram of non-negative values (e.g. latencies in milliseconds) with log-linear buckets, similar to
+ * an HdrHistogram.
+ * <p>
+ * Values below {@value #LINEAR_LIMIT} are counted exactly. Above, every power of two is split into
+ * {@value #SUB_BUCKETS} buckets of equal width, so the relative error of a reported value is at most about 3%.
+ * Values above {@link #MAX_VALUE} are counted in the last bucket.
+ * <p>
+ * Buckets are {@link LongAdder}s, which are created on first use, so that concurrent recordings do not contend on
+ * one counter and only buckets that are actually hit take memory.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int MAX_EXPONENT = 24;
+
+    /**
+     * Largest value that is tracked with full precision (about 4.6 hours in milliseconds).
+     */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        bucket(indexOf(Math.min(value, MAX_VALUE))).increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    private LongAdder bucket(int index) {
+        LongAdder adder = buckets.get(index);
+        if (adder != null)
+            return adder;
+        buckets.compareAndSet(index, null, new LongAdder());
+        return buckets.get(index);
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long lowerBound(int index) {
+        if (index < LINEAR_LIMIT)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    static long upperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? lowerBound(index + 1) - 1 : MAX_VALUE;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    /**
+     * @return the number of recorded values that are less than or equal to <code>value</code>. Values in the same
+     * bucket as <code>value</code> are counted as well, so the result can be slightly too high.
+     */
+    public long getCountAtOrBelow(long value) {
+        if (value < 0)
+            return 0;
+        int last = indexOf(Math.min(value, MAX_VALUE));
+        long result = 0;
+        for (int i = 0; i <= last; i++) {
+            LongAdder adder = buckets.get(i);
+            if (adder != null)
+                result += adder.sum();
+        }
+        return result;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the highest value of the bucket containing the given percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            LongAdder adder = buckets.get(i);
+            if (adder != null) {
+                counts[i] = adder.sum();
+                total += counts[i];
+            }
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+}
@@ -63,18 +63,14 @@ public class RuleStatisticCollector {
         return timeCollector;
     }
 
+    /**
+     * Collects statistics of a completed exchange. The collectors are thread-safe, so concurrent exchanges do not
+     * block each other.
+     */
     public void collect(Exchange exc) {
-        StatisticCollector sc = getStatisticCollectorByStatusCode(exc
-                .getResponse().getStatusCode());
-        synchronized (sc) {
-            sc.collectFrom(exc);
-        }
-
-        TimeCollector tc = getTimeCollectorByStatusCode(exc
-                .getResponse().getStatusCode());
-        synchronized (tc) {
-            tc.collectFrom(exc);
-        }
+        int statusCode = exc.getResponse().getStatusCode();
+        getStatisticCollectorByStatusCode(statusCode).collectFrom(exc);
+        getTimeCollectorByStatusCode(statusCode).collectFrom(exc);
     }
 
     public int getCount() {
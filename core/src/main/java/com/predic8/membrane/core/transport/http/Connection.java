@@ -72,6 +72,19 @@ public class Connection implements Closeable, MessageObserver, NonRelevantBodyOb
 	private Exchange exchange;
 	private boolean keepAttachedToExchange;
 
+	/**
+	 * The pool of {@link #mgr} this connection has been opened by, see {@link ConnectionManager}.
+	 */
+	ConnectionManager.Pool pool;
+	/**
+	 * The key under which {@link #mgr} keeps this connection, while it is idle.
+	 */
+	ConnectionKey releaseKey;
+	/**
+	 * While idle, the time after which {@link #mgr} does not hand out this connection anymore.
+	 */
+	volatile long deathTime;
+
 	public static Connection open(String host, int port, String localHost, SSLProvider sslProvider, int connectTimeout) throws UnknownHostException, IOException {
 		return open(host, port, localHost, sslProvider, null, connectTimeout);
 	}
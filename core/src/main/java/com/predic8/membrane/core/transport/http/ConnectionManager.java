@@ -16,16 +16,17 @@ package com.predic8.membrane.core.transport.http;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Timer;
+import java.util.List;
 import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.predic8.membrane.core.transport.http.client.ConnectionConfiguration;
 import com.predic8.membrane.core.transport.http.client.ProxyConfiguration;
 import com.predic8.membrane.core.transport.ssl.SSLContext;
 import com.predic8.membrane.core.util.TimerManager;
@@ -53,6 +54,10 @@ import javax.annotation.Nullable;
  * <p>
  * Note that you should call {@link Connection#release()} exactly once, or alternatively
  * {@link Connection#close()} at least once.
+ * <p>
+ * There is one {@link Pool} per {@link ConnectionKey}. Pools do not share locks: idle connections are kept in
+ * lock-free deques, and a pool's lock is only taken when the pool is exhausted and a thread has to wait for a
+ * connection to become available.
  */
 public class ConnectionManager {
 
@@ -60,42 +65,166 @@ public class ConnectionManager {
 
 	private final long keepAliveTimeout;
 	private final long autoCloseInterval;
+	private final int maxConnectionsPerHost;
+	private final int maxIdleConnectionsPerHost;
+	private final long poolWaitTimeout;
 	private final AtomicInteger numberInPool = new AtomicInteger();
-	private final HashMap<ConnectionKey, ArrayList<OldConnection>> availableConnections =
-            new HashMap<>(); // guarded by this
+	private final ConcurrentHashMap<ConnectionKey, Pool> pools = new ConcurrentHashMap<>();
 	private volatile boolean shutdownWhenDone = false;
 	private TimerManager selfCreatedTimerManager;
 
-	private static class OldConnection {
-		public final Connection connection;
-		public final long deathTime;
-
-		public OldConnection(Connection connection, long defaultKeepAliveTimeout) {
-			this.connection = connection;
-			long lastUse = connection.getLastUse();
-			if (lastUse == 0)
-				lastUse = System.currentTimeMillis();
-			long delta = connection.getTimeout();
-			if (delta == 0)
-				delta = defaultKeepAliveTimeout;
-			if (delta > 400)
-				delta -= 400; // slippage
-			else
-				delta = 0;
-			if (connection.getCompletedExchanges() >= connection.getMaxExchanges())
-				delta = 0; // let the background closer do its job
-			this.deathTime = lastUse + delta;
+	/**
+	 * @return the time after which the released connection should not be reused anymore
+	 */
+	private static long getDeathTime(Connection connection, long defaultKeepAliveTimeout) {
+		long lastUse = connection.getLastUse();
+		if (lastUse == 0)
+			lastUse = System.currentTimeMillis();
+		long delta = connection.getTimeout();
+		if (delta == 0)
+			delta = defaultKeepAliveTimeout;
+		if (delta > 400)
+			delta -= 400; // slippage
+		else
+			delta = 0;
+		if (connection.getCompletedExchanges() >= connection.getMaxExchanges())
+			delta = 0; // let the background closer do its job
+		return lastUse + delta;
+	}
+
+	/**
+	 * The connections to one {@link ConnectionKey}.
+	 */
+	static class Pool {
+		private final ConnectionKey key;
+		private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger idleCount = new AtomicInteger();
+		/**
+		 * Number of open connections created by this pool, idle or in use.
+		 */
+		private final AtomicInteger total = new AtomicInteger();
+		private final LongAdder waits = new LongAdder();
+		private final LongAdder created = new LongAdder();
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition available = lock.newCondition();
+		private volatile int waiting;
+
+		Pool(ConnectionKey key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return an idle connection that has not timed out yet, or null
+		 */
+		private Connection pollIdle(long now) {
+			Connection c;
+			while ((c = idle.pollLast()) != null) {
+				idleCount.decrementAndGet();
+				if (c.deathTime > now)
+					return c;
+				closeQuietly(c);
+			}
+			return null;
+		}
+
+		/**
+		 * Reserves a slot for a new connection.
+		 * @return false, if the pool already holds the maximum number of connections
+		 */
+		private boolean tryReserve(int max) {
+			if (max < 0) {
+				total.incrementAndGet();
+				return true;
+			}
+			while (true) {
+				int current = total.get();
+				if (current >= max)
+					return false;
+				if (total.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		private void unreserve() {
+			total.decrementAndGet();
+			signal();
+		}
+
+		/**
+		 * Waits until a connection might have become available.
+		 * @return false, if the deadline has passed
+		 */
+		private boolean await(long deadline, int max) throws InterruptedException {
+			lock.lock();
+			try {
+				waiting++;
+				try {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						return false;
+					if (idle.isEmpty() && total.get() >= max)
+						available.await(remaining, TimeUnit.MILLISECONDS);
+					return true;
+				} finally {
+					waiting--;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void signal() {
+			if (waiting == 0)
+				return;
+			lock.lock();
+			try {
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private boolean isUnused() {
+			return total.get() == 0 && idle.isEmpty();
 		}
 	}
 
+	/**
+	 * Statistics of one {@link Pool}.
+	 * @param idle number of connections in the pool waiting to be reused
+	 * @param active number of connections in use
+	 * @param waits how often a caller had to wait, because the pool was exhausted
+	 * @param created number of connections opened by the pool
+	 */
+	public record PoolStatistics(ConnectionKey key, int idle, int active, long waits, long created) {
+	}
+
 	/**
 	 * @param keepAliveTimeout milliseconds to keep idle connections around for
 	 * @param timerManager a TimerManager instance to use to close idle connections. Providing a TimerManager instance
 	 *                     prevents the ConnectionManager from creating its own Timer (and TimerManager). Can be null.
 	 */
 	public ConnectionManager(long keepAliveTimeout, @Nullable TimerManager timerManager) {
+		this(keepAliveTimeout, -1, -1, 0, timerManager);
+	}
+
+	/**
+	 * @param configuration keep-alive timeout and pool limits
+	 * @param timerManager see {@link #ConnectionManager(long, TimerManager)}
+	 */
+	public ConnectionManager(ConnectionConfiguration configuration, @Nullable TimerManager timerManager) {
+		this(configuration.getKeepAliveTimeout(), configuration.getMaxConnectionsPerHost(),
+				configuration.getMaxIdleConnectionsPerHost(), configuration.getPoolWaitTimeout(), timerManager);
+	}
+
+	private ConnectionManager(long keepAliveTimeout, int maxConnectionsPerHost, int maxIdleConnectionsPerHost,
+							  long poolWaitTimeout, @Nullable TimerManager timerManager) {
 		this.keepAliveTimeout = keepAliveTimeout;
 		this.autoCloseInterval = keepAliveTimeout * 2;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+		this.poolWaitTimeout = poolWaitTimeout;
 		if (timerManager == null) {
 			selfCreatedTimerManager = timerManager = new TimerManager();
 		}
@@ -129,26 +258,45 @@ public class ConnectionManager {
 		}
 
 		ConnectionKey key = new ConnectionKey(cacheHost, cachePort, sslProvider, sniServerName, proxy, proxySSLContext, applicationProtocols);
-		long now = System.currentTimeMillis();
-
-		synchronized(this) {
-			ArrayList<OldConnection> l = availableConnections.get(key);
-			if (l != null) {
-				int i = l.size() - 1;
-				while(i >= 0) {
-					OldConnection c = l.get(i);
-					if (c.deathTime > now) {
-						l.remove(i);
-						return c.connection;
-					}
-					Collections.swap(l, 0, i);
-					i--;
-				}
+		long deadline = System.currentTimeMillis() + poolWaitTimeout;
+		Pool pool;
+		boolean waited = false;
+		while (true) {
+			pool = pools.computeIfAbsent(key, Pool::new);
+			Connection idle = pool.pollIdle(System.currentTimeMillis());
+			if (idle != null)
+				return idle;
+			if (pool.tryReserve(maxConnectionsPerHost)) {
+				if (pools.get(key) == pool)
+					break;
+				// the pool has been removed by the closer in the meantime
+				pool.unreserve();
+				continue;
+			}
+			if (!waited) {
+				pool.waits.increment();
+				waited = true;
+			}
+			try {
+				if (!pool.await(deadline, maxConnectionsPerHost))
+					throw new ConnectionPoolExhaustedException("All " + maxConnectionsPerHost + " connections to " + key +
+							" are in use. Waited " + poolWaitTimeout + " ms.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a connection to " + key, e);
 			}
 		}
 
-		Connection result = Connection.open(host, port, localHost, sslProvider, this, connectTimeout,
-				sniServerName, proxy, proxySSLContext, applicationProtocols);
+		Connection result;
+		try {
+			result = Connection.open(host, port, localHost, sslProvider, this, connectTimeout,
+					sniServerName, proxy, proxySSLContext, applicationProtocols);
+		} catch (IOException | RuntimeException e) {
+			pool.unreserve();
+			throw e;
+		}
+		result.pool = pool;
+		pool.created.increment();
 		numberInPool.incrementAndGet();
 		return result;
 	}
@@ -163,62 +311,65 @@ public class ConnectionManager {
 
 		if (connection.isClosed()) {
 			numberInPool.decrementAndGet();
+			Pool owner = connection.pool;
+			if (owner != null) {
+				connection.pool = null;
+				owner.unreserve();
+			}
 			return;
 		}
 
-		ConnectionKey key = new ConnectionKey(connection.getHost(), connection.socket.getPort(),
+		if (connection.releaseKey == null)
+			connection.releaseKey = new ConnectionKey(connection.getHost(), connection.socket.getPort(),
 				connection.getSslProvider(), connection.getSniServerName(), connection.getProxyConfiguration(),
 				connection.getProxySSLProvider(), connection.getApplicationProtocols());
-		OldConnection o = new OldConnection(connection, keepAliveTimeout);
-		ArrayList<OldConnection> l;
-		synchronized(this) {
-			l = availableConnections.computeIfAbsent(key, k -> new ArrayList<>());
-			l.add(o);
+		Pool pool = pools.computeIfAbsent(connection.releaseKey, Pool::new);
+		if (maxIdleConnectionsPerHost >= 0 && pool.idleCount.get() >= maxIdleConnectionsPerHost) {
+			closeQuietly(connection);
+			return;
+		}
+		connection.deathTime = getDeathTime(connection, keepAliveTimeout);
+		pool.idle.addLast(connection);
+		pool.idleCount.incrementAndGet();
+		if (pools.get(connection.releaseKey) != pool && pool.idle.removeLastOccurrence(connection)) {
+			// the pool has been removed by the closer in the meantime
+			pool.idleCount.decrementAndGet();
+			closeQuietly(connection);
+			return;
 		}
+		pool.signal();
 	}
 
 	private int closeOldConnections() {
-		ArrayList<ConnectionKey> toRemove = new ArrayList<>();
-		ArrayList<Connection> toClose = new ArrayList<>();
 		long now = System.currentTimeMillis();
 		log.trace("closing old connections");
-		int closed = 0, remaining;
-		synchronized(this) {
-			// close connections after their timeout
-			for (Map.Entry<ConnectionKey, ArrayList<OldConnection>> e : availableConnections.entrySet()) {
-				ArrayList<OldConnection> l = e.getValue();
-				for (int i = 0; i < l.size(); i++) {
-					OldConnection o = l.get(i);
-					if (o.deathTime < now) {
-						// replace [i] by [last]
-						if (i == l.size() - 1)
-							l.remove(i);
-						else
-							l.set(i, l.remove(l.size() - 1));
-						--i;
-						closed++;
-						toClose.add(o.connection);
-					}
+		int closed = 0, remaining = 0;
+		for (Pool pool : pools.values()) {
+			for (Connection c : pool.idle) {
+				if (c.deathTime < now && pool.idle.removeFirstOccurrence(c)) {
+					pool.idleCount.decrementAndGet();
+					closed++;
+					closeQuietly(c);
 				}
-				if (l.isEmpty())
-					toRemove.add(e.getKey());
-			}
-			for (ConnectionKey remove : toRemove)
-				availableConnections.remove(remove);
-			remaining = availableConnections.size();
-		}
-		for (Connection c : toClose) {
-			try {
-				c.close();
-			} catch (Exception e) {
-				// do nothing
 			}
+			if (pool.isUnused())
+				pools.remove(pool.key, pool);
+			else if (!pool.idle.isEmpty())
+				remaining++;
 		}
 		if (closed != 0)
 			log.debug("closed " + closed + " connections");
 		return remaining;
 	}
 
+	private static void closeQuietly(Connection c) {
+		try {
+			c.close();
+		} catch (Exception e) {
+			// do nothing
+		}
+	}
+
 	public void shutdownWhenDone() {
 		shutdownWhenDone = true;
 	}
@@ -227,14 +378,21 @@ public class ConnectionManager {
 		return numberInPool.get();
 	}
 
+	public List<PoolStatistics> getPoolStatistics() {
+		List<PoolStatistics> result = new ArrayList<>();
+		for (Pool pool : pools.values()) {
+			int idle = pool.idleCount.get();
+			result.add(new PoolStatistics(pool.key, idle, Math.max(0, pool.total.get() - idle), pool.waits.sum(), pool.created.sum()));
+		}
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("Number in pool: " + numberInPool.get() + "\n");
-		synchronized(this) {
-			for (Map.Entry<ConnectionKey, ArrayList<OldConnection>> e : availableConnections.entrySet()) {
-				sb.append("To " + e.getKey() + ": " + e.getValue().size() + "\n");
-			}
+		for (Pool pool : pools.values()) {
+			sb.append("To " + pool.key + ": " + pool.idleCount.get() + "\n");
 		}
 		return sb.toString();
 	}
@@ -110,7 +110,7 @@ public class HttpClient implements AutoCloseable {
 		connectTimeout = configuration.getConnection().getTimeout();
 		localAddr = configuration.getConnection().getLocalAddr();
 
-		conMgr = new ConnectionManager(configuration.getConnection().getKeepAliveTimeout(), timerManager);
+		conMgr = new ConnectionManager(configuration.getConnection(), timerManager);
 
 		useHttp2 = configuration.isUseExperimentalHttp2();
 		if (useHttp2)
@@ -313,6 +313,9 @@ public class HttpClient implements AutoCloseable {
 				log.debug("Server connection to " + dest + " terminated before line was read. Line so far: " + e.getLineSoFar());
 			} catch (NoResponseException e) {
 				exception = e;
+			} catch (ConnectionPoolExhaustedException e) {
+				exception = e;
+				log.warn(e.getMessage());
 			} catch (Exception e) {
 				exception = e;
 				logException(exc, counter, e);
@@ -19,6 +19,8 @@ import com.predic8.membrane.core.util.TimerManager;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.Null;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.WeakHashMap;
 
@@ -50,6 +52,27 @@ public class HttpClientFactory {
         return hc;
     }
 
+    /**
+     * @return the connection pools of all clients created by this factory
+     */
+    public synchronized List<ConnectionManager> getConnectionManagers() {
+        List<ConnectionManager> result = new ArrayList<>();
+        if (clients != null)
+            for (HttpClient hc : clients.values())
+                result.add(hc.getConnectionManager());
+        return result;
+    }
+
+    /**
+     * @return the statistics of all connection pools of all clients created by this factory
+     */
+    public List<ConnectionManager.PoolStatistics> getPoolStatistics() {
+        List<ConnectionManager.PoolStatistics> result = new ArrayList<>();
+        for (ConnectionManager cm : getConnectionManagers())
+            result.addAll(cm.getPoolStatistics());
+        return result;
+    }
+
     private static class Config {
         final HttpClientConfiguration httpClientConfiguration;
         final TimerManager timerManager;
@@ -73,6 +73,8 @@ public class HttpServerHandler extends AbstractHttpHandler implements Runnable {
 		SSLProvider sslProvider = endpointListener.getSslProvider();
 		if (sslProvider != null) {
 			showSSLExceptions = sslProvider.showSSLExceptions();
+			// the TLS handshake happens while wrapping the socket
+			sourceSocket.setSoTimeout(endpointListener.getTransport().getSocketTimeout());
 			sourceSocket = sslProvider.wrapAcceptedSocket(sourceSocket);
 		}else{
 			// if there is no SSLProvider then there shouldn't be any ssl exceptions showing here
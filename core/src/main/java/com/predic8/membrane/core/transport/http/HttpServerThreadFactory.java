@@ -20,19 +20,30 @@ public class HttpServerThreadFactory implements ThreadFactory {
 	public static final String DEFAULT_THREAD_NAME = "RouterThread";
 
 	public final String defaultThreadName;
+	private final boolean daemon;
 
 	public HttpServerThreadFactory() {
-		defaultThreadName = DEFAULT_THREAD_NAME;
+		this(DEFAULT_THREAD_NAME);
 	}
 
 	public HttpServerThreadFactory(String threadName) {
+		this(threadName, false);
+	}
+
+	/**
+	 * @param daemon whether the threads should not keep the JVM alive, e.g. for background work of interceptors
+	 */
+	public HttpServerThreadFactory(String threadName, boolean daemon) {
 		defaultThreadName = threadName;
+		this.daemon = daemon;
 	}
 
 	@Override
 	public Thread newThread(Runnable r) {
 		Thread th = new Thread(r);
 		th.setName(defaultThreadName);
+		if (daemon)
+			th.setDaemon(true);
 		return th;
 	}
 
@@ -46,6 +46,17 @@ public class HttpTransport extends Transport {
 
 	private static final Logger log = LoggerFactory.getLogger(HttpTransport.class.getName());
 
+	public enum Mode {
+		/**
+		 * One pooled platform thread per connection.
+		 */
+		PLATFORM,
+		/**
+		 * One virtual thread per connection. Requires Java 21 or later.
+		 */
+		VIRTUAL
+	}
+
 	private int socketTimeout = 30000;
 	private int forceSocketCloseOnHotDeployAfter = 30000;
 	private boolean tcpNoDelay = true;
@@ -54,13 +65,30 @@ public class HttpTransport extends Transport {
 	private final Map<Integer, Map<IpPort, HttpEndpointListener>> portListenerMapping = new HashMap<>();
 	private final List<WeakReference<HttpEndpointListener>> stillRunning = new ArrayList<>();
 
-	private final ThreadPoolExecutor executorService = new ThreadPoolExecutor(20,
+	private Mode mode = Mode.PLATFORM;
+
+	private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(20,
 			MAX_VALUE, 60L, SECONDS,
 			new SynchronousQueue<>(), new HttpServerThreadFactory());
 
+	private ExecutorService executorService = threadPool;
+
 	@Override
 	public void init(Router router) throws Exception {
 		super.init(router);
+		if (mode == Mode.VIRTUAL)
+			initVirtualThreads();
+	}
+
+	private void initVirtualThreads() {
+		ExecutorService virtualThreads = Util.createVirtualThreadPerTaskExecutor();
+		if (virtualThreads == null) {
+			log.warn("<transport mode=\"virtual\"> requires Java 21 or later. Falling back to platform threads.");
+			return;
+		}
+		log.info("Using virtual threads to handle incoming connections.");
+		executorService = virtualThreads;
+		threadPool.shutdown();
 	}
 
 	/**
@@ -198,8 +226,27 @@ public class HttpTransport extends Transport {
 		return sb.replace(sb.length() - 2, sb.length(), "]").toString();
 	}
 
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @description <p>How threads are allocated to incoming client connections. With <i>platform</i>, each connection
+	 *              is handled by a thread of a pool (see coreThreadPoolSize and maxThreadPoolSize). With <i>virtual</i>,
+	 *              each connection is handled by its own virtual thread, so that idle keep-alive connections do not
+	 *              occupy platform threads. The thread pool settings are ignored in this mode.</p>
+	 *              <p><i>virtual</i> requires Java 21 or later. On older JVMs, Membrane logs a warning and falls back
+	 *              to <i>platform</i>.</p>
+	 * @default platform
+	 * @example virtual
+	 */
+	@MCAttribute
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
 	public int getCoreThreadPoolSize() {
-		return executorService.getCorePoolSize();
+		return threadPool.getCorePoolSize();
 	}
 
 	/**
@@ -209,11 +256,11 @@ public class HttpTransport extends Transport {
 	 */
 	@MCAttribute
 	public void setCoreThreadPoolSize(int corePoolSize) {
-		executorService.setCorePoolSize(corePoolSize);
+		threadPool.setCorePoolSize(corePoolSize);
 	}
 
 	public int getMaxThreadPoolSize() {
-		return executorService.getMaximumPoolSize();
+		return threadPool.getMaximumPoolSize();
 	}
 
 	/**
@@ -223,7 +270,7 @@ public class HttpTransport extends Transport {
 	 */
 	@MCAttribute
 	public void setMaxThreadPoolSize(int value) {
-		executorService.setMaximumPoolSize(value);
+		threadPool.setMaximumPoolSize(value);
 	}
 
 	public ExecutorService getExecutorService() {
@@ -66,6 +66,11 @@ public class WebSocketStreamPump extends StreamPump {
     public void run() {
         if (otherStreamPump == null)
             throw new RuntimeException("Call init with other WebSocketStreamPump (backward direction)");
+        if (chain.isEmpty()) {
+            // No interceptor looks at the frames, so they are relayed as raw bytes without being parsed.
+            super.run();
+            return;
+        }
         try {
             frameAssembler.readFrames(frame -> {
                 try {
@@ -96,13 +101,6 @@ public class WebSocketStreamPump extends StreamPump {
     }
 
     private void passFrameToChainElement(int i, boolean frameTravelsToRight, WebSocketFrame frame) throws Exception {
-        if (chain.isEmpty()) {
-            if (true)
-                synchronized (out) {
-                    frame.write(out);
-                }
-            return;
-        }
         if (i == -1) {
             OutputStream target = pumpsToRight ? otherStreamPump.out : out;
             synchronized (target) {
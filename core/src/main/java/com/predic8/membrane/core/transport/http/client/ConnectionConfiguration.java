@@ -24,6 +24,9 @@ public class ConnectionConfiguration {
 	private long keepAliveTimeout = 4000;
 	private int connectTimeout = 10000;
 	private String localAddr;
+	private int maxConnectionsPerHost = -1;
+	private int maxIdleConnectionsPerHost = -1;
+	private long poolWaitTimeout = 10000;
 
 	@Override
 	public boolean equals(Object o) {
@@ -32,12 +35,15 @@ public class ConnectionConfiguration {
 		ConnectionConfiguration that = (ConnectionConfiguration) o;
 		return keepAliveTimeout == that.keepAliveTimeout
 				&& connectTimeout == that.connectTimeout
-				&& Objects.equals(localAddr, that.localAddr);
+				&& Objects.equals(localAddr, that.localAddr)
+				&& maxConnectionsPerHost == that.maxConnectionsPerHost
+				&& maxIdleConnectionsPerHost == that.maxIdleConnectionsPerHost
+				&& poolWaitTimeout == that.poolWaitTimeout;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(keepAliveTimeout, connectTimeout, localAddr);
+		return Objects.hash(keepAliveTimeout, connectTimeout, localAddr, maxConnectionsPerHost, maxIdleConnectionsPerHost, poolWaitTimeout);
 	}
 
 	public long getKeepAliveTimeout() {
@@ -80,4 +86,47 @@ public class ConnectionConfiguration {
 	public void setLocalAddr(String localAddr) {
 		this.localAddr = localAddr;
 	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * @description Maximum number of open connections (in use or idle) to one host and port. If all connections are in
+	 * use, a request waits for one to become available. -1 means unlimited.
+	 * @default -1
+	 * @example 100
+	 */
+	@MCAttribute
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public int getMaxIdleConnectionsPerHost() {
+		return maxIdleConnectionsPerHost;
+	}
+
+	/**
+	 * @description Maximum number of idle connections kept open to one host and port for reuse. Connections released
+	 * beyond this number are closed. -1 means unlimited.
+	 * @default -1
+	 * @example 20
+	 */
+	@MCAttribute
+	public void setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+		this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+	}
+
+	public long getPoolWaitTimeout() {
+		return poolWaitTimeout;
+	}
+
+	/**
+	 * @description Time in milliseconds to wait for a connection, if maxConnectionsPerHost connections are in use.
+	 * @default 10000
+	 */
+	@MCAttribute
+	public void setPoolWaitTimeout(long poolWaitTimeout) {
+		this.poolWaitTimeout = poolWaitTimeout;
+	}
 }
@@ -0,0 +1,126 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http2;
+
+import com.predic8.membrane.core.transport.http2.frame.Frame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Decides which stream may send the next DATA frame.
+ * <p>
+ * Streams with a lower RFC 9218 urgency are served first. Streams of the same urgency share the connection according
+ * to their weight (RFC 9113 section 5.3): every stream has a virtual time, which advances by
+ * <code>length * 256 / weight</code> for every frame sent, and the stream with the lowest virtual time goes next. A
+ * stream does not send while one of its ancestors in the {@link PriorityTree} has DATA frames waiting.
+ * <p>
+ * {@link #ready(StreamInfo)} may be called from any thread, all other methods only from the sender thread.
+ */
+class DataFrameScheduler {
+
+    private static final int DEFAULT_WEIGHT = 16;
+    private static final int MAX_DEPTH = 256;
+
+    private final ConcurrentLinkedQueue<StreamInfo> signaled = new ConcurrentLinkedQueue<>();
+    private final List<StreamInfo> active = new ArrayList<>();
+    private long virtualTime;
+
+    /**
+     * Called after a DATA frame was added to {@link StreamInfo#getDataFramesToBeSent()}.
+     */
+    void ready(StreamInfo streamInfo) {
+        signaled.add(streamInfo);
+    }
+
+    /**
+     * @return the next DATA frame to send, or null, if no stream has one
+     */
+    Frame next() {
+        StreamInfo s;
+        while ((s = signaled.poll()) != null) {
+            if (s.scheduled)
+                continue;
+            s.scheduled = true;
+            s.virtualTime = Math.max(s.virtualTime, virtualTime);
+            active.add(s);
+        }
+
+        while (!active.isEmpty()) {
+            int best = pick();
+            StreamInfo stream = active.get(best);
+            Frame frame = stream.getDataFramesToBeSent().poll();
+            if (frame == null) {
+                // all frames were sent, a later ready() call will add the stream again
+                stream.scheduled = false;
+                removeAt(best);
+                continue;
+            }
+            stream.getBufferedDataFrames().release();
+            virtualTime = stream.virtualTime;
+            stream.virtualTime += ((long) frame.getLength() * 256 + 255) / weight(stream);
+            if (frame.getLength() == 0)
+                stream.virtualTime++;
+            return frame;
+        }
+        return null;
+    }
+
+    private int pick() {
+        int best = -1;
+        boolean bestBlocked = true;
+        for (int i = 0; i < active.size(); i++) {
+            StreamInfo s = active.get(i);
+            boolean blocked = hasWaitingAncestor(s);
+            if (best == -1 || (bestBlocked && !blocked) || (bestBlocked == blocked && isBefore(s, active.get(best)))) {
+                best = i;
+                bestBlocked = blocked;
+            }
+        }
+        // if every active stream waits for an ancestor, the best one is sent anyway
+        return best;
+    }
+
+    private static boolean isBefore(StreamInfo a, StreamInfo b) {
+        if (a.getUrgency() != b.getUrgency())
+            return a.getUrgency() < b.getUrgency();
+        return a.virtualTime < b.virtualTime;
+    }
+
+    private static boolean hasWaitingAncestor(StreamInfo s) {
+        StreamInfo p = s.getPriorityParent();
+        for (int depth = 0; p != null && p.getStreamId() != 0 && depth < MAX_DEPTH; depth++) {
+            if (!p.getDataFramesToBeSent().isEmpty())
+                return true;
+            p = p.getPriorityParent();
+        }
+        return false;
+    }
+
+    private static int weight(StreamInfo s) {
+        int weight = s.getWeight();
+        return weight <= 0 ? DEFAULT_WEIGHT : weight;
+    }
+
+    private void removeAt(int index) {
+        int last = active.size() - 1;
+        active.set(index, active.get(last));
+        active.remove(last);
+    }
+
+    int getActiveStreams() {
+        return active.size();
+    }
+}
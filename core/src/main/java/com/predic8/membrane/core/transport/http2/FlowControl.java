@@ -14,66 +14,83 @@
 
 package com.predic8.membrane.core.transport.http2;
 
-import com.predic8.membrane.core.transport.http2.frame.WindowUpdateFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.concurrent.GuardedBy;
-import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Our receive window of one stream (or of the connection, if the streamId is 0).
+ * <p>
+ * Window increments are not sent right away: they are accumulated and the {@link FrameSender} sends one
+ * WINDOW_UPDATE frame covering all increments which happened since the last one.
+ */
 public class FlowControl {
     private static final Logger log = LoggerFactory.getLogger(FlowControl.class);
 
     private final int streamId;
     private final FrameSender sender;
-    @GuardedBy("this")
-    public long ourWindowSize;
-    @GuardedBy("this")
-    public long ourWindowPositionReceived;
-    @GuardedBy("this")
-    public long ourWindowPositionProcessed;
-    @GuardedBy("this")
-    public int ourWindowSizeStep;
-
+    private final int ourWindowSizeStep;
+    private final AtomicLong ourWindowSize = new AtomicLong();
+    private final AtomicLong ourWindowPositionReceived = new AtomicLong();
+    private final AtomicLong ourWindowPositionProcessed = new AtomicLong();
+    private final AtomicInteger pendingWindowIncrement = new AtomicInteger();
 
     public FlowControl(int streamId, FrameSender sender, Settings ourSettings) {
         this.streamId = streamId;
         this.sender = sender;
-        ourWindowSize = ourSettings.getInitialWindowSize();
+        ourWindowSize.set(ourSettings.getInitialWindowSize());
         ourWindowSizeStep = ourSettings.getInitialWindowSize();
     }
 
     /**
      * called on the receiver thread.
      */
-    public synchronized void received(int length) {
-        ourWindowPositionReceived += length;
+    public void received(int length) {
+        long received = ourWindowPositionReceived.addAndGet(length);
 
         if (log.isDebugEnabled())
-            log.debug("stream=" + streamId + " size=" + ourWindowSize + " pos=" + ourWindowPositionReceived + " diff=" + (ourWindowSize - ourWindowPositionReceived));
+            log.debug("stream=" + streamId + " size=" + ourWindowSize.get() + " pos=" + received + " diff=" + (ourWindowSize.get() - received));
     }
 
     /**
      * called on the receiver thread or on the processing thread.
      */
-    public void processed(int length) throws IOException {
+    public void processed(int length) {
+        long processed = ourWindowPositionProcessed.addAndGet(length);
         int windowIncrease = 0;
-        synchronized (this) {
-            ourWindowPositionProcessed += length;
-            if (ourWindowSize - ourWindowPositionProcessed < (ourWindowSizeStep >> 1))
-                windowIncrease = increaseWindow();
-
-            if (log.isDebugEnabled())
-                log.debug("stream=" + streamId + " size=" + ourWindowSize + " pos=" + ourWindowPositionReceived + " diff=" + (ourWindowSize - ourWindowPositionReceived));
+        while (true) {
+            long size = ourWindowSize.get();
+            if (size - processed >= (ourWindowSizeStep >> 1))
+                break;
+            if (ourWindowSize.compareAndSet(size, size + ourWindowSizeStep))
+                windowIncrease += ourWindowSizeStep;
         }
 
-        if (windowIncrease != 0)
-            sender.send(WindowUpdateFrame.inc(streamId, windowIncrease));
+        if (log.isDebugEnabled())
+            log.debug("stream=" + streamId + " size=" + ourWindowSize.get() + " processed=" + processed);
+
+        // only the first increment since the last WINDOW_UPDATE registers with the sender
+        if (windowIncrease != 0 && pendingWindowIncrement.getAndAdd(windowIncrease) == 0)
+            sender.sendWindowUpdate(this);
+    }
+
+    /**
+     * Called by the {@link FrameSender}.
+     *
+     * @return the sum of the window increments since the last call
+     */
+    int takePendingWindowIncrement() {
+        return pendingWindowIncrement.getAndSet(0);
+    }
+
+    public int getStreamId() {
+        return streamId;
     }
 
-    private int increaseWindow() throws IOException {
-        ourWindowSize += ourWindowSizeStep;
-        return ourWindowSizeStep;
+    public long getWindowSize() {
+        return ourWindowSize.get();
     }
 
 }
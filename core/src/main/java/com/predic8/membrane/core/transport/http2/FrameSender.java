@@ -17,25 +17,34 @@ package com.predic8.membrane.core.transport.http2;
 import com.predic8.membrane.core.transport.http.HttpServerThreadFactory;
 import com.predic8.membrane.core.transport.http2.frame.Frame;
 import com.predic8.membrane.core.transport.http2.frame.HeadersFrame;
+import com.predic8.membrane.core.transport.http2.frame.WindowUpdateFrame;
 import com.twitter.hpack.Encoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.predic8.membrane.core.transport.http2.StreamState.CLOSED;
+import static com.predic8.membrane.core.transport.http2.StreamState.HALF_CLOSED_REMOTE;
 
 /**
  * The FrameSender instance synchronized access to the OutputStream as well as the Encoder.
+ * <p>
+ * All frames are written by one thread. Control frames are sent first, then coalesced WINDOW_UPDATE frames, then
+ * DATA frames in the order decided by the {@link DataFrameScheduler}. Frames are collected in a buffer, which is only
+ * flushed once there is nothing more to send.
  */
 public class FrameSender implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(FrameSender.class.getName());
     private static final int TYPE_STOP = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final OutputStream out;
     private final Encoder encoder;
@@ -43,12 +52,13 @@ public class FrameSender implements Runnable {
     private final Map<Integer, StreamInfo> streams;
     private final String remoteAddr;
     private final LinkedTransferQueue<Frame> queue = new LinkedTransferQueue<>();
-    private final AtomicInteger totalBufferedFrames = new AtomicInteger(0);
-    private final ReentrantLock lock = new ReentrantLock();
-    private final Condition hasFrame = lock.newCondition();
+    private final ConcurrentLinkedQueue<FlowControl> windowUpdates = new ConcurrentLinkedQueue<>();
+    private final DataFrameScheduler scheduler = new DataFrameScheduler();
+    private final Http2ConnectionMetrics metrics = new Http2ConnectionMetrics();
+    private volatile Thread thread;
 
     public FrameSender(OutputStream out, Encoder encoder, Settings peerSettings, Map<Integer, StreamInfo> streams, String remoteAddr) {
-        this.out = out;
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
         this.encoder = encoder;
         this.peerSettings = peerSettings;
         this.streams = streams;
@@ -56,6 +66,7 @@ public class FrameSender implements Runnable {
     }
 
     public void send(Frame frame) {
+        frame.setQueuedAt(System.nanoTime());
         if (frame.getType() == Frame.TYPE_DATA) {
             StreamInfo streamInfo = streams.get(frame.getStreamId());
             try {
@@ -64,71 +75,88 @@ public class FrameSender implements Runnable {
                 Thread.currentThread().interrupt();
             }
             streamInfo.getDataFramesToBeSent().add(frame);
+            scheduler.ready(streamInfo);
         } else {
             queue.put(frame);
         }
-        totalBufferedFrames.incrementAndGet();
         fire();
     }
 
+    /**
+     * The HPACK encoder is stateful, so header blocks have to be queued in the order they were encoded.
+     */
     public void send(int streamId, FrameProducer frameProducer) throws IOException {
-        long now = System.nanoTime();
         synchronized (this) {
-            long enter = System.nanoTime();
-            if (enter - now > 10 * 1000 * 1000)
-                log.warn("Took " + ((enter - now) / 1000000) + "ms to acquire lock (streamId=" + streamId + ").");
-
             for (Frame frame : frameProducer.call(encoder, peerSettings)) {
                 send(frame);
             }
         }
     }
 
+    /**
+     * Requests a WINDOW_UPDATE frame for the pending increment of the flow control window. Several requests are
+     * combined into one frame, if the sender is busy.
+     */
+    void sendWindowUpdate(FlowControl flowControl) {
+        windowUpdates.add(flowControl);
+        fire();
+    }
+
     private Frame getNextFrame() {
         Frame frame = queue.poll();
-        if (frame != null) {
-            totalBufferedFrames.decrementAndGet();
+        if (frame != null)
             return frame;
-        }
-        // TODO: implement prioritization logic
-        for (StreamInfo streamInfo : streams.values()) {
-            frame = streamInfo.getDataFramesToBeSent().poll();
-            if (frame != null) {
-                streamInfo.getBufferedDataFrames().release();
-                totalBufferedFrames.decrementAndGet();
-                return frame;
+        frame = getNextWindowUpdate();
+        if (frame != null)
+            return frame;
+        return scheduler.next();
+    }
+
+    private Frame getNextWindowUpdate() {
+        FlowControl flowControl;
+        while ((flowControl = windowUpdates.poll()) != null) {
+            int increment = flowControl.takePendingWindowIncrement();
+            if (increment == 0)
+                continue;
+            int streamId = flowControl.getStreamId();
+            if (streamId != 0) {
+                // the peer will not send any more DATA on this stream
+                StreamInfo streamInfo = streams.get(streamId);
+                if (streamInfo == null)
+                    continue;
+                StreamState state = streamInfo.getState();
+                if (state == HALF_CLOSED_REMOTE || state == CLOSED)
+                    continue;
             }
+            return WindowUpdateFrame.inc(streamId, increment);
         }
         return null;
     }
 
-    private Frame waitForNextFrame() throws InterruptedException {
-        lock.lock();
-        try {
-            hasFrame.await(1000, TimeUnit.MILLISECONDS);
-        } finally {
-            lock.unlock();
-        }
-        Frame frame = getNextFrame();
-        return frame;
+    private Frame waitForNextFrame() {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1000));
+        return getNextFrame();
     }
 
     @Override
     public void run() {
+        thread = Thread.currentThread();
         try {
             updateThreadName(true);
             while (true) {
                 Frame frame = getNextFrame();
                 if (frame == null) {
-                    out.flush();
+                    flush();
                     log.debug("found no frame to send, starting wait loop.");
                     while (frame == null)
                         frame = waitForNextFrame();
                     log.debug("found another frame to send.");
                 }
 
-                if (frame.getType() == TYPE_STOP)
+                if (frame.getType() == TYPE_STOP) {
+                    flush();
                     break;
+                }
 
                 if (frame.getType() == Frame.TYPE_RST_STREAM)
                     streams.get(frame.getStreamId()).sendRstStream();
@@ -147,15 +175,22 @@ public class FrameSender implements Runnable {
                     log.debug("sending: " + frame.getTypeString() + " length=" + frame.getLength());
 
                 frame.write(out);
+                metrics.sent(frame);
             }
         } catch (Throwable e) {
             e.printStackTrace();
         } finally {
+            thread = null;
             updateThreadName(false);
         }
         log.debug("frame sender shutdown");
     }
 
+    private void flush() throws IOException {
+        out.flush();
+        metrics.flushed();
+    }
+
     public void stop() {
         Frame e = new Frame();
         e.fill(TYPE_STOP, 0, 0, null, 0, 0);
@@ -163,6 +198,10 @@ public class FrameSender implements Runnable {
         fire();
     }
 
+    public Http2ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
     private void updateThreadName(boolean fromConnection) {
         if (fromConnection) {
             String sb = "HTTP2 Frame Sender " +
@@ -174,12 +213,9 @@ public class FrameSender implements Runnable {
     }
 
     private void fire() {
-        lock.lock();
-        try {
-            hasFrame.signal();
-        } finally {
-            lock.unlock();
-        }
+        Thread t = thread;
+        if (t != null)
+            LockSupport.unpark(t);
     }
 
 }
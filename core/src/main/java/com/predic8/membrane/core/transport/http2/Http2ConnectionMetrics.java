@@ -0,0 +1,116 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http2;
+
+import com.predic8.membrane.core.stats.LatencyHistogram;
+import com.predic8.membrane.core.transport.http2.frame.Frame;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Frame and latency counters of one HTTP/2 connection.
+ * <p>
+ * Latencies are recorded in microseconds.
+ */
+public class Http2ConnectionMetrics {
+
+    private static final int FRAME_TYPES = Frame.TYPE_CONTINUATION + 1;
+
+    private final AtomicLongArray framesSent = new AtomicLongArray(FRAME_TYPES);
+    private final AtomicLongArray framesReceived = new AtomicLongArray(FRAME_TYPES);
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flowControlStalls = new LongAdder();
+    private final LatencyHistogram dataFrameQueueTime = new LatencyHistogram();
+    private final LatencyHistogram flowControlStallTime = new LatencyHistogram();
+
+    void sent(Frame frame) {
+        count(framesSent, frame.getType());
+        bytesSent.add(9 + frame.getLength());
+        if (frame.getType() == Frame.TYPE_DATA && frame.getQueuedAt() != 0)
+            dataFrameQueueTime.record((System.nanoTime() - frame.getQueuedAt()) / 1000);
+    }
+
+    void received(Frame frame) {
+        count(framesReceived, frame.getType());
+        bytesReceived.add(9 + frame.getLength());
+    }
+
+    void flushed() {
+        flushes.increment();
+    }
+
+    void stalled(long nanos) {
+        flowControlStalls.increment();
+        flowControlStallTime.record(nanos / 1000);
+    }
+
+    private static void count(AtomicLongArray counters, int type) {
+        if (type >= 0 && type < FRAME_TYPES)
+            counters.incrementAndGet(type);
+    }
+
+    /**
+     * @param type one of the <code>Frame.TYPE_*</code> constants
+     */
+    public long getFramesSent(int type) {
+        return framesSent.get(type);
+    }
+
+    /**
+     * @param type one of the <code>Frame.TYPE_*</code> constants
+     */
+    public long getFramesReceived(int type) {
+        return framesReceived.get(type);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return number of times the output stream was flushed. Together with {@link #getFramesSent(int)} this tells
+     * how many frames were written per flush.
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * @return number of times a DATA frame could not be sent, because the peer's flow control window was exhausted
+     */
+    public long getFlowControlStalls() {
+        return flowControlStalls.sum();
+    }
+
+    /**
+     * @return time between handing a DATA frame to the {@link FrameSender} and writing it to the connection
+     */
+    public LatencyHistogram getDataFrameQueueTime() {
+        return dataFrameQueueTime;
+    }
+
+    /**
+     * @return time a stream waited for the peer to open its flow control window
+     */
+    public LatencyHistogram getFlowControlStallTime() {
+        return flowControlStallTime;
+    }
+}
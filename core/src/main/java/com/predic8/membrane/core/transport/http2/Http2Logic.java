@@ -85,6 +85,10 @@ public class Http2Logic {
         senderFuture = executor.submit(sender);
     }
 
+    public Http2ConnectionMetrics getMetrics() {
+        return sender.getMetrics();
+    }
+
     public static String getRemoteAddr(Socket sourceSocket) {
         StringBuilder sb = new StringBuilder();
         InetAddress ia = sourceSocket.getInetAddress();
@@ -100,6 +104,7 @@ public class Http2Logic {
             while (receiving) {
                 Frame frame = new Frame(ourSettings);
                 frame.read(srcIn);
+                sender.getMetrics().received(frame);
                 handleFrame(frame);
             }
         } catch(EOFException eof) {
@@ -277,6 +282,7 @@ public class Http2Logic {
         while (!last.isEndHeaders()) {
             Frame frame = new Frame(ourSettings);
             frame.read(srcIn);
+            sender.getMetrics().received(frame);
 
             if (frame.getType() != TYPE_CONTINUATION)
                 throw new FatalConnectionException(ERROR_PROTOCOL_ERROR);
@@ -345,6 +351,8 @@ public class Http2Logic {
         if (isTrailer) {
             request.getBody().setTrailer(header);
         } else {
+            streamInfo.setUrgency(StreamInfo.parseUrgency(header.getFirstValue("priority")));
+
             if (!headers.isEndStream())
                 request.setBody(streamInfo.createBody());
 
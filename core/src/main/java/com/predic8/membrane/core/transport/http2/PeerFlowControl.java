@@ -23,6 +23,7 @@ public class PeerFlowControl {
     private static final Logger log = LoggerFactory.getLogger(PeerFlowControl.class);
 
     private final int streamId;
+    private final Http2ConnectionMetrics metrics;
 
     @GuardedBy("this")
     public long peerWindowSize;
@@ -31,6 +32,7 @@ public class PeerFlowControl {
 
     public PeerFlowControl(int streamId, FrameSender sender, Settings peerSettings) {
         this.streamId = streamId;
+        this.metrics = sender != null ? sender.getMetrics() : null;
         peerWindowSize = peerSettings.getInitialWindowSize();
     }
 
@@ -52,11 +54,11 @@ public class PeerFlowControl {
     }
 
     public synchronized void reserve(int wantLength, int streamId) {
-        boolean warned = false;
+        long blockedSince = 0;
         while(!canUse(wantLength)) {
-            if (!warned) {
-                log.warn("stream " + streamId + " blocked because of flow control on stream " + this.streamId + ".");
-                warned = true;
+            if (blockedSince == 0) {
+                log.debug("stream " + streamId + " blocked because of flow control on stream " + this.streamId + ".");
+                blockedSince = System.nanoTime();
             }
             try {
                 wait();
@@ -64,6 +66,8 @@ public class PeerFlowControl {
                 Thread.currentThread().interrupt();
             }
         }
+        if (blockedSince != 0 && metrics != null)
+            metrics.stalled(System.nanoTime() - blockedSince);
 
         used(wantLength);
     }
@@ -35,6 +35,11 @@ import static com.predic8.membrane.core.transport.http2.frame.HeadersFrame.FLAG_
 public class StreamInfo {
     private static final Logger log = LoggerFactory.getLogger(StreamInfo.class);
 
+    /**
+     * See RFC 9218 section 4.1.
+     */
+    public static final int DEFAULT_URGENCY = 3;
+
     private final FlowControl flowControl;
     private final PeerFlowControl peerFlowControl;
     private final LinkedTransferQueue<DataFrame> dataFramesReceived = new LinkedTransferQueue<>();
@@ -42,12 +47,17 @@ public class StreamInfo {
     private final List<StreamInfo> priorityChildren = new ArrayList<>();
     private final LinkedTransferQueue<Frame> dataFramesToBeSent = new LinkedTransferQueue<>();
     private final Semaphore bufferedDataFrames = new Semaphore(4);
-    private StreamInfo priorityParent = null;
+    private volatile StreamInfo priorityParent = null;
     private StreamState state = StreamState.IDLE;
-    private int weight;
+    private volatile int weight;
+    private volatile int urgency = DEFAULT_URGENCY;
     private Message message;
     private boolean isTrailer;
 
+    // only used by the DataFrameScheduler on the sender thread
+    boolean scheduled;
+    long virtualTime;
+
     public StreamInfo(int streamId, FrameSender sender, Settings peerSettings, Settings ourSettings) {
         this.streamId = streamId;
         if (streamId == 0) {
@@ -297,6 +307,36 @@ public class StreamInfo {
         this.weight = weight;
     }
 
+    /**
+     * @return the RFC 9218 urgency from 0 (highest) to 7 (lowest)
+     */
+    public int getUrgency() {
+        return urgency;
+    }
+
+    public void setUrgency(int urgency) {
+        this.urgency = urgency;
+    }
+
+    /**
+     * Parses the urgency from the value of a 'priority' header (RFC 9218 section 5), e.g. "u=1, i".
+     *
+     * @return the urgency, or {@link #DEFAULT_URGENCY} if the value does not contain a valid one
+     */
+    public static int parseUrgency(String priority) {
+        if (priority == null)
+            return DEFAULT_URGENCY;
+        for (String param : priority.split(",")) {
+            param = param.trim();
+            if (param.length() == 3 && param.charAt(0) == 'u' && param.charAt(1) == '=') {
+                int urgency = param.charAt(2) - '0';
+                if (urgency >= 0 && urgency <= 7)
+                    return urgency;
+            }
+        }
+        return DEFAULT_URGENCY;
+    }
+
     /**
      * Do not use within the logic part.
      */
@@ -42,6 +42,7 @@ public class Frame {
     int flags;
     int streamId;
     byte[] content;
+    long queuedAt;
 
     public Frame(Settings ourSettings) {
         maximumFrameSize = ourSettings.getMaxFrameSize();
@@ -65,15 +66,16 @@ public class Frame {
     }
 
     public void write(OutputStream stream) throws IOException {
-        stream.write(length >> 16);
-        stream.write(length >> 8);
-        stream.write(length);
-        stream.write(type);
-        stream.write(flags);
-        stream.write((streamId >> 24) & 0x7F);
-        stream.write(streamId >> 16);
-        stream.write(streamId >> 8);
-        stream.write(streamId);
+        stream.write(new byte[] {
+                (byte) (length >> 16),
+                (byte) (length >> 8),
+                (byte) length,
+                (byte) type,
+                (byte) flags,
+                (byte) ((streamId >> 24) & 0x7F),
+                (byte) (streamId >> 16),
+                (byte) (streamId >> 8),
+                (byte) streamId });
         if (length > 0) {
             stream.write(content, 0, length);
         }
@@ -241,6 +243,17 @@ public class Frame {
         return length;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} when the frame was handed to the sender, or 0
+     */
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
     public int getFlags() {
         return flags;
     }
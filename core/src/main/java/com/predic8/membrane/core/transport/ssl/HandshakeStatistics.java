@@ -0,0 +1,104 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.ssl;
+
+import com.predic8.membrane.core.stats.LatencyHistogram;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the TLS handshakes of one direction (inbound or outbound) of an {@link SSLContext}.
+ * <p>
+ * A handshake counts as resumed, if its session was created before the handshake started: this is the case for
+ * TLS 1.2 session ID resumption as well as for TLS 1.3 PSK resumption using session tickets, where the resumed session
+ * keeps the creation time of the original one. Handshake times are recorded in microseconds.
+ * <p>
+ * Every handshake is also counted in {@link #INBOUND} or {@link #OUTBOUND}, which sum up all contexts, including
+ * the default context used for outbound connections without <code>&lt;ssl&gt;</code> configuration.
+ */
+public class HandshakeStatistics {
+
+    public static final HandshakeStatistics INBOUND = new HandshakeStatistics(null);
+    public static final HandshakeStatistics OUTBOUND = new HandshakeStatistics(null);
+
+    private final HandshakeStatistics total;
+    private final LongAdder full = new LongAdder();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram fullHandshakeTime = new LatencyHistogram();
+    private final LatencyHistogram resumedHandshakeTime = new LatencyHistogram();
+
+    HandshakeStatistics(HandshakeStatistics total) {
+        this.total = total;
+    }
+
+    /**
+     * Runs the handshake on the calling thread and records its outcome.
+     */
+    void handshake(SSLSocket socket) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            socket.startHandshake();
+        } catch (IOException | RuntimeException e) {
+            failed();
+            throw e;
+        }
+        completed(socket.getSession().getCreationTime() < startMillis, System.nanoTime() - start);
+    }
+
+    void completed(boolean resumed, long nanos) {
+        (resumed ? this.resumed : full).increment();
+        (resumed ? resumedHandshakeTime : fullHandshakeTime).record(nanos / 1000);
+        if (total != null)
+            total.completed(resumed, nanos);
+    }
+
+    void failed() {
+        failed.increment();
+        if (total != null)
+            total.failed();
+    }
+
+    public long getFullHandshakes() {
+        return full.sum();
+    }
+
+    public long getResumedHandshakes() {
+        return resumed.sum();
+    }
+
+    public long getFailedHandshakes() {
+        return failed.sum();
+    }
+
+    /**
+     * @return resumed handshakes divided by successful handshakes, or 0 if there were none
+     */
+    public double getResumptionRatio() {
+        long resumed = getResumedHandshakes();
+        long all = resumed + getFullHandshakes();
+        return all == 0 ? 0 : (double) resumed / all;
+    }
+
+    public LatencyHistogram getFullHandshakeTime() {
+        return fullHandshakeTime;
+    }
+
+    public LatencyHistogram getResumedHandshakeTime() {
+        return resumedHandshakeTime;
+    }
+}
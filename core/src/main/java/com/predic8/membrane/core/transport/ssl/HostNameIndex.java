@@ -0,0 +1,99 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.ssl;
+
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Finds the first of a list of host name patterns matching a host name, e.g. the SNI name of a TLS handshake.
+ * <p>
+ * Every entry of the list uses the syntax of {@link ServiceProxyKey#setHost(String)}: space separated host names,
+ * where <code>*</code> matches one or more arbitrary characters. Matching is case-insensitive and the result is the
+ * same as matching the entries one after another using {@link ServiceProxyKey#createHostPattern(String)}.
+ * <p>
+ * Plain host names are looked up in a hash map and names like <code>*.example.com</code> in a map of suffixes, so
+ * that a lookup takes one hash lookup per label of the host name, independent of the number of entries. Only other
+ * patterns (e.g. <code>api-*.example.com</code>) are still matched using regular expressions.
+ */
+public class HostNameIndex {
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final Map<String, Integer> exact = new HashMap<>();
+    private final Map<String, Integer> suffixes = new HashMap<>();
+    private final List<IndexedPattern> patterns = new ArrayList<>();
+    private int matchAll = NONE;
+
+    private record IndexedPattern(int index, Pattern pattern) {
+    }
+
+    public HostNameIndex(List<String> hostPatterns) {
+        for (int i = 0; i < hostPatterns.size(); i++)
+            for (String name : hostPatterns.get(i).split(" "))
+                if (!name.isEmpty())
+                    add(i, name);
+    }
+
+    private void add(int index, String name) {
+        int wildcard = name.indexOf('*');
+        if (wildcard == -1) {
+            exact.putIfAbsent(name.toLowerCase(ROOT), index);
+        } else if (name.equals("*")) {
+            matchAll = Math.min(matchAll, index);
+        } else if (wildcard == 0 && name.charAt(1) == '.' && name.indexOf('*', 1) == -1) {
+            suffixes.putIfAbsent(name.substring(1).toLowerCase(ROOT), index);
+        } else {
+            // patterns are added in ascending order of their index
+            patterns.add(new IndexedPattern(index, Pattern.compile(ServiceProxyKey.createHostPattern(name), Pattern.CASE_INSENSITIVE)));
+        }
+    }
+
+    /**
+     * @return the index of the first entry matching the host name, or -1 if none matches
+     */
+    public int lookup(String hostname) {
+        String name = hostname.toLowerCase(ROOT);
+        int best = name.isEmpty() ? NONE : matchAll;
+
+        Integer index = exact.get(name);
+        if (index != null)
+            best = Math.min(best, index);
+
+        if (!suffixes.isEmpty()) {
+            // '*' matches at least one character, so the suffix has to start after the first character
+            for (int dot = name.indexOf('.', 1); dot != -1; dot = name.indexOf('.', dot + 1)) {
+                index = suffixes.get(name.substring(dot));
+                if (index != null)
+                    best = Math.min(best, index);
+            }
+        }
+
+        for (IndexedPattern pattern : patterns) {
+            if (pattern.index() >= best)
+                break;
+            if (pattern.pattern().matcher(hostname).matches())
+                best = pattern.index();
+        }
+
+        return best == NONE ? -1 : best;
+    }
+}
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.ByteArrayInputStream;
@@ -65,6 +66,9 @@ public abstract class SSLContext implements SSLProvider {
     private boolean useAsDefault;
     private boolean useHttp2;
 
+    private final HandshakeStatistics inboundHandshakes = new HandshakeStatistics(HandshakeStatistics.INBOUND);
+    private final HandshakeStatistics outboundHandshakes = new HandshakeStatistics(HandshakeStatistics.OUTBOUND);
+
     public void init(SSLParser sslParser, javax.net.ssl.SSLContext sslc) {
         showSSLExceptions = sslParser.isShowSSLExceptions();
         useAsDefault = sslParser.isUseAsDefault();
@@ -111,6 +115,18 @@ public abstract class SSLContext implements SSLProvider {
 
         endpointIdentificationAlgorithm = sslParser.getEndpointIdentificationAlgorithm();
         useHttp2 = sslParser.isUseExperimentalHttp2();
+
+        configureSessionContext(sslc.getServerSessionContext(), sslParser);
+        configureSessionContext(sslc.getClientSessionContext(), sslParser);
+    }
+
+    private static void configureSessionContext(SSLSessionContext sessionContext, SSLParser sslParser) {
+        if (sessionContext == null)
+            return;
+        if (sslParser.getSessionCacheSize() >= 0)
+            sessionContext.setSessionCacheSize(sslParser.getSessionCacheSize());
+        if (sslParser.getSessionTimeout() >= 0)
+            sessionContext.setSessionTimeout(sslParser.getSessionTimeout());
     }
 
     abstract String getLocation();
@@ -141,6 +157,7 @@ public abstract class SSLContext implements SSLProvider {
         serviceSocket.setNeedClientAuth(isNeedClientAuth());
         if (useHttp2)
             Http2TlsSupport.offerHttp2(serviceSocket);
+        inboundHandshakes.handshake(serviceSocket);
         return serviceSocket;
     }
 
@@ -266,6 +283,20 @@ public abstract class SSLContext implements SSLProvider {
 
     abstract SSLSocketFactory getSocketFactory();
 
+    /**
+     * @return statistics of the handshakes of connections accepted using this context
+     */
+    public HandshakeStatistics getInboundHandshakes() {
+        return inboundHandshakes;
+    }
+
+    /**
+     * @return statistics of the handshakes of connections opened using this context
+     */
+    public HandshakeStatistics getOutboundHandshakes() {
+        return outboundHandshakes;
+    }
+
     protected void checkChainValidity(List<Certificate> certs) {
         boolean valid = true;
         for (int i = 0; i < certs.size() - 1; i++) {
@@ -311,6 +311,8 @@ public class StaticSSLContext extends SSLContext {
     }
 
     public Socket wrapAcceptedSocket(Socket socket) throws IOException {
+        if (socket instanceof SSLSocket ssls)
+            getInboundHandshakes().handshake(ssls);
         return socket;
     }
 
@@ -345,8 +347,7 @@ public class StaticSSLContext extends SSLContext {
         if (applicationProtocols != null)
             setApplicationProtocols(ssls, applicationProtocols);
         prepare(ssls);
-        if (applicationProtocols != null)
-            ssls.startHandshake();
+        getOutboundHandshakes().handshake(ssls);
         return ssls;
     }
 
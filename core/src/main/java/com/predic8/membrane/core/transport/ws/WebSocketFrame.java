@@ -15,21 +15,37 @@
 package com.predic8.membrane.core.transport.ws;
 
 import com.predic8.membrane.core.exchange.Exchange;
-import com.predic8.membrane.core.util.ByteUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import static java.nio.ByteOrder.BIG_ENDIAN;
+
+/**
+ * A WebSocket frame (RFC 6455).
+ * <p>
+ * Instances are reused: {@link WebSocketFrameAssembler} parses every frame of a connection into the same instance,
+ * so the payload array only grows and is not allocated per frame. The payload is always held unmasked.
+ */
 public class WebSocketFrame {
 
     protected static Logger log = LoggerFactory.getLogger(WebSocketFrame.class.getName());
 
-    final static int INITIAL_BUFFER_SIZE = 8192;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, BIG_ENDIAN);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 2 bytes, up to 8 bytes extended payload length and 4 bytes masking key
+     */
+    private static final int MAX_HEADER_SIZE = 14;
 
     Exchange originalExchange;
     private String error = null;
@@ -41,7 +57,8 @@ public class WebSocketFrame {
     boolean isMasked;
     long payloadLength;
     final byte[] maskKey = new byte[4];
-    byte[] payload = new byte[INITIAL_BUFFER_SIZE];
+    byte[] payload = EMPTY;
+    private final byte[] header = new byte[MAX_HEADER_SIZE];
 
     public WebSocketFrame() {
 
@@ -55,8 +72,8 @@ public class WebSocketFrame {
         this.opcode = opcode;
         this.isMasked = isMasked;
         payloadLength = payload.length;
-        System.arraycopy(this.maskKey,0,maskingKey,0,maskingKey.length);
-        System.arraycopy(this.payload,0,payload,0,payload.length);
+        System.arraycopy(maskingKey, 0, this.maskKey, 0, this.maskKey.length);
+        this.payload = Arrays.copyOf(payload, payload.length);
     }
 
     private String calcError() {
@@ -65,61 +82,65 @@ public class WebSocketFrame {
         return String.valueOf(ByteBuffer.wrap(payload, 0, 2).getShort());
     }
 
+    /**
+     * Writes the frame without copying the payload: The header is written first and the payload directly after it,
+     * so a buffered stream sends both at once. A masked payload is masked in place for writing and unmasked again
+     * afterwards.
+     */
     public void write(OutputStream out) throws IOException {
-        byte[] result = new byte[getSizeInBytes()];
-
-        byte finAndReservedAndOpcode = 0;
-        finAndReservedAndOpcode = ByteUtil.setBitValueBigEndian(finAndReservedAndOpcode, 0, finalFragment);
-        finAndReservedAndOpcode = ByteUtil.setBitValueBigEndian(finAndReservedAndOpcode, 1, rsv1);
-        finAndReservedAndOpcode = ByteUtil.setBitValueBigEndian(finAndReservedAndOpcode, 2, rsv2);
-        finAndReservedAndOpcode = ByteUtil.setBitValueBigEndian(finAndReservedAndOpcode, 3, rsv3);
-        finAndReservedAndOpcode = ByteUtil.setBitValuesBigEndian(finAndReservedAndOpcode, 4, 7, opcode);
-
-        byte maskAndPayloadLength = 0;
-        maskAndPayloadLength = ByteUtil.setBitValueBigEndian(maskAndPayloadLength, 0, this.isMasked);
-        int additionalPayloadBytes = getExtendedPayloadSize(computePayloadField());
-
-        maskAndPayloadLength = ByteUtil.setBitValuesBigEndian(maskAndPayloadLength, 1, 7, computePayloadField());
-
-        result[0] = finAndReservedAndOpcode;
-        result[1] = maskAndPayloadLength;
-
-        byte[] additionalPayloadLength = null;
-
-        if (additionalPayloadBytes == 2) {
-            byte[] extendedPayloadLength = ByteBuffer.allocate(4).putInt((int) payloadLength).array();
-            byte[] correctedExtendedPayloadLength = new byte[2];
-            for (int i = 2; i < extendedPayloadLength.length; i++)
-                correctedExtendedPayloadLength[i - 2] = extendedPayloadLength[i];
-            additionalPayloadLength = correctedExtendedPayloadLength;
-        }
-        if (additionalPayloadBytes == 8) {
-            additionalPayloadLength = ByteBuffer.allocate(8).putLong((int) payloadLength).array();
+        int headerLength = writeHeader();
+        int length = (int) payloadLength;
+
+        if (isMasked)
+            mask(payload, 0, length, maskKey);
+        try {
+            out.write(header, 0, headerLength);
+            out.write(payload, 0, length);
+        } finally {
+            if (isMasked)
+                mask(payload, 0, length, maskKey);
         }
-        if (additionalPayloadLength != null)
-            for (int i = 0; i < additionalPayloadBytes; i++) {
-                result[2 + i] = additionalPayloadLength[i];
-            }
+        out.flush();
+    }
 
+    private int writeHeader() {
+        header[0] = (byte) ((finalFragment ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | (rsv2 ? 0x20 : 0) | (rsv3 ? 0x10 : 0) | (opcode & 0x0F));
 
-        int maskKeyLength = isMasked ? maskKey.length : 0;
-        for (int i = 0; i < maskKeyLength; i++)
-            result[2 + additionalPayloadBytes + i] = maskKey[i];
+        int payloadField = computePayloadField();
+        header[1] = (byte) ((isMasked ? 0x80 : 0) | payloadField);
 
-        int payloadOffset = 2 + additionalPayloadBytes + maskKeyLength;
-        System.arraycopy(payload, 0, result, payloadOffset, (int) payloadLength);
+        int pos = 2;
+        if (payloadField == 126) {
+            header[pos++] = (byte) (payloadLength >>> 8);
+            header[pos++] = (byte) payloadLength;
+        } else if (payloadField == 127) {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                header[pos++] = (byte) (payloadLength >>> shift);
+        }
 
         if (isMasked) {
-            int maskIndex = 0;
-            for (int i = 0; i < payloadLength; i++) {
-                result[payloadOffset + i] = (byte) (result[payloadOffset + i] ^ maskKey[maskIndex]);
-                maskIndex = (maskIndex + 1) % 4;
-            }
+            System.arraycopy(maskKey, 0, header, pos, 4);
+            pos += 4;
         }
+        return pos;
+    }
 
-        out.write(result);
-        out.flush();
-
+    /**
+     * XORs the bytes with the masking key, 8 bytes at a time. Masking and unmasking are the same operation.
+     *
+     * @param offset position of the first payload byte, which is XORed with the first byte of the key
+     */
+    static void mask(byte[] buffer, int offset, int length, byte[] maskKey) {
+        long key = (maskKey[0] & 0xFFL) << 24 | (maskKey[1] & 0xFFL) << 16 | (maskKey[2] & 0xFFL) << 8 | (maskKey[3] & 0xFFL);
+        long key64 = key << 32 | key;
+
+        int i = 0;
+        for (int end = length - 7; i < end; i += 8) {
+            long value = (long) LONG_VIEW.get(buffer, offset + i);
+            LONG_VIEW.set(buffer, offset + i, value ^ key64);
+        }
+        for (; i < length; i++)
+            buffer[offset + i] ^= maskKey[i & 3];
     }
 
     private int computePayloadField() {
@@ -130,22 +151,6 @@ public class WebSocketFrame {
         return 127;
     }
 
-    private int getExtendedPayloadSize(int size) {
-        if (size >= 126) {
-            if (size == 126) {
-                return 2;
-            } else {
-                return 8;
-            }
-        } else
-            return 0;
-    }
-
-    private int getSizeInBytes() {
-        return 2 + getExtendedPayloadSize(computePayloadField()) + (isMasked ? maskKey.length : 0) + (payload != null ? (int) payloadLength : 0);
-    }
-
-
     public int getOpcode() {
         return opcode;
     }
@@ -199,68 +204,56 @@ public class WebSocketFrame {
         if (length < 2)
             return 0;
 
-        int origOffset = offset;
-
-        byte finAndReservedAndOpCode = buffer[offset++];
-        finalFragment = ByteUtil.getBitValueBigEndian(finAndReservedAndOpCode, 0);
-        rsv1 = ByteUtil.getBitValueBigEndian(finAndReservedAndOpCode, 1);
-        rsv2 = ByteUtil.getBitValueBigEndian(finAndReservedAndOpCode, 2);
-        rsv3 = ByteUtil.getBitValueBigEndian(finAndReservedAndOpCode, 3);
-        opcode = ByteUtil.getValueOfBits(finAndReservedAndOpCode, 4, 7);
-
-        int headerLength = 2;
-
-        byte maskAndPayloadLength = buffer[offset++];
-        isMasked = ByteUtil.getBitValueBigEndian(maskAndPayloadLength, 0);
-        payloadLength = ByteUtil.getValueOfBits(maskAndPayloadLength, 1, 7);
-        if (payloadLength >= 126) {
-            if (payloadLength == 126) {
-                headerLength += 2;
-                byte[] newPayloadLength = new byte[4];
-                for (int i = 2; i < newPayloadLength.length; i++)
-                    newPayloadLength[i] = buffer[offset++];
-                payloadLength = ByteBuffer.wrap(newPayloadLength).getInt();
-            } else {
-                headerLength += 8;
-                byte[] newPayloadLength = new byte[8];
-                for (int i = 0; i < newPayloadLength.length; i++)
-                    newPayloadLength[i] = buffer[offset++];
-                payloadLength = ByteBuffer.wrap(newPayloadLength).getLong();
-            }
-        }
+        int b1 = buffer[offset + 1] & 0xFF;
+        boolean masked = (b1 & 0x80) != 0;
+        long len = b1 & 0x7F;
 
-        if (isMasked) {
-            headerLength += 4;
-            for (int i = 0; i < 4; i++)
-                maskKey[i] = buffer[offset++];
+        int headerLength = 2 + (len == 126 ? 2 : len == 127 ? 8 : 0) + (masked ? 4 : 0);
+        if (length < headerLength)
+            return 0;
+
+        int pos = offset + 2;
+        if (len == 126) {
+            len = (buffer[pos] & 0xFF) << 8 | (buffer[pos + 1] & 0xFF);
+            pos += 2;
+        } else if (len == 127) {
+            len = (long) LONG_VIEW.get(buffer, pos);
+            pos += 8;
         }
 
-        if (payloadLength > Integer.MAX_VALUE || payloadLength < 0) {
+        if (len > Integer.MAX_VALUE || len < 0) {
             log.warn("Payload of ws message is bigger than Integer.MAX_VALUE which is currently not supported. Message will be truncated");
-            payloadLength = Integer.MAX_VALUE;
+            len = Integer.MAX_VALUE;
         }
         // if payloadLength is bigger than what can currently be in the buffer then we haven't read the whole frame
-        if(payloadLength > length-headerLength)
+        if (len > length - headerLength)
             return 0;
-        // ensure that 'payload' buffer is large enough
-        if (payload.length < payloadLength)
-            payload = new byte[(int) payloadLength];
 
-        int maskIndex = 0;
-        for (int i = 0; i < payloadLength; i++) {
-            payload[i] = buffer[offset++];
-            if (isMasked)
-                payload[i] = (byte) (payload[i] ^ maskKey[maskIndex]);
-            maskIndex = (maskIndex + 1) % 4;
+        int b0 = buffer[offset] & 0xFF;
+        finalFragment = (b0 & 0x80) != 0;
+        rsv1 = (b0 & 0x40) != 0;
+        rsv2 = (b0 & 0x20) != 0;
+        rsv3 = (b0 & 0x10) != 0;
+        opcode = b0 & 0x0F;
+        isMasked = masked;
+        payloadLength = len;
+
+        if (isMasked) {
+            System.arraycopy(buffer, pos, maskKey, 0, 4);
+            pos += 4;
         }
 
-        // TODO: directly set the fields (or better: use them during parsing)
+        // ensure that 'payload' buffer is large enough
+        if (payload.length < payloadLength)
+            payload = new byte[(int) payloadLength];
 
-        if (opcode == 8)
-            error = calcError();
+        System.arraycopy(buffer, pos, payload, 0, (int) payloadLength);
+        if (isMasked)
+            mask(payload, 0, (int) payloadLength, maskKey);
 
+        error = opcode == 8 && payloadLength >= 2 ? calcError() : null;
 
-        return offset - origOffset;
+        return headerLength + (int) payloadLength;
     }
 
 
@@ -49,12 +49,17 @@ public class WebSocketFrameAssembler {
 
             offset = offset + read;
 
-            while ((handled = frame.tryRead(buffer, 0, offset)) > 0) {
+            // Parse all complete frames first and move the remaining bytes to the front only once.
+            int start = 0;
+            while ((handled = frame.tryRead(buffer, start, offset - start)) > 0) {
                 consumer.accept(frame);
-                System.arraycopy(buffer, handled, buffer, 0, offset - handled);
-                offset -= handled;
+                start += handled;
             }
-            if(offset >= buffer.length && handled == 0){
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, offset - start);
+                offset -= start;
+            }
+            if (offset >= buffer.length) {
                 byte[] newBuffer = new byte[buffer.length*2];
                 System.arraycopy(buffer,0,newBuffer,0,buffer.length);
                 buffer = newBuffer;
@@ -35,12 +35,6 @@ import static org.apache.commons.text.StringEscapeUtils.*;
 public class HttpUtil {
 
 	private static final DateFormat GMT_DATE_FORMAT = createGMTDateFormat();
-	private final static int MAX_LINE_LENGTH;
-
-	static {
-		String maxLineLength = System.getProperty("membrane.core.http.body.maxlinelength");
-		MAX_LINE_LENGTH = maxLineLength == null ? 8092 : Integer.parseInt(maxLineLength);
-	}
 
 	/**
 	 * Take out the last entry added by Membrane.
@@ -67,31 +61,11 @@ public class HttpUtil {
 		return gmtDateFormat;
 	}
 
+	/**
+	 * See {@link HeadParser#readLine(InputStream)}.
+	 */
 	public static String readLine(InputStream in) throws IOException, EndOfStreamException {
-
-		StringBuilder line = new StringBuilder(128);
-
-		int b;
-		int l = 0;
-		while ((b = in.read()) != -1) {
-			if (b == 13) {
-				//noinspection ResultOfMethodCallIgnored
-				in.read();
-				return line.toString();
-			}
-			if (b == 10) {
-				in.mark(2);
-				if (in.read() != 13)
-					in.reset();
-				return line.toString();
-			}
-
-			line.append((char) b);
-			if (++l == MAX_LINE_LENGTH)
-				throw new LineTooLongException(line.toString());
-		}
-
-		throw new EOFWhileReadingLineException(line.toString());
+		return HeadParser.readLine(in);
 	}
 
     public static Response setHTMLErrorResponse(ResponseBuilder responseBuilder, String message, String comment) {
@@ -115,6 +115,26 @@ public class Util {
 		return Executors.newCachedThreadPool();
 	}
 
+	/**
+	 * Unlike {@link #createNewThreadPool()}, this does not fall back to platform threads and ignores the
+	 * <code>membrane.virtualthreads</code> system property, as the caller explicitly asked for virtual threads.
+	 *
+	 * @return an executor starting a new virtual thread for each task, or null if the JVM does not support virtual threads
+	 */
+	public static ExecutorService createVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof UnsupportedOperationException)
+				return null;
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * @param string String that might be separated by comma e.g. "a,b,c"
 	 * @return mutable list
@@ -25,6 +25,7 @@ import static org.junit.jupiter.api.Assertions.*;
 public class RuleManagerTest {
 
 	RuleManager manager;
+	MockRouter router;
 	Rule proxy3013;
 	Rule forwardBlz;
 	Rule forwardBlzPOST;
@@ -32,7 +33,7 @@ public class RuleManagerTest {
 	@BeforeEach
 	public void setUp() throws Exception{
 		manager = new RuleManager();
-		MockRouter router = new MockRouter();
+		router = new MockRouter();
 		manager.setRouter(router);
 		proxy3013 = new ProxyRule(new ProxyRuleKey(3013));
 		manager.addProxyAndOpenPortIfNew(proxy3013);
@@ -68,6 +69,73 @@ public class RuleManagerTest {
 		assertEquals(forwardBlz, manager.getMatchingRule(assembleExchange("localhost", "POST", "/axis2/services/blzservice", "1.1", 3014, "127.0.0.1")));
 	}
 
+	@Test
+	public void testGetMatchingRuleNoMatch() throws UnknownHostException {
+		assertNull(manager.getMatchingRule(assembleExchange("localhost", "GET", "/axis2/services/blzservice", "1.1", 3015, "127.0.0.1")));
+		assertNull(manager.getMatchingRule(assembleExchange("predic8.de", "POST", "/axis2/services/blzservice", "1.1", 3015, "127.0.0.1")));
+	}
+
+	@Test
+	public void testGetMatchingRuleFirstMatchWins() throws Exception {
+		Rule wildcard = addServiceProxy(new ServiceProxyKey("*", "*", ".*", 3016));
+		ServiceProxyKey specificKey = new ServiceProxyKey("Predic8.de", "GET", "/shop/.*", 3016);
+		specificKey.setUsePathPattern(true);
+		Rule specific = addServiceProxy(specificKey);
+		assertEquals(wildcard, manager.getMatchingRule(assembleExchange("predic8.de:3016", "GET", "/shop/items", "1.1", 3016, "127.0.0.1")));
+
+		manager.ruleUp(specific);
+		assertEquals(specific, manager.getMatchingRule(assembleExchange("predic8.de:3016", "GET", "/shop/items", "1.1", 3016, "127.0.0.1")));
+		assertEquals(wildcard, manager.getMatchingRule(assembleExchange("predic8.de:3016", "GET", "/admin", "1.1", 3016, "127.0.0.1")));
+	}
+
+	@Test
+	public void testGetMatchingRuleByPath() throws Exception {
+		Rule shop = addServiceProxy(pathKey("/shop/.*"));
+		Rule shopAdmin = addServiceProxy(pathKey("/shop/admin"));
+		Rule alternatives = addServiceProxy(pathKey("/a|/b"));
+		Rule optional = addServiceProxy(pathKey("/cx?y"));
+
+		assertEquals(shop, manager.getMatchingRule(assembleExchange("localhost", "GET", "/shop/admin", "1.1", 3017, "127.0.0.1")));
+		assertEquals(alternatives, manager.getMatchingRule(assembleExchange("localhost", "GET", "/b", "1.1", 3017, "127.0.0.1")));
+		assertEquals(optional, manager.getMatchingRule(assembleExchange("localhost", "GET", "/cy", "1.1", 3017, "127.0.0.1")));
+		assertNull(manager.getMatchingRule(assembleExchange("localhost", "GET", "/shopping", "1.1", 3017, "127.0.0.1")));
+
+		manager.removeRule(shop);
+		assertEquals(shopAdmin, manager.getMatchingRule(assembleExchange("localhost", "GET", "/shop/admin", "1.1", 3017, "127.0.0.1")));
+	}
+
+	@Test
+	public void testGetMatchingRuleAfterRuleChanged() throws Exception {
+		Rule rule = addServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3018));
+		assertEquals(rule, manager.getMatchingRule(assembleExchange("localhost", "GET", "/", "1.1", 3018, "127.0.0.1")));
+
+		rule.setKey(new ServiceProxyKey("predic8.de", "*", ".*", 3018));
+		manager.ruleChanged(rule);
+		assertEquals(rule, manager.getMatchingRule(assembleExchange("predic8.de", "GET", "/", "1.1", 3018, "127.0.0.1")));
+	}
+
+	@Test
+	public void testLiteralPrefix() {
+		assertEquals("/shop/", RuleIndex.getLiteralPrefix("/shop/.*"));
+		assertEquals("/c", RuleIndex.getLiteralPrefix("/cx?y"));
+		assertEquals("", RuleIndex.getLiteralPrefix("/a|/b"));
+		assertEquals("", RuleIndex.getLiteralPrefix("(?i)/shop"));
+		assertEquals("/shop", RuleIndex.getLiteralPrefix("/shop"));
+	}
+
+	private Rule addServiceProxy(ServiceProxyKey key) throws Exception {
+		Rule rule = new ServiceProxy(key, "thomas-bayer.com", 80);
+		rule.init(router);
+		manager.addProxyAndOpenPortIfNew(rule);
+		return rule;
+	}
+
+	private static ServiceProxyKey pathKey(String path) {
+		ServiceProxyKey key = new ServiceProxyKey("*", "*", path, 3017);
+		key.setUsePathPattern(true);
+		return key;
+	}
+
 	@Test
 	public void testRemoveRule() {
 		manager.removeRule(proxy3013);
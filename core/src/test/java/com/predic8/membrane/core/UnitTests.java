@@ -20,7 +20,9 @@ import com.predic8.membrane.core.config.ReadRulesWithInterceptorsConfigurationTe
 import com.predic8.membrane.core.exceptions.ProblemDetailsTest;
 import com.predic8.membrane.core.exchangestore.AbortExchangeTest;
 import com.predic8.membrane.core.exchangestore.AbstractExchangeStoreTest;
+import com.predic8.membrane.core.exchangestore.ElasticSearchExchangeStoreTest;
 import com.predic8.membrane.core.exchangestore.LimitedMemoryExchangeStoreTest;
+import com.predic8.membrane.core.exchangestore.SegmentedExchangeLogTest;
 import com.predic8.membrane.core.graphql.GraphQLProtectionInterceptorTest;
 import com.predic8.membrane.core.http.*;
 import com.predic8.membrane.core.http.cookie.MessageBytesTest;
@@ -51,7 +53,13 @@ import com.predic8.membrane.core.interceptor.misc.ReturnInterceptorTest;
 import com.predic8.membrane.core.interceptor.misc.SetHeaderInterceptor;
 import com.predic8.membrane.core.interceptor.misc.SetPropertyInterceptor;
 import com.predic8.membrane.core.interceptor.oauth2.OAuth2UnitTests;
+import com.predic8.membrane.core.interceptor.prometheus.PrometheusInterceptorTest;
+import com.predic8.membrane.core.interceptor.cache.HttpCacheInterceptorTest;
+import com.predic8.membrane.core.interceptor.compression.CompressionInterceptorTest;
 import com.predic8.membrane.core.interceptor.ratelimit.RateLimitInterceptorTest;
+import com.predic8.membrane.core.interceptor.ratelimit.RedisRateLimitTest;
+import com.predic8.membrane.core.interceptor.ratelimit.SlidingWindowRateLimitTest;
+import com.predic8.membrane.core.interceptor.ratelimit.TokenBucketRateLimitTest;
 import com.predic8.membrane.core.interceptor.rest.HTTP2XMLInterceptorTest;
 import com.predic8.membrane.core.interceptor.rewrite.ReverseProxyingInterceptorTest;
 import com.predic8.membrane.core.interceptor.rewrite.RewriteInterceptorTest;
@@ -81,11 +89,16 @@ import com.predic8.membrane.core.resolver.SingleResolverTest;
 import com.predic8.membrane.core.rules.APIProxyKeyTest;
 import com.predic8.membrane.core.rules.ProxyRuleTest;
 import com.predic8.membrane.core.rules.ServiceProxyKeyTest;
+import com.predic8.membrane.core.stats.LatencyHistogramTest;
 import com.predic8.membrane.core.transport.ExchangeTest;
+import com.predic8.membrane.core.transport.http.ConnectionManagerTest;
 import com.predic8.membrane.core.transport.http.HostColonPortTest;
 import com.predic8.membrane.core.transport.http.HttpKeepAliveTest;
 import com.predic8.membrane.core.transport.http.ServiceInvocationTest;
+import com.predic8.membrane.core.transport.http2.DataFrameSchedulerTest;
 import com.predic8.membrane.core.transport.http2.Http2ClientServerTest;
+import com.predic8.membrane.core.transport.ssl.HandshakeStatisticsTest;
+import com.predic8.membrane.core.transport.ssl.HostNameIndexTest;
 import com.predic8.membrane.core.transport.ssl.SSLContextTest;
 import com.predic8.membrane.core.transport.ssl.SessionResumptionTest;
 import com.predic8.membrane.core.transport.ssl.acme.AcmeRenewTest;
@@ -99,7 +112,7 @@ import org.junit.platform.suite.api.SelectPackages;
 import org.junit.platform.suite.api.Suite;
 
 @Suite
-@SelectClasses({HeaderTest.class, BodyTest.class, ByteUtilTest.class,
+@SelectClasses({HeaderTest.class, HeadParserTest.class, BodyTest.class, ByteUtilTest.class,
         HttpUtilTest.class,
 		RequestTest.class,
 		RequestBuilderTest.class,
@@ -120,13 +133,14 @@ import org.junit.platform.suite.api.Suite;
         XMLSessionIdExtractorTest.class, ClusterBalancerTest.class,
         LoadBalancingWithClusterManagerAndNoSessionTest.class,
         LoadBalancingWithClusterManagerTest.class,
+        LoadAwareStrategyTest.class,
         MultipleLoadBalancersTest.class, DNSCacheTest.class,
         ValidatorInterceptorTest.class, XPathCBRInterceptorTest.class,
         CustomSpringConfigurationTest.class, JSESSIONIDExtractorTest.class,
         ThrottleInterceptorTest.class, GroovyInterceptorTest.class,
         FormValidationInterceptorTest.class, ServiceInvocationTest.class,
-        HttpKeepAliveTest.class, ReverseProxyingInterceptorTest.class,
-        SSLContextTest.class, RelocatorWADLTest.class,
+        HttpKeepAliveTest.class, ConnectionManagerTest.class, ReverseProxyingInterceptorTest.class,
+        SSLContextTest.class, HostNameIndexTest.class, HandshakeStatisticsTest.class, RelocatorWADLTest.class,
         WADLInterceptorTest.class, ReassembleTest.class,
         XMLContentFilterTest.class, XMLElementFinderTest.class,
         SimpleXPathAnalyzerTest.class, SimpleXPathParserTest.class,
@@ -141,12 +155,14 @@ import org.junit.platform.suite.api.Suite;
         SOAPMessageValidatorInterceptorTest.class,
         URITest.class,
         RewriteInterceptorTest.class,
-        AbortExchangeTest.class, RateLimitInterceptorTest.class,
+        AbortExchangeTest.class, RateLimitInterceptorTest.class, TokenBucketRateLimitTest.class,
+        SlidingWindowRateLimitTest.class, RedisRateLimitTest.class,
+        HttpCacheInterceptorTest.class, CompressionInterceptorTest.class, LatencyHistogramTest.class, PrometheusInterceptorTest.class,
         OAuth2UnitTests.class, SessionResumptionTest.class,
 		Xml2JsonInterceptorTest.class, Json2XmlInterceptorTest.class, TemplateInterceptorTest.class,
 		XmlPathExtractorInterceptorTest.class, JsonPointerExtractorInterceptorTest.class,
 		AcmeStepTest.class, AcmeRenewTest.class, KubernetesClientTest.class,
-		ProxyTest.class, Http2ClientServerTest.class, ChunkedBodyTest.class,
+		ProxyTest.class, Http2ClientServerTest.class, DataFrameSchedulerTest.class, ChunkedBodyTest.class,
 		ReturnInterceptorTest.class,
 		JavascriptInterceptor.class,
 		MimeTypeTest.class,
@@ -155,6 +171,8 @@ import org.junit.platform.suite.api.Suite;
 		URLParamUtilTest.class,
 		XMLProtectorTest.class,
 		AbstractExchangeStoreTest.class,
+		ElasticSearchExchangeStoreTest.class,
+		SegmentedExchangeLogTest.class,
 		JsonProtectionInterceptorTest.class,
 		GraphQLProtectionInterceptorTest.class,
 		BeautifierInterceptorTest.class,
@@ -0,0 +1,174 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.exchangestore;
+
+import com.fasterxml.jackson.databind.*;
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import com.predic8.membrane.core.rules.*;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.interceptor.Interceptor.Flow.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the store against a stub of the Elasticsearch bulk endpoint.
+ */
+public class ElasticSearchExchangeStoreTest {
+
+    private static final int PORT = 3067;
+
+    private HttpRouter router;
+    private ServiceProxy rule;
+    private final BlockingQueue<String> bulks = new LinkedBlockingQueue<>();
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile String bulkResponse = "{\"errors\":false}";
+
+    @BeforeEach
+    void setUp() throws Exception {
+        router = new HttpRouter();
+        rule = new ServiceProxy(new ServiceProxyKey("*", "*", ".*", PORT), "", -1);
+        rule.getInterceptors().add(new AbstractInterceptor() {
+            @Override
+            public Outcome handleRequest(Exchange exc) throws Exception {
+                if (!exc.getRequest().getUri().equals("/_bulk")) {
+                    exc.setResponse(Response.notFound().body("{}").build());
+                    return Outcome.RETURN;
+                }
+                bulks.add(exc.getRequest().getBodyAsStringDecoded());
+                sending.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                exc.setResponse(Response.ok(bulkResponse).build());
+                return Outcome.RETURN;
+            }
+        });
+        router.getRuleManager().addProxyAndOpenPortIfNew(rule);
+        router.init();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        release.countDown();
+        router.shutdown();
+    }
+
+    private ElasticSearchExchangeStore createStore(int bulkSize, int maxQueueSize, int senders) {
+        ElasticSearchExchangeStore store = new ElasticSearchExchangeStore();
+        store.setLocation("http://localhost:" + PORT);
+        store.setDocumentPrefix("test");
+        store.setBulkSize(bulkSize);
+        store.setMaxQueueSize(maxQueueSize);
+        store.setSenders(senders);
+        store.setUpdateIntervalMs(60_000);
+        store.init(router);
+        return store;
+    }
+
+    private Exchange createExchange() throws Exception {
+        Exchange exc = Request.get("/foo").buildExchange();
+        exc.setRule(rule);
+        return exc;
+    }
+
+    @Test
+    void bulkIsSentWhenBulkSizeIsReached() throws Exception {
+        ElasticSearchExchangeStore store = createStore(2, 100, 1);
+        Exchange exc1 = createExchange();
+        Exchange exc2 = createExchange();
+        store.snap(exc1, REQUEST);
+        store.snap(exc2, REQUEST);
+
+        String bulk = bulks.poll(10, TimeUnit.SECONDS);
+        assertNotNull(bulk);
+        String[] lines = bulk.split("\n");
+        assertEquals(4, lines.length);
+
+        ObjectMapper om = new ObjectMapper();
+        JsonNode action = om.readTree(lines[0]);
+        assertEquals("membrane", action.get("index").get("_index").asText());
+        JsonNode doc = om.readTree(lines[1]);
+        assertEquals("test", doc.get("issuer").asText());
+        assertEquals(exc1.getId(), doc.get("id").asLong());
+        assertEquals("/foo", doc.get("request").get("uri").asText());
+        assertEquals(exc2.getId(), om.readTree(lines[3]).get("id").asLong());
+    }
+
+    @Test
+    void exchangesAreDroppedWhenQueueIsFull() throws Exception {
+        release = new CountDownLatch(1);
+        ElasticSearchExchangeStore store = createStore(1, 2, 1);
+
+        store.snap(createExchange(), REQUEST);
+        assertTrue(sending.await(10, TimeUnit.SECONDS));
+
+        // The only sender is busy, so the next exchanges stay in the queue.
+        store.snap(createExchange(), REQUEST);
+        store.snap(createExchange(), REQUEST);
+        store.snap(createExchange(), REQUEST);
+        assertEquals(1, store.getDropped());
+        assertEquals(2, store.getQueueDepth());
+
+        release.countDown();
+        for (int i = 0; i < 100 && store.getIndexed() < 3; i++)
+            Thread.sleep(100);
+        assertEquals(3, store.getIndexed());
+        assertEquals(0, store.getQueueDepth());
+        assertEquals(3, store.getIndexingLatency().getCount());
+    }
+
+    @Test
+    void failedItemsOfBulkAreCounted() throws Exception {
+        bulkResponse = "{\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_id\":\"1\",\"status\":201}}," +
+                "{\"index\":{\"_id\":\"2\",\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\"}}}]}";
+        ElasticSearchExchangeStore store = createStore(2, 100, 1);
+        store.snap(createExchange(), REQUEST);
+        store.snap(createExchange(), REQUEST);
+
+        for (int i = 0; i < 100 && store.getIndexed() + store.getFailed() < 2; i++)
+            Thread.sleep(100);
+        assertEquals(1, store.getIndexed());
+        assertEquals(1, store.getFailed());
+    }
+
+    @Test
+    void stopSendsQueuedExchanges() throws Exception {
+        ElasticSearchExchangeStore store = createStore(10, 100, 1);
+        store.snap(createExchange(), REQUEST);
+        assertEquals(1, store.getQueueDepth());
+
+        store.stop();
+
+        assertEquals(1, store.getIndexed());
+        assertEquals(0, store.getQueueDepth());
+        assertNotNull(bulks.poll());
+    }
+
+    @Test
+    void sampling() throws Exception {
+        ElasticSearchExchangeStore store = createStore(1, 100, 1);
+        store.setSampleRate(0);
+        Exchange exc = createExchange();
+        store.snap(exc, REQUEST);
+        store.snap(exc, RESPONSE);
+        assertEquals(1, store.getSampledOut());
+        assertEquals(0, store.getQueueDepth());
+    }
+}
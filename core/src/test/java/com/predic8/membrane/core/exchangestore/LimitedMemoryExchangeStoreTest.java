@@ -19,12 +19,17 @@ import com.predic8.membrane.core.http.Header;
 import com.predic8.membrane.core.http.Request;
 import com.predic8.membrane.core.http.Response;
 import com.predic8.membrane.core.interceptor.Interceptor.Flow;
+import com.predic8.membrane.core.rules.Rule;
+import com.predic8.membrane.core.rules.ServiceProxy;
+import com.predic8.membrane.core.rules.ServiceProxyKey;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class LimitedMemoryExchangeStoreTest {
 
@@ -58,6 +63,63 @@ public class LimitedMemoryExchangeStoreTest {
 
 	}
 
+	@Test
+	public void indexes() throws Exception {
+		LimitedMemoryExchangeStore store = new LimitedMemoryExchangeStore();
+		Rule a = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3020), null, 0);
+		Rule b = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 3021), null, 0);
+
+		store.snap(getExchange("0", a, 200), Flow.RESPONSE);
+		store.snap(getExchange("1", b, 404), Flow.RESPONSE);
+		store.snap(getExchange("2", a, 404), Flow.RESPONSE);
+
+		assertEquals(2, store.getNumberOfExchanges(a.getKey()));
+		assertEquals(1, store.getNumberOfExchanges(b.getKey()));
+		assertEquals(List.of("1", "2"), store.getExchangesByStatusCode(404).stream().map(e -> e.getProperty("id")).toList());
+
+		store.removeAllExchanges(a);
+
+		assertEquals(0, store.getNumberOfExchanges(a.getKey()));
+		assertEquals(1, store.getExchangesByStatusCode(404).size());
+		assertTrue(store.getExchangesByStatusCode(200).isEmpty());
+		assertEquals(1, store.getAllExchangesAsList().size());
+	}
+
+	@Test
+	public void sizeIsAccountedInBytes() throws Exception {
+		LimitedMemoryExchangeStore store = new LimitedMemoryExchangeStore();
+		Exchange exc = getExchange("0");
+		store.snap(exc, Flow.RESPONSE);
+
+		int size = store.getCurrentSize();
+		assertEquals(store.getExchangeById(exc.getId()).getHeapSizeEstimation(), size);
+
+		store.remove(store.getExchangeById(exc.getId()));
+		assertEquals(0, store.getCurrentSize());
+		assertNull(store.getExchangeById(exc.getId()));
+	}
+
+	@Test
+	public void search() throws Exception {
+		LimitedMemoryExchangeStore store = new LimitedMemoryExchangeStore();
+		Exchange exc = getExchange("0");
+		exc.getRequest().setBodyContent("{\"name\":\"M\u00fcller\"}".getBytes(UTF_8));
+		store.snap(exc, Flow.REQUEST);
+		store.snap(exc, Flow.RESPONSE);
+		store.snap(getExchange("1"), Flow.RESPONSE);
+
+		assertEquals(1, store.search("M\u00fcller").size());
+		assertTrue(store.search("Meier").isEmpty());
+	}
+
+	@Test
+	public void indexOf() {
+		assertEquals(2, LimitedMemoryExchangeStore.indexOf("abcd".getBytes(), "cd".getBytes()));
+		assertEquals(-1, LimitedMemoryExchangeStore.indexOf("abcd".getBytes(), "de".getBytes()));
+		assertEquals(-1, LimitedMemoryExchangeStore.indexOf("ab".getBytes(), "abc".getBytes()));
+		assertEquals(0, LimitedMemoryExchangeStore.indexOf("ab".getBytes(), new byte[0]));
+	}
+
 	private void assertStore(int pos, String value) {
 		assertEquals(value, store.getAllExchangesAsList().get(pos).getProperty("id"));
 	}
@@ -72,4 +134,11 @@ public class LimitedMemoryExchangeStoreTest {
 		return exc;
 	}
 
+	private Exchange getExchange(String id, Rule rule, int statusCode) throws IOException {
+		Exchange exc = getExchange(id);
+		exc.setRule(rule);
+		exc.getResponse().setStatusCode(statusCode);
+		return exc;
+	}
+
 }
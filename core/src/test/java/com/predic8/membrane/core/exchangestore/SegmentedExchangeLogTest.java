@@ -0,0 +1,162 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.exchangestore;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedExchangeLogTest {
+
+	File dir;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dir = Files.createTempDirectory("segments").toFile();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	void findByIdRuleAndTime() throws Exception {
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 200)) {
+			for (int i = 0; i < 10; i++) {
+				long key = log.append(0, i, 1000 + i, i % 2 == 0 ? "even" : "odd", false, header("GET"), ("body" + i).getBytes(UTF_8));
+				assertEquals(key, log.append(key, i, 1000 + i, i % 2 == 0 ? "even" : "odd", true, header("HTTP/1.1 200 Ok"), new byte[0]));
+			}
+			assertTrue(log.getSegmentCount() > 1);
+
+			List<SegmentedExchangeLog.Entry> entries = log.findById(3);
+			assertEquals(2, entries.size());
+			assertFalse(entries.get(0).response());
+			assertEquals("body3", new String(entries.get(0).body(), UTF_8));
+			assertTrue(entries.get(1).response());
+			assertEquals("odd", entries.get(1).rule());
+
+			assertEquals(entries.get(0).key(), entries.get(1).key());
+			assertEquals(5, log.findKeysByRule("even").size());
+			assertEquals(10, log.findByRule("odd").size());
+			assertTrue(log.findByRule("unknown").isEmpty());
+
+			assertEquals(List.of(2L, 2L, 3L, 3L), log.findByTime(1002, 1004).stream().map(SegmentedExchangeLog.Entry::exchangeId).toList());
+		}
+	}
+
+	@Test
+	void reopen() throws Exception {
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 1000)) {
+			log.append(0, 1, 1000, "a", false, header("GET"), "one".getBytes(UTF_8));
+		}
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 1000)) {
+			log.append(0, 2, 2000, "a", false, header("GET"), "two".getBytes(UTF_8));
+			assertEquals("one", new String(log.findById(1).get(0).body(), UTF_8));
+			assertEquals(2, log.findByRule("a").size());
+		}
+	}
+
+	@Test
+	void recoverTruncatedSegment() throws Exception {
+		SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 1000);
+		log.append(0, 1, 1000, "a", false, header("GET"), "one".getBytes(UTF_8));
+		log.append(0, 2, 1000, "a", false, header("GET"), "two".getBytes(UTF_8));
+		File segment = log.getActiveSegmentFile();
+		// simulate a crash in the middle of the second record: no index and a partial record
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() - 2);
+		}
+
+		try (SegmentedExchangeLog reopened = new SegmentedExchangeLog(dir, 1000)) {
+			assertEquals(1, reopened.findById(1).size());
+			assertTrue(reopened.findById(2).isEmpty());
+		}
+		log.close();
+	}
+
+	@Test
+	void deleteOldSegments() throws Exception {
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 100)) {
+			log.append(0, 1, 1000, "a", false, header("GET"), new byte[80]);
+			log.append(0, 2, 2000, "a", false, header("GET"), new byte[80]);
+			log.append(0, 3, 3000, "a", false, header("GET"), new byte[80]);
+
+			assertEquals(1, log.deleteSegmentsBefore(1500));
+			assertTrue(log.findById(1).isEmpty());
+			assertEquals(1, log.findById(2).size());
+
+			// the active segment is never deleted
+			assertEquals(1, log.deleteSegmentsBefore(5000));
+			assertEquals(1, log.findById(3).size());
+		}
+	}
+
+	@Test
+	void exchangesWithTheSameIdHaveDifferentKeys() throws Exception {
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 1000)) {
+			long first = log.append(0, 7, 1000, "a", false, header("GET"), "one".getBytes(UTF_8));
+			long second = log.append(0, 7, 1000, "a", false, header("GET"), "two".getBytes(UTF_8));
+			log.append(second, 7, 1000, "a", true, header("HTTP/1.1 200 Ok"), new byte[0]);
+			log.append(first, 7, 1000, "a", true, header("HTTP/1.1 200 Ok"), new byte[0]);
+
+			assertNotEquals(first, second);
+			assertEquals(2, log.findKeysByRule("a").size());
+			assertEquals(List.of(first, second, second, first), log.findById(7).stream().map(SegmentedExchangeLog.Entry::key).toList());
+		}
+		// keys are persisted
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 1000)) {
+			assertEquals(2, log.findKeysByRule("a").size());
+		}
+	}
+
+	@Test
+	void readsDuringDeletion() throws Exception {
+		try (SegmentedExchangeLog log = new SegmentedExchangeLog(dir, 100)) {
+			for (int i = 0; i < 50; i++)
+				log.append(0, i, 1000 + i, "a", false, header("GET"), new byte[80]);
+
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<?> reads = executor.submit(() -> {
+					for (int i = 0; i < 200; i++)
+						log.findByRule("a");
+					return null;
+				});
+				for (int time = 1000; time < 1050; time++)
+					log.deleteSegmentsBefore(time);
+				reads.get(10, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private static byte[] header(String startLine) {
+		return (startLine + "\r\nHost: localhost\r\n\r\n").getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,109 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.http;
+
+import com.predic8.membrane.core.transport.http.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeadParserTest {
+
+    private static InputStream buffered(String s) {
+        // small buffer, so the parser has to read several chunks
+        return new BufferedInputStream(new ByteArrayInputStream(s.getBytes(ISO_8859_1)), 16);
+    }
+
+    private static InputStream unbuffered(String s) {
+        return new FilterInputStream(new ByteArrayInputStream(s.getBytes(ISO_8859_1))) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    private static String rest(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), ISO_8859_1);
+    }
+
+    @Test
+    void lineTerminators() throws Exception {
+        for (InputStream in : new InputStream[]{buffered("a\r\nb\nc\n\rd\r\n"), new ByteArrayInputStream("a\r\nb\nc\n\rd\r\n".getBytes())}) {
+            assertEquals("a", HeadParser.readLine(in));
+            assertEquals("b", HeadParser.readLine(in));
+            assertEquals("c", HeadParser.readLine(in));
+            assertEquals("d", HeadParser.readLine(in));
+            assertEquals("", rest(in));
+        }
+    }
+
+    @Test
+    void bodyStaysReadable() throws Exception {
+        InputStream in = buffered("GET / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nbody");
+        assertEquals("GET / HTTP/1.1", HeadParser.readLine(in));
+        Header header = new Header(in);
+        assertEquals("localhost", header.getFirstValue("host"));
+        assertEquals(4, header.getContentLength());
+        assertEquals("body", rest(in));
+    }
+
+    @Test
+    void sameFieldsAsByteByByte() throws Exception {
+        String head = "Host:  example.com \r\nX-Custom:value:with:colons\r\nno colon\r\ncontent-type: text/plain\r\nEmpty:\r\n\r\n";
+        Header expected = new Header();
+        HeadParser.readHeaderFields(unbuffered(head), expected);
+        Header actual = new Header(buffered(head));
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals("Host: example.com\r\nX-Custom: value:with:colons\r\ncontent-type: text/plain\r\nEmpty: \r\n", actual.toString());
+    }
+
+    @Test
+    void knownNamesAreSharedAndKeepTheirCase() throws Exception {
+        Header h1 = new Header(buffered("Content-Type: a\r\ncontent-type: b\r\nX-Foo: c\r\n\r\n"));
+        Header h2 = new Header(buffered("Content-Type: a\r\ncontent-type: b\r\nX-Foo: c\r\n\r\n"));
+        HeaderField[] f1 = h1.getAllHeaderFields();
+        HeaderField[] f2 = h2.getAllHeaderFields();
+        assertSame(f1[0].getHeaderName(), f2[0].getHeaderName());
+        assertSame(f1[1].getHeaderName(), f2[1].getHeaderName());
+        assertNotSame(f1[2].getHeaderName(), f2[2].getHeaderName());
+        assertEquals("Content-Type", f1[0].getHeaderName().toString());
+        assertEquals("content-type", f1[1].getHeaderName().toString());
+    }
+
+    @Test
+    void headLargerThanBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("X-Header-").append(i).append(": ").append("v".repeat(i % 100)).append("\r\n");
+        Header header = new Header(buffered(sb + "\r\nrest"));
+        assertEquals(1000, header.getAllHeaderFields().length);
+        assertEquals("v".repeat(99), header.getFirstValue("X-Header-999"));
+    }
+
+    @Test
+    void lineTooLong() {
+        assertThrows(LineTooLongException.class, () -> HeadParser.readLine(buffered("x".repeat(HeadParser.MAX_LINE_LENGTH) + "\r\n")));
+    }
+
+    @Test
+    void endOfStream() {
+        EOFWhileReadingLineException e = assertThrows(EOFWhileReadingLineException.class, () -> HeadParser.readLine(buffered("GET / HT")));
+        assertEquals("GET / HT", e.getLineSoFar());
+        assertThrows(EOFWhileReadingLineException.class, () -> HeadParser.readLine(buffered("")));
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.balancer;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadAwareStrategyTest {
+
+	LoadBalancingInterceptor lb;
+	Node a, b, c;
+
+	@BeforeEach
+	void setUp() {
+		lb = new LoadBalancingInterceptor();
+		Balancer balancer = lb.getClusterManager();
+		balancer.up("Default", "a", 80);
+		balancer.up("Default", "b", 80);
+		balancer.up("Default", "c", 80);
+		a = balancer.getNode("Default", "a", 80);
+		b = balancer.getNode("Default", "b", 80);
+		c = balancer.getNode("Default", "c", 80);
+	}
+
+	@Test
+	void availableNodesAreReusedUntilTheyChange() {
+		List<Node> nodes = lb.getEndpoints();
+		assertSame(nodes, lb.getEndpoints());
+		assertThrows(UnsupportedOperationException.class, () -> nodes.remove(0));
+
+		lb.getClusterManager().down("Default", "b", 80);
+		assertEquals(List.of(a, c), lb.getEndpoints());
+
+		lb.getClusterManager().up("Default", "d", 80);
+		assertEquals(3, lb.getEndpoints().size());
+	}
+
+	@Test
+	void runningRequestsAreCounted() throws Exception {
+		lb.setDispatchingStrategy(new LeastOutstandingStrategy());
+		Exchange first = dispatch();
+		Exchange second = dispatch();
+		assertNotSame(first.getProperty("dispatchedNode"), second.getProperty("dispatchedNode"));
+		assertEquals(2, a.getThreads() + b.getThreads() + c.getThreads());
+
+		first.setResponse(Response.ok().build());
+		lb.handleResponse(first);
+		lb.handleAbort(second);
+		assertEquals(0, a.getThreads() + b.getThreads() + c.getThreads());
+	}
+
+	@Test
+	void leastOutstanding() throws Exception {
+		lb.setDispatchingStrategy(new LeastOutstandingStrategy());
+		a.addThread();
+		a.addThread();
+		c.addThread();
+		for (int i = 0; i < 10; i++)
+			assertSame(b, lb.getDispatchingStrategy().dispatch(lb, exchange()));
+	}
+
+	@Test
+	void powerOfTwoChoicesNeverPicksTheBusiestNode() throws Exception {
+		lb.setDispatchingStrategy(new PowerOfTwoChoicesStrategy());
+		a.addThread();
+		a.addThread();
+		c.addThread();
+		for (int i = 0; i < 100; i++)
+			assertNotSame(a, lb.getDispatchingStrategy().dispatch(lb, exchange()));
+	}
+
+	@Test
+	void peakEwmaAvoidsSlowNode() throws Exception {
+		lb.setDispatchingStrategy(new PeakEwmaStrategy());
+		a.recordLatency(10, 5_000_000_000L, true);
+		b.recordLatency(10, 5_000_000_000L, true);
+		c.recordLatency(10, 5_000_000_000L, true);
+
+		// a single slow response is enough
+		b.recordLatency(500, 5_000_000_000L, true);
+		assertEquals(500, b.getLatencyEwma());
+		for (int i = 0; i < 100; i++)
+			assertNotSame(b, lb.getDispatchingStrategy().dispatch(lb, exchange()));
+
+		// while a fast response only lowers the average gradually
+		b.recordLatency(10, 5_000_000_000L, true);
+		assertTrue(b.getLatencyEwma() > 400);
+	}
+
+	@Test
+	void peakEwmaRecordsResponseTimes() throws Exception {
+		lb.setDispatchingStrategy(new PeakEwmaStrategy());
+		Exchange exc = dispatch();
+		exc.setTimeReqSent(1000);
+		exc.setTimeResReceived(1042);
+		exc.setResponse(Response.ok().build());
+		lb.handleResponse(exc);
+		assertEquals(42, ((Node) exc.getProperty("dispatchedNode")).getLatencyEwma());
+	}
+
+	@Test
+	void latencyDecaysWhileNoResponsesArrive() throws Exception {
+		a.recordLatency(100, 1_000_000, true);
+		Thread.sleep(10);
+		assertTrue(a.getLatencyEwma(1_000_000) < 1);
+		assertEquals(100, a.getLatencyEwma());
+	}
+
+	private Exchange dispatch() throws Exception {
+		Exchange exc = exchange();
+		lb.handleRequest(exc);
+		return exc;
+	}
+
+	private static Exchange exchange() throws Exception {
+		return new Request.Builder().get("/foo").buildExchange();
+	}
+}
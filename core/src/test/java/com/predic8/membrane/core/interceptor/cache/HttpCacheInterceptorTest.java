@@ -0,0 +1,393 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.cache;
+
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.*;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static com.predic8.membrane.core.interceptor.Outcome.*;
+import static com.predic8.membrane.core.interceptor.cache.CachedResponse.formatDate;
+import static java.nio.charset.StandardCharsets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpCacheInterceptorTest {
+
+    static final String ETAG = "\"v1\"";
+
+    final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+    HttpCacheInterceptor cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cache = new HttpCacheInterceptor();
+        cache.setClock(clock::get);
+        cache.init();
+    }
+
+    @Test
+    void freshResponseIsServedFromCache() throws Exception {
+        assertEquals(CONTINUE, fetch(get(), ok("max-age=60")).outcome);
+
+        clock.addAndGet(10_000);
+        Result r = request(get());
+        assertEquals(RETURN, r.outcome);
+        assertEquals(200, r.exc.getResponse().getStatusCode());
+        assertEquals("hello", r.exc.getResponse().getBodyAsStringDecoded());
+        assertEquals("10", r.exc.getResponse().getHeader().getFirstValue("Age"));
+
+        HttpCacheInterceptor.Statistics s = cache.getStatistics();
+        assertEquals(1, s.hits());
+        assertEquals(1, s.misses());
+        assertEquals(1, s.stores());
+        assertEquals(5, s.hitBytes());
+        assertEquals(1, s.entries());
+    }
+
+    @Test
+    void notStored() throws Exception {
+        fetch(get(), ok("no-store"));
+        fetch(get(), ok("private, max-age=60"));
+        fetch(get("Authorization", "Basic Zm9vOmJhcg=="), ok("max-age=60"));
+        Response cookie = ok("max-age=60");
+        cookie.getHeader().add("Set-Cookie", "session=1");
+        fetch(get(), cookie);
+        Response vary = ok("max-age=60");
+        vary.getHeader().add("Vary", "*");
+        fetch(get(), vary);
+
+        assertEquals(CONTINUE, request(get()).outcome);
+        assertEquals(0, cache.getStatistics().stores());
+    }
+
+    @Test
+    void publicResponseToAuthorizedRequest() throws Exception {
+        fetch(get("Authorization", "Basic Zm9vOmJhcg=="), ok("public, max-age=60"));
+        assertEquals(RETURN, request(get()).outcome);
+    }
+
+    @Test
+    void requestNoStoreAndNoCache() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        assertEquals(CONTINUE, request(get("Cache-Control", "no-store")).outcome);
+        assertEquals(CONTINUE, request(get("Cache-Control", "no-cache")).outcome);
+        assertEquals(CONTINUE, request(get("Pragma", "no-cache")).outcome);
+        assertEquals(CONTINUE, request(get("Cache-Control", "max-age=0")).outcome);
+        assertEquals(RETURN, request(get()).outcome);
+    }
+
+    @Test
+    void vary() throws Exception {
+        Response gzip = ok("max-age=60");
+        gzip.getHeader().add("Vary", "Accept-Encoding");
+        fetch(get("Accept-Encoding", "gzip"), gzip);
+
+        assertEquals(RETURN, request(get("Accept-Encoding", "gzip")).outcome);
+        assertEquals(CONTINUE, request(get("Accept-Encoding", "br")).outcome);
+        assertEquals(CONTINUE, request(get()).outcome);
+    }
+
+    @Test
+    void staleResponseIsRevalidated() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        clock.addAndGet(61_000);
+
+        Exchange exc = get();
+        assertEquals(CONTINUE, cache.handleRequest(exc));
+        assertEquals(ETAG, exc.getRequest().getHeader().getFirstValue("If-None-Match"));
+
+        exc.setResponse(Response.ResponseBuilder.newInstance().status(304, "Not Modified")
+                .header("Cache-Control", "max-age=120").header("ETag", ETAG).header("Date", formatDate(clock.get())).build());
+        cache.handleResponse(exc);
+        assertEquals(200, exc.getResponse().getStatusCode());
+        assertEquals("hello", exc.getResponse().getBodyAsStringDecoded());
+        assertEquals("max-age=120", exc.getResponse().getHeader().getFirstValue("Cache-Control"));
+
+        clock.addAndGet(100_000);
+        Result r = request(get());
+        assertEquals(RETURN, r.outcome);
+        assertEquals("hello", r.exc.getResponse().getBodyAsStringDecoded());
+        assertEquals(1, cache.getStatistics().revalidations());
+    }
+
+    @Test
+    void clientConditionalAfterRevalidation() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        clock.addAndGet(61_000);
+
+        Exchange exc = get("If-None-Match", "\"v0\", " + ETAG);
+        cache.handleRequest(exc);
+        assertEquals(ETAG, exc.getRequest().getHeader().getFirstValue("If-None-Match"));
+        exc.setResponse(Response.ResponseBuilder.newInstance().status(304, "Not Modified").header("ETag", ETAG).build());
+        cache.handleResponse(exc);
+        assertEquals(304, exc.getResponse().getStatusCode());
+    }
+
+    @Test
+    void staleResponseIsReplaced() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        clock.addAndGet(61_000);
+
+        Response changed = ok("max-age=60");
+        changed.setBodyContent("world".getBytes(UTF_8));
+        fetch(get(), changed);
+
+        assertEquals("world", request(get()).exc.getResponse().getBodyAsStringDecoded());
+    }
+
+    @Test
+    void conditionalRequestIsAnsweredFromCache() throws Exception {
+        fetch(get(), ok("max-age=60"));
+
+        Result r = request(get("If-None-Match", "W/" + ETAG));
+        assertEquals(RETURN, r.outcome);
+        assertEquals(304, r.exc.getResponse().getStatusCode());
+        assertEquals(ETAG, r.exc.getResponse().getHeader().getFirstValue("ETag"));
+
+        r = request(get("If-Modified-Since", formatDate(clock.get())));
+        assertEquals(304, r.exc.getResponse().getStatusCode());
+
+        r = request(get("If-Modified-Since", formatDate(clock.get() - 7_200_000)));
+        assertEquals(200, r.exc.getResponse().getStatusCode());
+    }
+
+    @Test
+    void heuristicFreshness() throws Exception {
+        Response r = Response.ok("hello").build();
+        r.getHeader().add("Date", formatDate(clock.get()));
+        r.getHeader().add("Last-Modified", formatDate(clock.get() - 1_000_000));
+        fetch(get(), r);
+
+        clock.addAndGet(99_000);
+        assertEquals(RETURN, request(get()).outcome);
+        clock.addAndGet(2_000);
+        assertEquals(CONTINUE, request(get()).outcome);
+    }
+
+    @Test
+    void mustRevalidateAndMaxStale() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        clock.addAndGet(70_000);
+        assertEquals(RETURN, request(get("Cache-Control", "max-stale=20")).outcome);
+        assertEquals(CONTINUE, request(get("Cache-Control", "max-stale=5")).outcome);
+
+        fetch(get(), ok("max-age=60, must-revalidate"));
+        clock.addAndGet(70_000);
+        assertEquals(CONTINUE, request(get("Cache-Control", "max-stale")).outcome);
+    }
+
+    @Test
+    void onlyIfCached() throws Exception {
+        Result r = request(get("Cache-Control", "only-if-cached"));
+        assertEquals(RETURN, r.outcome);
+        assertEquals(504, r.exc.getResponse().getStatusCode());
+        // the request must not become the one fetching the URL for others
+        assertNull(r.exc.getProperty(HttpCacheInterceptor.FETCH));
+    }
+
+    @Test
+    void onlyIfCachedWithStaleResponse() throws Exception {
+        fetch(get(), ok("max-age=60"));
+        clock.addAndGet(61_000);
+
+        Result r = request(get("Cache-Control", "only-if-cached"));
+        assertEquals(RETURN, r.outcome);
+        assertEquals(504, r.exc.getResponse().getStatusCode());
+    }
+
+    @Test
+    void unsafeRequestInvalidates() throws Exception {
+        fetch(get(), ok("max-age=60"));
+
+        Exchange post = new Request.Builder().post("/items/7").body("{}").buildExchange();
+        post.setDestinations(new ArrayList<>(List.of("http://backend/items/7")));
+        assertEquals(CONTINUE, cache.handleRequest(post));
+        post.setResponse(Response.ok().build());
+        cache.handleResponse(post);
+
+        assertEquals(CONTINUE, request(get()).outcome);
+    }
+
+    @Test
+    void offHeap() throws Exception {
+        cache.setOffHeapThreshold(3);
+        fetch(get(), ok("max-age=60"));
+        assertEquals("hello", request(get()).exc.getResponse().getBodyAsStringDecoded());
+        assertEquals("hello", request(get()).exc.getResponse().getBodyAsStringDecoded());
+    }
+
+    @Test
+    void sizeIsBounded() throws Exception {
+        cache.setMaxSize(16 * 4000);
+        cache.init();
+        for (int i = 0; i < 200; i++) {
+            Response r = ok("max-age=60");
+            r.setBodyContent(new byte[1000]);
+            fetch(getPath("/items/" + i), r);
+        }
+        HttpCacheInterceptor.Statistics s = cache.getStatistics();
+        assertEquals(200, s.stores());
+        assertTrue(s.size() <= 16 * 4000);
+        assertTrue(s.evictions() > 0);
+        assertEquals(200 - s.evictions(), s.entries());
+        // the most recent response is still there
+        assertEquals(RETURN, request(getPath("/items/199")).outcome);
+    }
+
+    @Test
+    void concurrentMissesAreCoalesced() throws Exception {
+        Exchange leader = get();
+        assertEquals(CONTINUE, cache.handleRequest(leader));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Result>> followers = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                followers.add(executor.submit(() -> request(get())));
+            Thread.sleep(200);
+            for (Future<Result> f : followers)
+                assertFalse(f.isDone());
+
+            leader.setResponse(ok("max-age=60"));
+            cache.handleResponse(leader);
+
+            for (Future<Result> f : followers) {
+                Result r = f.get(10, TimeUnit.SECONDS);
+                assertEquals(RETURN, r.outcome);
+                assertEquals("hello", r.exc.getResponse().getBodyAsStringDecoded());
+            }
+            assertEquals(4, cache.getStatistics().coalesced());
+            assertEquals(1, cache.getStatistics().misses());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void uncacheableResponseReleasesWaitingRequests() throws Exception {
+        Exchange leader = get();
+        cache.handleRequest(leader);
+
+        Future<Result> follower = Executors.newSingleThreadExecutor().submit(() -> request(get()));
+        Thread.sleep(100);
+        leader.setResponse(ok("no-store"));
+        cache.handleResponse(leader);
+
+        assertEquals(CONTINUE, follower.get(10, TimeUnit.SECONDS).outcome);
+    }
+
+    @Test
+    void failedFetchReleasesWaitingRequests() throws Exception {
+        cache.setCoalesceTimeout(60_000);
+        Exchange leader = get();
+        cache.handleRequest(leader);
+
+        Future<Result> follower = Executors.newSingleThreadExecutor().submit(() -> request(get()));
+        Thread.sleep(100);
+        assertFalse(follower.isDone());
+        leader.finishExchange(true, "Connection refused");
+
+        assertEquals(CONTINUE, follower.get(10, TimeUnit.SECONDS).outcome);
+    }
+
+    @Test
+    void uncacheableUrlIsNotCoalesced() throws Exception {
+        cache.setCoalesceTimeout(60_000);
+        fetch(get(), ok("no-store"));
+
+        Exchange first = get();
+        assertEquals(CONTINUE, cache.handleRequest(first));
+        Future<Result> second = Executors.newSingleThreadExecutor().submit(() -> request(get()));
+        assertEquals(CONTINUE, second.get(10, TimeUnit.SECONDS).outcome);
+        assertEquals(0, cache.getStatistics().coalesced());
+
+        // a cacheable response ends the pass
+        first.setResponse(ok("max-age=60"));
+        cache.handleResponse(first);
+        assertEquals(RETURN, request(get()).outcome);
+    }
+
+    @Test
+    void passExpires() throws Exception {
+        fetch(get(), ok("no-store"));
+        clock.addAndGet(121_000);
+
+        Exchange leader = get();
+        cache.handleRequest(leader);
+        Future<Result> follower = Executors.newSingleThreadExecutor().submit(() -> request(get()));
+        Thread.sleep(100);
+        assertFalse(follower.isDone());
+        leader.setResponse(ok("max-age=60"));
+        cache.handleResponse(leader);
+        assertEquals(RETURN, follower.get(10, TimeUnit.SECONDS).outcome);
+    }
+
+    @Test
+    void cacheControlParsing() {
+        CacheControl cc = new CacheControl("max-age=60, s-maxage=\"30\", no-cache=\"Set-Cookie, Foo\", max-stale, min-fresh=x, PUBLIC");
+        assertEquals(60, cc.getMaxAge());
+        assertEquals(30, cc.getSMaxAge());
+        assertTrue(cc.isNoCache());
+        assertTrue(cc.isPublic());
+        assertEquals(Long.MAX_VALUE, cc.getMaxStale());
+        assertEquals(-1, cc.getMinFresh());
+        assertEquals(Integer.MAX_VALUE, new CacheControl("max-age=99999999999999999999").getMaxAge());
+    }
+
+    record Result(Outcome outcome, Exchange exc) {
+    }
+
+    private Result request(Exchange exc) throws Exception {
+        return new Result(cache.handleRequest(exc), exc);
+    }
+
+    /**
+     * Sends the request through the cache and, if it is not answered from the cache, answers it with the response.
+     */
+    private Result fetch(Exchange exc, Response response) throws Exception {
+        Outcome outcome = cache.handleRequest(exc);
+        if (outcome == CONTINUE) {
+            exc.setResponse(response);
+            cache.handleResponse(exc);
+        }
+        return new Result(outcome, exc);
+    }
+
+    private Exchange get(String... header) throws Exception {
+        return getPath("/items/7", header);
+    }
+
+    private Exchange getPath(String path, String... header) throws Exception {
+        Request.Builder builder = new Request.Builder().get(path);
+        for (int i = 0; i + 1 < header.length; i += 2)
+            builder.header(header[i], header[i + 1]);
+        Exchange exc = builder.buildExchange();
+        exc.setDestinations(new ArrayList<>(List.of("http://backend" + path)));
+        return exc;
+    }
+
+    private Response ok(String cacheControl) throws Exception {
+        Response r = Response.ok("hello").build();
+        r.getHeader().add("Cache-Control", cacheControl);
+        r.getHeader().add("ETag", ETAG);
+        r.getHeader().add("Date", formatDate(clock.get()));
+        r.getHeader().add("Last-Modified", formatDate(clock.get() - 3_600_000));
+        return r;
+    }
+}
@@ -16,13 +16,18 @@ package com.predic8.membrane.core.interceptor.cbr;
 
 import static com.predic8.membrane.core.util.ByteUtil.getByteArrayData;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.xpath.XPathExpressionException;
+
 import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXParseException;
 
 import com.predic8.membrane.core.exchange.Exchange;
 import com.predic8.membrane.core.http.Request;
@@ -66,6 +71,48 @@ public class XPathCBRInterceptorTest {
 
 	}
 
+	@Test
+	public void testNoMatch() throws Exception {
+		exc = new Exchange(null);
+		Request res = new Request();
+		res.setBodyContent(getByteArrayData(getClass().getResourceAsStream("/customerFromBonn.xml")));
+		exc.setRequest(res);
+
+		XPathCBRInterceptor i = new XPathCBRInterceptor();
+		i.setCases(getRouteList("//CITY[text()='England']","http://www.host.uk/service"));
+		i.init();
+
+		i.handleRequest(exc);
+		assertTrue(exc.getDestinations().isEmpty());
+
+		// The compiled cases are reused for the next request.
+		i.handleRequest(exc);
+		assertTrue(exc.getDestinations().isEmpty());
+	}
+
+	@Test
+	public void testExternalEntitiesAreNotResolved() throws Exception {
+		exc = new Exchange(null);
+		Request res = new Request();
+		res.setBodyContent(("<!DOCTYPE CITY [<!ENTITY xxe SYSTEM \"file:///etc/hostname\">]>" +
+				"<CITY>&xxe;</CITY>").getBytes());
+		exc.setRequest(res);
+
+		XPathCBRInterceptor i = new XPathCBRInterceptor();
+		i.setCases(getRouteList("//CITY","http://www.host.uk/service"));
+		i.init();
+
+		assertThrows(SAXParseException.class, () -> i.handleRequest(exc));
+		assertTrue(exc.getDestinations().isEmpty());
+	}
+
+	@Test
+	public void testInvalidXPathFailsOnInit() {
+		XPathCBRInterceptor i = new XPathCBRInterceptor();
+		i.setCases(getRouteList("//CITY[","http://www.host.uk/service"));
+		assertThrows(XPathExpressionException.class, i::init);
+	}
+
 	private List<Case> getRouteList(String... args) {
 		List<Case> l = new ArrayList<>();
 		for (int i = 0; i < args.length; i+=2) {
@@ -0,0 +1,166 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.compression;
+
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.http.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionInterceptorTest {
+
+    static final String JSON = "{\"items\":[" + "{\"id\":1,\"name\":\"membrane\"},".repeat(100) + "{}]}";
+
+    CompressionInterceptor compression;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        compression = new CompressionInterceptor();
+        compression.init();
+    }
+
+    @Test
+    void negotiate() {
+        List<String> codings = List.of("br", "gzip", "deflate");
+        assertEquals("gzip", new AcceptEncoding("deflate;q=0.5, gzip").select(codings));
+        assertEquals("br", new AcceptEncoding("gzip, deflate, br").select(codings));
+        assertEquals("deflate", new AcceptEncoding("*;q=0.1, deflate;q=0.2").select(codings));
+        assertEquals("br", new AcceptEncoding("*").select(codings));
+        assertNull(new AcceptEncoding("gzip;q=0, identity").select(codings));
+        assertNull(new AcceptEncoding(null).select(codings));
+        assertEquals(1, new AcceptEncoding("").getQuality("identity"));
+        assertEquals(0, new AcceptEncoding("*;q=0").getQuality("identity"));
+    }
+
+    @Test
+    void gzip() throws Exception {
+        Exchange exc = exchange("deflate;q=0.5, gzip", Response.ok().contentType("application/json").body(JSON).build());
+        exc.getResponse().getHeader().add("ETag", "\"1\"");
+
+        compression.handleResponse(exc);
+
+        Header header = exc.getResponse().getHeader();
+        assertEquals("gzip", header.getContentEncoding());
+        assertEquals("Accept-Encoding", header.getFirstValue("Vary"));
+        assertEquals("W/\"1\"", header.getFirstValue("ETag"));
+        assertFalse(header.hasContentLength());
+        assertEquals(JSON, new String(new GZIPInputStream(new ByteArrayInputStream(exc.getResponse().getBody().getContent())).readAllBytes(), UTF_8));
+    }
+
+    @Test
+    void writtenResponseCanBeDecoded() throws Exception {
+        Exchange exc = exchange("gzip", Response.ok().contentType("application/json").body(JSON).build());
+        compression.handleResponse(exc);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exc.getResponse().write(out, false);
+
+        Response response = new Response();
+        response.read(new ByteArrayInputStream(out.toByteArray()), true);
+        assertTrue(response.getHeader().isChunked());
+        assertEquals(JSON, response.getBodyAsStringDecoded());
+    }
+
+    @Test
+    void chunkedBodyIsCompressedIncrementally() throws Exception {
+        String[] parts = {"data: " + "a".repeat(2000) + "\n\n", "data: " + "b".repeat(2000) + "\n\n", "data: end\n\n"};
+        StringBuilder chunked = new StringBuilder();
+        for (String part : parts)
+            chunked.append(Integer.toHexString(part.length())).append("\r\n").append(part).append("\r\n");
+        chunked.append("0\r\n\r\n");
+
+        Response response = Response.ok().contentType("text/event-stream").build();
+        response.getHeader().removeFields(Header.CONTENT_LENGTH);
+        response.getHeader().setValue(Header.TRANSFER_ENCODING, Header.CHUNKED);
+        response.setBody(new ChunkedBody(new BufferedInputStream(new ByteArrayInputStream(chunked.toString().getBytes(UTF_8)))));
+        Exchange exc = exchange("deflate", response);
+
+        compression.handleResponse(exc);
+        assertEquals("deflate", exc.getResponse().getHeader().getContentEncoding());
+
+        // every chunk written can be decoded on its own, before the end of the body is known
+        Inflater inflater = new Inflater();
+        List<String> decoded = new ArrayList<>();
+        exc.getResponse().getBody().write(new AbstractBodyTransferrer() {
+            @Override
+            public void write(byte[] content, int i, int length) {
+                inflater.setInput(content, i, length);
+                try {
+                    byte[] buf = new byte[8192];
+                    int n = inflater.inflate(buf);
+                    decoded.add(new String(buf, 0, n, UTF_8));
+                } catch (DataFormatException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void write(Chunk chunk) {
+                write(chunk.getContent(), 0, chunk.getLength());
+            }
+
+            @Override
+            public void finish(Header header) {
+            }
+        }, false);
+
+        assertEquals(List.of(parts), decoded.subList(0, 3));
+        assertTrue(inflater.finished());
+    }
+
+    @Test
+    void notCompressed() throws Exception {
+        assertNotCompressed(exchange(null, Response.ok().contentType("application/json").body(JSON).build()));
+        assertNotCompressed(exchange("gzip;q=0", Response.ok().contentType("application/json").body(JSON).build()));
+        assertNotCompressed(exchange("gzip", Response.ok().contentType("application/json").body("{}").build()));
+        assertNotCompressed(exchange("gzip", Response.ok().contentType("image/png").body(JSON).build()));
+        assertNotCompressed(exchange("gzip", Response.ok().contentType("application/json").body(JSON).header("Content-Encoding", "br").build()));
+        assertNotCompressed(exchange("gzip", Response.ok().contentType("application/json").body(JSON).header("Cache-Control", "no-transform").build()));
+        assertNotCompressed(exchange("gzip", Response.notModified("Mon, 01 Jan 2024 00:00:00 GMT").build()));
+    }
+
+    @Test
+    void deflatersAreReused() throws Exception {
+        GzipCodec gzip = (GzipCodec) compression.getCodecs().get(0);
+        for (int i = 0; i < 3; i++) {
+            Exchange exc = exchange("gzip", Response.ok().contentType("application/json").body(JSON).build());
+            compression.handleResponse(exc);
+            exc.getResponse().write(new ByteArrayOutputStream(), false);
+            assertEquals(1, gzip.getPool().getIdle());
+        }
+        assertEquals(3, compression.getCompressedResponses());
+    }
+
+    private void assertNotCompressed(Exchange exc) throws Exception {
+        String contentEncoding = exc.getResponse().getHeader().getContentEncoding();
+        compression.handleResponse(exc);
+        assertEquals(contentEncoding, exc.getResponse().getHeader().getContentEncoding());
+        assertFalse(exc.getResponse().getBody() instanceof CompressingBody);
+    }
+
+    private static Exchange exchange(String acceptEncoding, Response response) throws Exception {
+        Request.Builder builder = new Request.Builder().get("/items");
+        if (acceptEncoding != null)
+            builder.header("Accept-Encoding", acceptEncoding);
+        Exchange exc = builder.buildExchange();
+        exc.setResponse(response);
+        return exc;
+    }
+}
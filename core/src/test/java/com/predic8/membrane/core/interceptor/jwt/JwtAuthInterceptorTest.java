@@ -27,11 +27,16 @@ import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.jwt.JwtClaims;
 import org.jose4j.lang.JoseException;
 import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -296,4 +301,94 @@ public class JwtAuthInterceptorTest{
         return createClaims(AUDIENCE + "1");
     }
 
+    @Test
+    void verifiedTokensAreCached() throws Exception {
+        RsaJsonWebKey privateKey = RsaJwkGenerator.generateJwk(2048);
+        privateKey.setKeyId(KID);
+        RsaJsonWebKey publicOnly = new RsaJsonWebKey(privateKey.getRsaPublicKey());
+        publicOnly.setKeyId(KID);
+
+        JwtAuthInterceptor interceptor = prepareInterceptor(publicOnly);
+        long[] now = {System.currentTimeMillis()};
+        interceptor.setClock(() -> now[0]);
+        String jwt = getSignedJwt(privateKey);
+
+        for (int i = 0; i < 3; i++) {
+            Exchange exc = new Request.Builder().get("").header("Authorization", "Bearer " + jwt).buildExchange();
+            interceptor.handleRequest(exc);
+            assertEquals(SUB_CLAIM_CONTENT, ((Map<?, ?>) exc.getProperties().get("jwt")).get("sub"));
+        }
+        assertEquals(2, interceptor.getStatistics().cacheHits());
+        assertEquals(1, interceptor.getStatistics().cacheMisses());
+        assertEquals(1, interceptor.getStatistics().cachedTokens());
+        assertEquals(1, interceptor.getStatistics().verificationTime().getCount());
+
+        // the token expires after 10 minutes
+        now[0] += 11 * 60 * 1000;
+        interceptor.handleRequest(new Request.Builder().get("").header("Authorization", "Bearer " + jwt).buildExchange());
+        assertEquals(2, interceptor.getStatistics().cacheMisses());
+    }
+
+    @Test
+    void changedAudienceAppliesToCachedTokens() throws Exception {
+        RsaJsonWebKey privateKey = RsaJwkGenerator.generateJwk(2048);
+        privateKey.setKeyId(KID);
+        RsaJsonWebKey publicOnly = new RsaJsonWebKey(privateKey.getRsaPublicKey());
+        publicOnly.setKeyId(KID);
+
+        JwtAuthInterceptor interceptor = prepareInterceptor(publicOnly);
+        String jwt = getSignedJwt(privateKey);
+        Exchange exc = new Request.Builder().get("").header("Authorization", "Bearer " + jwt).buildExchange();
+        interceptor.handleRequest(exc);
+        assertNotNull(exc.getProperties().get("jwt"));
+
+        interceptor.setExpectedAud(AUDIENCE + "1");
+        exc = new Request.Builder().get("").header("Authorization", "Bearer " + jwt).buildExchange();
+        interceptor.handleRequest(exc);
+        assertEquals(400, exc.getResponse().getStatusCode());
+        assertEquals(0, interceptor.getStatistics().cachedTokens());
+    }
+
+    @Test
+    void keysAreReloadedForUnknownKid(@TempDir Path dir) throws Exception {
+        RsaJsonWebKey first = RsaJwkGenerator.generateJwk(2048);
+        first.setKeyId("first");
+        RsaJsonWebKey second = RsaJwkGenerator.generateJwk(2048);
+        second.setKeyId("second");
+        RsaJsonWebKey third = RsaJwkGenerator.generateJwk(2048);
+        third.setKeyId("third");
+
+        Path jwksFile = dir.resolve("jwks.json");
+        writeJwks(jwksFile, first);
+
+        JwtAuthInterceptor interceptor = new JwtAuthInterceptor();
+        Jwks jwks = new Jwks();
+        jwks.setJwksUris(jwksFile.toUri().toString());
+        jwks.setRefreshInterval(0);
+        interceptor.setJwks(jwks);
+        interceptor.setExpectedAud(AUDIENCE);
+        initInterceptor(interceptor);
+
+        // the identity provider rotates its keys
+        writeJwks(jwksFile, first, second);
+
+        Exchange exc = new Request.Builder().get("").header("Authorization", "Bearer " + getSignedJwt(second)).buildExchange();
+        interceptor.handleRequest(exc);
+        assertNotNull(exc.getProperties().get("jwt"));
+        assertEquals(1, interceptor.getStatistics().keyRefreshes());
+
+        // reloads for unknown keys are rate limited
+        writeJwks(jwksFile, first, second, third);
+        exc = new Request.Builder().get("").header("Authorization", "Bearer " + getSignedJwt(third)).buildExchange();
+        interceptor.handleRequest(exc);
+        assertEquals(JwtAuthInterceptor.ERROR_UNKNOWN_KEY, unpackBody(exc).get("description"));
+        assertEquals(1, interceptor.getStatistics().keyRefreshes());
+    }
+
+    private static void writeJwks(Path file, RsaJsonWebKey... keys) throws IOException {
+        List<Map<String, Object>> publicKeys = new ArrayList<>();
+        for (RsaJsonWebKey key : keys)
+            publicKeys.add(key.toParams(RsaJsonWebKey.OutputControlLevel.PUBLIC_ONLY));
+        Files.writeString(file, new ObjectMapper().writeValueAsString(Map.of("keys", publicKeys)));
+    }
 }
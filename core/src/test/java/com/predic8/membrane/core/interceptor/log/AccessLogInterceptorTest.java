@@ -13,10 +13,18 @@
    limitations under the License. */
 package com.predic8.membrane.core.interceptor.log;
 
+import com.predic8.membrane.core.exchange.*;
 import com.predic8.membrane.core.http.*;
 import org.junit.jupiter.api.*;
 
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.interceptor.log.AsyncAccessLogWriter.Format.*;
+import static java.nio.charset.StandardCharsets.*;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class AccessLogInterceptorTest {
 
@@ -45,4 +53,82 @@ public class AccessLogInterceptorTest {
         interceptor.handleResponse(Request.get("/foo").header("foo","bar").header("X-Forwarded-For","bazf").buildExchange());
     }
 
-}
\ No newline at end of file
+    @Test
+    void asyncJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncAccessLogWriter writer = new AsyncAccessLogWriter(16, JSON, "dd/MM/yyyy:HH:mm:ss Z", "-",
+                interceptor.getAdditionalPatternList(), false, out);
+
+        Exchange exc = Request.get("/foo").header("foo", "bar\"baz").buildExchange();
+        exc.setOriginalRequestUri("/foo");
+        exc.setResponse(Response.ok().build());
+        writer.log(exc);
+        writer.stop();
+
+        String line = out.toString(UTF_8);
+        assertTrue(line.startsWith("{\"time\":"), line);
+        assertTrue(line.contains("\"method\":\"GET\""), line);
+        assertTrue(line.contains("\"uri\":\"/foo\""), line);
+        assertTrue(line.contains("\"statusCode\":200"), line);
+        assertTrue(line.contains("\"foo\":\"bar\\\"baz\""), line);
+        assertTrue(line.endsWith("}\n"), line);
+        assertEquals(1, writer.getWritten());
+    }
+
+    @Test
+    void asyncDropsWhenFull() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream blocking = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AsyncAccessLogWriter writer = new AsyncAccessLogWriter(4, CLF, "dd/MM/yyyy:HH:mm:ss Z", "-",
+                List.of(), true, blocking);
+
+        Exchange exc = Request.get("/foo").buildExchange();
+        writer.log(exc);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++)
+            writer.log(exc);
+        assertEquals(1, writer.getDropped());
+        assertEquals(4, writer.getPending());
+
+        release.countDown();
+        writer.stop();
+        assertEquals(5, writer.getWritten());
+        assertEquals(0, writer.getPending());
+    }
+
+    @Test
+    void destroyWritesBufferedLinesToFile() throws Exception {
+        File file = File.createTempFile("access", ".log");
+        file.deleteOnExit();
+        interceptor.setAsync(true);
+        interceptor.setFormat(JSON);
+        interceptor.setFile(file.getAbsolutePath());
+        interceptor.init();
+
+        Exchange exc = Request.get("/foo").buildExchange();
+        exc.setOriginalRequestUri("/foo");
+        exc.setResponse(Response.ok().build());
+        interceptor.handleResponse(exc);
+        interceptor.destroy();
+
+        assertEquals(1, interceptor.getWritten());
+        String line = Files.readString(file.toPath());
+        assertTrue(line.contains("\"uri\":\"/foo\""), line);
+    }
+}
@@ -22,6 +22,7 @@ import com.predic8.membrane.core.interceptor.oauth2.client.SyncSMOAuth2R2Test;
 import com.predic8.membrane.core.interceptor.oauth2.client.b2c.InMemB2CResourceTest;
 import com.predic8.membrane.core.interceptor.oauth2.client.b2c.JwtB2CResourceTest;
 import com.predic8.membrane.core.interceptor.oauth2.client.b2c.SyncB2CResourceTest;
+import com.predic8.membrane.core.interceptor.oauth2.tokenvalidation.OAuth2TokenValidatorInterceptorTest;
 import org.junit.platform.suite.api.SelectClasses;
 import org.junit.platform.suite.api.Suite;
 
@@ -55,6 +56,7 @@ import org.junit.platform.suite.api.Suite;
         RevocationRequestJWTTest.class,
         TokenRequestTest.class,
         TokenRequestJWTTest.class,
+        OAuth2TokenValidatorInterceptorTest.class,
         UserinfoRequestTest.class,
         UserinfoRequestJWTTest.class,
         WellknownFileTest.class})
@@ -0,0 +1,148 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.oauth2.tokenvalidation;
+
+import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Header;
+import com.predic8.membrane.core.http.Request;
+import com.predic8.membrane.core.http.Response;
+import com.predic8.membrane.core.interceptor.Outcome;
+import com.predic8.membrane.core.transport.http.HttpClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.predic8.membrane.core.interceptor.Outcome.CONTINUE;
+import static com.predic8.membrane.core.interceptor.Outcome.RETURN;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OAuth2TokenValidatorInterceptorTest {
+
+    OAuth2TokenValidatorInterceptor validator;
+    AtomicLong now = new AtomicLong(1_000_000);
+    AtomicInteger status = new AtomicInteger(200);
+    CountDownLatch release = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        HttpClient client = mock(HttpClient.class);
+        when(client.call(any(Exchange.class))).thenAnswer(invocation -> {
+            release.await();
+            Exchange exc = invocation.getArgument(0);
+            exc.setResponse(Response.statusCode(status.get()).build());
+            return exc;
+        });
+
+        validator = new OAuth2TokenValidatorInterceptor();
+        validator.setEndpoint("http://localhost:3000/validate");
+        validator.setClock(now::get);
+        validator.client = client;
+    }
+
+    @Test
+    void resultsAreCachedUntilTheyExpire() throws Exception {
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(1, validator.getStatistics().calls());
+
+        status.set(401);
+        now.addAndGet(61_000);
+        assertEquals(RETURN, validate("a"));
+        assertEquals(RETURN, validate("a"));
+        assertEquals(2, validator.getStatistics().calls());
+
+        status.set(200);
+        now.addAndGet(11_000);
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(3, validator.getStatistics().calls());
+        assertEquals(2, validator.getStatistics().hits());
+    }
+
+    @Test
+    void serverErrorsAreNotCached() throws Exception {
+        status.set(503);
+        assertEquals(RETURN, validate("a"));
+        status.set(200);
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(2, validator.getStatistics().calls());
+    }
+
+    @Test
+    void concurrentValidationsOfTheSameTokenAreCoalesced() throws Exception {
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Outcome> first = executor.submit(() -> validate("a"));
+            while (validator.getStatistics().calls() == 0)
+                Thread.sleep(1);
+            Future<Outcome> second = executor.submit(() -> validate("a"));
+            while (validator.getStatistics().coalesced() == 0)
+                Thread.sleep(1);
+
+            release.countDown();
+            assertEquals(CONTINUE, first.get(5, TimeUnit.SECONDS));
+            assertEquals(CONTINUE, second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, validator.getStatistics().calls());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void staleResultIsUsedWhileRevalidating() throws Exception {
+        validator.setStaleWhileRevalidate(30);
+        assertEquals(CONTINUE, validate("a"));
+
+        status.set(401);
+        now.addAndGet(70_000);
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(1, validator.getStatistics().staleHits());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (validate("a") == CONTINUE && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(RETURN, validate("a"));
+        assertEquals(2, validator.getStatistics().calls());
+    }
+
+    @Test
+    void staleResultIsUsedAfterStop() throws Exception {
+        validator.setStaleWhileRevalidate(30);
+        assertEquals(CONTINUE, validate("a"));
+        validator.stop();
+
+        now.addAndGet(70_000);
+        assertEquals(CONTINUE, validate("a"));
+        assertEquals(1, validator.getStatistics().calls());
+    }
+
+    @Test
+    void cacheIsBounded() throws Exception {
+        validator.setCacheSize(20);
+        for (int i = 0; i < 100; i++)
+            validate("token" + i);
+        assertTrue(validator.getStatistics().cachedTokens() <= 20);
+    }
+
+    private Outcome validate(String token) throws Exception {
+        Exchange exc = new Request.Builder().get("/resource").header(Header.AUTHORIZATION, "Bearer " + token).buildExchange();
+        return validator.handleRequest(exc);
+    }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.prometheus;
+
+import com.predic8.membrane.core.*;
+import com.predic8.membrane.core.exchange.*;
+import com.predic8.membrane.core.exchangestore.*;
+import com.predic8.membrane.core.http.*;
+import com.predic8.membrane.core.interceptor.log.*;
+import com.predic8.membrane.core.interceptor.shadowing.*;
+import com.predic8.membrane.core.rules.*;
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+import static com.predic8.membrane.core.interceptor.prometheus.PrometheusWriter.*;
+import static java.nio.charset.StandardCharsets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrometheusInterceptorTest {
+
+    private static final List<Consumer<PrometheusWriter>> FAMILIES = List.of(
+            w -> {
+                w.family("membrane_count", COUNTER);
+                w.sample("membrane_count", "rule=\"a\",code=\"200\"", 3);
+            },
+            w -> w.family("membrane_empty", GAUGE),
+            w -> {
+                w.family("membrane_total_time", HISTOGRAM);
+                w.sample("membrane_total_time_bucket", "rule=\"a\"", "le", w.le(500), 2);
+            });
+
+    @Test
+    void textFormat() throws Exception {
+        assertEquals("""
+                # TYPE membrane_count counter
+                membrane_count{rule="a",code="200"} 3
+                # TYPE membrane_total_time histogram
+                membrane_total_time_bucket{rule="a",le="500"} 2
+                """, read(new ExpositionStream(FAMILIES, false, false)));
+    }
+
+    @Test
+    void openMetricsFormat() throws Exception {
+        assertEquals("""
+                # TYPE membrane_count counter
+                membrane_count_total{rule="a",code="200"} 3
+                # TYPE membrane_total_time histogram
+                membrane_total_time_bucket{rule="a",le="500.0"} 2
+                # EOF
+                """, read(new ExpositionStream(FAMILIES, true, false)));
+    }
+
+    @Test
+    void gzip() throws Exception {
+        String expected = read(new ExpositionStream(FAMILIES, false, false));
+        assertEquals(expected, read(new GZIPInputStream(new ExpositionStream(FAMILIES, false, true))));
+    }
+
+    @Test
+    void ruleNameFilter() {
+        assertNull(PrometheusInterceptor.getRuleNameFilter("/metrics"));
+        assertNull(PrometheusInterceptor.getRuleNameFilter("/metrics?foo=bar"));
+        assertEquals(Set.of("orders", "my api"), PrometheusInterceptor.getRuleNameFilter("/metrics?name[]=orders&name%5B%5D=my%20api"));
+    }
+
+    @Test
+    void escapeLabelValues() {
+        assertEquals("a\\\"b\\\\c\\n", escapeLabelValue("a\"b\\c\n"));
+    }
+
+    @Test
+    void shadowingMetrics() throws Exception {
+        HttpRouter router = new HttpRouter();
+        ServiceProxy sp = new ServiceProxy(new ServiceProxyKey(3070), "localhost", 80);
+        sp.setName("shadow");
+        sp.getInterceptors().add(new ShadowingInterceptor());
+        router.getRuleManager().addProxy(sp, RuleManager.RuleDefinitionSource.MANUAL);
+
+        PrometheusInterceptor prometheus = new PrometheusInterceptor();
+        prometheus.init(router);
+        Exchange exc = new Request.Builder().get("/metrics").buildExchange();
+        prometheus.handleRequest(exc);
+
+        String metrics = exc.getResponse().getBodyAsStringDecoded();
+        assertTrue(metrics.contains("""
+                # TYPE membrane_shadowing_queue_depth gauge
+                membrane_shadowing_queue_depth{rule="shadow"} 0
+                """));
+        assertTrue(metrics.contains("""
+                # TYPE membrane_shadowing_dropped counter
+                membrane_shadowing_dropped{rule="shadow"} 0
+                """));
+    }
+
+    @Test
+    void accessLogMetrics() throws Exception {
+        HttpRouter router = new HttpRouter();
+        ServiceProxy sp = new ServiceProxy(new ServiceProxyKey(3071), "localhost", 80);
+        sp.setName("logged");
+        AccessLogInterceptor accessLog = new AccessLogInterceptor();
+        accessLog.setAsync(true);
+        accessLog.init();
+        sp.getInterceptors().add(accessLog);
+        router.getRuleManager().addProxy(sp, RuleManager.RuleDefinitionSource.MANUAL);
+
+        PrometheusInterceptor prometheus = new PrometheusInterceptor();
+        prometheus.init(router);
+        Exchange exc = new Request.Builder().get("/metrics").buildExchange();
+        prometheus.handleRequest(exc);
+        accessLog.destroy();
+
+        String metrics = exc.getResponse().getBodyAsStringDecoded();
+        assertTrue(metrics.contains("""
+                # TYPE membrane_access_log_dropped counter
+                membrane_access_log_dropped{rule="logged"} 0
+                """));
+    }
+
+    @Test
+    void elasticSearchMetrics() throws Exception {
+        HttpRouter router = new HttpRouter();
+        router.setExchangeStore(new ElasticSearchExchangeStore());
+
+        PrometheusInterceptor prometheus = new PrometheusInterceptor();
+        prometheus.init(router);
+        Exchange exc = new Request.Builder().get("/metrics").buildExchange();
+        prometheus.handleRequest(exc);
+
+        String metrics = exc.getResponse().getBodyAsStringDecoded();
+        assertTrue(metrics.contains("""
+                # TYPE membrane_elasticsearch_queue_depth gauge
+                membrane_elasticsearch_queue_depth 0
+                """));
+        assertTrue(metrics.contains("""
+                # TYPE membrane_elasticsearch_dropped counter
+                membrane_elasticsearch_dropped 0
+                """));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), UTF_8);
+    }
+}
@@ -83,6 +83,41 @@ public class RateLimitInterceptorTest {
 		assertTrue(parseLong(h1.getFirstValue(X_RATELIMIT_RESET)) > 0);
 	}
 
+	@ParameterizedTest
+	@EnumSource(Algorithm.class)
+	void algorithm(Algorithm algorithm) throws Exception {
+		RateLimitInterceptor interceptor = new RateLimitInterceptor(ofSeconds(10), 3);
+		interceptor.setAlgorithm(algorithm);
+		interceptor.setKeyExpression("path");
+		interceptor.init();
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(CONTINUE, interceptor.handleRequest(prepareRequest("aaa")));
+		Exchange exc = prepareRequest("aaa");
+		assertEquals(RETURN, interceptor.handleRequest(exc));
+		assertEquals(CONTINUE, interceptor.handleRequest(prepareRequest("bbb")));
+
+		Header h = exc.getResponse().getHeader();
+		assertEquals("PT10S", h.getFirstValue(X_RATELIMIT_DURATION));
+		assertEquals("3", h.getFirstValue(X_RATELIMIT_LIMIT));
+		assertTrue(parseLong(h.getFirstValue(X_RATELIMIT_RESET)) > 0);
+	}
+
+	@Test
+	void redisUnavailable() throws Exception {
+		RedisConnector connector = new RedisConnector();
+		connector.setPort(1); // nothing listens there
+		connector.afterPropertiesSet();
+
+		RateLimitInterceptor interceptor = new RateLimitInterceptor(ofSeconds(10), 3);
+		interceptor.setConnector(connector);
+		interceptor.init();
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(CONTINUE, interceptor.handleRequest(prepareRequest("aaa")));
+		assertEquals(RETURN, interceptor.handleRequest(prepareRequest("aaa")));
+	}
+
 	@NotNull
 	private static Exchange prepareRequest(String value) throws URISyntaxException, JsonProcessingException {
 		Exchange exc = new Request.Builder()
@@ -0,0 +1,237 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import com.predic8.membrane.core.util.*;
+import org.junit.jupiter.api.*;
+import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.*;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.time.Duration.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RedisRateLimitTest {
+
+    final AtomicLong clock = new AtomicLong(SECONDS.toNanos(1000));
+    final FakeRedis redis = new FakeRedis();
+    RedisConnector connector;
+
+    @BeforeEach
+    void setUp() {
+        Jedis jedis = redis.createClient();
+        connector = mock(RedisConnector.class);
+        when(connector.getJedisWithDb()).thenReturn(jedis);
+    }
+
+    @Test
+    void limitIsSharedBetweenInstances() {
+        RedisRateLimit a = create(5);
+        RedisRateLimit b = create(5);
+
+        int permitted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (!a.isRequestLimitReached("foo"))
+                permitted++;
+            if (!b.isRequestLimitReached("foo"))
+                permitted++;
+        }
+        assertEquals(10, permitted);
+        assertTrue(a.isRequestLimitReached("foo"));
+        assertTrue(b.isRequestLimitReached("foo"));
+        assertFalse(a.isRequestLimitReached("bar"));
+    }
+
+    @Test
+    void requestsAreReservedInBatches() {
+        RedisRateLimit limiter = create(5);
+        for (int i = 0; i < 10; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertEquals(2, redis.roundTrips.get());
+        assertEquals(10, redis.get("foo"));
+
+        assertTrue(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+        assertEquals(2, redis.roundTrips.get(), "no round trips once the limit is reached");
+    }
+
+    @Test
+    void lastReservationIsPartial() {
+        RedisRateLimit limiter = create(4);
+        int permitted = 0;
+        for (int i = 0; i < 12; i++)
+            if (!limiter.isRequestLimitReached("foo"))
+                permitted++;
+        assertEquals(10, permitted);
+    }
+
+    @Test
+    void nextWindow() {
+        RedisRateLimit limiter = create(5);
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        assertTrue(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.getNanosUntilPermitted(limiter.states.get("foo"), clock.get()) > 0);
+
+        clock.addAndGet(SECONDS.toNanos(10));
+        assertFalse(limiter.isRequestLimitReached("foo"));
+        assertEquals(0, limiter.getNanosUntilPermitted(limiter.states.get("foo"), clock.get()));
+    }
+
+    @Test
+    void scriptIsLoadedOnceAndCalledBySha() {
+        RedisRateLimit limiter = create(1);
+        for (int i = 0; i < 3; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertEquals(1, redis.evals.get(), "only the first call sends the script");
+        assertEquals(3, redis.roundTrips.get());
+        assertEquals(10_001, redis.expiries.get("test:foo:" + clock.get() / SECONDS.toNanos(10)));
+    }
+
+    @Test
+    void scriptIsSentAgainAfterRedisLostIt() {
+        RedisRateLimit limiter = create(1);
+        assertFalse(limiter.isRequestLimitReached("foo"));
+
+        // e.g. after SCRIPT FLUSH or a restart of Redis
+        redis.scripts.clear();
+        assertFalse(limiter.isRequestLimitReached("foo"));
+        assertFalse(limiter.isRequestLimitReached("foo"));
+        assertEquals(2, redis.evals.get());
+        assertEquals(3, redis.get("foo"));
+    }
+
+    @Test
+    void fallbackWhileRedisIsUnavailable() {
+        RedisRateLimit limiter = create(5);
+        assertFalse(limiter.isRequestLimitReached("foo"));
+
+        redis.down = true;
+        for (int i = 0; i < 10; i++)
+            assertFalse(limiter.isRequestLimitReached("bar"));
+        assertTrue(limiter.isRequestLimitReached("bar"));
+        int roundTrips = redis.roundTrips.get();
+        limiter.isRequestLimitReached("baz");
+        assertEquals(roundTrips, redis.roundTrips.get(), "Redis is not retried immediately");
+
+        redis.down = false;
+        clock.addAndGet(RedisRateLimit.RETRY_INTERVAL.toNanos());
+        assertFalse(limiter.isRequestLimitReached("bar"));
+        assertEquals(5, redis.get("bar"));
+    }
+
+    @Test
+    void configChangeIsPassedToFallback() {
+        RedisRateLimit limiter = create(5);
+        limiter.setRequestLimit(3);
+        redis.down = true;
+        for (int i = 0; i < 3; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        RedisRateLimit a = create(7);
+        RedisRateLimit b = create(7);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++)
+                tasks.add(() -> (ThreadLocalRandom.current().nextBoolean() ? a : b).isRequestLimitReached("foo"));
+            long permitted = executor.invokeAll(tasks).stream().filter(f -> !TokenBucketRateLimitTest.get(f)).count();
+            assertTrue(permitted <= 10);
+            assertTrue(permitted >= 10 - 6, "at most one partly used reservation per instance");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private RedisRateLimit create(int reservationSize) {
+        LazyRateLimit fallback = new LazyRateLimit(ofSeconds(10), 10);
+        return new RedisRateLimit(connector, "test:", reservationSize, fallback, clock::get);
+    }
+
+    /**
+     * In-process stand-in for Redis, which runs the script of {@link RedisRateLimit} with EVAL and EVALSHA and caches
+     * it like Redis does.
+     */
+    class FakeRedis {
+        final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        final Map<String, Long> expiries = new ConcurrentHashMap<>();
+        final Set<String> scripts = ConcurrentHashMap.newKeySet();
+        /**
+         * Number of scripts that were run, i.e. not counting EVALSHA calls failing with NOSCRIPT
+         */
+        final AtomicInteger roundTrips = new AtomicInteger();
+        final AtomicInteger evals = new AtomicInteger();
+        volatile boolean down;
+
+        @SuppressWarnings("unchecked")
+        Jedis createClient() {
+            Jedis jedis = mock(Jedis.class);
+            when(jedis.evalsha(anyString(), anyList(), anyList())).thenAnswer(i -> {
+                checkConnection();
+                if (!scripts.contains(i.<String>getArgument(0)))
+                    throw new JedisNoScriptException("NOSCRIPT No matching script. Please use EVAL.");
+                return run(i.getArgument(1), i.getArgument(2));
+            });
+            when(jedis.eval(anyString(), anyList(), anyList())).thenAnswer(i -> {
+                checkConnection();
+                assertEquals(RedisRateLimit.SCRIPT, i.getArgument(0));
+                scripts.add(sha1(i.getArgument(0)));
+                evals.incrementAndGet();
+                return run(i.getArgument(1), i.getArgument(2));
+            });
+            return jedis;
+        }
+
+        private void checkConnection() {
+            if (down) {
+                roundTrips.incrementAndGet();
+                throw new JedisConnectionException("Connection refused");
+            }
+        }
+
+        /**
+         * Does what the script does
+         */
+        private long run(List<String> keys, List<String> args) {
+            roundTrips.incrementAndGet();
+            long tokens = Long.parseLong(args.get(0));
+            long count = counters.computeIfAbsent(keys.get(0), k -> new AtomicLong()).addAndGet(tokens);
+            if (count == tokens)
+                expiries.put(keys.get(0), Long.parseLong(args.get(1)));
+            return count;
+        }
+
+        long get(String key) {
+            long window = clock.get() / SECONDS.toNanos(10);
+            AtomicLong counter = counters.get("test:" + key + ":" + window);
+            return counter == null ? 0 : counter.get();
+        }
+
+        private static String sha1(String script) throws NoSuchAlgorithmException {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(UTF_8)));
+        }
+    }
+}
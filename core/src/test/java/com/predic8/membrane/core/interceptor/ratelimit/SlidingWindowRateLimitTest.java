@@ -0,0 +1,113 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import static com.predic8.membrane.core.interceptor.ratelimit.TokenBucketRateLimitTest.get;
+import static java.time.Duration.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlidingWindowRateLimitTest {
+
+    final AtomicLong clock = new AtomicLong(1000);
+    SlidingWindowRateLimit limiter;
+
+    @BeforeEach
+    void setup() {
+        limiter = new SlidingWindowRateLimit(ofSeconds(10), 10, clock::get);
+    }
+
+    @Test
+    void limitPerKey() {
+        for (int i = 0; i < 10; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+        assertFalse(limiter.isRequestLimitReached("bar"));
+    }
+
+    @Test
+    void noBurstAtWindowBoundary() {
+        clock.addAndGet(SECONDS.toNanos(9));
+        limiter.isRequestLimitReached("foo"); // window starts here
+        for (int i = 0; i < 9; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+
+        // 1 second into the next window, 90% of the previous window still count
+        clock.addAndGet(SECONDS.toNanos(11));
+        assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+
+        // half of the previous window still counts
+        clock.addAndGet(SECONDS.toNanos(4));
+        for (int i = 0; i < 4; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void windowSkipped() {
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        clock.addAndGet(SECONDS.toNanos(25));
+        for (int i = 0; i < 10; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void nanosUntilPermitted() {
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        clock.addAndGet(SECONDS.toNanos(4));
+        assertEquals(SECONDS.toNanos(6), limiter.getNanosUntilPermitted(limiter.states.get("foo"), clock.get()));
+
+        clock.addAndGet(SECONDS.toNanos(7));
+        limiter.isRequestLimitReached("foo");
+        // 10 * (9 - x) / 10 + 1 + 1 <= 10
+        assertEquals(SECONDS.toNanos(1), limiter.getNanosUntilPermitted(limiter.states.get("foo"), clock.get()));
+    }
+
+    @Test
+    void idleKeysAreEvicted() {
+        limiter.isRequestLimitReached("foo");
+        clock.addAndGet(SECONDS.toNanos(21));
+        limiter.isRequestLimitReached("bar");
+
+        assertFalse(limiter.states.containsKey("foo"));
+        assertTrue(limiter.states.containsKey("bar"));
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        SlidingWindowRateLimit limiter = new SlidingWindowRateLimit(ofHours(1), 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            long permitted = executor.invokeAll(IntStream.range(0, 2000)
+                            .mapToObj(i -> (Callable<Boolean>) () -> limiter.isRequestLimitReached("foo"))
+                            .toList())
+                    .stream()
+                    .filter(f -> !get(f))
+                    .count();
+            assertEquals(1000, permitted);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.interceptor.ratelimit;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import static java.time.Duration.*;
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketRateLimitTest {
+
+    final AtomicLong clock = new AtomicLong(1000);
+    TokenBucketRateLimit limiter;
+
+    @BeforeEach
+    void setup() {
+        limiter = new TokenBucketRateLimit(ofSeconds(10), 10, clock::get);
+    }
+
+    @Test
+    void burstUpToLimit() {
+        for (int i = 0; i < 10; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+        assertFalse(limiter.isRequestLimitReached("bar"));
+    }
+
+    @Test
+    void refillsContinuously() {
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        assertTrue(limiter.isRequestLimitReached("foo"));
+
+        clock.addAndGet(SECONDS.toNanos(1));
+        assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+
+        clock.addAndGet(SECONDS.toNanos(3));
+        for (int i = 0; i < 3; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void rejectedRequestsAreNotCounted() {
+        for (int i = 0; i < 20; i++)
+            limiter.isRequestLimitReached("foo");
+        clock.addAndGet(SECONDS.toNanos(1));
+        assertFalse(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void nanosUntilPermitted() {
+        assertEquals(0, limiter.getNanosUntilPermitted(new AtomicLong(clock.get()), clock.get()));
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        assertEquals(SECONDS.toNanos(1), limiter.getNanosUntilPermitted(limiter.states.get("foo"), clock.get()));
+    }
+
+    @Test
+    void idleKeysAreEvicted() {
+        limiter.isRequestLimitReached("foo");
+        clock.addAndGet(SECONDS.toNanos(11));
+        limiter.isRequestLimitReached("bar");
+
+        assertFalse(limiter.states.containsKey("foo"));
+        assertTrue(limiter.states.containsKey("bar"));
+    }
+
+    @Test
+    void configChangeResetsState() {
+        for (int i = 0; i < 10; i++)
+            limiter.isRequestLimitReached("foo");
+        limiter.setRequestLimit(20);
+        for (int i = 0; i < 20; i++)
+            assertFalse(limiter.isRequestLimitReached("foo"));
+        assertTrue(limiter.isRequestLimitReached("foo"));
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        TokenBucketRateLimit limiter = new TokenBucketRateLimit(ofHours(1), 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            long permitted = executor.invokeAll(IntStream.range(0, 2000)
+                            .mapToObj(i -> (Callable<Boolean>) () -> limiter.isRequestLimitReached("foo"))
+                            .toList())
+                    .stream()
+                    .filter(f -> !get(f))
+                    .count();
+            assertEquals(1000, permitted);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static boolean get(Future<Boolean> f) {
+        try {
+            return f.get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
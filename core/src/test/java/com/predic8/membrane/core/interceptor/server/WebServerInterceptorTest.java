@@ -15,13 +15,16 @@ package com.predic8.membrane.core.interceptor.server;
 
 import com.predic8.membrane.core.Router;
 import com.predic8.membrane.core.exchange.Exchange;
+import com.predic8.membrane.core.http.Request;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class WebServerInterceptorTest {
@@ -61,4 +64,28 @@ class WebServerInterceptorTest {
         // No index file is set, but index page is being generated. Body lists the page.html resource.
         assertTrue(exc.getResponse().getBodyAsStringDecoded().contains("page.html"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void precompressed() throws Exception {
+        ws.setPrecompressed(true);
+
+        Exchange gzip = get("/page.html", "gzip, deflate");
+        ws.handleRequest(gzip);
+        assertEquals(200, gzip.getResponse().getStatusCode());
+        assertEquals("gzip", gzip.getResponse().getHeader().getContentEncoding());
+        assertEquals("text/html", gzip.getResponse().getHeader().getContentType());
+        assertTrue(gzip.getResponse().getBodyAsStringDecoded().contains("<title>Title</title>"));
+
+        Exchange identity = get("/page.html", "br");
+        ws.handleRequest(identity);
+        assertNull(identity.getResponse().getHeader().getContentEncoding());
+        assertEquals("Accept-Encoding", identity.getResponse().getHeader().getFirstValue("Vary"));
+        assertTrue(identity.getResponse().getBodyAsStringDecoded().contains("<title>Title</title>"));
+    }
+
+    private static Exchange get(String path, String acceptEncoding) throws Exception {
+        Exchange exc = new Request.Builder().get(path).header("Accept-Encoding", acceptEncoding).buildExchange();
+        exc.setDestinations(new ArrayList<>(List.of(path)));
+        return exc;
+    }
+}
@@ -33,6 +33,7 @@ import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.net.ServerSocket;
 import java.util.List;
 
 import static com.predic8.membrane.core.http.MimeType.APPLICATION_JSON;
@@ -83,7 +84,7 @@ class ShadowingInterceptorTest {
 
         interceptorRule = new ServiceProxy(new ServiceProxyKey("localhost", "*", ".*", 2000), null, 0);
         shadowingInterceptor = new ShadowingInterceptor();
-        shadowingInterceptor.setTargets(List.of(new Target() {{
+        shadowingInterceptor.setTargets(List.of(new ShadowTarget() {{
             setHost("localhost");
             setPort(3000);
         }}));
@@ -154,4 +155,75 @@ class ShadowingInterceptorTest {
         assertEquals("https://www.predic8.com:9000/foo", exc.getDestinations().get(0));
         assertEquals(APPLICATION_JSON, exc.getRequest().getHeader().getContentType());
     }
-}
\ No newline at end of file
+
+    @Test
+    void bodyIsSharedBetweenCopies() throws Exception {
+        byte[] content = "foo".getBytes();
+        Exchange a = ShadowingInterceptor.buildExchange(content, exc, new Target("localhost", 3000), header);
+        Exchange b = ShadowingInterceptor.buildExchange(content, exc, new Target("localhost", 3001), header);
+        // getContent() always copies, so sharing shows by both copies seeing a change of the array
+        content[0] = 'g';
+        assertEquals("goo", a.getRequest().getBodyAsStringDecoded());
+        assertEquals("goo", b.getRequest().getBodyAsStringDecoded());
+        assertNotSame(a.getRequest().getHeader(), b.getRequest().getHeader());
+    }
+
+    @Test
+    void targetNotInSampleIsSkipped() {
+        ShadowingInterceptor interceptor = new ShadowingInterceptor();
+        interceptor.setTargets(List.of(new ShadowTarget() {{
+            setHost("localhost");
+            setPort(3000);
+            setPercentage(0);
+        }}));
+        interceptor.cloneRequestAndSend(new Body("foo".getBytes()), exc, header);
+        assertEquals(1, interceptor.getSkipped());
+        assertEquals(0, interceptor.getDropped());
+        assertEquals(0, interceptor.getQueueDepth());
+    }
+
+    @Test
+    void copiesAreDroppedWhenQueueIsFull() throws Exception {
+        // Accepts connections but never answers, so the only worker thread stays busy.
+        try (ServerSocket silent = new ServerSocket(0)) {
+            ShadowingInterceptor interceptor = new ShadowingInterceptor();
+            interceptor.setMaxThreads(1);
+            interceptor.setQueueSize(1);
+            interceptor.setTargets(List.of(silentTarget(silent), silentTarget(silent), silentTarget(silent)));
+            interceptor.init();
+
+            interceptor.cloneRequestAndSend(new Body("foo".getBytes()), exc, header);
+
+            assertEquals(1, interceptor.getDropped());
+            assertEquals(1, interceptor.getQueueDepth());
+            interceptor.stop();
+        }
+    }
+
+    @Test
+    void copiesAreDroppedAfterStop() throws Exception {
+        ShadowingInterceptor interceptor = new ShadowingInterceptor();
+        interceptor.setTargets(List.of(new ShadowTarget() {{
+            setHost("localhost");
+            setPort(3000);
+        }}));
+        interceptor.init();
+        interceptor.stop();
+
+        interceptor.cloneRequestAndSend(new Body("foo".getBytes()), exc, header);
+
+        assertEquals(1, interceptor.getDropped());
+    }
+
+    private static ShadowTarget silentTarget(ServerSocket socket) {
+        return new ShadowTarget() {{
+            setHost("localhost");
+            setPort(socket.getLocalPort());
+        }};
+    }
+
+    @Test
+    void invalidPercentage() {
+        assertThrows(IllegalArgumentException.class, () -> new ShadowTarget().setPercentage(101));
+    }
+}
@@ -18,8 +18,11 @@ import com.predic8.membrane.core.transport.ws.WebSocketFrame;
 import com.predic8.membrane.core.transport.ws.WebSocketFrameAssembler;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -68,4 +71,60 @@ public class WebSocketFrameTest {
         assertEquals(numberOfFrames, counter[0]);
 
     }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] maskKey = {0x12, 0x34, 0x56, 0x78};
+        for (int length : new int[]{0, 1, 7, 8, 9, 125, 126, 127, 65535, 65536, 70001}) {
+            byte[] payload = new byte[length];
+            new Random(length).nextBytes(payload);
+
+            WebSocketFrame frame = new WebSocketFrame(true, false, false, false, 2, true, maskKey, payload);
+            byte[] bytes = frame.toBytes();
+            assertArrayEquals(payload, frame.getPayload(), "payload is unchanged after writing");
+            assertEquals(naiveMaskedFrame(maskKey, payload).length, bytes.length);
+            assertArrayEquals(naiveMaskedFrame(maskKey, payload), bytes);
+
+            WebSocketFrame read = new WebSocketFrame();
+            assertEquals(bytes.length, read.tryRead(bytes, 0, bytes.length));
+            assertEquals(length, read.getPayloadLength());
+            assertArrayEquals(payload, Arrays.copyOf(read.getPayload(), length));
+
+            assertEquals(0, read.tryRead(bytes, 0, bytes.length - 1), "incomplete frame");
+        }
+    }
+
+    @Test
+    public void readAtOffset() throws Exception {
+        byte[] frame = new WebSocketFrame(true, false, false, false, 1, true, new byte[]{1, 2, 3, 4}, "Hello, World!".getBytes()).toBytes();
+        byte[] buffer = new byte[frame.length + 3];
+        System.arraycopy(frame, 0, buffer, 3, frame.length);
+
+        WebSocketFrame read = new WebSocketFrame();
+        assertEquals(frame.length, read.tryRead(buffer, 3, frame.length));
+        assertEquals("Hello, World!", new String(read.getPayload(), 0, (int) read.getPayloadLength()));
+    }
+
+    /**
+     * Builds a masked frame the straightforward way, byte by byte.
+     */
+    private static byte[] naiveMaskedFrame(byte[] maskKey, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x82);
+        if (payload.length <= 125) {
+            out.write(0x80 | payload.length);
+        } else if (payload.length < 65536) {
+            out.write(0x80 | 126);
+            out.write(payload.length >> 8);
+            out.write(payload.length);
+        } else {
+            out.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int) ((long) payload.length >> shift));
+        }
+        out.write(maskKey, 0, 4);
+        for (int i = 0; i < payload.length; i++)
+            out.write(payload[i] ^ maskKey[i % 4]);
+        return out.toByteArray();
+    }
 }
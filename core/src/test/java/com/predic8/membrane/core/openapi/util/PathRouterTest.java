@@ -0,0 +1,107 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.openapi.util;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathRouterTest {
+
+    PathRouter<String> router;
+
+    @BeforeEach
+    void setUp() {
+        router = new PathRouter<>();
+        router.add("/users/me", "me");
+        router.add("/users/{uid}", "user");
+        router.add("/users/{uid}/orders/{oid}", "order");
+        router.add("/files/{name}.{ext}", "file");
+        router.add("/", "root");
+    }
+
+    @Test
+    void literal() {
+        PathRouter.Match<String> m = router.match("/users/me");
+        assertNotNull(m);
+        assertEquals("me", m.value());
+        assertEquals("/users/me", m.uriTemplate());
+        assertTrue(m.parameters().isEmpty());
+    }
+
+    @Test
+    void parameter() {
+        PathRouter.Match<String> m = router.match("/users/7");
+        assertNotNull(m);
+        assertEquals("user", m.value());
+        assertEquals(Map.of("uid", "7"), m.parameters());
+    }
+
+    @Test
+    void severalParameters() {
+        PathRouter.Match<String> m = router.match("/users/7/orders/42/");
+        assertNotNull(m);
+        assertEquals("order", m.value());
+        assertEquals(Map.of("uid", "7", "oid", "42"), m.parameters());
+    }
+
+    @Test
+    void mixedSegment() {
+        PathRouter.Match<String> m = router.match("/files/report.pdf");
+        assertNotNull(m);
+        assertEquals("file", m.value());
+        assertEquals(Map.of("name", "report", "ext", "pdf"), m.parameters());
+    }
+
+    @Test
+    void queryStringIsIgnored() {
+        PathRouter.Match<String> m = router.match("/users/7?details=true");
+        assertNotNull(m);
+        assertEquals(Map.of("uid", "7"), m.parameters());
+    }
+
+    @Test
+    void root() {
+        PathRouter.Match<String> m = router.match("/");
+        assertNotNull(m);
+        assertEquals("root", m.value());
+    }
+
+    @Test
+    void noMatch() {
+        assertNull(router.match("/users"));
+        assertNull(router.match("/users//orders/42"));
+        assertNull(router.match("/users/7/orders"));
+        assertNull(router.match("/files/report"));
+        assertNull(router.match("/products/7"));
+    }
+
+    @Test
+    void firstAddedWins() {
+        PathRouter<String> r = new PathRouter<>();
+        r.add("/users/{uid}", "user");
+        r.add("/users/me", "me");
+        assertEquals("user", Objects.requireNonNull(r.match("/users/me")).value());
+    }
+
+    @Test
+    void literalTextIsNotARegex() {
+        PathRouter<String> r = new PathRouter<>();
+        r.add("/foo.json", "json");
+        assertNotNull(r.match("/foo.json"));
+        assertNull(r.match("/fooXjson"));
+    }
+}
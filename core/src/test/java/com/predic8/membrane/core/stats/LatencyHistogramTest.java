@@ -0,0 +1,106 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.stats;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+
+import static com.predic8.membrane.core.stats.LatencyHistogram.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void bucketsAreContiguous() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            assertEquals(i, indexOf(lowerBound(i)));
+            assertEquals(i, indexOf(upperBound(i)));
+            if (i > 0)
+                assertEquals(upperBound(i - 1) + 1, lowerBound(i));
+        }
+        assertEquals(MAX_VALUE, upperBound(BUCKET_COUNT - 1));
+    }
+
+    @Test
+    void relativeErrorIsSmall() {
+        for (long v = 1; v < MAX_VALUE; v = v * 3 / 2 + 1) {
+            int i = indexOf(v);
+            assertTrue(upperBound(i) - lowerBound(i) <= Math.max(0, v / 32), "value " + v);
+        }
+    }
+
+    @Test
+    void empty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertTrue(h.isEmpty());
+        assertEquals(0, h.getValueAtPercentile(99));
+        assertEquals(0, h.getCountAtOrBelow(1000));
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            h.record(i);
+
+        assertEquals(1000, h.getCount());
+        assertEquals(500500, h.getSum());
+        assertEquals(1000, h.getMax());
+        assertEquals(500, h.getValueAtPercentile(50), 500 / 32);
+        assertEquals(990, h.getValueAtPercentile(99), 990 / 32);
+        assertEquals(1000, h.getValueAtPercentile(99.9));
+        assertEquals(1000, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(1);
+        h.record(1);
+        h.record(2);
+
+        assertEquals(1, h.getCountAtOrBelow(0));
+        assertEquals(3, h.getCountAtOrBelow(1));
+        assertEquals(4, h.getCountAtOrBelow(2));
+        assertEquals(1, h.getValueAtPercentile(50));
+    }
+
+    @Test
+    void hugeValuesAreCapped() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(Long.MAX_VALUE / 2);
+        assertEquals(1, h.getCountAtOrBelow(MAX_VALUE));
+        assertEquals(MAX_VALUE, h.getValueAtPercentile(50));
+    }
+
+    @Test
+    void concurrentRecording() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int t = 0; t < 8; t++)
+                executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++)
+                        h.record(i % 100);
+                });
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        assertEquals(80_000, h.getCount());
+        assertEquals(80_000, h.getCountAtOrBelow(99));
+    }
+}
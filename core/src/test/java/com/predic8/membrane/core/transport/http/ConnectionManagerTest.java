@@ -0,0 +1,122 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http;
+
+import com.predic8.membrane.core.transport.http.client.ConnectionConfiguration;
+import com.predic8.membrane.core.util.TimerManager;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionManagerTest {
+
+    ServerSocket server;
+    final List<Socket> accepted = new CopyOnWriteArrayList<>();
+    TimerManager timerManager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread t = new Thread(() -> {
+            try {
+                while (true)
+                    accepted.add(server.accept());
+            } catch (IOException e) {
+                // server closed
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        timerManager = new TimerManager();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+        for (Socket s : accepted)
+            s.close();
+        timerManager.shutdown();
+    }
+
+    private ConnectionManager createManager(int maxConnections, int maxIdle, long waitTimeout) {
+        ConnectionConfiguration cc = new ConnectionConfiguration();
+        cc.setKeepAliveTimeout(30000);
+        cc.setMaxConnectionsPerHost(maxConnections);
+        cc.setMaxIdleConnectionsPerHost(maxIdle);
+        cc.setPoolWaitTimeout(waitTimeout);
+        return new ConnectionManager(cc, timerManager);
+    }
+
+    private Connection get(ConnectionManager cm) throws IOException {
+        return cm.getConnection("localhost", server.getLocalPort(), null, null, 5000);
+    }
+
+    @Test
+    void releasedConnectionIsReused() throws IOException {
+        ConnectionManager cm = createManager(-1, -1, 1000);
+        Connection c = get(cm);
+        c.release();
+        assertSame(c, get(cm));
+
+        ConnectionManager.PoolStatistics ps = cm.getPoolStatistics().get(0);
+        assertEquals(1, ps.created());
+        assertEquals(1, ps.active());
+        assertEquals(0, ps.idle());
+    }
+
+    @Test
+    void exhaustedPoolTimesOut() throws IOException {
+        ConnectionManager cm = createManager(1, -1, 100);
+        Connection c = get(cm);
+        assertThrows(ConnectionPoolExhaustedException.class, () -> get(cm));
+        assertEquals(1, cm.getPoolStatistics().get(0).waits());
+        c.close();
+        get(cm).close();
+        assertEquals(2, cm.getPoolStatistics().get(0).created());
+    }
+
+    @Test
+    void waiterGetsReleasedConnection() throws Exception {
+        ConnectionManager cm = createManager(1, -1, 5000);
+        Connection c = get(cm);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Connection> waiter = executor.submit(() -> get(cm));
+            while (cm.getPoolStatistics().get(0).waits() == 0)
+                Thread.sleep(10);
+            c.release();
+            assertSame(c, waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void connectionsBeyondMaxIdleAreClosed() throws IOException {
+        ConnectionManager cm = createManager(-1, 1, 1000);
+        Connection c1 = get(cm);
+        Connection c2 = get(cm);
+        c1.release();
+        c2.release();
+        assertFalse(c1.isClosed());
+        assertTrue(c2.isClosed());
+        assertEquals(1, cm.getPoolStatistics().get(0).idle());
+        assertEquals(1, cm.getNumberInPool());
+    }
+}
@@ -148,6 +148,19 @@ public class HttpTransportTest {
 		assertNotNull(transport.getExecutorService());
 	}
 
+	@Test
+	public final void testVirtualMode() throws Exception {
+		HttpTransport virtual = new HttpTransport();
+		virtual.setMode(HttpTransport.Mode.VIRTUAL);
+		virtual.init(router);
+		try {
+			assertEquals(HttpTransport.Mode.VIRTUAL, virtual.getMode());
+			assertEquals(42, virtual.getExecutorService().submit(() -> 42).get());
+		} finally {
+			virtual.closeAll();
+		}
+	}
+
 	@Test
 	public final void testSetGetSocketTimeout() {
 		assertEquals(30000, transport.getSocketTimeout());
@@ -0,0 +1,113 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.http2;
+
+import com.predic8.membrane.core.transport.http2.frame.Frame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.predic8.membrane.core.transport.http2.frame.Frame.TYPE_DATA;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataFrameSchedulerTest {
+
+    DataFrameScheduler scheduler;
+    PriorityTree tree;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new DataFrameScheduler();
+        tree = new PriorityTree();
+    }
+
+    @Test
+    void weightedFair() throws Exception {
+        StreamInfo heavy = stream(1, 32, null);
+        StreamInfo light = stream(3, 16, null);
+        enqueue(heavy, 6);
+        enqueue(light, 6);
+
+        List<Integer> order = drain(6);
+        assertEquals(4, order.stream().filter(id -> id == 1).count());
+        assertEquals(2, order.stream().filter(id -> id == 3).count());
+        assertEquals(12, order.size() + drain(100).size());
+    }
+
+    @Test
+    void urgency() throws Exception {
+        StreamInfo background = stream(1, 16, null);
+        StreamInfo urgent = stream(3, 16, null);
+        urgent.setUrgency(0);
+        enqueue(background, 2);
+        enqueue(urgent, 2);
+
+        assertEquals(List.of(3, 3, 1, 1), drain(100));
+    }
+
+    @Test
+    void parentFirst() throws Exception {
+        StreamInfo parent = stream(1, 16, null);
+        StreamInfo child = stream(3, 256, parent);
+        enqueue(child, 2);
+        enqueue(parent, 2);
+
+        assertEquals(List.of(1, 1, 3, 3), drain(100));
+    }
+
+    @Test
+    void idleStreamDoesNotSaveUpCredit() throws Exception {
+        StreamInfo busy = stream(1, 16, null);
+        StreamInfo idle = stream(3, 16, null);
+        enqueue(busy, 10);
+        drain(10);
+
+        enqueue(busy, 3);
+        enqueue(idle, 3);
+        assertEquals(List.of(3, 1, 3, 1, 3, 1), drain(100));
+    }
+
+    @Test
+    void parseUrgency() {
+        assertEquals(1, StreamInfo.parseUrgency("u=1, i"));
+        assertEquals(7, StreamInfo.parseUrgency("i, u=7"));
+        assertEquals(StreamInfo.DEFAULT_URGENCY, StreamInfo.parseUrgency("u=9"));
+        assertEquals(StreamInfo.DEFAULT_URGENCY, StreamInfo.parseUrgency(null));
+    }
+
+    private StreamInfo stream(int id, int weight, StreamInfo parent) throws Exception {
+        StreamInfo streamInfo = new StreamInfo(id, null, new Settings(), new Settings());
+        tree.reprioritize(streamInfo, weight, parent, false);
+        return streamInfo;
+    }
+
+    private void enqueue(StreamInfo streamInfo, int frames) throws Exception {
+        for (int i = 0; i < frames; i++) {
+            Frame frame = new Frame();
+            frame.fill(TYPE_DATA, 0, streamInfo.getStreamId(), new byte[1000], 0, 1000);
+            streamInfo.getDataFramesToBeSent().add(frame);
+            scheduler.ready(streamInfo);
+        }
+    }
+
+    private List<Integer> drain(int max) {
+        List<Integer> result = new ArrayList<>();
+        Frame frame;
+        while (result.size() < max && (frame = scheduler.next()) != null)
+            result.add(frame.getStreamId());
+        return result;
+    }
+}
@@ -134,6 +134,9 @@ public class Http2ClientServerTest {
         test200("");
 
         StreamInfo si = ((HttpServerHandler) handler).getHttp2ServerHandler().logic.streams.entrySet().stream().findFirst().get().getValue();
+        // the server may answer before its reader has processed the client's END_STREAM
+        for (int i = 0; i < 100 && si.getState() != CLOSED; i++)
+            Thread.sleep(50);
         assertEquals(CLOSED, si.getState());
     }
 
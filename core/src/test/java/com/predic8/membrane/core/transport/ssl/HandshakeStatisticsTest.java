@@ -0,0 +1,82 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.ssl;
+
+import com.predic8.membrane.core.config.security.KeyStore;
+import com.predic8.membrane.core.config.security.SSLParser;
+import com.predic8.membrane.core.config.security.TrustStore;
+import com.predic8.membrane.core.resolver.ResolverMap;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HandshakeStatisticsTest {
+
+    @Test
+    void resumption() throws Exception {
+        SSLParser serverParser = new SSLParser();
+        serverParser.setKeyStore(new KeyStore());
+        serverParser.getKeyStore().setLocation("classpath:/ssl-rsa.keystore");
+        serverParser.getKeyStore().setKeyPassword("secret");
+        serverParser.setSessionCacheSize(100);
+        serverParser.setSessionTimeout(60);
+        SSLContext server = new StaticSSLContext(serverParser, new ResolverMap(), ".");
+
+        SSLParser clientParser = new SSLParser();
+        clientParser.setTrustStore(new TrustStore());
+        clientParser.getTrustStore().setLocation("classpath:/ssl-rsa-pub.keystore");
+        clientParser.getTrustStore().setPassword("secret");
+        clientParser.setEndpointIdentificationAlgorithm("");
+        SSLContext client = new StaticSSLContext(clientParser, new ResolverMap(), ".");
+
+        try (ServerSocket ss = server.createServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        try (Socket s = server.wrapAcceptedSocket(ss.accept())) {
+                            s.getOutputStream().write(1);
+                            s.getOutputStream().flush();
+                            s.getInputStream().read();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            t.start();
+
+            for (int i = 0; i < 3; i++) {
+                // resumption is detected by comparing the session's creation time in milliseconds
+                Thread.sleep(5);
+                try (Socket s = client.createSocket("localhost", ss.getLocalPort(), 30000, null, null)) {
+                    // reading lets the client process the session ticket
+                    s.getInputStream().read();
+                    s.getOutputStream().write(1);
+                }
+            }
+            t.join();
+        }
+
+        assertEquals(1, client.getOutboundHandshakes().getFullHandshakes());
+        assertEquals(2, client.getOutboundHandshakes().getResumedHandshakes());
+        assertEquals(1, server.getInboundHandshakes().getFullHandshakes());
+        assertEquals(2, server.getInboundHandshakes().getResumedHandshakes());
+        assertEquals(2.0 / 3, server.getInboundHandshakes().getResumptionRatio(), 0.001);
+        assertEquals(2, server.getInboundHandshakes().getResumedHandshakeTime().getCount());
+    }
+}
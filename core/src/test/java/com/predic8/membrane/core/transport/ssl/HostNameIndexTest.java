@@ -0,0 +1,67 @@
+/* Copyright 2024 predic8 GmbH, www.predic8.com
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License. */
+package com.predic8.membrane.core.transport.ssl;
+
+import com.predic8.membrane.core.rules.ServiceProxyKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HostNameIndexTest {
+
+    static final List<String> PATTERNS = List.of(
+            "www.example.com example.com",
+            "api-*.example.com",
+            "*.example.com",
+            "*.sub.example.com shop.predic8.de",
+            "SHOP.example.org",
+            "*");
+
+    static final List<String> HOSTS = List.of(
+            "example.com", "WWW.Example.com", "api-1.example.com", "a.example.com", "a.b.example.com",
+            "x.sub.example.com", "shop.predic8.de", "shop.example.org", ".example.com", "other.org", "");
+
+    @Test
+    void lookup() {
+        HostNameIndex index = new HostNameIndex(PATTERNS);
+        assertEquals(0, index.lookup("Example.com"));
+        assertEquals(1, index.lookup("api-1.example.com"));
+        assertEquals(2, index.lookup("a.b.example.com"));
+        assertEquals(2, index.lookup("x.sub.example.com"));
+        assertEquals(3, index.lookup("shop.predic8.de"));
+        assertEquals(4, index.lookup("shop.example.org"));
+        assertEquals(5, index.lookup("other.org"));
+        assertEquals(-1, new HostNameIndex(List.of("*.example.com")).lookup(".example.com"));
+    }
+
+    @Test
+    void sameResultAsRegularExpressions() {
+        for (int skip = 0; skip < PATTERNS.size(); skip++) {
+            List<String> patterns = PATTERNS.subList(skip, PATTERNS.size());
+            HostNameIndex index = new HostNameIndex(patterns);
+            for (String host : HOSTS)
+                assertEquals(regexLookup(patterns, host), index.lookup(host), host + " in " + patterns);
+        }
+    }
+
+    private static int regexLookup(List<String> patterns, String host) {
+        for (int i = 0; i < patterns.size(); i++)
+            if (Pattern.compile(ServiceProxyKey.createHostPattern(patterns.get(i)), Pattern.CASE_INSENSITIVE).matcher(host).matches())
+                return i;
+        return -1;
+    }
+}